@@ -2,13 +2,60 @@ package org.hsqldb.jdbc;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
-import org.hsqldb.jdbc.pool.JDBCPooledConnection;
 
+/**
+ * Connection pool whose connections keep a cache of prepared statements between sessions.
+ *
+ * @see HSQLDBPooledConnection
+ */
 public class HSQLDBPool extends JDBCPool {
 
-	public HSQLDBPool(int poolSize) {
+	/** Number of prepared statements cached by each pooled connection. */
+	private final int maxCachedStatements;
+
+	/** Pooled connection behind each session connection currently handed out. */
+	private final Map<Connection, HSQLDBPooledConnection> pooledConnectionsBySession = Collections.synchronizedMap(new IdentityHashMap<>());
+
+	private final LongAdder statementCacheHits = new LongAdder();
+	private final LongAdder statementCacheMisses = new LongAdder();
+
+	public HSQLDBPool(int poolSize, int maxCachedStatements) {
 		super(poolSize);
+
+		this.maxCachedStatements = maxCachedStatements;
+	}
+
+	/**
+	 * Retrieves a connection, waiting for one to become available if necessary, as with {@link JDBCPool#getConnection()}.
+	 *
+	 * @return  a connection to the data source
+	 * @exception SQLException if a database access error occurs, or no connection became available in time
+	 */
+	@Override
+	public Connection getConnection() throws SQLException {
+		int retries = source.loginTimeout != 0 ? source.loginTimeout * 10 : 300;
+
+		if (closed)
+			throw new SQLException("connection pool is closed");
+
+		for (int i = 0; i < retries; i++) {
+			Connection connection = tryConnection();
+			if (connection != null)
+				return connection;
+
+			try {
+				Thread.sleep(100L);
+			} catch (InterruptedException e) {
+				// As JDBCPool, carry on waiting
+			}
+		}
+
+		throw JDBCUtil.invalidArgument();
 	}
 
 	/**
@@ -21,18 +68,19 @@ public class HSQLDBPool extends JDBCPool {
 	public Connection tryConnection() throws SQLException {
 		for (int i = 0; i < states.length(); i++) {
 			if (states.compareAndSet(i, RefState.available, RefState.allocated)) {
-				return connections[i].getConnection();
+				return this.newSession((HSQLDBPooledConnection) connections[i]);
 			}
 
 			if (states.compareAndSet(i, RefState.empty, RefState.allocated)) {
 				try {
-					JDBCPooledConnection connection = (JDBCPooledConnection) source.getPooledConnection();
+					JDBCConnection physicalConnection = (JDBCConnection) JDBCDriver.getConnection(source.url, source.connectionProps);
+					HSQLDBPooledConnection connection = new HSQLDBPooledConnection(physicalConnection, this, this.maxCachedStatements);
 
 					connection.addConnectionEventListener(this);
 					connection.addStatementEventListener(this);
 					connections[i] = connection;
 
-					return connections[i].getConnection();
+					return this.newSession(connection);
 				} catch (SQLException e) {
 					states.set(i, RefState.empty);
 				}
@@ -42,4 +90,37 @@ public class HSQLDBPool extends JDBCPool {
 		return null;
 	}
 
+	private Connection newSession(HSQLDBPooledConnection pooledConnection) throws SQLException {
+		Connection connection = pooledConnection.getConnection();
+		this.pooledConnectionsBySession.put(connection, pooledConnection);
+		return connection;
+	}
+
+	/** Returns pooled connection that handed out <tt>connection</tt>, or null if <tt>connection</tt> isn't from this pool, or has been released. */
+	public HSQLDBPooledConnection getPooledConnection(Connection connection) {
+		return this.pooledConnectionsBySession.get(connection);
+	}
+
+	/** Returns number of times a session's prepared statement was found in its pooled connection's cache. */
+	public long getStatementCacheHits() {
+		return this.statementCacheHits.sum();
+	}
+
+	/** Returns number of times a session's statement had to be prepared, as it wasn't in its pooled connection's cache. */
+	public long getStatementCacheMisses() {
+		return this.statementCacheMisses.sum();
+	}
+
+	/* package */ void onSessionReleased(Connection connection) {
+		this.pooledConnectionsBySession.remove(connection);
+	}
+
+	/* package */ void onStatementCacheHit() {
+		this.statementCacheHits.increment();
+	}
+
+	/* package */ void onStatementCacheMiss() {
+		this.statementCacheMisses.increment();
+	}
+
 }
@@ -0,0 +1,167 @@
+package org.hsqldb.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.hsqldb.jdbc.pool.JDBCPooledConnection;
+
+/**
+ * Pooled connection that keeps a cache of prepared statements for reuse by each session that borrows it.
+ * <p>
+ * Statements are prepared on the underlying, physical connection, so they outlive the per-session
+ * {@link Connection} handed out by {@link #getConnection()}. The least recently used statement
+ * is closed when the cache is full.
+ * <p>
+ * When a session is released, the superclass would reset the whole HSQLDB session, which invalidates
+ * every statement prepared on it. Instead, we roll back any uncommitted work, close result sets
+ * left open by the session's statements, and restore auto-commit and transaction isolation.
+ * Sessions are not expected to create temporary tables or change other session settings.
+ */
+public class HSQLDBPooledConnection extends JDBCPooledConnection {
+
+	private final HSQLDBPool pool;
+	private final boolean initialAutoCommit;
+	private final int initialTransactionIsolation;
+
+	/** Cached statements, least recently used first. */
+	private final Map<String, PreparedStatement> statementCache;
+	/** Statements used by current session, which need cleaning up when session is released. Each statement is only held once, however often it's used. */
+	private final Set<PreparedStatement> sessionStatements = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	public HSQLDBPooledConnection(JDBCConnection connection, HSQLDBPool pool, int maxCachedStatements) throws SQLException {
+		super(connection);
+
+		this.pool = pool;
+		this.initialAutoCommit = connection.getAutoCommit();
+		this.initialTransactionIsolation = connection.getTransactionIsolation();
+
+		this.statementCache = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (this.size() <= maxCachedStatements)
+					return false;
+
+				sessionStatements.remove(eldest.getValue());
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Returns prepared statement for <tt>sql</tt>, from cache if possible, with parameters and batch cleared.
+	 * <p>
+	 * Statement belongs to pooled connection, so caller must not close it.
+	 */
+	public synchronized PreparedStatement prepareStatement(String sql) throws SQLException {
+		PreparedStatement preparedStatement = this.statementCache.get(sql);
+
+		if (preparedStatement == null || preparedStatement.isClosed()) {
+			this.pool.onStatementCacheMiss();
+
+			preparedStatement = this.connection.prepareStatement(sql);
+			this.statementCache.put(sql, preparedStatement);
+		} else {
+			this.pool.onStatementCacheHit();
+
+			// Clean up ready for reuse
+			preparedStatement.clearBatch();
+			preparedStatement.clearParameters();
+		}
+
+		this.sessionStatements.add(preparedStatement);
+
+		return preparedStatement;
+	}
+
+	/** Returns number of cached statements. */
+	public synchronized int getCachedStatementCount() {
+		return this.statementCache.size();
+	}
+
+	/** Releases session without resetting underlying HSQLDB session, so that cached statements remain valid. */
+	@Override
+	public synchronized void reset() {
+		if (this.userConnection != null) {
+			this.pool.onSessionReleased(this.userConnection);
+
+			try {
+				this.userConnection.close();
+			} catch (SQLException e) {
+				// Already closed?
+			}
+		}
+
+		try {
+			this.connection.rollback();
+
+			for (PreparedStatement preparedStatement : this.sessionStatements) {
+				if (preparedStatement.isClosed())
+					continue;
+
+				ResultSet resultSet = preparedStatement.getResultSet();
+				if (resultSet != null)
+					resultSet.close();
+
+				preparedStatement.clearBatch();
+				preparedStatement.clearParameters();
+			}
+
+			if (this.connection.getAutoCommit() != this.initialAutoCommit)
+				this.connection.setAutoCommit(this.initialAutoCommit);
+
+			if (this.connection.getTransactionIsolation() != this.initialTransactionIsolation)
+				this.connection.setTransactionIsolation(this.initialTransactionIsolation);
+		} catch (SQLException e) {
+			// Fall back to fully resetting session
+			this.discardStatements();
+		}
+
+		this.sessionStatements.clear();
+		this.isInUse = false;
+	}
+
+	/** Discards cached statements, as connection might be unusable, then lets superclass notify pool. */
+	@Override
+	public synchronized void connectionErrorOccurred(SQLException e) {
+		if (this.userConnection != null)
+			this.pool.onSessionReleased(this.userConnection);
+
+		this.discardStatements();
+
+		super.connectionErrorOccurred(e);
+	}
+
+	/** Closes all cached statements and resets underlying HSQLDB session. */
+	private void discardStatements() {
+		for (PreparedStatement preparedStatement : this.statementCache.values())
+			closeQuietly(preparedStatement);
+
+		this.statementCache.clear();
+		this.sessionStatements.clear();
+
+		try {
+			this.connection.reset();
+		} catch (SQLException e) {
+			// Connection is probably closed
+		}
+	}
+
+	private static void closeQuietly(PreparedStatement preparedStatement) {
+		try {
+			preparedStatement.close();
+		} catch (SQLException e) {
+			// Connection is probably closed
+		}
+	}
+
+}
@@ -113,7 +113,7 @@ public class Account {
 	 * @throws DataException
 	 */
 	public byte[] getLastReference() throws DataException {
-		byte[] reference = AccountRefCache.getLastReference(this.repository, this.address);
+		byte[] reference = this.repository.getAccountRepository().getLastReference(this.address);
 		LOGGER.trace(() -> String.format("Last reference for %s is %s", this.address, reference == null ? "null" : Base58.encode(reference)));
 		return reference;
 	}
@@ -130,7 +130,7 @@ public class Account {
 
 		AccountData accountData = this.buildAccountData();
 		accountData.setReference(reference);
-		AccountRefCache.setLastReference(this.repository, accountData);
+		this.repository.getAccountRepository().setLastReference(accountData);
 	}
 
 	// Default groupID manipulations
@@ -0,0 +1,76 @@
+package org.qortal.account;
+
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+
+/**
+ * Account state caching
+ * <p>
+ * When processing a batch of transactions, e.g. during block processing or validation,
+ * each transaction needs to check, and maybe update, multiple accounts' balances, levels,
+ * flags, default group IDs and last references.
+ * <p>
+ * While an <tt>AccountStateCache</tt> is in effect for a repository session, the repository keeps
+ * that account state in memory, reading each value through once, and writing back modified values in batches.
+ * Savepoints and rollbacks behave as usual. See {@link org.qortal.repository.AccountRepository#startAccountStateCache()}.
+ * <p>
+ * When checking an account's lastReference, the value returned should be the
+ * most recent value set after processing the most recent block.
+ * Because intermediate updates during batch processing would affect future checks,
+ * fetching lastReference returns the value from before caching started,
+ * while the latest new lastReference values are only saved into the repository via {@link AccountStateCache#commit()}.
+ * <p>
+ * Getting and setting account state is done the usual way, e.g. via
+ * {@link Account#getLastReference()} and {@link Account#setLastReference(byte[])}.
+ * <p>
+ * <tt>AccountStateCache</tt> implements <tt>AutoCloseable</tt> for (typical) use in a try-with-resources block.
+ *
+ * @see Account#getLastReference()
+ * @see Account#setLastReference(byte[])
+ * @see org.qortal.block.Block#process()
+ */
+public class AccountStateCache implements AutoCloseable {
+
+	private final Repository repository;
+	private boolean isActive;
+
+	/**
+	 * Constructs a new account state cache for passed <tt>repository</tt> handle.
+	 * 
+	 * @param repository
+	 * @throws IllegalStateException if a cache already exists for <tt>repository</tt>
+	 * @throws DataException
+	 */
+	public AccountStateCache(Repository repository) throws DataException {
+		repository.getAccountRepository().startAccountStateCache();
+
+		this.repository = repository;
+		this.isActive = true;
+	}
+
+	/**
+	 * Save all cached account state, including new lastReference values, into repository.
+	 * <p>
+	 * Closes cache to prevent any future caching post-commit.
+	 * 
+	 * @throws DataException
+	 */
+	public void commit() throws DataException {
+		if (!this.isActive)
+			throw new IllegalStateException("Tried to commit non-existent account state cache");
+
+		this.isActive = false;
+		this.repository.getAccountRepository().stopAccountStateCache(true);
+	}
+
+	/** Closes cache, saving modified account state, apart from new lastReference values, into repository. */
+	@Override
+	public void close() throws DataException {
+		if (!this.isActive)
+			return;
+
+		this.isActive = false;
+		this.repository.getAccountRepository().stopAccountStateCache(false);
+	}
+
+}
@@ -33,6 +33,15 @@ public class ConnectedPeer {
 	public byte[] lastBlockSignature;
 	public Long lastBlockTimestamp;
 
+	/** Number of outbound messages waiting to be written to peer. */
+	public int sendQueueDepth;
+	/** Number of outbound bytes waiting to be written to peer. */
+	public int sendQueueBytes;
+	/** Number of droppable outbound messages discarded because peer was slow to accept data. */
+	public long droppedMessages;
+	/** Number of queued outbound messages replaced by newer messages of same type. */
+	public long supersededMessages;
+
 	protected ConnectedPeer() {
 	}
 
@@ -56,6 +65,11 @@ public class ConnectedPeer {
 			this.lastBlockSignature = peerChainTipData.getLastBlockSignature();
 			this.lastBlockTimestamp = peerChainTipData.getLastBlockTimestamp();
 		}
+
+		this.sendQueueDepth = peer.getSendQueueDepth();
+		this.sendQueueBytes = peer.getSendQueueBytes();
+		this.droppedMessages = peer.getDroppedMessageCount();
+		this.supersededMessages = peer.getSupersededMessageCount();
 	}
 
 }
@@ -128,6 +128,29 @@ public class PeersResource {
 		return Network.getInstance().getStatsSnapshot();
 	}
 
+	@GET
+	@Path("/enginestats/reactors")
+	@Operation(
+		summary = "Fetch statistics snapshots for each of networking engine's socket I/O reactors",
+		responses = {
+			@ApiResponse(
+				content = @Content(
+					mediaType = MediaType.APPLICATION_JSON,
+					array = @ArraySchema(
+						schema = @Schema(
+							implementation = ExecuteProduceConsume.StatsSnapshot.class
+						)
+					)
+				)
+			)
+		}
+	)
+	public List<ExecuteProduceConsume.StatsSnapshot> getReactorEngineStats() {
+		Security.checkApiCallAllowed(request);
+
+		return Network.getInstance().getReactorStatsSnapshots();
+	}
+
 	@POST
 	@Operation(
 		summary = "Add new peer address",
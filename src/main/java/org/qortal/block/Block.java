@@ -8,6 +8,8 @@ import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -18,7 +20,7 @@ import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.qortal.account.Account;
-import org.qortal.account.AccountRefCache;
+import org.qortal.account.AccountStateCache;
 import org.qortal.account.PrivateKeyAccount;
 import org.qortal.account.PublicKeyAccount;
 import org.qortal.asset.Asset;
@@ -53,6 +55,7 @@ import org.qortal.transform.block.BlockTransformer;
 import org.qortal.transform.transaction.TransactionTransformer;
 import org.qortal.utils.Amounts;
 import org.qortal.utils.Base58;
+import org.qortal.utils.ByteArray;
 import org.qortal.utils.NTP;
 
 import com.google.common.primitives.Bytes;
@@ -220,6 +223,9 @@ public class Block {
 	/** Opportunistic cache of this block's valid online reward-shares. Only created by call to isValid(). */
 	private List<RewardShareData> cachedOnlineRewardShares = null;
 
+	/** Whether stateless signature checks have already passed, via {@link #preValidateSignatures()}. */
+	private volatile boolean areSignaturesPreValidated = false;
+
 	// Other useful constants
 
 	private static final BigInteger MAX_DISTANCE;
@@ -723,6 +729,149 @@ public class Block {
 		calcTransactionsSignature();
 	}
 
+	/**
+	 * Adds as many of passed transactions to block as possible, skipping any that would make block invalid.
+	 * <p>
+	 * Used when constructing a new block during minting.
+	 * <p>
+	 * Each candidate is validated and test-processed on top of the transactions added before it,
+	 * under its own repository savepoint, so an invalid candidate only needs its own changes rolling back.
+	 * This avoids re-validating the whole block, via {@link #isValid()}, for each candidate.
+	 * All test-processing is rolled back before returning.
+	 * <p>
+	 * Candidates should be in {@link Transaction#getDataComparator()} order, so that test-processing order
+	 * matches final block order. Candidates that would sort before an already added transaction are skipped.
+	 * <p>
+	 * Requires block's {@code minter} being a {@code PrivateKeyAccount}, with block already having a minter signature,
+	 * so block's transactions signature can be recalculated.
+	 * 
+	 * @param transactionsData
+	 * @return number of transactions added
+	 * @throws DataException
+	 * @throws IllegalStateException
+	 *             if block's {@code minter} is not a {@code PrivateKeyAccount}.
+	 */
+	public int addValidTransactions(List<TransactionData> transactionsData) throws DataException {
+		// Can't add to transactions if we haven't loaded existing ones yet
+		if (this.transactions == null)
+			throw new IllegalStateException("Attempted to add transactions to partially loaded database Block");
+
+		if (!(this.minter instanceof PrivateKeyAccount))
+			throw new IllegalStateException("Block's minter is not PrivateKeyAccount - can't sign!");
+
+		if (this.blockData.getMinterSignature() == null)
+			throw new IllegalStateException("Cannot calculate transactions signature as block has no minter signature");
+
+		int blockLength;
+		try {
+			blockLength = BlockTransformer.getDataLength(this);
+		} catch (TransformationException e) {
+			return 0;
+		}
+
+		final int maxBlockSize = BlockChain.getInstance().getMaxBlockSize();
+		final Comparator<TransactionData> dataComparator = Transaction.getDataComparator();
+
+		Set<ByteArray> existingSignatures = new HashSet<>();
+		TransactionData lastTransactionData = null;
+		int addedCount = 0;
+
+		try (AccountStateCache accountStateCache = new AccountStateCache(this.repository)) {
+			this.repository.setSavepoint();
+
+			try {
+				// Test-process any existing transactions first, so candidates are validated on top of them
+				for (Transaction transaction : this.transactions) {
+					TransactionData transactionData = transaction.getTransactionData();
+					existingSignatures.add(new ByteArray(transactionData.getSignature()));
+
+					// AT transactions are covered by Block.areAtsValid()
+					if (transactionData.getType() == TransactionType.AT)
+						continue;
+
+					if (this.isTransactionValid(transaction) != ValidationResult.OK || this.testProcessTransaction(transaction) != ValidationResult.OK)
+						return 0;
+
+					lastTransactionData = transactionData;
+				}
+
+				for (TransactionData transactionData : transactionsData) {
+					// Already added?
+					if (!existingSignatures.add(new ByteArray(transactionData.getSignature())))
+						continue;
+
+					if (lastTransactionData != null && dataComparator.compare(lastTransactionData, transactionData) >= 0)
+						continue;
+
+					// Check there is space in block
+					int transactionLength;
+					try {
+						transactionLength = TransactionTransformer.getDataLength(transactionData);
+					} catch (TransformationException e) {
+						continue;
+					}
+
+					if (blockLength + transactionLength > maxBlockSize)
+						break;
+
+					Transaction transaction = Transaction.fromData(this.repository, transactionData);
+					if (!this.testAddTransaction(transaction)) {
+						LOGGER.debug(() -> String.format("Skipping invalid transaction %s during block minting", Base58.encode(transactionData.getSignature())));
+						continue;
+					}
+
+					this.transactions.add(transaction);
+					blockLength += transactionLength;
+					lastTransactionData = transactionData;
+					++addedCount;
+
+					// Update transaction count
+					this.blockData.setTransactionCount(this.blockData.getTransactionCount() + 1);
+
+					// Update totalFees
+					this.blockData.setTotalFees(this.blockData.getTotalFees() + transactionData.getFee());
+				}
+			} finally {
+				// Rollback repository changes made by test-processing transactions above
+				this.repository.rollbackToSavepoint();
+			}
+		}
+
+		if (addedCount > 0) {
+			// Candidates were added in order, but re-sort to be sure
+			this.transactions.sort(Transaction.getComparator());
+
+			// We've added transactions, so recalculate transactions signature
+			calcTransactionsSignature();
+		}
+
+		return addedCount;
+	}
+
+	/**
+	 * Validates and test-processes transaction on top of transactions already test-processed,
+	 * keeping changes if valid, or rolling back only this transaction's changes if not.
+	 */
+	private boolean testAddTransaction(Transaction transaction) throws DataException {
+		this.repository.setSavepoint();
+
+		boolean isValid = false;
+		try {
+			isValid = this.isTransactionValid(transaction) == ValidationResult.OK
+					&& this.testProcessTransaction(transaction) == ValidationResult.OK;
+		} catch (DataException e) {
+			// Treat as invalid, like Block.isValid() does
+			LOGGER.debug(() -> String.format("Repository issue while validating transaction %s: %s", Base58.encode(transaction.getTransactionData().getSignature()), e.getMessage()));
+		} finally {
+			if (isValid)
+				this.repository.releaseSavepoint();
+			else
+				this.repository.rollbackToSavepoint();
+		}
+
+		return isValid;
+	}
+
 	/**
 	 * Recalculate block's minter signature.
 	 * <p>
@@ -860,6 +1009,19 @@ public class Block {
 	 * @return true if both minter and transaction signatures are valid, false otherwise
 	 */
 	public boolean isSignatureValid() {
+		if (this.areSignaturesPreValidated) {
+			// Ed25519 signatures already checked, leaving only (possibly stateful) proof-of-work checks
+			try {
+				for (Transaction transaction : this.getTransactions())
+					if (!transaction.isProofOfWorkValid())
+						return false;
+			} catch (DataException e) {
+				return false;
+			}
+
+			return true;
+		}
+
 		try {
 			// Check minter's signature first
 			if (!this.minter.verify(this.blockData.getMinterSignature(), BlockTransformer.getBytesForMinterSignature(this.blockData)))
@@ -875,6 +1037,66 @@ public class Block {
 		return true;
 	}
 
+	/**
+	 * Checks block's signatures that don't depend on repository state.
+	 * <p>
+	 * This covers the minter signature, the transactions signature and each transaction's Ed25519 signature,
+	 * so it can be called on a worker thread while earlier blocks are validated/processed.
+	 * <p>
+	 * Block must have been constructed with transactions, e.g. received from the network.
+	 * If successful, later calls to {@link #isSignatureValid()} only perform remaining, stateful, checks.
+	 * 
+	 * @return true if signatures are valid, false otherwise
+	 */
+	public boolean preValidateSignatures() {
+		if (this.transactions == null)
+			return false;
+
+		try {
+			// Check minter's signature first
+			if (!this.minter.verify(this.blockData.getMinterSignature(), BlockTransformer.getBytesForMinterSignature(this.blockData)))
+				return false;
+
+			// Check transactions signature
+			byte[] transactionsSignatureBytes = BlockTransformer.getBytesForTransactionsSignature(this.blockData.getMinterSignature(), this.transactions);
+			if (!this.minter.verify(this.blockData.getTransactionsSignature(), transactionsSignatureBytes))
+				return false;
+		} catch (TransformationException e) {
+			return false;
+		}
+
+		// Check each transaction's Ed25519 signature, leaving proof-of-work checks for later
+		List<byte[]> publicKeys = new ArrayList<>();
+		List<byte[]> signatures = new ArrayList<>();
+		List<byte[]> messages = new ArrayList<>();
+
+		for (Transaction transaction : this.transactions) {
+			TransactionData transactionData = transaction.getTransactionData();
+
+			// AT-Transactions are generated locally, and are not signed
+			if (transactionData.getType() == TransactionType.AT)
+				continue;
+
+			if (transactionData.getSignature() == null)
+				return false;
+
+			try {
+				messages.add(TransactionTransformer.toBytesForSigning(transactionData));
+			} catch (TransformationException e) {
+				return false;
+			}
+
+			publicKeys.add(transactionData.getCreatorPublicKey());
+			signatures.add(transactionData.getSignature());
+		}
+
+		if (!Crypto.verifyBatch(publicKeys, signatures, messages).isEmpty())
+			return false;
+
+		this.areSignaturesPreValidated = true;
+		return true;
+	}
+
 	/**
 	 * Returns whether Block's timestamp is valid.
 	 * <p>
@@ -945,10 +1167,8 @@ public class Block {
 		byte[] onlineTimestampBytes = Longs.toByteArray(onlineTimestamp);
 
 		// If this block is much older than current online timestamp, then there's no point checking current online accounts
-		List<OnlineAccountData> currentOnlineAccounts = onlineTimestamp < NTP.getTime() - Controller.ONLINE_TIMESTAMP_MODULUS
-				? null
-				: Controller.getInstance().getOnlineAccounts();
-		List<OnlineAccountData> latestBlocksOnlineAccounts = Controller.getInstance().getLatestBlocksOnlineAccounts();
+		final boolean checkCurrentOnlineAccounts = onlineTimestamp >= NTP.getTime() - Controller.ONLINE_TIMESTAMP_MODULUS;
+		Set<OnlineAccountData> latestBlocksOnlineAccounts = Controller.getInstance().getLatestBlocksOnlineAccounts();
 
 		// Extract online accounts' timestamp signatures from block data
 		List<byte[]> onlineAccountsSignatures = BlockTransformer.decodeTimestampSignatures(this.blockData.getOnlineAccountsSignatures());
@@ -957,6 +1177,9 @@ public class Block {
 		// and this will become latestBlocksOnlineAccounts (above) to reduce CPU load when we process next block...
 		List<OnlineAccountData> ourOnlineAccounts = new ArrayList<>();
 
+		// Online accounts whose signatures still need Ed25519 verification
+		List<OnlineAccountData> onlineAccountsToVerify = new ArrayList<>();
+
 		for (int i = 0; i < onlineAccountsSignatures.size(); ++i) {
 			byte[] signature = onlineAccountsSignatures.get(i);
 			byte[] publicKey = onlineRewardShares.get(i).getRewardSharePublicKey();
@@ -965,19 +1188,24 @@ public class Block {
 			ourOnlineAccounts.add(onlineAccountData);
 
 			// If signature is still current then no need to perform Ed25519 verify
-			if (currentOnlineAccounts != null && currentOnlineAccounts.remove(onlineAccountData))
-				// remove() returned true, so online account still current
-				// and one less entry in currentOnlineAccounts to check next time
+			if (checkCurrentOnlineAccounts && Controller.getInstance().isOnlineAccountCached(onlineAccountData))
 				continue;
 
 			// If signature was okay in latest block then no need to perform Ed25519 verify
 			if (latestBlocksOnlineAccounts != null && latestBlocksOnlineAccounts.contains(onlineAccountData))
 				continue;
 
-			if (!Crypto.verify(publicKey, signature, onlineTimestampBytes))
-				return ValidationResult.ONLINE_ACCOUNT_SIGNATURE_INCORRECT;
+			onlineAccountsToVerify.add(onlineAccountData);
 		}
 
+		// All remaining online accounts signed the same timestamp
+		List<byte[]> publicKeys = onlineAccountsToVerify.stream().map(OnlineAccountData::getPublicKey).collect(Collectors.toList());
+		List<byte[]> signatures = onlineAccountsToVerify.stream().map(OnlineAccountData::getSignature).collect(Collectors.toList());
+		List<byte[]> messages = Collections.nCopies(onlineAccountsToVerify.size(), onlineTimestampBytes);
+
+		if (!Crypto.verifyBatch(publicKeys, signatures, messages).isEmpty())
+			return ValidationResult.ONLINE_ACCOUNT_SIGNATURE_INCORRECT;
+
 		// All online accounts valid, so save our list of online accounts for potential later use
 		this.cachedValidOnlineAccounts = ourOnlineAccounts;
 		this.cachedOnlineRewardShares = onlineRewardShares;
@@ -1056,65 +1284,24 @@ public class Block {
 	/** Returns whether block's transactions are valid. */
 	private ValidationResult areTransactionsValid() throws DataException {
 		// We're about to (test-)process a batch of transactions,
-		// so create an account reference cache so get/set correct last-references.
-		try (AccountRefCache accountRefCache = new AccountRefCache(repository)) {
+		// so create an account state cache so get/set correct last-references.
+		try (AccountStateCache accountStateCache = new AccountStateCache(repository)) {
 			// Create repository savepoint here so we can rollback to it after testing transactions
 			repository.setSavepoint();
 
 			for (Transaction transaction : this.getTransactions()) {
-				TransactionData transactionData = transaction.getTransactionData();
-
 				// Skip AT transactions as they are covered by prior call to Block.areAtsValid()
-				if (transactionData.getType() == TransactionType.AT)
+				if (transaction.getTransactionData().getType() == TransactionType.AT)
 					continue;
 
-				// GenesisTransactions are not allowed (GenesisBlock overrides isValid() to allow them)
-				if (transactionData.getType() == TransactionType.GENESIS || transactionData.getType() == TransactionType.ACCOUNT_FLAGS)
-					return ValidationResult.GENESIS_TRANSACTIONS_INVALID;
-
-				// Check timestamp and deadline
-				if (transactionData.getTimestamp() > this.blockData.getTimestamp()
-						|| transaction.getDeadline() <= this.blockData.getTimestamp())
-					return ValidationResult.TRANSACTION_TIMESTAMP_INVALID;
-
-				// Check transaction isn't already included in a block
-				if (this.repository.getTransactionRepository().isConfirmed(transactionData.getSignature()))
-					return ValidationResult.TRANSACTION_ALREADY_PROCESSED;
-
-				// Check transaction has correct reference, etc.
-				if (!transaction.hasValidReference()) {
-					LOGGER.debug(String.format("Error during transaction validation, tx %s: INVALID_REFERENCE", Base58.encode(transactionData.getSignature())));
-					return ValidationResult.TRANSACTION_INVALID;
-				}
-
-				// Check transaction is even valid
-				// NOTE: in Gen1 there was an extra block height passed to DeployATTransaction.isValid
-				Transaction.ValidationResult validationResult = transaction.isValid();
-				if (validationResult != Transaction.ValidationResult.OK) {
-					LOGGER.debug(String.format("Error during transaction validation, tx %s: %s", Base58.encode(transactionData.getSignature()), validationResult.name()));
-					return ValidationResult.TRANSACTION_INVALID;
-				}
-
-				// Check transaction can even be processed
-				validationResult = transaction.isProcessable();
-				if (validationResult != Transaction.ValidationResult.OK) {
-					LOGGER.debug(String.format("Error during transaction validation, tx %s: %s", Base58.encode(transactionData.getSignature()), validationResult.name()));
-					return ValidationResult.TRANSACTION_INVALID;
-				}
+				ValidationResult validationResult = this.isTransactionValid(transaction);
+				if (validationResult != ValidationResult.OK)
+					return validationResult;
 
 				// Process transaction to make sure other transactions validate properly
-				try {
-					// Only process transactions that don't require group-approval.
-					// Group-approval transactions are dealt with later.
-					if (transactionData.getApprovalStatus() == ApprovalStatus.NOT_REQUIRED)
-						transaction.process();
-
-					// Regardless of group-approval, update relevant info for creator (e.g. lastReference)
-					transaction.processReferencesAndFees();
-				} catch (Exception e) {
-					LOGGER.error(String.format("Exception during transaction validation, tx %s", Base58.encode(transactionData.getSignature())), e);
-					return ValidationResult.TRANSACTION_PROCESSING_FAILED;
-				}
+				validationResult = this.testProcessTransaction(transaction);
+				if (validationResult != ValidationResult.OK)
+					return validationResult;
 			}
 		} catch (DataException e) {
 			return ValidationResult.TRANSACTION_INVALID;
@@ -1132,6 +1319,72 @@ public class Block {
 		return ValidationResult.OK;
 	}
 
+	/**
+	 * Returns whether (non-AT) transaction is valid for this block.
+	 * <p>
+	 * Any transactions preceding this one in the block must have already been test-processed
+	 * using {@link #testProcessTransaction(Transaction)}.
+	 */
+	private ValidationResult isTransactionValid(Transaction transaction) throws DataException {
+		TransactionData transactionData = transaction.getTransactionData();
+
+		// GenesisTransactions are not allowed (GenesisBlock overrides isValid() to allow them)
+		if (transactionData.getType() == TransactionType.GENESIS || transactionData.getType() == TransactionType.ACCOUNT_FLAGS)
+			return ValidationResult.GENESIS_TRANSACTIONS_INVALID;
+
+		// Check timestamp and deadline
+		if (transactionData.getTimestamp() > this.blockData.getTimestamp()
+				|| transaction.getDeadline() <= this.blockData.getTimestamp())
+			return ValidationResult.TRANSACTION_TIMESTAMP_INVALID;
+
+		// Check transaction isn't already included in a block
+		if (this.repository.getTransactionRepository().isConfirmed(transactionData.getSignature()))
+			return ValidationResult.TRANSACTION_ALREADY_PROCESSED;
+
+		// Check transaction has correct reference, etc.
+		if (!transaction.hasValidReference()) {
+			LOGGER.debug(String.format("Error during transaction validation, tx %s: INVALID_REFERENCE", Base58.encode(transactionData.getSignature())));
+			return ValidationResult.TRANSACTION_INVALID;
+		}
+
+		// Check transaction is even valid
+		// NOTE: in Gen1 there was an extra block height passed to DeployATTransaction.isValid
+		Transaction.ValidationResult validationResult = transaction.isValid();
+		if (validationResult != Transaction.ValidationResult.OK) {
+			LOGGER.debug(String.format("Error during transaction validation, tx %s: %s", Base58.encode(transactionData.getSignature()), validationResult.name()));
+			return ValidationResult.TRANSACTION_INVALID;
+		}
+
+		// Check transaction can even be processed
+		validationResult = transaction.isProcessable();
+		if (validationResult != Transaction.ValidationResult.OK) {
+			LOGGER.debug(String.format("Error during transaction validation, tx %s: %s", Base58.encode(transactionData.getSignature()), validationResult.name()));
+			return ValidationResult.TRANSACTION_INVALID;
+		}
+
+		return ValidationResult.OK;
+	}
+
+	/** Processes (non-AT) transaction, during validation, so that following transactions validate properly. */
+	private ValidationResult testProcessTransaction(Transaction transaction) {
+		TransactionData transactionData = transaction.getTransactionData();
+
+		try {
+			// Only process transactions that don't require group-approval.
+			// Group-approval transactions are dealt with later.
+			if (transactionData.getApprovalStatus() == ApprovalStatus.NOT_REQUIRED)
+				transaction.process();
+
+			// Regardless of group-approval, update relevant info for creator (e.g. lastReference)
+			transaction.processReferencesAndFees();
+		} catch (Exception e) {
+			LOGGER.error(String.format("Exception during transaction validation, tx %s", Base58.encode(transactionData.getSignature())), e);
+			return ValidationResult.TRANSACTION_PROCESSING_FAILED;
+		}
+
+		return ValidationResult.OK;
+	}
+
 	/**
 	 * Returns whether blocks' ATs are valid.
 	 * <p>
@@ -1267,8 +1520,8 @@ public class Block {
 		}
 
 		// We're about to (test-)process a batch of transactions,
-		// so create an account reference cache so get/set correct last-references.
-		try (AccountRefCache accountRefCache = new AccountRefCache(this.repository)) {
+		// so create an account state cache so get/set correct last-references.
+		try (AccountStateCache accountStateCache = new AccountStateCache(this.repository)) {
 			// Process transactions (we'll link them to this block after saving the block itself)
 			processTransactions();
 
@@ -1279,7 +1532,7 @@ public class Block {
 			processAtFeesAndStates();
 
 			// Commit new accounts' last-reference changes
-			accountRefCache.commit();
+			accountStateCache.commit();
 		}
 
 		// Link block into blockchain by fetching signature of highest block and setting that as our reference
@@ -1448,26 +1701,34 @@ public class Block {
 	protected void linkTransactionsToBlock() throws DataException {
 		TransactionRepository transactionRepository = this.repository.getTransactionRepository();
 
+		// Each kind of change is made for all transactions in turn, so that the repository can batch them together
+
 		for (int sequence = 0; sequence < transactions.size(); ++sequence) {
-			Transaction transaction = transactions.get(sequence);
-			TransactionData transactionData = transaction.getTransactionData();
+			TransactionData transactionData = transactions.get(sequence).getTransactionData();
 
 			// Link transaction to this block
 			BlockTransactionData blockTransactionData = new BlockTransactionData(this.getSignature(), sequence,
 					transactionData.getSignature());
 			this.repository.getBlockRepository().save(blockTransactionData);
+		}
+
+		for (Transaction transaction : transactions) {
+			TransactionData transactionData = transaction.getTransactionData();
 
 			// Update transaction's height in repository
 			transactionRepository.updateBlockHeight(transactionData.getSignature(), this.blockData.getHeight());
 
 			// Update local transactionData's height too
-			transaction.getTransactionData().setBlockHeight(this.blockData.getHeight());
+			transactionData.setBlockHeight(this.blockData.getHeight());
+		}
 
+		for (Transaction transaction : transactions)
 			// No longer unconfirmed
-			transactionRepository.confirmTransaction(transactionData.getSignature());
+			transactionRepository.confirmTransaction(transaction.getTransactionData().getSignature());
 
+		for (Transaction transaction : transactions) {
 			List<String> participantAddresses = transaction.getInvolvedAddresses();
-			transactionRepository.saveParticipants(transactionData, participantAddresses);
+			transactionRepository.saveParticipants(transaction.getTransactionData(), participantAddresses);
 		}
 	}
 
@@ -564,6 +564,9 @@ public class BlockChain {
 
 					repository.saveChanges();
 
+					// Only now that orphaning is committed can cached copies of block be dropped
+					Controller.getInstance().onOrphanedBlock(orphanBlockData);
+
 					--height;
 					orphanBlockData = repository.getBlockRepository().fromHeight(height);
 
@@ -0,0 +1,232 @@
+package org.qortal.controller;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.block.Block;
+import org.qortal.data.network.PeerChainTipData;
+import org.qortal.network.Network;
+import org.qortal.network.Peer;
+import org.qortal.network.message.BlockMessage;
+import org.qortal.network.message.GetBlockMessage;
+import org.qortal.network.message.Message;
+import org.qortal.network.message.Message.MessageType;
+import org.qortal.repository.Repository;
+import org.qortal.settings.Settings;
+import org.qortal.utils.Base58;
+import org.qortal.utils.DaemonThreadFactory;
+
+/**
+ * Fetches blocks from peers during synchronization, keeping a window of GET_BLOCK requests in flight.
+ * <p>
+ * Requests are spread across the sync peer and any other handshaked peers with the same chain tip.
+ * Blocks are returned by {@link #next()} in the same order as their signatures were passed to {@link #add(byte[])}.
+ * <p>
+ * If a helper peer fails to supply a block, that block is re-requested from the sync peer.
+ * <p>
+ * Arriving blocks have their stateless signature checks performed on a ForkJoin pool,
+ * via {@link Block#preValidateSignatures()}, so the sync thread is left with only the stateful checks.
+ */
+public class BlockFetcher implements AutoCloseable {
+
+	private static final Logger LOGGER = LogManager.getLogger(BlockFetcher.class);
+
+	private static final ExecutorService fetchExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("Sync-Fetch"));
+	private static final ForkJoinPool preValidationPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+	private static class PendingBlock {
+		private final byte[] signature;
+		private Future<Block> future;
+
+		private PendingBlock(byte[] signature) {
+			this.signature = signature;
+		}
+	}
+
+	private final Repository repository;
+	private final Peer peer;
+	private final List<Peer> fetchPeers;
+	private final int fetchWindow;
+
+	/** Blocks in height order, with first <tt>inFlightCount</tt> entries already requested. */
+	private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+	private int inFlightCount = 0;
+	private int nextPeerIndex = 0;
+
+	public BlockFetcher(Repository repository, Peer peer) {
+		this.repository = repository;
+		this.peer = peer;
+		this.fetchPeers = findFetchPeers(peer);
+		this.fetchWindow = Math.max(1, Settings.getInstance().getSyncFetchWindow());
+
+		LOGGER.trace(() -> String.format("Fetching blocks from %d peer%s, up to %d in flight", this.fetchPeers.size(),
+				(this.fetchPeers.size() != 1 ? "s" : ""), this.fetchWindow));
+	}
+
+	/** Returns sync peer, followed by other peers that share sync peer's chain tip. */
+	private static List<Peer> findFetchPeers(Peer peer) {
+		List<Peer> fetchPeers = new ArrayList<>();
+		fetchPeers.add(peer);
+
+		final int maxFetchPeers = Settings.getInstance().getMaxSyncFetchPeers();
+		final PeerChainTipData peerChainTipData = peer.getChainTipData();
+		if (maxFetchPeers <= 1 || peerChainTipData == null || peerChainTipData.getLastBlockSignature() == null)
+			return fetchPeers;
+
+		for (Peer otherPeer : Network.getInstance().getHandshakedPeers()) {
+			if (fetchPeers.size() >= maxFetchPeers)
+				break;
+
+			if (otherPeer == peer || otherPeer.isStopping())
+				continue;
+
+			PeerChainTipData otherChainTipData = otherPeer.getChainTipData();
+			if (otherChainTipData != null && Arrays.equals(otherChainTipData.getLastBlockSignature(), peerChainTipData.getLastBlockSignature()))
+				fetchPeers.add(otherPeer);
+		}
+
+		return fetchPeers;
+	}
+
+	/** Queues block with given signature for fetching. */
+	public void add(byte[] signature) {
+		this.pendingBlocks.addLast(new PendingBlock(signature));
+		this.fillWindow();
+	}
+
+	/** Returns whether there are no more queued blocks. */
+	public boolean isEmpty() {
+		return this.pendingBlocks.isEmpty();
+	}
+
+	/** Returns signature of block that will be returned by next call to {@link #next()}, or null if none queued. */
+	public byte[] peekSignature() {
+		PendingBlock pendingBlock = this.pendingBlocks.peekFirst();
+		return pendingBlock == null ? null : pendingBlock.signature;
+	}
+
+	/**
+	 * Returns next block, in order, once it has arrived.
+	 *
+	 * @return block, or null if no blocks queued or sync peer failed to supply block
+	 * @throws InterruptedException
+	 */
+	public Block next() throws InterruptedException {
+		PendingBlock pendingBlock = this.pendingBlocks.pollFirst();
+		if (pendingBlock == null)
+			return null;
+
+		--this.inFlightCount;
+
+		Block block;
+		try {
+			block = pendingBlock.future.get();
+		} catch (ExecutionException e) {
+			LOGGER.debug(String.format("Unexpected exception while fetching block: %s", e.getCause().getMessage()));
+			block = null;
+		}
+
+		// If helper peer failed us, try sync peer instead.
+		// Block isn't pre-validated so caller's Block.isSignatureValid() will perform full checks.
+		if (block == null) {
+			BlockMessage blockMessage = fetchBlockMessage(this.peer, pendingBlock.signature);
+			if (blockMessage != null)
+				block = this.toBlock(blockMessage);
+		}
+
+		this.fillWindow();
+
+		return block;
+	}
+
+	private Block toBlock(BlockMessage blockMessage) {
+		return new Block(this.repository, blockMessage.getBlockData(), blockMessage.getTransactions(), blockMessage.getAtStates());
+	}
+
+	/** Returns block built from fetched message, with signatures pre-validated if possible, or null if fetch failed. */
+	private Block preValidate(BlockMessage blockMessage) {
+		if (blockMessage == null)
+			return null;
+
+		// Block doesn't touch repository during construction or pre-validation, so this is safe off the sync thread
+		Block block = this.toBlock(blockMessage);
+
+		if (!block.preValidateSignatures())
+			LOGGER.trace(() -> String.format("Block %.8s failed signature pre-validation", Base58.encode(block.getSignature())));
+
+		return block;
+	}
+
+	private void fillWindow() {
+		if (this.inFlightCount >= this.fetchWindow || this.inFlightCount >= this.pendingBlocks.size())
+			return;
+
+		// Skip blocks already in flight
+		int index = 0;
+		for (PendingBlock pendingBlock : this.pendingBlocks) {
+			if (index++ < this.inFlightCount)
+				continue;
+
+			if (this.inFlightCount >= this.fetchWindow)
+				break;
+
+			final Peer fetchPeer = this.fetchPeers.get(this.nextPeerIndex);
+			this.nextPeerIndex = (this.nextPeerIndex + 1) % this.fetchPeers.size();
+
+			final byte[] signature = pendingBlock.signature;
+			pendingBlock.future = CompletableFuture.supplyAsync(() -> fetchBlockMessageUninterruptibly(fetchPeer, signature), fetchExecutor)
+					.thenApplyAsync(this::preValidate, preValidationPool);
+			++this.inFlightCount;
+		}
+	}
+
+	private static BlockMessage fetchBlockMessageUninterruptibly(Peer peer, byte[] signature) {
+		try {
+			return fetchBlockMessage(peer, signature);
+		} catch (InterruptedException e) {
+			return null;
+		}
+	}
+
+	private static BlockMessage fetchBlockMessage(Peer peer, byte[] signature) throws InterruptedException {
+		if (peer.isStopping())
+			return null;
+
+		Message getBlockMessage = new GetBlockMessage(signature);
+
+		Message message = peer.getResponse(getBlockMessage);
+		if (message == null || message.getType() != MessageType.BLOCK)
+			return null;
+
+		BlockMessage blockMessage = (BlockMessage) message;
+
+		// Make sure peer actually sent the block we asked for
+		if (blockMessage.getBlockData() == null || !Arrays.equals(blockMessage.getBlockData().getSignature(), signature))
+			return null;
+
+		return blockMessage;
+	}
+
+	@Override
+	public void close() {
+		// Abandon any requests still in flight
+		for (PendingBlock pendingBlock : this.pendingBlocks)
+			if (pendingBlock.future != null)
+				pendingBlock.future.cancel(true);
+
+		this.pendingBlocks.clear();
+		this.inFlightCount = 0;
+	}
+
+}
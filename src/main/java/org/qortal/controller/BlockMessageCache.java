@@ -0,0 +1,82 @@
+package org.qortal.controller;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.qortal.utils.ByteArray;
+
+/**
+ * Size-bounded, least-recently-used cache of fully-framed BLOCK messages, keyed by block signature.
+ * <p>
+ * Used to serve GET_BLOCK requests for popular (typically recent) blocks without repository access.
+ * <p>
+ * A block's serialized form never changes for a given signature, so entries only need removing
+ * when a block is orphaned, so we don't keep serving blocks that are no longer in our chain.
+ * <p>
+ * Blocks are invalidated once their orphaning has been committed. A request that read a block
+ * from an older repository snapshot might still try to cache it afterwards, so callers pass the
+ * {@link #getGeneration() generation} from before they opened their repository session,
+ * and the block isn't cached if any block has been invalidated since.
+ */
+public class BlockMessageCache {
+
+	private final long maxSize;
+	private long currentSize = 0;
+	/** Incremented whenever a block is invalidated. */
+	private long generation = 0;
+
+	/** Access-ordered, so first entry is least recently used. */
+	private final Map<ByteArray, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	public BlockMessageCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/** Returns cached, framed BLOCK message bytes for block with passed signature, or null if not cached. */
+	public synchronized byte[] get(byte[] signature) {
+		return this.cache.get(new ByteArray(signature));
+	}
+
+	/** Returns current generation, to be passed to {@link #put(byte[], byte[], long)}. */
+	public synchronized long getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 * Adds framed BLOCK message bytes to cache, evicting least recently used entries if necessary.
+	 * <p>
+	 * Does nothing if any block has been invalidated since <tt>generation</tt>,
+	 * as block might have been read from repository before it was orphaned.
+	 */
+	public synchronized void put(byte[] signature, byte[] cachedBytes, long generation) {
+		if (generation != this.generation)
+			return;
+
+		// Don't bother caching something that would evict everything else
+		if (cachedBytes.length > this.maxSize / 2)
+			return;
+
+		byte[] previousBytes = this.cache.put(new ByteArray(signature), cachedBytes);
+		if (previousBytes != null)
+			this.currentSize -= previousBytes.length;
+
+		this.currentSize += cachedBytes.length;
+
+		Iterator<byte[]> iterator = this.cache.values().iterator();
+		while (this.currentSize > this.maxSize && iterator.hasNext()) {
+			this.currentSize -= iterator.next().length;
+			iterator.remove();
+		}
+	}
+
+	/** Removes block with passed signature from cache, e.g. because block's orphaning has been committed. */
+	public synchronized void invalidate(byte[] signature) {
+		++this.generation;
+
+		byte[] previousBytes = this.cache.remove(new ByteArray(signature));
+		if (previousBytes != null)
+			this.currentSize -= previousBytes.length;
+	}
+
+}
@@ -23,6 +23,7 @@ import org.qortal.data.block.BlockSummaryData;
 import org.qortal.data.transaction.TransactionData;
 import org.qortal.network.Network;
 import org.qortal.network.Peer;
+import org.qortal.network.message.Message;
 import org.qortal.repository.BlockRepository;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
@@ -313,7 +314,8 @@ public class BlockMinter extends Thread {
 					Controller.getInstance().onNewBlock(newBlockData);
 
 					Network network = Network.getInstance();
-					network.broadcast(broadcastPeer -> network.buildHeightMessage(broadcastPeer, newBlockData));
+					Message heightMessage = network.buildHeightMessage(newBlockData);
+					network.broadcast(broadcastPeer -> heightMessage);
 				}
 			}
 		} catch (DataException e) {
@@ -349,22 +351,13 @@ public class BlockMinter extends Thread {
 				unconfirmedTransactionsIterator.remove();
 		}
 
-		// Sign to create block's signature, needed by Block.isValid()
+		// Sign to create block's signature, needed to recalculate transactions signature
 		newBlock.sign();
 
 		// Attempt to add transactions until block is full, or we run out
 		// If a transaction makes the block invalid then skip it and it'll either expire or be in next block.
-		for (TransactionData transactionData : unconfirmedTransactions) {
-			if (!newBlock.addTransaction(transactionData))
-				break;
-
-			// If newBlock is no longer valid then we can't use transaction
-			ValidationResult validationResult = newBlock.isValid();
-			if (validationResult != ValidationResult.OK) {
-				LOGGER.debug(() -> String.format("Skipping invalid transaction %s during block minting", Base58.encode(transactionData.getSignature())));
-				newBlock.deleteTransaction(transactionData);
-			}
-		}
+		int addedCount = newBlock.addValidTransactions(unconfirmedTransactions);
+		LOGGER.trace(() -> String.format("Added %d of %d unconfirmed transactions to new block", addedCount, unconfirmedTransactions.size()));
 	}
 
 	public void shutdown() {
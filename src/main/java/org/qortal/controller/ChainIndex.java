@@ -0,0 +1,365 @@
+package org.qortal.controller;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.data.block.BlockData;
+import org.qortal.data.block.BlockSummaryData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.transform.block.BlockTransformer;
+import org.qortal.utils.ByteArray;
+
+/**
+ * In-memory index of our whole chain, mapping height to block signature, reference, minter and online accounts count.
+ * <p>
+ * Used to answer peers' GET_BLOCK_SUMMARIES and GET_SIGNATURES_V2 requests without walking the repository
+ * one block at a time.
+ * <p>
+ * Data is held in flat, primitive arrays indexed by <tt>height - 1</tt>:
+ * <ul>
+ * <li>signatures are packed end-to-end into one byte array</li>
+ * <li>a block's reference is the previous block's signature, so only the genesis block's reference is stored</li>
+ * <li>minters are few compared to blocks, so each block stores an index into a table of minter public keys</li>
+ * </ul>
+ * Signature-to-height lookups use an open-addressing hash table of heights, probed linearly.
+ * <p>
+ * Kept in step with our chain by {@link #onNewBlock(BlockData)}, which is passed our new chain tip
+ * whenever a block is added or orphaned. Anything unexpected causes a resync from the repository.
+ */
+public class ChainIndex {
+
+	private static final Logger LOGGER = LogManager.getLogger(ChainIndex.class);
+
+	private static final int SIGNATURE_LENGTH = BlockTransformer.BLOCK_SIGNATURE_LENGTH;
+	private static final int INITIAL_CAPACITY = 1024;
+	/** Number of blocks to fetch from repository at a time when syncing. */
+	private static final int SYNC_BATCH_SIZE = 1000;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** Number of blocks in index, i.e. height of our chain tip according to index. */
+	private int height = 0;
+	/** Whether index is known to match repository. False until first sync, or after a failed sync. */
+	private boolean isSynced = false;
+
+	private byte[] genesisReference;
+	private byte[] signatures = new byte[INITIAL_CAPACITY * SIGNATURE_LENGTH];
+	private int[] minterIndexes = new int[INITIAL_CAPACITY];
+	private int[] onlineAccountsCounts = new int[INITIAL_CAPACITY];
+
+	private final List<byte[]> minters = new ArrayList<>();
+	private final Map<ByteArray, Integer> minterIndexesByPublicKey = new HashMap<>();
+
+	/** Open-addressing hash table of block heights, keyed by block signature. Zero means empty slot. */
+	private int[] heightsBySignature = new int[INITIAL_CAPACITY * 2];
+
+	// Queries
+
+	/** Returns height of our chain tip, according to index. */
+	public int getHeight() {
+		this.lock.readLock().lock();
+		try {
+			return this.height;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns summaries of up to <tt>count</tt> blocks following block with <tt>parentSignature</tt>.
+	 *
+	 * @return block summaries, possibly empty if parent isn't in our chain, or null if index isn't usable
+	 */
+	public List<BlockSummaryData> getBlockSummariesAfter(byte[] parentSignature, int count) {
+		this.lock.readLock().lock();
+		try {
+			if (!this.isSynced)
+				return null;
+
+			int parentHeight = this.getParentHeight(parentSignature);
+			if (parentHeight < 0)
+				return new ArrayList<>();
+
+			int toHeight = Math.min(this.height, parentHeight + count);
+
+			List<BlockSummaryData> blockSummaries = new ArrayList<>(Math.max(0, toHeight - parentHeight));
+			for (int height = parentHeight + 1; height <= toHeight; ++height)
+				blockSummaries.add(new BlockSummaryData(height, this.getSignature(height),
+						this.minters.get(this.minterIndexes[height - 1]), this.onlineAccountsCounts[height - 1]));
+
+			return blockSummaries;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns signatures of up to <tt>count</tt> blocks following block with <tt>parentSignature</tt>.
+	 *
+	 * @return block signatures, possibly empty if parent isn't in our chain, or null if index isn't usable
+	 */
+	public List<byte[]> getSignaturesAfter(byte[] parentSignature, int count) {
+		this.lock.readLock().lock();
+		try {
+			if (!this.isSynced)
+				return null;
+
+			int parentHeight = this.getParentHeight(parentSignature);
+			if (parentHeight < 0)
+				return new ArrayList<>();
+
+			int toHeight = Math.min(this.height, parentHeight + count);
+
+			List<byte[]> signatures = new ArrayList<>(Math.max(0, toHeight - parentHeight));
+			for (int height = parentHeight + 1; height <= toHeight; ++height)
+				signatures.add(this.getSignature(height));
+
+			return signatures;
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns reference of block at <tt>height</tt>.
+	 *
+	 * @return reference, or null if height not in index
+	 */
+	public byte[] getReference(int height) {
+		this.lock.readLock().lock();
+		try {
+			if (height < 1 || height > this.height)
+				return null;
+
+			if (height == 1)
+				return this.genesisReference;
+
+			return this.getSignature(height - 1);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	// Updates
+
+	/**
+	 * Updates index given our new chain tip, after a block has been added or orphaned.
+	 * <p>
+	 * Usually a simple append or truncation, but resyncs from repository if new tip doesn't follow on from index.
+	 */
+	public void onNewBlock(BlockData latestBlockData) {
+		final int newHeight = latestBlockData.getHeight();
+
+		this.lock.writeLock().lock();
+		try {
+			if (this.isSynced) {
+				// Orphaning back to a block we already have?
+				if (newHeight <= this.height && Arrays.equals(this.getSignature(newHeight), latestBlockData.getSignature())) {
+					this.truncate(newHeight);
+					return;
+				}
+
+				// New block building on our tip?
+				if (newHeight == this.height + 1 && Arrays.equals(this.getTipSignature(), latestBlockData.getReference())) {
+					this.append(latestBlockData.getSignature(), latestBlockData.getMinterPublicKey(), latestBlockData.getOnlineAccountsCount());
+					return;
+				}
+			}
+
+			LOGGER.debug(() -> String.format("Chain index out of step at height %d, resyncing", newHeight));
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			this.sync(repository);
+		} catch (DataException e) {
+			LOGGER.warn(String.format("Repository issue while resyncing chain index: %s", e.getMessage()));
+		}
+	}
+
+	/**
+	 * Brings index into line with repository, orphaning any blocks no longer in our chain
+	 * and then loading any missing blocks.
+	 * <p>
+	 * Called at start-up to build index, and whenever index is found to be out of step.
+	 */
+	public void sync(Repository repository) throws DataException {
+		this.lock.writeLock().lock();
+		try {
+			this.isSynced = false;
+
+			int repositoryHeight = repository.getBlockRepository().getBlockchainHeight();
+			this.truncate(Math.min(this.height, repositoryHeight));
+
+			// Drop any blocks that have been replaced in repository
+			while (this.height > 0 && repository.getBlockRepository().getHeightFromSignature(this.getTipSignature()) != this.height)
+				this.truncate(this.height - 1);
+
+			if (this.height == 0 && repositoryHeight > 0)
+				this.genesisReference = repository.getBlockRepository().fromHeight(1).getReference();
+
+			while (this.height < repositoryHeight) {
+				int fromHeight = this.height + 1;
+				int toHeight = Math.min(repositoryHeight, this.height + SYNC_BATCH_SIZE);
+
+				List<BlockSummaryData> blockSummaries = repository.getBlockRepository().getBlockSummaries(fromHeight, toHeight);
+				if (blockSummaries.size() != toHeight - fromHeight + 1)
+					throw new DataException(String.format("Missing blocks while loading chain index from height %d to %d", fromHeight, toHeight));
+
+				// Repository doesn't guarantee ordering
+				blockSummaries.sort((a, b) -> Integer.compare(a.getHeight(), b.getHeight()));
+
+				for (BlockSummaryData blockSummary : blockSummaries)
+					this.append(blockSummary.getSignature(), blockSummary.getMinterPublicKey(), blockSummary.getOnlineAccountsCount());
+			}
+
+			this.isSynced = true;
+			LOGGER.debug(() -> String.format("Chain index synced to height %d", this.height));
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	// Internals - callers must hold lock
+
+	private byte[] getSignature(int height) {
+		int offset = (height - 1) * SIGNATURE_LENGTH;
+		return Arrays.copyOfRange(this.signatures, offset, offset + SIGNATURE_LENGTH);
+	}
+
+	private byte[] getTipSignature() {
+		return this.height == 0 ? null : this.getSignature(this.height);
+	}
+
+	/** Returns height of block with <tt>parentSignature</tt>, 0 if it is genesis block's reference, or -1 if not found. */
+	private int getParentHeight(byte[] parentSignature) {
+		if (this.height > 0 && Arrays.equals(parentSignature, this.genesisReference))
+			return 0;
+
+		if (parentSignature == null || parentSignature.length != SIGNATURE_LENGTH)
+			return -1;
+
+		int slot = this.findSlot(parentSignature);
+		int height = this.heightsBySignature[slot];
+		return height == 0 ? -1 : height;
+	}
+
+	private boolean signatureEquals(int height, byte[] signature) {
+		if (signature == null || signature.length != SIGNATURE_LENGTH)
+			return false;
+
+		int offset = (height - 1) * SIGNATURE_LENGTH;
+		return Arrays.equals(this.signatures, offset, offset + SIGNATURE_LENGTH, signature, 0, SIGNATURE_LENGTH);
+	}
+
+	private void append(byte[] signature, byte[] minterPublicKey, int onlineAccountsCount) {
+		final int newHeight = this.height + 1;
+
+		if (newHeight > this.minterIndexes.length) {
+			int newCapacity = this.minterIndexes.length * 2;
+			this.signatures = Arrays.copyOf(this.signatures, newCapacity * SIGNATURE_LENGTH);
+			this.minterIndexes = Arrays.copyOf(this.minterIndexes, newCapacity);
+			this.onlineAccountsCounts = Arrays.copyOf(this.onlineAccountsCounts, newCapacity);
+		}
+
+		// Keep hash table at most half full
+		if (newHeight * 2 > this.heightsBySignature.length)
+			this.rehash(this.heightsBySignature.length * 2);
+
+		System.arraycopy(signature, 0, this.signatures, (newHeight - 1) * SIGNATURE_LENGTH, SIGNATURE_LENGTH);
+		this.minterIndexes[newHeight - 1] = this.minterIndexesByPublicKey.computeIfAbsent(new ByteArray(minterPublicKey), key -> {
+			this.minters.add(key.value);
+			return this.minters.size() - 1;
+		});
+		this.onlineAccountsCounts[newHeight - 1] = onlineAccountsCount;
+
+		this.height = newHeight;
+		this.heightsBySignature[this.findSlot(signature)] = newHeight;
+	}
+
+	/** Removes blocks above <tt>newHeight</tt> from index. */
+	private void truncate(int newHeight) {
+		while (this.height > newHeight) {
+			this.removeFromHashTable(this.findSlot(this.getSignature(this.height)));
+			--this.height;
+		}
+
+		if (this.height == 0)
+			this.genesisReference = null;
+	}
+
+	private static int homeSlot(byte[] bytes, int offset, int tableLength) {
+		// Signatures are effectively random, so leading bytes make a good hash
+		int hash = ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16) | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+		return hash & (tableLength - 1);
+	}
+
+	private int homeSlotOfHeight(int height, int tableLength) {
+		return homeSlot(this.signatures, (height - 1) * SIGNATURE_LENGTH, tableLength);
+	}
+
+	/** Returns slot containing height of block with <tt>signature</tt>, or empty slot where it would go. */
+	private int findSlot(byte[] signature) {
+		final int mask = this.heightsBySignature.length - 1;
+
+		int slot = homeSlot(signature, 0, this.heightsBySignature.length);
+		while (this.heightsBySignature[slot] != 0 && !this.signatureEquals(this.heightsBySignature[slot], signature))
+			slot = (slot + 1) & mask;
+
+		return slot;
+	}
+
+	/** Empties slot, shifting back any later entries in same probe sequence so lookups still find them. */
+	private void removeFromHashTable(int slot) {
+		final int mask = this.heightsBySignature.length - 1;
+
+		int emptySlot = slot;
+		int nextSlot = slot;
+		while (true) {
+			nextSlot = (nextSlot + 1) & mask;
+
+			int height = this.heightsBySignature[nextSlot];
+			if (height == 0)
+				break;
+
+			int homeSlot = this.homeSlotOfHeight(height, this.heightsBySignature.length);
+
+			// Can entry at nextSlot move back to emptySlot? Only if its home slot isn't cyclically within (emptySlot, nextSlot]
+			boolean isHomeBetween = emptySlot <= nextSlot
+					? emptySlot < homeSlot && homeSlot <= nextSlot
+					: emptySlot < homeSlot || homeSlot <= nextSlot;
+
+			if (!isHomeBetween) {
+				this.heightsBySignature[emptySlot] = height;
+				emptySlot = nextSlot;
+			}
+		}
+
+		this.heightsBySignature[emptySlot] = 0;
+	}
+
+	private void rehash(int newLength) {
+		final int mask = newLength - 1;
+		this.heightsBySignature = new int[newLength];
+
+		// All signatures are distinct, so just find first empty slot for each
+		for (int height = 1; height <= this.height; ++height) {
+			int slot = this.homeSlotOfHeight(height, newLength);
+			while (this.heightsBySignature[slot] != 0)
+				slot = (slot + 1) & mask;
+
+			this.heightsBySignature[slot] = height;
+		}
+	}
+
+}
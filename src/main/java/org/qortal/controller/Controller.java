@@ -12,14 +12,17 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -59,8 +62,8 @@ import org.qortal.gui.SysTray;
 import org.qortal.network.Network;
 import org.qortal.network.Peer;
 import org.qortal.network.message.ArbitraryDataMessage;
-import org.qortal.network.message.BlockMessage;
 import org.qortal.network.message.BlockSummariesMessage;
+import org.qortal.network.message.CachedBlockMessage;
 import org.qortal.network.message.GetArbitraryDataMessage;
 import org.qortal.network.message.GetBlockMessage;
 import org.qortal.network.message.GetBlockSummariesMessage;
@@ -68,9 +71,11 @@ import org.qortal.network.message.GetOnlineAccountsMessage;
 import org.qortal.network.message.GetPeersMessage;
 import org.qortal.network.message.GetSignaturesV2Message;
 import org.qortal.network.message.GetTransactionMessage;
+import org.qortal.network.message.GetTransactionsMessage;
 import org.qortal.network.message.GetUnconfirmedTransactionsMessage;
 import org.qortal.network.message.HeightV2Message;
 import org.qortal.network.message.Message;
+import org.qortal.network.message.Message.MessageException;
 import org.qortal.network.message.OnlineAccountsMessage;
 import org.qortal.network.message.SignaturesMessage;
 import org.qortal.network.message.TransactionMessage;
@@ -175,13 +180,22 @@ public class Controller extends Thread {
 	 */
 	private Map<Integer, Triple<String, Peer, Long>> arbitraryDataRequests = Collections.synchronizedMap(new HashMap<>());
 
+	/** In-memory index of our chain, for serving GET_BLOCK_SUMMARIES and GET_SIGNATURES_V2 requests. */
+	private final ChainIndex chainIndex = new ChainIndex();
+
+	/** Cache of serialized BLOCK messages, for serving GET_BLOCK requests. */
+	private final BlockMessageCache blockMessageCache = new BlockMessageCache(Settings.getInstance().getBlockMessageCacheSize());
+
+	/** Batched announcing, and requesting, of unconfirmed transactions. */
+	private final TransactionRelay transactionRelay = new TransactionRelay();
+
 	/** Lock for only allowing one blockchain-modifying codepath at a time. e.g. synchronization or newly minted block. */
 	private final ReentrantLock blockchainLock = new ReentrantLock();
 
 	/** Cache of current 'online accounts' */
-	List<OnlineAccountData> onlineAccounts = new ArrayList<>();
+	private final OnlineAccountsStore onlineAccounts = new OnlineAccountsStore();
 	/** Cache of latest blocks' online accounts */
-	Deque<List<OnlineAccountData>> latestBlocksOnlineAccounts = new ArrayDeque<>(MAX_BLOCKS_CACHED_ONLINE_ACCOUNTS);
+	Deque<Set<OnlineAccountData>> latestBlocksOnlineAccounts = new ArrayDeque<>(MAX_BLOCKS_CACHED_ONLINE_ACCOUNTS);
 
 	// Constructors
 
@@ -340,6 +354,9 @@ public class Controller extends Thread {
 
 				Controller.getInstance().setChainTip(blockData);
 				LOGGER.info(String.format("Our chain height at start-up: %d", blockData.getHeight()));
+
+				LOGGER.info("Building chain index");
+				Controller.getInstance().chainIndex.sync(repository);
 			}
 		} catch (DataException e) {
 			LOGGER.error("Couldn't validate blockchain", e);
@@ -361,6 +378,9 @@ public class Controller extends Thread {
 			return; // Not System.exit() so that GUI can display error
 		}
 
+		LOGGER.info("Starting transaction relay");
+		Controller.getInstance().transactionRelay.start();
+
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			@Override
 			public void run() {
@@ -660,7 +680,8 @@ public class Controller extends Thread {
 				this.onNewBlock(newChainTip);
 
 				Network network = Network.getInstance();
-				network.broadcast(broadcastPeer -> network.buildHeightMessage(broadcastPeer, newChainTip));
+				Message heightMessage = network.buildHeightMessage(newChainTip);
+				network.broadcast(broadcastPeer -> heightMessage);
 			}
 
 			return syncResult;
@@ -718,13 +739,12 @@ public class Controller extends Thread {
 			if (repository == null)
 				return;
 
-			List<TransactionData> transactions = repository.getTransactionRepository().getUnconfirmedTransactions();
+			List<TransactionData> transactions = repository.getTransactionRepository().getExpiredUnconfirmedTransactions(now);
 
-			for (TransactionData transactionData : transactions)
-				if (now >= Transaction.getDeadline(transactionData)) {
-					LOGGER.info(String.format("Deleting expired, unconfirmed transaction %s", Base58.encode(transactionData.getSignature())));
-					repository.getTransactionRepository().delete(transactionData);
-				}
+			for (TransactionData transactionData : transactions) {
+				LOGGER.info(String.format("Deleting expired, unconfirmed transaction %s", Base58.encode(transactionData.getSignature())));
+				repository.getTransactionRepository().delete(transactionData);
+			}
 
 			repository.saveChanges();
 		} catch (DataException e) {
@@ -761,6 +781,9 @@ public class Controller extends Thread {
 					}
 				}
 
+				LOGGER.info("Shutting down transaction relay");
+				this.transactionRelay.shutdown();
+
 				LOGGER.info("Shutting down networking");
 				Network.getInstance().shutdown();
 
@@ -814,11 +837,12 @@ public class Controller extends Thread {
 		Network network = Network.getInstance();
 
 		// Send (if outbound) / Request peer lists
-		network.broadcast(peer -> peer.isOutbound() ? network.buildPeersMessage(peer) : new GetPeersMessage());
+		Message getPeersMessage = new GetPeersMessage();
+		network.broadcast(peer -> peer.isOutbound() ? network.buildPeersMessage(peer) : getPeersMessage);
 
 		// Send our current height
-		BlockData latestBlockData = getChainTip();
-		network.broadcast(peer -> network.buildHeightMessage(peer, latestBlockData));
+		Message heightMessage = network.buildHeightMessage(getChainTip());
+		network.broadcast(peer -> heightMessage);
 
 		// Request unconfirmed transaction signatures, but only if we're up-to-date.
 		// If we're NOT up-to-date then priority is synchronizing first
@@ -854,6 +878,7 @@ public class Controller extends Thread {
 		BlockData blockDataCopy = new BlockData(latestBlockData);
 
 		this.setChainTip(blockDataCopy);
+		this.chainIndex.onNewBlock(blockDataCopy);
 		requestSysTrayUpdate = true;
 
 		// Notify listeners, trade-bot, etc.
@@ -867,10 +892,10 @@ public class Controller extends Thread {
 
 	/** Callback for when we've received a new transaction via API or peer. */
 	public void onNewTransaction(TransactionData transactionData, Peer peer) {
-		this.callbackExecutor.execute(() -> {
-			// Notify all peers (except maybe peer that sent it to us if applicable)
-			Network.getInstance().broadcast(broadcastPeer -> broadcastPeer == peer ? null : new TransactionSignaturesMessage(Arrays.asList(transactionData.getSignature())));
+		// Notify all peers (except maybe peer that sent it to us if applicable) in next batch of announcements
+		this.transactionRelay.announce(transactionData.getSignature(), peer);
 
+		this.callbackExecutor.execute(() -> {
 			// If this is a CHAT transaction, there may be extra listeners to notify
 			if (transactionData.getType() == TransactionType.CHAT)
 				ChatNotifier.getInstance().onNewChatTransaction((ChatTransactionData) transactionData);
@@ -924,6 +949,10 @@ public class Controller extends Thread {
 				onNetworkGetTransactionMessage(peer, message);
 				break;
 
+			case GET_TRANSACTIONS:
+				onNetworkGetTransactionsMessage(peer, message);
+				break;
+
 			case GET_UNCONFIRMED_TRANSACTIONS:
 				onNetworkGetUnconfirmedTransactionsMessage(peer, message);
 				break;
@@ -958,6 +987,20 @@ public class Controller extends Thread {
 		GetBlockMessage getBlockMessage = (GetBlockMessage) message;
 		byte[] signature = getBlockMessage.getSignature();
 
+		// Serve from cache if possible, avoiding repository access and re-serialization
+		byte[] cachedBytes = this.blockMessageCache.get(signature);
+		if (cachedBytes != null) {
+			Message cachedBlockMessage = new CachedBlockMessage(cachedBytes);
+			cachedBlockMessage.setId(message.getId());
+			if (!peer.sendMessage(cachedBlockMessage))
+				peer.disconnect("failed to send block");
+
+			return;
+		}
+
+		// Must be taken before repository snapshot, in case block is orphaned in the meantime
+		final long cacheGeneration = this.blockMessageCache.getGeneration();
+
 		try (final Repository repository = RepositoryManager.getRepository()) {
 			BlockData blockData = repository.getBlockRepository().fromSignature(signature);
 			if (blockData == null) {
@@ -976,12 +1019,17 @@ public class Controller extends Thread {
 
 			Block block = new Block(repository, blockData);
 
-			Message blockMessage = new BlockMessage(block);
+			cachedBytes = CachedBlockMessage.toCacheableBytes(block);
+			this.blockMessageCache.put(signature, cachedBytes, cacheGeneration);
+
+			Message blockMessage = new CachedBlockMessage(cachedBytes);
 			blockMessage.setId(message.getId());
 			if (!peer.sendMessage(blockMessage))
 				peer.disconnect("failed to send block");
 		} catch (DataException e) {
 			LOGGER.error(String.format("Repository issue while send block %s to peer %s", Base58.encode(signature), peer), e);
+		} catch (MessageException e) {
+			LOGGER.error(String.format("Failed to serialize block %s for peer %s", Base58.encode(signature), peer), e);
 		}
 	}
 
@@ -989,6 +1037,8 @@ public class Controller extends Thread {
 		TransactionMessage transactionMessage = (TransactionMessage) message;
 		TransactionData transactionData = transactionMessage.getTransactionData();
 
+		this.transactionRelay.onTransactionReceived(peer, transactionData.getSignature());
+
 		try (final Repository repository = RepositoryManager.getRepository()) {
 			Transaction transaction = Transaction.fromData(repository, transactionData);
 
@@ -1028,11 +1078,22 @@ public class Controller extends Thread {
 		GetBlockSummariesMessage getBlockSummariesMessage = (GetBlockSummariesMessage) message;
 		byte[] parentSignature = getBlockSummariesMessage.getParentSignature();
 
+		int numberRequested = Math.min(Network.MAX_BLOCK_SUMMARIES_PER_REPLY, getBlockSummariesMessage.getNumberRequested());
+
+		// Answer from chain index if possible
+		List<BlockSummaryData> indexedBlockSummaries = this.chainIndex.getBlockSummariesAfter(parentSignature, numberRequested);
+		if (indexedBlockSummaries != null) {
+			Message blockSummariesMessage = new BlockSummariesMessage(indexedBlockSummaries);
+			blockSummariesMessage.setId(message.getId());
+			if (!peer.sendMessage(blockSummariesMessage))
+				peer.disconnect("failed to send block summaries");
+
+			return;
+		}
+
 		try (final Repository repository = RepositoryManager.getRepository()) {
 			List<BlockSummaryData> blockSummaries = new ArrayList<>();
 
-			int numberRequested = Math.min(Network.MAX_BLOCK_SUMMARIES_PER_REPLY, getBlockSummariesMessage.getNumberRequested());
-
 			do {
 				BlockData blockData = repository.getBlockRepository().fromReference(parentSignature);
 
@@ -1058,6 +1119,19 @@ public class Controller extends Thread {
 		GetSignaturesV2Message getSignaturesMessage = (GetSignaturesV2Message) message;
 		byte[] parentSignature = getSignaturesMessage.getParentSignature();
 
+		int numberRequested = Math.min(Network.MAX_SIGNATURES_PER_REPLY, getSignaturesMessage.getNumberRequested());
+
+		// Answer from chain index if possible
+		List<byte[]> indexedSignatures = this.chainIndex.getSignaturesAfter(parentSignature, numberRequested);
+		if (indexedSignatures != null) {
+			Message signaturesMessage = new SignaturesMessage(indexedSignatures);
+			signaturesMessage.setId(message.getId());
+			if (!peer.sendMessage(signaturesMessage))
+				peer.disconnect("failed to send signatures (v2)");
+
+			return;
+		}
+
 		try (final Repository repository = RepositoryManager.getRepository()) {
 			List<byte[]> signatures = new ArrayList<>();
 
@@ -1070,7 +1144,7 @@ public class Controller extends Thread {
 
 				parentSignature = blockData.getSignature();
 				signatures.add(parentSignature);
-			} while (signatures.size() < getSignaturesMessage.getNumberRequested());
+			} while (signatures.size() < numberRequested);
 
 			Message signaturesMessage = new SignaturesMessage(signatures);
 			signaturesMessage.setId(message.getId());
@@ -1119,6 +1193,29 @@ public class Controller extends Thread {
 		}
 	}
 
+	private void onNetworkGetTransactionsMessage(Peer peer, Message message) {
+		GetTransactionsMessage getTransactionsMessage = (GetTransactionsMessage) message;
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			for (byte[] signature : getTransactionsMessage.getSignatures()) {
+				TransactionData transactionData = repository.getTransactionRepository().fromSignature(signature);
+				if (transactionData == null) {
+					LOGGER.debug(() -> String.format("Ignoring GET_TRANSACTIONS request from peer %s for unknown transaction %s", peer, Base58.encode(signature)));
+					continue;
+				}
+
+				peer.addKnownTransactionSignature(signature);
+
+				if (!peer.sendMessage(new TransactionMessage(transactionData))) {
+					peer.disconnect("failed to send transaction");
+					return;
+				}
+			}
+		} catch (DataException e) {
+			LOGGER.error(String.format("Repository issue while sending transactions to peer %s", peer), e);
+		}
+	}
+
 	private void onNetworkGetUnconfirmedTransactionsMessage(Peer peer, Message message) {
 		try (final Repository repository = RepositoryManager.getRepository()) {
 			List<byte[]> signatures = Collections.emptyList();
@@ -1128,6 +1225,9 @@ public class Controller extends Thread {
 			if (isUpToDate())
 				signatures = repository.getTransactionRepository().getUnconfirmedTransactionSignatures();
 
+			for (byte[] signature : signatures)
+				peer.addKnownTransactionSignature(signature);
+
 			Message transactionSignaturesMessage = new TransactionSignaturesMessage(signatures);
 			if (!peer.sendMessage(transactionSignaturesMessage))
 				peer.disconnect("failed to send unconfirmed transaction signatures");
@@ -1138,30 +1238,8 @@ public class Controller extends Thread {
 
 	private void onNetworkTransactionSignaturesMessage(Peer peer, Message message) {
 		TransactionSignaturesMessage transactionSignaturesMessage = (TransactionSignaturesMessage) message;
-		List<byte[]> signatures = transactionSignaturesMessage.getSignatures();
-
-		try (final Repository repository = RepositoryManager.getRepository()) {
-			for (byte[] signature : signatures) {
-				// Do we have it already? (Before requesting transaction data itself)
-				if (repository.getTransactionRepository().exists(signature)) {
-					LOGGER.trace(() -> String.format("Ignoring existing transaction %s from peer %s", Base58.encode(signature), peer));
-					continue;
-				}
 
-				// Check isInterrupted() here and exit fast
-				if (Thread.currentThread().isInterrupted())
-					return;
-
-				// Fetch actual transaction data from peer
-				Message getTransactionMessage = new GetTransactionMessage(signature);
-				if (!peer.sendMessage(getTransactionMessage)) {
-					peer.disconnect("failed to request transaction");
-					return;
-				}
-			}
-		} catch (DataException e) {
-			LOGGER.error(String.format("Repository issue while processing unconfirmed transactions from peer %s", peer), e);
-		}
+		this.transactionRelay.onTransactionSignatures(peer, transactionSignaturesMessage.getSignatures());
 	}
 
 	private void onNetworkGetArbitraryDataMessage(Peer peer, Message message) {
@@ -1267,26 +1345,7 @@ public class Controller extends Thread {
 		List<OnlineAccountData> excludeAccounts = getOnlineAccountsMessage.getOnlineAccounts();
 
 		// Send online accounts info, excluding entries with matching timestamp & public key from excludeAccounts
-		List<OnlineAccountData> accountsToSend;
-		synchronized (this.onlineAccounts) {
-			accountsToSend = new ArrayList<>(this.onlineAccounts);
-		}
-
-		Iterator<OnlineAccountData> iterator = accountsToSend.iterator();
-
-		SEND_ITERATOR:
-		while (iterator.hasNext()) {
-			OnlineAccountData onlineAccountData = iterator.next();
-
-			for (int i = 0; i < excludeAccounts.size(); ++i) {
-				OnlineAccountData excludeAccountData = excludeAccounts.get(i);
-
-				if (onlineAccountData.getTimestamp() == excludeAccountData.getTimestamp() && Arrays.equals(onlineAccountData.getPublicKey(), excludeAccountData.getPublicKey())) {
-					iterator.remove();
-					continue SEND_ITERATOR;
-				}
-			}
-		}
+		List<OnlineAccountData> accountsToSend = this.onlineAccounts.getAllExcept(excludeAccounts);
 
 		Message onlineAccountsMessage = new OnlineAccountsMessage(accountsToSend);
 		peer.sendMessage(onlineAccountsMessage);
@@ -1300,9 +1359,27 @@ public class Controller extends Thread {
 		List<OnlineAccountData> peersOnlineAccounts = onlineAccountsMessage.getOnlineAccounts();
 		LOGGER.trace(() -> String.format("Received %d online accounts from %s", peersOnlineAccounts.size(), peer));
 
+		final Long now = NTP.getTime();
+		if (now == null)
+			return;
+
+		// Check timestamps are 'recent' here
+		List<OnlineAccountData> recentOnlineAccounts = new ArrayList<>();
+		for (OnlineAccountData onlineAccountData : peersOnlineAccounts) {
+			if (Math.abs(onlineAccountData.getTimestamp() - now) > ONLINE_TIMESTAMP_MODULUS * 2) {
+				LOGGER.trace(() -> String.format("Rejecting online account %s with out of range timestamp %d", new PublicKeyAccount(null, onlineAccountData.getPublicKey()).getAddress(), onlineAccountData.getTimestamp()));
+				continue;
+			}
+
+			recentOnlineAccounts.add(onlineAccountData);
+		}
+
+		// Verify signatures as a batch
+		List<OnlineAccountData> verifiedOnlineAccounts = verifyOnlineAccounts(recentOnlineAccounts);
+
 		try (final Repository repository = RepositoryManager.getRepository()) {
-			for (OnlineAccountData onlineAccountData : peersOnlineAccounts)
-				this.verifyAndAddAccount(repository, onlineAccountData);
+			for (OnlineAccountData onlineAccountData : verifiedOnlineAccounts)
+				this.addAccount(repository, onlineAccountData);
 		} catch (DataException e) {
 			LOGGER.error(String.format("Repository issue while verifying online accounts from peer %s", peer), e);
 		}
@@ -1310,26 +1387,33 @@ public class Controller extends Thread {
 
 	// Utilities
 
-	private void verifyAndAddAccount(Repository repository, OnlineAccountData onlineAccountData) throws DataException {
-		final Long now = NTP.getTime();
-		if (now == null)
-			return;
+	/** Returns online accounts with valid timestamp signatures, discarding any with invalid signatures. */
+	private static List<OnlineAccountData> verifyOnlineAccounts(List<OnlineAccountData> onlineAccounts) {
+		List<byte[]> publicKeys = onlineAccounts.stream().map(OnlineAccountData::getPublicKey).collect(Collectors.toList());
+		List<byte[]> signatures = onlineAccounts.stream().map(OnlineAccountData::getSignature).collect(Collectors.toList());
+		List<byte[]> messages = onlineAccounts.stream().map(onlineAccountData -> Longs.toByteArray(onlineAccountData.getTimestamp())).collect(Collectors.toList());
 
-		PublicKeyAccount otherAccount = new PublicKeyAccount(repository, onlineAccountData.getPublicKey());
+		BitSet invalidIndexes = Crypto.verifyBatch(publicKeys, signatures, messages);
 
-		// Check timestamp is 'recent' here
-		if (Math.abs(onlineAccountData.getTimestamp() - now) > ONLINE_TIMESTAMP_MODULUS * 2) {
-			LOGGER.trace(() -> String.format("Rejecting online account %s with out of range timestamp %d", otherAccount.getAddress(), onlineAccountData.getTimestamp()));
-			return;
-		}
+		List<OnlineAccountData> verifiedOnlineAccounts = new ArrayList<>(onlineAccounts.size() - invalidIndexes.cardinality());
+		for (int i = 0; i < onlineAccounts.size(); ++i) {
+			OnlineAccountData onlineAccountData = onlineAccounts.get(i);
 
-		// Verify
-		byte[] data = Longs.toByteArray(onlineAccountData.getTimestamp());
-		if (!otherAccount.verify(onlineAccountData.getSignature(), data)) {
-			LOGGER.trace(() -> String.format("Rejecting invalid online account %s", otherAccount.getAddress()));
-			return;
+			if (invalidIndexes.get(i)) {
+				LOGGER.trace(() -> String.format("Rejecting invalid online account %s", new PublicKeyAccount(null, onlineAccountData.getPublicKey()).getAddress()));
+				continue;
+			}
+
+			verifiedOnlineAccounts.add(onlineAccountData);
 		}
 
+		return verifiedOnlineAccounts;
+	}
+
+	/** Adds online account, with already-verified signature, if it's a reward-share that can still mint. */
+	private void addAccount(Repository repository, OnlineAccountData onlineAccountData) throws DataException {
+		PublicKeyAccount otherAccount = new PublicKeyAccount(repository, onlineAccountData.getPublicKey());
+
 		// Qortal: check online account is actually reward-share
 		RewardShareData rewardShareData = repository.getAccountRepository().getRewardShare(onlineAccountData.getPublicKey());
 		if (rewardShareData == null) {
@@ -1345,25 +1429,17 @@ public class Controller extends Thread {
 			return;
 		}
 
-		synchronized (this.onlineAccounts) {
-			OnlineAccountData existingAccountData = this.onlineAccounts.stream().filter(account -> Arrays.equals(account.getPublicKey(), onlineAccountData.getPublicKey())).findFirst().orElse(null);
-
-			if (existingAccountData != null) {
-				if (existingAccountData.getTimestamp() < onlineAccountData.getTimestamp()) {
-					this.onlineAccounts.remove(existingAccountData);
-
-					LOGGER.trace(() -> String.format("Updated online account %s with timestamp %d (was %d)", otherAccount.getAddress(), onlineAccountData.getTimestamp(), existingAccountData.getTimestamp()));
-				} else {
-					LOGGER.trace(() -> String.format("Not updating existing online account %s", otherAccount.getAddress()));
-
-					return;
-				}
-			} else {
-				LOGGER.trace(() -> String.format("Added online account %s with timestamp %d", otherAccount.getAddress(), onlineAccountData.getTimestamp()));
-			}
+		OnlineAccountData existingAccountData = this.onlineAccounts.get(onlineAccountData.getPublicKey());
 
-			this.onlineAccounts.add(onlineAccountData);
+		if (!this.onlineAccounts.addIfNewer(onlineAccountData)) {
+			LOGGER.trace(() -> String.format("Not updating existing online account %s", otherAccount.getAddress()));
+			return;
 		}
+
+		if (existingAccountData != null)
+			LOGGER.trace(() -> String.format("Updated online account %s with timestamp %d (was %d)", otherAccount.getAddress(), onlineAccountData.getTimestamp(), existingAccountData.getTimestamp()));
+		else
+			LOGGER.trace(() -> String.format("Added online account %s with timestamp %d", otherAccount.getAddress(), onlineAccountData.getTimestamp()));
 	}
 
 	public void ensureTestingAccountsOnline(PrivateKeyAccount... onlineAccounts) {
@@ -1379,19 +1455,19 @@ public class Controller extends Thread {
 		final long onlineAccountsTimestamp = Controller.toOnlineAccountTimestamp(now);
 		byte[] timestampBytes = Longs.toByteArray(onlineAccountsTimestamp);
 
-		synchronized (this.onlineAccounts) {
-			this.onlineAccounts.clear();
+		List<OnlineAccountData> testingOnlineAccounts = new ArrayList<>();
 
-			for (PrivateKeyAccount onlineAccount : onlineAccounts) {
-				// Check mintingAccount is actually reward-share?
+		for (PrivateKeyAccount onlineAccount : onlineAccounts) {
+			// Check mintingAccount is actually reward-share?
 
-				byte[] signature = onlineAccount.sign(timestampBytes);
-				byte[] publicKey = onlineAccount.getPublicKey();
+			byte[] signature = onlineAccount.sign(timestampBytes);
+			byte[] publicKey = onlineAccount.getPublicKey();
 
-				OnlineAccountData ourOnlineAccountData = new OnlineAccountData(onlineAccountsTimestamp, signature, publicKey);
-				this.onlineAccounts.add(ourOnlineAccountData);
-			}
+			OnlineAccountData ourOnlineAccountData = new OnlineAccountData(onlineAccountsTimestamp, signature, publicKey);
+			testingOnlineAccounts.add(ourOnlineAccountData);
 		}
+
+		this.onlineAccounts.replaceAll(testingOnlineAccounts);
 	}
 
 	private void performOnlineAccountsTasks() {
@@ -1401,28 +1477,15 @@ public class Controller extends Thread {
 
 		// Expire old entries
 		final long cutoffThreshold = now - LAST_SEEN_EXPIRY_PERIOD;
-		synchronized (this.onlineAccounts) {
-			Iterator<OnlineAccountData> iterator = this.onlineAccounts.iterator();
-			while (iterator.hasNext()) {
-				OnlineAccountData onlineAccountData = iterator.next();
-
-				if (onlineAccountData.getTimestamp() < cutoffThreshold) {
-					iterator.remove();
-
-					LOGGER.trace(() -> {
-						PublicKeyAccount otherAccount = new PublicKeyAccount(null, onlineAccountData.getPublicKey());
-						return String.format("Removed expired online account %s with timestamp %d", otherAccount.getAddress(), onlineAccountData.getTimestamp());
-					});
-				}
-			}
-		}
+		for (OnlineAccountData onlineAccountData : this.onlineAccounts.removeExpired(cutoffThreshold))
+			LOGGER.trace(() -> {
+				PublicKeyAccount otherAccount = new PublicKeyAccount(null, onlineAccountData.getPublicKey());
+				return String.format("Removed expired online account %s with timestamp %d", otherAccount.getAddress(), onlineAccountData.getTimestamp());
+			});
 
 		// Request data from other peers?
 		if ((this.onlineAccountsTasksTimestamp % ONLINE_ACCOUNTS_BROADCAST_INTERVAL) < ONLINE_ACCOUNTS_TASKS_INTERVAL) {
-			Message message;
-			synchronized (this.onlineAccounts) {
-				message = new GetOnlineAccountsMessage(this.onlineAccounts);
-			}
+			Message message = new GetOnlineAccountsMessage(this.onlineAccounts.getAll());
 			Network.getInstance().broadcast(peer -> message);
 		}
 
@@ -1474,7 +1537,6 @@ public class Controller extends Thread {
 		byte[] timestampBytes = Longs.toByteArray(onlineAccountsTimestamp);
 		List<OnlineAccountData> ourOnlineAccounts = new ArrayList<>();
 
-		MINTING_ACCOUNTS:
 		for (MintingAccountData mintingAccountData : mintingAccounts) {
 			PrivateKeyAccount mintingAccount = new PrivateKeyAccount(null, mintingAccountData.getPrivateKey());
 
@@ -1483,24 +1545,11 @@ public class Controller extends Thread {
 
 			// Our account is online
 			OnlineAccountData ourOnlineAccountData = new OnlineAccountData(onlineAccountsTimestamp, signature, publicKey);
-			synchronized (this.onlineAccounts) {
-				Iterator<OnlineAccountData> iterator = this.onlineAccounts.iterator();
-				while (iterator.hasNext()) {
-					OnlineAccountData existingOnlineAccountData = iterator.next();
-
-					if (Arrays.equals(existingOnlineAccountData.getPublicKey(), ourOnlineAccountData.getPublicKey())) {
-						// If our online account is already present, with same timestamp, then move on to next mintingAccount
-						if (existingOnlineAccountData.getTimestamp() == onlineAccountsTimestamp)
-							continue MINTING_ACCOUNTS;
-
-						// If our online account is already present, but with older timestamp, then remove it
-						iterator.remove();
-						break;
-					}
-				}
 
-				this.onlineAccounts.add(ourOnlineAccountData);
-			}
+			// If our online account is already present, with same timestamp, then move on to next mintingAccount
+			// (any entry with older timestamp is replaced)
+			if (!this.onlineAccounts.addIfNewer(ourOnlineAccountData))
+				continue;
 
 			LOGGER.trace(() -> String.format("Added our online account %s with timestamp %d", mintingAccount.getAddress(), onlineAccountsTimestamp));
 			ourOnlineAccounts.add(ourOnlineAccountData);
@@ -1524,13 +1573,16 @@ public class Controller extends Thread {
 	public List<OnlineAccountData> getOnlineAccounts() {
 		final long onlineTimestamp = Controller.toOnlineAccountTimestamp(NTP.getTime());
 
-		synchronized (this.onlineAccounts) {
-			return this.onlineAccounts.stream().filter(account -> account.getTimestamp() == onlineTimestamp).collect(Collectors.toList());
-		}
+		return this.onlineAccounts.getByTimestamp(onlineTimestamp);
 	}
 
-	/** Returns cached, unmodifiable list of latest block's online accounts. */
-	public List<OnlineAccountData> getLatestBlocksOnlineAccounts() {
+	/** Returns whether online account, with matching timestamp, public key and signature, is in our cache of online accounts. */
+	public boolean isOnlineAccountCached(OnlineAccountData onlineAccountData) {
+		return this.onlineAccounts.contains(onlineAccountData);
+	}
+
+	/** Returns cached, unmodifiable set of latest block's online accounts. */
+	public Set<OnlineAccountData> getLatestBlocksOnlineAccounts() {
 		synchronized (this.latestBlocksOnlineAccounts) {
 			return this.latestBlocksOnlineAccounts.peekFirst();
 		}
@@ -1543,11 +1595,16 @@ public class Controller extends Thread {
 				this.latestBlocksOnlineAccounts.pollLast();
 
 			this.latestBlocksOnlineAccounts.addFirst(latestBlocksOnlineAccounts == null
-					? Collections.emptyList()
-					: Collections.unmodifiableList(latestBlocksOnlineAccounts));
+					? Collections.emptySet()
+					: Collections.unmodifiableSet(new HashSet<>(latestBlocksOnlineAccounts)));
 		}
 	}
 
+	/** Callback for when a block's orphaning has been committed to the repository. */
+	public void onOrphanedBlock(BlockData orphanedBlockData) {
+		this.blockMessageCache.invalidate(orphanedBlockData.getSignature());
+	}
+
 	/** Reverts list of latest block's online accounts. Typically called by Block.orphan() */
 	public void popLatestBlocksOnlineAccounts() {
 		synchronized (this.latestBlocksOnlineAccounts) {
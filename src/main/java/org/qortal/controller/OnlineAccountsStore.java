@@ -0,0 +1,200 @@
+package org.qortal.controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.qortal.data.network.OnlineAccountData;
+import org.qortal.utils.ByteArray;
+
+/**
+ * Thread-safe store of online accounts, with at most one entry (the latest) per public key.
+ * <p>
+ * Entries are held in buckets, one per {@link Controller#ONLINE_TIMESTAMP_MODULUS} period, keyed by public key.
+ * This gives hashed lookups by (timestamp, public key) and lets expired entries be dropped a bucket at a time.
+ * <p>
+ * The list of all entries, used to build online-accounts messages, is cached until the store next changes.
+ */
+public class OnlineAccountsStore {
+
+	/** Buckets of entries, keyed by start of bucket's period. */
+	private final NavigableMap<Long, Map<ByteArray, OnlineAccountData>> buckets = new TreeMap<>();
+	/** Timestamp of each public key's entry. */
+	private final Map<ByteArray, Long> timestampsByPublicKey = new HashMap<>();
+
+	/** Unmodifiable list of all entries, or null if store has changed since last built. */
+	private List<OnlineAccountData> snapshot = null;
+
+	private static long toBucketTimestamp(long timestamp) {
+		return Math.floorDiv(timestamp, Controller.ONLINE_TIMESTAMP_MODULUS) * Controller.ONLINE_TIMESTAMP_MODULUS;
+	}
+
+	/**
+	 * Adds online account, replacing any entry for same public key with older timestamp.
+	 *
+	 * @return true if added, false if store already has entry for same public key with same, or newer, timestamp
+	 */
+	public synchronized boolean addIfNewer(OnlineAccountData onlineAccountData) {
+		ByteArray publicKey = new ByteArray(onlineAccountData.getPublicKey());
+
+		Long existingTimestamp = this.timestampsByPublicKey.get(publicKey);
+		if (existingTimestamp != null) {
+			if (existingTimestamp >= onlineAccountData.getTimestamp())
+				return false;
+
+			this.removeFromBucket(existingTimestamp, publicKey);
+		}
+
+		this.timestampsByPublicKey.put(publicKey, onlineAccountData.getTimestamp());
+		this.buckets.computeIfAbsent(toBucketTimestamp(onlineAccountData.getTimestamp()), key -> new HashMap<>()).put(publicKey, onlineAccountData);
+		this.snapshot = null;
+
+		return true;
+	}
+
+	/** Returns entry for public key, or null if not present. */
+	public synchronized OnlineAccountData get(byte[] publicKey) {
+		ByteArray key = new ByteArray(publicKey);
+
+		Long timestamp = this.timestampsByPublicKey.get(key);
+		if (timestamp == null)
+			return null;
+
+		return this.buckets.get(toBucketTimestamp(timestamp)).get(key);
+	}
+
+	/** Returns whether store contains entry matching passed online account's timestamp, public key and signature. */
+	public synchronized boolean contains(OnlineAccountData onlineAccountData) {
+		Map<ByteArray, OnlineAccountData> bucket = this.buckets.get(toBucketTimestamp(onlineAccountData.getTimestamp()));
+		if (bucket == null)
+			return false;
+
+		OnlineAccountData existingAccountData = bucket.get(new ByteArray(onlineAccountData.getPublicKey()));
+		return onlineAccountData.equals(existingAccountData);
+	}
+
+	/** Returns entries with exactly passed timestamp. */
+	public synchronized List<OnlineAccountData> getByTimestamp(long timestamp) {
+		Map<ByteArray, OnlineAccountData> bucket = this.buckets.get(toBucketTimestamp(timestamp));
+		if (bucket == null)
+			return new ArrayList<>();
+
+		List<OnlineAccountData> onlineAccounts = new ArrayList<>(bucket.size());
+		for (OnlineAccountData onlineAccountData : bucket.values())
+			if (onlineAccountData.getTimestamp() == timestamp)
+				onlineAccounts.add(onlineAccountData);
+
+		return onlineAccounts;
+	}
+
+	/** Returns unmodifiable list of all entries. */
+	public synchronized List<OnlineAccountData> getAll() {
+		if (this.snapshot == null) {
+			List<OnlineAccountData> onlineAccounts = new ArrayList<>(this.timestampsByPublicKey.size());
+
+			for (Map<ByteArray, OnlineAccountData> bucket : this.buckets.values())
+				onlineAccounts.addAll(bucket.values());
+
+			this.snapshot = Collections.unmodifiableList(onlineAccounts);
+		}
+
+		return this.snapshot;
+	}
+
+	/** Returns all entries except those with matching timestamp and public key in <tt>excludeAccounts</tt>. */
+	public List<OnlineAccountData> getAllExcept(List<OnlineAccountData> excludeAccounts) {
+		List<OnlineAccountData> onlineAccounts = this.getAll();
+
+		if (excludeAccounts.isEmpty())
+			return new ArrayList<>(onlineAccounts);
+
+		Map<Long, Set<ByteArray>> excludedPublicKeysByTimestamp = new HashMap<>();
+		for (OnlineAccountData excludeAccountData : excludeAccounts)
+			excludedPublicKeysByTimestamp.computeIfAbsent(excludeAccountData.getTimestamp(), key -> new HashSet<>())
+					.add(new ByteArray(excludeAccountData.getPublicKey()));
+
+		List<OnlineAccountData> remainingAccounts = new ArrayList<>();
+		for (OnlineAccountData onlineAccountData : onlineAccounts) {
+			Set<ByteArray> excludedPublicKeys = excludedPublicKeysByTimestamp.get(onlineAccountData.getTimestamp());
+
+			if (excludedPublicKeys == null || !excludedPublicKeys.contains(new ByteArray(onlineAccountData.getPublicKey())))
+				remainingAccounts.add(onlineAccountData);
+		}
+
+		return remainingAccounts;
+	}
+
+	/**
+	 * Removes entries with timestamp before <tt>cutoffTimestamp</tt>.
+	 *
+	 * @return removed entries
+	 */
+	public synchronized List<OnlineAccountData> removeExpired(long cutoffTimestamp) {
+		List<OnlineAccountData> expiredAccounts = new ArrayList<>();
+
+		// Whole buckets that are entirely before cutoff
+		NavigableMap<Long, Map<ByteArray, OnlineAccountData>> expiredBuckets = this.buckets.headMap(toBucketTimestamp(cutoffTimestamp), false);
+		for (Map<ByteArray, OnlineAccountData> bucket : expiredBuckets.values())
+			expiredAccounts.addAll(bucket.values());
+		expiredBuckets.clear();
+
+		// Bucket containing cutoff
+		Map<ByteArray, OnlineAccountData> cutoffBucket = this.buckets.get(toBucketTimestamp(cutoffTimestamp));
+		if (cutoffBucket != null) {
+			Iterator<OnlineAccountData> iterator = cutoffBucket.values().iterator();
+			while (iterator.hasNext()) {
+				OnlineAccountData onlineAccountData = iterator.next();
+
+				if (onlineAccountData.getTimestamp() < cutoffTimestamp) {
+					iterator.remove();
+					expiredAccounts.add(onlineAccountData);
+				}
+			}
+
+			if (cutoffBucket.isEmpty())
+				this.buckets.remove(toBucketTimestamp(cutoffTimestamp));
+		}
+
+		if (!expiredAccounts.isEmpty()) {
+			for (OnlineAccountData onlineAccountData : expiredAccounts)
+				this.timestampsByPublicKey.remove(new ByteArray(onlineAccountData.getPublicKey()));
+
+			this.snapshot = null;
+		}
+
+		return expiredAccounts;
+	}
+
+	/** Replaces all entries with passed online accounts. */
+	public synchronized void replaceAll(Collection<OnlineAccountData> onlineAccounts) {
+		this.buckets.clear();
+		this.timestampsByPublicKey.clear();
+		this.snapshot = null;
+
+		for (OnlineAccountData onlineAccountData : onlineAccounts)
+			this.addIfNewer(onlineAccountData);
+	}
+
+	public synchronized int size() {
+		return this.timestampsByPublicKey.size();
+	}
+
+	private void removeFromBucket(long timestamp, ByteArray publicKey) {
+		long bucketTimestamp = toBucketTimestamp(timestamp);
+
+		Map<ByteArray, OnlineAccountData> bucket = this.buckets.get(bucketTimestamp);
+		bucket.remove(publicKey);
+
+		if (bucket.isEmpty())
+			this.buckets.remove(bucketTimestamp);
+	}
+
+}
@@ -21,9 +21,7 @@ import org.qortal.data.network.PeerChainTipData;
 import org.qortal.data.transaction.RewardShareTransactionData;
 import org.qortal.data.transaction.TransactionData;
 import org.qortal.network.Peer;
-import org.qortal.network.message.BlockMessage;
 import org.qortal.network.message.BlockSummariesMessage;
-import org.qortal.network.message.GetBlockMessage;
 import org.qortal.network.message.GetBlockSummariesMessage;
 import org.qortal.network.message.GetSignaturesV2Message;
 import org.qortal.network.message.Message;
@@ -372,26 +370,35 @@ public class Synchronizer {
 		LOGGER.debug(String.format("Fetching new blocks from peer %s", peer));
 		List<Block> peerBlocks = new ArrayList<>();
 
-		for (byte[] blockSignature : peerBlockSignatures) {
-			Block newBlock = this.fetchBlock(repository, peer, blockSignature);
+		try (BlockFetcher blockFetcher = new BlockFetcher(repository, peer)) {
+			for (byte[] blockSignature : peerBlockSignatures)
+				blockFetcher.add(blockSignature);
 
-			if (newBlock == null) {
-				LOGGER.info(String.format("Peer %s failed to respond with block for height %d, sig %.8s", peer,
-						ourHeight, Base58.encode(blockSignature)));
-				return SynchronizationResult.NO_REPLY;
-			}
+			while (!blockFetcher.isEmpty()) {
+				if (Controller.isStopping())
+					return SynchronizationResult.SHUTTING_DOWN;
 
-			if (!newBlock.isSignatureValid()) {
-				LOGGER.info(String.format("Peer %s sent block with invalid signature for height %d, sig %.8s", peer,
-						ourHeight, Base58.encode(blockSignature)));
-				return SynchronizationResult.INVALID_DATA;
-			}
+				byte[] blockSignature = blockFetcher.peekSignature();
+				Block newBlock = blockFetcher.next();
 
-			// Transactions are transmitted without approval status so determine that now
-			for (Transaction transaction : newBlock.getTransactions())
-				transaction.setInitialApprovalStatus();
+				if (newBlock == null) {
+					LOGGER.info(String.format("Peer %s failed to respond with block for height %d, sig %.8s", peer,
+							ourHeight, Base58.encode(blockSignature)));
+					return SynchronizationResult.NO_REPLY;
+				}
 
-			peerBlocks.add(newBlock);
+				if (!newBlock.isSignatureValid()) {
+					LOGGER.info(String.format("Peer %s sent block with invalid signature for height %d, sig %.8s", peer,
+							ourHeight, Base58.encode(blockSignature)));
+					return SynchronizationResult.INVALID_DATA;
+				}
+
+				// Transactions are transmitted without approval status so determine that now
+				for (Transaction transaction : newBlock.getTransactions())
+					transaction.setInitialApprovalStatus();
+
+				peerBlocks.add(newBlock);
+			}
 		}
 
 		// Unwind to common block (unless common block is our latest block)
@@ -407,6 +414,9 @@ public class Synchronizer {
 
 			repository.saveChanges();
 
+			// Only now that orphaning is committed can cached copies of block be dropped
+			Controller.getInstance().onOrphanedBlock(orphanBlockData);
+
 			--ourHeight;
 			orphanBlockData = repository.getBlockRepository().fromHeight(ourHeight);
 
@@ -453,70 +463,80 @@ public class Synchronizer {
 		byte[] latestPeerSignature = commonBlockSig;
 		int maxBatchHeight = commonBlockHeight + SYNC_BATCH_SIZE;
 
-		// Convert any block summaries from above into signatures to request from peer
-		List<byte[]> peerBlockSignatures = peerBlockSummaries.stream().map(BlockSummaryData::getSignature).collect(Collectors.toList());
+		try (BlockFetcher blockFetcher = new BlockFetcher(repository, peer)) {
+			// Queue any block summaries from above for fetching from peer
+			for (int i = 0; i < peerBlockSummaries.size() && commonBlockHeight + i < maxBatchHeight; ++i) {
+				latestPeerSignature = peerBlockSummaries.get(i).getSignature();
+				blockFetcher.add(latestPeerSignature);
+			}
 
-		while (ourHeight < peerHeight && ourHeight < maxBatchHeight) {
-			if (Controller.isStopping())
-				return SynchronizationResult.SHUTTING_DOWN;
+			while (ourHeight < peerHeight && ourHeight < maxBatchHeight) {
+				if (Controller.isStopping())
+					return SynchronizationResult.SHUTTING_DOWN;
 
-			// Do we need more signatures?
-			if (peerBlockSignatures.isEmpty()) {
-				int numberRequested = maxBatchHeight - ourHeight;
-				LOGGER.trace(String.format("Requesting %d signature%s after height %d, sig %.8s",
-						numberRequested, (numberRequested != 1 ? "s": ""), ourHeight, Base58.encode(latestPeerSignature)));
+				// Do we need more signatures?
+				if (blockFetcher.isEmpty()) {
+					int numberRequested = maxBatchHeight - ourHeight;
+					LOGGER.trace(String.format("Requesting %d signature%s after height %d, sig %.8s",
+							numberRequested, (numberRequested != 1 ? "s": ""), ourHeight, Base58.encode(latestPeerSignature)));
 
-				peerBlockSignatures = this.getBlockSignatures(peer, latestPeerSignature, numberRequested);
+					List<byte[]> peerBlockSignatures = this.getBlockSignatures(peer, latestPeerSignature, numberRequested);
 
-				if (peerBlockSignatures == null || peerBlockSignatures.isEmpty()) {
-					LOGGER.info(String.format("Peer %s failed to respond with more block signatures after height %d, sig %.8s", peer,
-							ourHeight, Base58.encode(latestPeerSignature)));
-					return SynchronizationResult.NO_REPLY;
-				}
+					if (peerBlockSignatures == null || peerBlockSignatures.isEmpty()) {
+						LOGGER.info(String.format("Peer %s failed to respond with more block signatures after height %d, sig %.8s", peer,
+								ourHeight, Base58.encode(latestPeerSignature)));
+						return SynchronizationResult.NO_REPLY;
+					}
 
-				LOGGER.trace(String.format("Received %s signature%s", peerBlockSignatures.size(), (peerBlockSignatures.size() != 1 ? "s" : "")));
-			}
+					LOGGER.trace(String.format("Received %s signature%s", peerBlockSignatures.size(), (peerBlockSignatures.size() != 1 ? "s" : "")));
 
-			latestPeerSignature = peerBlockSignatures.get(0);
-			peerBlockSignatures.remove(0);
-			++ourHeight;
+					// Queue signatures for fetching, so blocks can arrive while we process earlier ones
+					for (byte[] blockSignature : peerBlockSignatures)
+						blockFetcher.add(blockSignature);
 
-			Block newBlock = this.fetchBlock(repository, peer, latestPeerSignature);
+					latestPeerSignature = peerBlockSignatures.get(peerBlockSignatures.size() - 1);
+				}
 
-			if (newBlock == null) {
-				LOGGER.info(String.format("Peer %s failed to respond with block for height %d, sig %.8s", peer,
-						ourHeight, Base58.encode(latestPeerSignature)));
-				return SynchronizationResult.NO_REPLY;
-			}
+				byte[] blockSignature = blockFetcher.peekSignature();
+				++ourHeight;
 
-			if (!newBlock.isSignatureValid()) {
-				LOGGER.info(String.format("Peer %s sent block with invalid signature for height %d, sig %.8s", peer,
-						ourHeight, Base58.encode(latestPeerSignature)));
-				return SynchronizationResult.INVALID_DATA;
-			}
+				Block newBlock = blockFetcher.next();
 
-			// Transactions are transmitted without approval status so determine that now
-			for (Transaction transaction : newBlock.getTransactions())
-				transaction.setInitialApprovalStatus();
+				if (newBlock == null) {
+					LOGGER.info(String.format("Peer %s failed to respond with block for height %d, sig %.8s", peer,
+							ourHeight, Base58.encode(blockSignature)));
+					return SynchronizationResult.NO_REPLY;
+				}
 
-			ValidationResult blockResult = newBlock.isValid();
-			if (blockResult != ValidationResult.OK) {
-				LOGGER.info(String.format("Peer %s sent invalid block for height %d, sig %.8s: %s", peer,
-						ourHeight, Base58.encode(latestPeerSignature), blockResult.name()));
-				return SynchronizationResult.INVALID_DATA;
-			}
+				if (!newBlock.isSignatureValid()) {
+					LOGGER.info(String.format("Peer %s sent block with invalid signature for height %d, sig %.8s", peer,
+							ourHeight, Base58.encode(blockSignature)));
+					return SynchronizationResult.INVALID_DATA;
+				}
 
-			// Save transactions attached to this block
-			for (Transaction transaction : newBlock.getTransactions()) {
-				TransactionData transactionData = transaction.getTransactionData();
-				repository.getTransactionRepository().save(transactionData);
-			}
+				// Transactions are transmitted without approval status so determine that now
+				for (Transaction transaction : newBlock.getTransactions())
+					transaction.setInitialApprovalStatus();
 
-			newBlock.process();
+				ValidationResult blockResult = newBlock.isValid();
+				if (blockResult != ValidationResult.OK) {
+					LOGGER.info(String.format("Peer %s sent invalid block for height %d, sig %.8s: %s", peer,
+							ourHeight, Base58.encode(blockSignature), blockResult.name()));
+					return SynchronizationResult.INVALID_DATA;
+				}
 
-			repository.saveChanges();
+				// Save transactions attached to this block
+				for (Transaction transaction : newBlock.getTransactions()) {
+					TransactionData transactionData = transaction.getTransactionData();
+					repository.getTransactionRepository().save(transactionData);
+				}
 
-			Controller.getInstance().onNewBlock(newBlock.getBlockData());
+				newBlock.process();
+
+				repository.saveChanges();
+
+				Controller.getInstance().onNewBlock(newBlock.getBlockData());
+			}
 		}
 
 		return SynchronizationResult.OK;
@@ -546,18 +566,6 @@ public class Synchronizer {
 		return signaturesMessage.getSignatures();
 	}
 
-	private Block fetchBlock(Repository repository, Peer peer, byte[] signature) throws InterruptedException {
-		Message getBlockMessage = new GetBlockMessage(signature);
-
-		Message message = peer.getResponse(getBlockMessage);
-		if (message == null || message.getType() != MessageType.BLOCK)
-			return null;
-
-		BlockMessage blockMessage = (BlockMessage) message;
-
-		return new Block(repository, blockMessage.getBlockData(), blockMessage.getTransactions(), blockMessage.getAtStates());
-	}
-
 	private void populateBlockSummariesMinterLevels(Repository repository, List<BlockSummaryData> blockSummaries) throws DataException {
 		final int firstBlockHeight = blockSummaries.get(0).getHeight();
 
@@ -0,0 +1,249 @@
+package org.qortal.controller;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.network.Network;
+import org.qortal.network.Peer;
+import org.qortal.network.message.GetTransactionMessage;
+import org.qortal.network.message.GetTransactionsMessage;
+import org.qortal.network.message.Message;
+import org.qortal.network.message.TransactionSignaturesMessage;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.utils.Base58;
+import org.qortal.utils.ByteArray;
+import org.qortal.utils.NamedThreadFactory;
+
+/**
+ * Inventory-style relay of unconfirmed transactions between peers.
+ * <p>
+ * New transactions are announced by signature. Rather than broadcasting one TRANSACTION_SIGNATURES message
+ * per new transaction, announcements are collected for {@link #ANNOUNCE_INTERVAL} and then sent as one message
+ * per peer, leaving out signatures that each peer already knows about.
+ * <p>
+ * When peers announce signatures to us, we request only those transactions we don't have
+ * and haven't recently requested from another peer, in batches if the peer supports GET_TRANSACTIONS.
+ */
+public class TransactionRelay {
+
+	private static final Logger LOGGER = LogManager.getLogger(TransactionRelay.class);
+
+	/** How long to collect new transactions before announcing them to peers. */
+	private static final long ANNOUNCE_INTERVAL = 250L; // ms
+	/** How long to wait for a requested transaction before allowing it to be requested from another peer. */
+	private static final long REQUEST_TIMEOUT = 10 * 1000L; // ms
+	/** Maximum number of outstanding requests tracked, above which oldest requests are forgotten, even if not yet timed out. */
+	public static final int MAX_PENDING_REQUESTS = 1000;
+
+	/** A new transaction's signature, and the peer it came from, if any. */
+	private static class Announcement {
+		private final byte[] signature;
+		private final Peer sourcePeer;
+
+		private Announcement(byte[] signature, Peer sourcePeer) {
+			this.signature = signature;
+			this.sourcePeer = sourcePeer;
+		}
+	}
+
+	/** Transactions to announce at next flush. Guarded by itself. */
+	private final List<Announcement> pendingAnnouncements = new ArrayList<>();
+
+	/** When each transaction, not yet received, was requested from a peer, oldest request first. Guarded by itself. */
+	private final Map<ByteArray, Long> requestTimestamps = new LinkedHashMap<>();
+
+	/** Sends per-peer announcement messages, normally via {@link Network#broadcast(Function)}. */
+	private final Consumer<Function<Peer, Message>> broadcaster;
+
+	private ScheduledExecutorService announceExecutor;
+
+	public TransactionRelay() {
+		this(peerMessageBuilder -> Network.getInstance().broadcast(peerMessageBuilder));
+	}
+
+	/** Constructs relay that sends announcements using <tt>broadcaster</tt> instead of network, e.g. for testing. */
+	public TransactionRelay(Consumer<Function<Peer, Message>> broadcaster) {
+		this.broadcaster = broadcaster;
+	}
+
+	public synchronized void start() {
+		if (this.announceExecutor != null)
+			return;
+
+		this.announceExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Transaction-Relay"));
+		this.announceExecutor.scheduleWithFixedDelay(this::flush, ANNOUNCE_INTERVAL, ANNOUNCE_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void shutdown() {
+		if (this.announceExecutor == null)
+			return;
+
+		this.announceExecutor.shutdownNow();
+		try {
+			if (!this.announceExecutor.awaitTermination(1000, TimeUnit.MILLISECONDS))
+				LOGGER.warn("Transaction relay thread failed to terminate");
+		} catch (InterruptedException e) {
+			LOGGER.warn("Interrupted while waiting for transaction relay thread to terminate");
+		}
+	}
+
+	/** Queues announcement of new transaction to all peers, except <tt>sourcePeer</tt> if not null. */
+	public void announce(byte[] signature, Peer sourcePeer) {
+		synchronized (this.pendingAnnouncements) {
+			this.pendingAnnouncements.add(new Announcement(signature, sourcePeer));
+		}
+	}
+
+	/** Sends pending announcements to peers. Normally called periodically once relay is started. */
+	public void flush() {
+		try {
+			List<Announcement> announcements;
+			synchronized (this.pendingAnnouncements) {
+				if (this.pendingAnnouncements.isEmpty())
+					return;
+
+				announcements = new ArrayList<>(this.pendingAnnouncements);
+				this.pendingAnnouncements.clear();
+			}
+
+			List<byte[]> allSignatures = new ArrayList<>(announcements.size());
+			for (Announcement announcement : announcements)
+				allSignatures.add(announcement.signature);
+
+			// Most peers will need every signature, so they can share one message (and its serialized bytes)
+			Message allSignaturesMessage = new TransactionSignaturesMessage(allSignatures);
+
+			this.broadcaster.accept(peer -> {
+				List<byte[]> peerSignatures = new ArrayList<>(announcements.size());
+
+				for (Announcement announcement : announcements) {
+					if (announcement.sourcePeer == peer || peer.isTransactionSignatureKnown(announcement.signature))
+						continue;
+
+					peer.addKnownTransactionSignature(announcement.signature);
+					peerSignatures.add(announcement.signature);
+				}
+
+				if (peerSignatures.isEmpty())
+					return null;
+
+				if (peerSignatures.size() == allSignatures.size())
+					return allSignaturesMessage;
+
+				return new TransactionSignaturesMessage(peerSignatures);
+			});
+		} catch (RuntimeException e) {
+			// Don't let an unexpected exception cancel future flushes
+			LOGGER.error("Unexpected error while announcing transactions", e);
+		}
+	}
+
+	/** Requests transactions, announced by peer, that we don't have, and haven't already requested from another peer. */
+	public void onTransactionSignatures(Peer peer, List<byte[]> signatures) {
+		for (byte[] signature : signatures)
+			peer.addKnownTransactionSignature(signature);
+
+		final long now = System.currentTimeMillis();
+		List<byte[]> wantedSignatures = new ArrayList<>();
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			for (byte[] signature : signatures) {
+				// Check isInterrupted() here and exit fast
+				if (Thread.currentThread().isInterrupted())
+					return;
+
+				if (this.isRequestPending(signature, now)) {
+					LOGGER.trace(() -> String.format("Not re-requesting transaction %s from peer %s", Base58.encode(signature), peer));
+					continue;
+				}
+
+				// Do we have it already? (Before requesting transaction data itself)
+				if (repository.getTransactionRepository().exists(signature)) {
+					LOGGER.trace(() -> String.format("Ignoring existing transaction %s from peer %s", Base58.encode(signature), peer));
+					continue;
+				}
+
+				wantedSignatures.add(signature);
+			}
+		} catch (DataException e) {
+			LOGGER.error(String.format("Repository issue while processing unconfirmed transactions from peer %s", peer), e);
+			return;
+		}
+
+		if (wantedSignatures.isEmpty())
+			return;
+
+		this.addRequests(wantedSignatures, now);
+
+		// Fetch actual transaction data from peer
+		if (peer.isTransactionBatchingSupported()) {
+			for (int fromIndex = 0; fromIndex < wantedSignatures.size(); fromIndex += GetTransactionsMessage.MAX_SIGNATURES) {
+				List<byte[]> batchSignatures = wantedSignatures.subList(fromIndex, Math.min(fromIndex + GetTransactionsMessage.MAX_SIGNATURES, wantedSignatures.size()));
+
+				if (!peer.sendMessage(new GetTransactionsMessage(batchSignatures))) {
+					peer.disconnect("failed to request transactions");
+					return;
+				}
+			}
+		} else {
+			for (byte[] signature : wantedSignatures) {
+				if (!peer.sendMessage(new GetTransactionMessage(signature))) {
+					peer.disconnect("failed to request transaction");
+					return;
+				}
+			}
+		}
+	}
+
+	/** Notes that transaction has arrived, whether requested or not. */
+	public void onTransactionReceived(Peer peer, byte[] signature) {
+		peer.addKnownTransactionSignature(signature);
+
+		synchronized (this.requestTimestamps) {
+			this.requestTimestamps.remove(new ByteArray(signature));
+		}
+	}
+
+	/** Returns whether transaction was requested, from any peer, recently enough that it might still arrive. */
+	private boolean isRequestPending(byte[] signature, long now) {
+		synchronized (this.requestTimestamps) {
+			Long requestTimestamp = this.requestTimestamps.get(new ByteArray(signature));
+			return requestTimestamp != null && requestTimestamp >= now - REQUEST_TIMEOUT;
+		}
+	}
+
+	private void addRequests(List<byte[]> signatures, long now) {
+		synchronized (this.requestTimestamps) {
+			for (byte[] signature : signatures) {
+				ByteArray key = new ByteArray(signature);
+
+				// Re-requests are moved to the end, keeping map in request order
+				this.requestTimestamps.remove(key);
+				this.requestTimestamps.put(key, now);
+			}
+
+			// Forget requests that peers didn't answer, then oldest requests if there are still too many
+			Iterator<Long> iterator = this.requestTimestamps.values().iterator();
+			while (iterator.hasNext()) {
+				long requestTimestamp = iterator.next();
+				if (requestTimestamp >= now - REQUEST_TIMEOUT && this.requestTimestamps.size() <= MAX_PENDING_REQUESTS)
+					break;
+
+				iterator.remove();
+			}
+		}
+	}
+
+}
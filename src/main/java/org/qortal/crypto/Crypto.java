@@ -1,8 +1,12 @@
 package org.qortal.crypto;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
 
 import org.bouncycastle.crypto.params.Ed25519PrivateKeyParameters;
 import org.bouncycastle.crypto.params.X25519PrivateKeyParameters;
@@ -22,6 +26,9 @@ public abstract class Crypto {
 	public static final byte AT_ADDRESS_VERSION = 23; // A
 	public static final byte NODE_ADDRESS_VERSION = 53; // N
 
+	/** Minimum number of signatures in a batch before verification is spread across threads. */
+	private static final int MIN_PARALLEL_BATCH_SIZE = 8;
+
 	/**
 	 * Returns 32-byte SHA-256 digest of message passed in input.
 	 * 
@@ -42,6 +49,26 @@ public abstract class Crypto {
 		}
 	}
 
+	/**
+	 * Returns 32-byte SHA-256 digest of remaining bytes in input, consuming them.
+	 * <p>
+	 * Works directly on input's content, even for direct buffers, so no copy is made.
+	 * 
+	 * @param input
+	 *            buffer, from position up to limit
+	 * @return byte[32] digest
+	 */
+	public static byte[] digest(ByteBuffer input) {
+		try {
+			// SHA2-256
+			MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+			sha256.update(input);
+			return sha256.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-256 message digest not available");
+		}
+	}
+
 	/**
 	 * Returns 32-byte digest of two rounds of SHA-256 on message passed in input.
 	 * 
@@ -174,6 +201,32 @@ public abstract class Crypto {
 		}
 	}
 
+	/**
+	 * Verifies many Ed25519 signatures, returning indexes of all invalid signatures.
+	 * <p>
+	 * Each entry in <tt>publicKeys</tt>, <tt>signatures</tt> and <tt>messages</tt>
+	 * is one (public key, signature, message) triple, so all three lists must be the same size.
+	 * <p>
+	 * Larger batches are spread across the ForkJoin common pool.
+	 * Results are always identical to calling {@link #verify(byte[], byte[], byte[])} for each triple.
+	 * 
+	 * @return indexes of invalid signatures, empty if all signatures are valid
+	 * @throws IllegalArgumentException if list sizes differ
+	 */
+	public static BitSet verifyBatch(List<byte[]> publicKeys, List<byte[]> signatures, List<byte[]> messages) {
+		final int batchSize = publicKeys.size();
+		if (signatures.size() != batchSize || messages.size() != batchSize)
+			throw new IllegalArgumentException("Batch verification lists must be the same size");
+
+		IntStream indexes = IntStream.range(0, batchSize);
+
+		// Small batches aren't worth the overhead of splitting across threads
+		if (batchSize >= MIN_PARALLEL_BATCH_SIZE)
+			indexes = indexes.parallel();
+
+		return indexes.filter(i -> !verify(publicKeys.get(i), signatures.get(i), messages.get(i))).collect(BitSet::new, BitSet::set, BitSet::or);
+	}
+
 	public static byte[] sign(Ed25519PrivateKeyParameters edPrivateKeyParams, byte[] message) {
 		byte[] signature = new byte[SIGNATURE_LENGTH];
 
@@ -1,116 +1,268 @@
 package org.qortal.crypto;
 
+import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
+import org.qortal.utils.DaemonThreadFactory;
+
+/**
+ * Memory-hard proof-of-work.
+ * <p>
+ * For each nonce, a work buffer is filled using xoshiro256+ seeded from the data's SHA256 digest
+ * and a per-nonce seed, then 1024 pseudo-randomly chosen buffer entries are XORed together.
+ * A nonce is valid if that result has at least <tt>difficulty</tt> leading zero bits.
+ * <p>
+ * Work buffers are several megabytes, so callers that don't supply their own buffer
+ * use a per-thread buffer that is reused between calls, rather than allocating one per call.
+ * These are only softly referenced, so idle threads' buffers can be reclaimed if memory is short.
+ */
 public class MemoryPoW {
 
-	public static Integer compute2(byte[] data, int workBufferLength, long difficulty) {
-		// Hash data with SHA256
-		byte[] hash = Crypto.digest(data);
+	private static final long INITIAL_SEED = 8682522807148012L;
+	private static final long SEED_MULTIPLIER = 1181783497276652981L;
 
-		long[] longHash = new long[4];
-		ByteBuffer byteBuffer = ByteBuffer.wrap(hash);
-		longHash[0] = byteBuffer.getLong();
-		longHash[1] = byteBuffer.getLong();
-		longHash[2] = byteBuffer.getLong();
-		longHash[3] = byteBuffer.getLong();
-		byteBuffer = null;
+	/** Number of random reads from work buffer, per nonce. */
+	private static final int BOUNCE_COUNT = 1024;
 
-		int longBufferLength = workBufferLength / 8;
-		long[] workBuffer = new long[longBufferLength];
-		long[] state = new long[4];
+	private static final ThreadLocal<SoftReference<long[]>> threadWorkBuffer = new ThreadLocal<>();
 
-		long seed = 8682522807148012L;
-		long seedMultiplier = 1181783497276652981L;
+	/** Maximum number of threads used for parallel nonce searches, across all computations. */
+	private static final int MAX_COMPUTE_THREADS = Runtime.getRuntime().availableProcessors();
+	/** How long idle compute threads, and their work buffers, are kept. (ms) */
+	private static final long COMPUTE_THREAD_KEEP_ALIVE = 60 * 1000L; // ms
 
-		// For each nonce...
-		int nonce = -1;
-		long result = 0;
-		do {
-			++nonce;
+	/**
+	 * Threads for parallel nonce searches, created on first use.
+	 * <p>
+	 * Bounded to {@link #MAX_COMPUTE_THREADS}, as each thread holds its own work buffer.
+	 * Searches beyond that, whether from one computation or concurrent computations, queue until a thread is free.
+	 * Idle threads, and their work buffers, are discarded after a while.
+	 */
+	private static ExecutorService computeExecutor;
+
+	public static Integer compute2(byte[] data, int workBufferLength, long difficulty) {
+		return compute2(data, getThreadWorkBuffer(workBufferLength), difficulty, () -> false);
+	}
+
+	/**
+	 * Computes nonce using caller's work buffer, of <tt>workBufferLength / 8</tt> longs, which can be reused between calls.
+	 * <p>
+	 * Gives up, returning -1, if thread is interrupted or <tt>isAbandoned</tt> returns true, checked once per nonce.
+	 */
+	public static Integer compute2(byte[] data, long[] workBuffer, long difficulty, BooleanSupplier isAbandoned) {
+		long[] longHash = toLongHash(data);
 
+		long seed = INITIAL_SEED;
+
+		// For each nonce...
+		for (int nonce = 0; nonce >= 0; ++nonce) {
 			// If we've been interrupted, exit fast with invalid value
-			if (Thread.currentThread().isInterrupted())
+			if (Thread.currentThread().isInterrupted() || isAbandoned.getAsBoolean())
 				return -1;
 
-			seed *= seedMultiplier; // per nonce
+			seed *= SEED_MULTIPLIER; // per nonce
 
-			state[0] = longHash[0] ^ seed;
-			state[1] = longHash[1] ^ seed;
-			state[2] = longHash[2] ^ seed;
-			state[3] = longHash[3] ^ seed;
+			long result = hashNonce(longHash, seed, workBuffer);
 
-			// Fill work buffer with random
-			for (int i = 0; i < workBuffer.length; ++i)
-				workBuffer[i] = xoshiro256p(state);
+			// Return if final value > difficulty
+			if (Long.numberOfLeadingZeros(result) >= difficulty)
+				return nonce;
+		}
 
-			// Random bounce through whole buffer
-			result = workBuffer[0];
-			for (int i = 0; i < 1024; ++i) {
-				int index = (int) (xoshiro256p(state) & Integer.MAX_VALUE) % workBuffer.length;
-				result ^= workBuffer[index];
-			}
+		// Exhausted all nonces
+		return -1;
+	}
 
-			// Return if final value > difficulty
-		} while (Long.numberOfLeadingZeros(result) < difficulty);
+	/**
+	 * Computes nonce using <tt>threadCount</tt> searches, each searching every <tt>threadCount</tt>-th nonce.
+	 * <p>
+	 * Searches share a pool of at most one thread per available processor, so if there are more searches
+	 * than threads, some wait for others to finish. Once a search finds a valid nonce, searches only
+	 * carry on, or start, looking for lower nonces, so the result is always the lowest valid nonce,
+	 * exactly as if computed by a single thread.
+	 * <p>
+	 * Returns -1 if calling thread is interrupted.
+	 */
+	public static Integer compute2(byte[] data, int workBufferLength, long difficulty, int threadCount) {
+		if (threadCount <= 1)
+			return compute2(data, workBufferLength, difficulty);
+
+		long[] longHash = toLongHash(data);
+		final int nonceStride = threadCount;
+		long seedStrideMultiplier = power(SEED_MULTIPLIER, nonceStride);
+
+		AtomicInteger lowestNonce = new AtomicInteger(Integer.MAX_VALUE);
+		AtomicBoolean isCancelled = new AtomicBoolean(false);
+
+		List<Future<?>> searches = new ArrayList<>(threadCount);
+		for (int firstNonce = 0; firstNonce < threadCount; ++firstNonce) {
+			final int searchFirstNonce = firstNonce;
+
+			searches.add(getComputeExecutor().submit(() -> searchNonces(longHash, workBufferLength, difficulty,
+					searchFirstNonce, nonceStride, seedStrideMultiplier, lowestNonce, isCancelled)));
+		}
+
+		try {
+			for (Future<?> search : searches)
+				search.get();
+		} catch (InterruptedException e) {
+			isCancelled.set(true);
+			Thread.currentThread().interrupt();
+			return -1;
+		} catch (ExecutionException e) {
+			isCancelled.set(true);
+			throw new RuntimeException("Nonce search failed", e.getCause());
+		}
 
-		return nonce;
+		int nonce = lowestNonce.get();
+		return nonce != Integer.MAX_VALUE ? nonce : -1;
+	}
+
+	/** Tests nonces <tt>firstNonce</tt>, <tt>firstNonce + nonceStride</tt>, etc. until one is valid or a lower valid nonce is found elsewhere. */
+	private static void searchNonces(long[] longHash, int workBufferLength, long difficulty, int firstNonce, int nonceStride,
+			long seedStrideMultiplier, AtomicInteger lowestNonce, AtomicBoolean isCancelled) {
+		long[] workBuffer = getThreadWorkBuffer(workBufferLength);
+
+		long seed = seedForNonce(firstNonce);
+
+		// Nonce overflowing to negative means we've tried all nonces
+		for (int nonce = firstNonce; nonce >= 0 && nonce < lowestNonce.get(); nonce += nonceStride, seed *= seedStrideMultiplier) {
+			if (isCancelled.get())
+				return;
+
+			long result = hashNonce(longHash, seed, workBuffer);
+
+			if (Long.numberOfLeadingZeros(result) >= difficulty) {
+				lowestNonce.accumulateAndGet(nonce, Math::min);
+				return;
+			}
+		}
 	}
 
 	public static boolean verify2(byte[] data, int workBufferLength, long difficulty, int nonce) {
+		return verify2(data, getThreadWorkBuffer(workBufferLength), difficulty, nonce);
+	}
+
+	/** Verifies nonce using caller's work buffer, of <tt>workBufferLength / 8</tt> longs, which can be reused between calls. */
+	public static boolean verify2(byte[] data, long[] workBuffer, long difficulty, int nonce) {
+		long[] longHash = toLongHash(data);
+
+		long result = hashNonce(longHash, seedForNonce(nonce), workBuffer);
+
+		return Long.numberOfLeadingZeros(result) >= difficulty;
+	}
+
+	/**
+	 * Returns per-nonce seed, i.e. initial seed multiplied by seed multiplier (nonce + 1) times,
+	 * using exponentiation by squaring rather than (nonce + 1) multiplications.
+	 * <p>
+	 * Negative nonces get the initial seed, as they always have.
+	 */
+	private static long seedForNonce(int nonce) {
+		return INITIAL_SEED * power(SEED_MULTIPLIER, Math.max(0, (long) nonce + 1));
+	}
+
+	/** Returns <tt>base</tt> to the power <tt>exponent</tt>, modulo 2^64, by squaring. */
+	private static long power(long base, long exponent) {
+		long result = 1L;
+
+		for (; exponent != 0; exponent >>>= 1) {
+			if ((exponent & 1) != 0)
+				result *= base;
+
+			base *= base;
+		}
+
+		return result;
+	}
+
+	private static long[] toLongHash(byte[] data) {
 		// Hash data with SHA256
 		byte[] hash = Crypto.digest(data);
 
-		long[] longHash = new long[4];
 		ByteBuffer byteBuffer = ByteBuffer.wrap(hash);
-		longHash[0] = byteBuffer.getLong();
-		longHash[1] = byteBuffer.getLong();
-		longHash[2] = byteBuffer.getLong();
-		longHash[3] = byteBuffer.getLong();
-		byteBuffer = null;
-
-		int longBufferLength = workBufferLength / 8;
-		long[] workBuffer = new long[longBufferLength];
-		long[] state = new long[4];
-
-		long seed = 8682522807148012L;
-		long seedMultiplier = 1181783497276652981L;
+		return new long[] { byteBuffer.getLong(), byteBuffer.getLong(), byteBuffer.getLong(), byteBuffer.getLong() };
+	}
 
-		for (int i = 0; i <= nonce; ++i)
-			seed *= seedMultiplier;
+	/**
+	 * Fills work buffer and returns XOR of randomly chosen entries, for one nonce's seed.
+	 * <p>
+	 * xoshiro256+ state is held in locals, rather than an array, so that the JIT can keep it in registers.
+	 */
+	private static long hashNonce(long[] longHash, long seed, long[] workBuffer) {
+		long s0 = longHash[0] ^ seed;
+		long s1 = longHash[1] ^ seed;
+		long s2 = longHash[2] ^ seed;
+		long s3 = longHash[3] ^ seed;
 
-		state[0] = longHash[0] ^ seed;
-		state[1] = longHash[1] ^ seed;
-		state[2] = longHash[2] ^ seed;
-		state[3] = longHash[3] ^ seed;
+		final int workBufferLength = workBuffer.length;
 
 		// Fill work buffer with random
-		for (int i = 0; i < workBuffer.length; ++i)
-			workBuffer[i] = xoshiro256p(state);
+		for (int i = 0; i < workBufferLength; ++i) {
+			workBuffer[i] = s0 + s3;
+
+			final long temp = s1 << 17;
+			s2 ^= s0;
+			s3 ^= s1;
+			s1 ^= s2;
+			s0 ^= s3;
+			s2 ^= temp;
+			s3 = Long.rotateLeft(s3, 45);
+		}
 
 		// Random bounce through whole buffer
 		long result = workBuffer[0];
-		for (int i = 0; i < 1024; ++i) {
-			int index = (int) (xoshiro256p(state) & Integer.MAX_VALUE) % workBuffer.length;
+		for (int i = 0; i < BOUNCE_COUNT; ++i) {
+			final long random = s0 + s3;
+
+			final long temp = s1 << 17;
+			s2 ^= s0;
+			s3 ^= s1;
+			s1 ^= s2;
+			s0 ^= s3;
+			s2 ^= temp;
+			s3 = Long.rotateLeft(s3, 45);
+
+			int index = (int) (random & Integer.MAX_VALUE) % workBufferLength;
 			result ^= workBuffer[index];
 		}
 
-		return Long.numberOfLeadingZeros(result) >= difficulty;
+		return result;
 	}
 
-	private static final long xoshiro256p(long[] state) {
-		final long result = state[0] + state[3];
-		final long temp = state[1] << 17;
+	private static synchronized ExecutorService getComputeExecutor() {
+		if (computeExecutor == null) {
+			ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(MAX_COMPUTE_THREADS, MAX_COMPUTE_THREADS,
+					COMPUTE_THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), new DaemonThreadFactory("MemoryPoW"));
+			threadPoolExecutor.allowCoreThreadTimeOut(true);
 
-		state[2] ^= state[0];
-		state[3] ^= state[1];
-		state[1] ^= state[2];
-		state[0] ^= state[3];
+			computeExecutor = threadPoolExecutor;
+		}
 
-		state[2] ^= temp;
-		state[3] = (state[3] << 45) | (state[3] >>> (64 - 45)); // rol64(s[3], 45);
+		return computeExecutor;
+	}
 
-		return result;
+	private static long[] getThreadWorkBuffer(int workBufferLength) {
+		SoftReference<long[]> reference = threadWorkBuffer.get();
+		long[] workBuffer = reference != null ? reference.get() : null;
+
+		if (workBuffer == null || workBuffer.length != workBufferLength / 8) {
+			workBuffer = new long[workBufferLength / 8];
+			threadWorkBuffer.set(new SoftReference<>(workBuffer));
+		}
+
+		return workBuffer;
 	}
 
 }
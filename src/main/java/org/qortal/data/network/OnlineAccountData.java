@@ -74,8 +74,8 @@ public class OnlineAccountData {
 
 	@Override
 	public int hashCode() {
-		// Pretty lazy implementation
-		return (int) this.timestamp;
+		// Entries in same block share timestamp, so include signature too
+		return Long.hashCode(this.timestamp) * 31 + Arrays.hashCode(this.signature);
 	}
 
 }
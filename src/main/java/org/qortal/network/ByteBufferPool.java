@@ -0,0 +1,134 @@
+package org.qortal.network;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Thread-safe pool of direct {@link ByteBuffer}s, in a few fixed size classes.
+ * <p>
+ * Peers only need a read buffer while a partially-received message is pending,
+ * so rather than each peer holding a maximum-message-sized buffer for its whole lifetime,
+ * peers borrow the smallest buffer that will do, move up to a larger size class only if a message needs it,
+ * and return their buffer as soon as it is empty.
+ * <p>
+ * Direct buffers avoid an extra copy when reading from socket channels, but are expensive to allocate,
+ * so returned buffers are kept for reuse, up to a per-size-class limit on retained bytes.
+ */
+public class ByteBufferPool {
+
+	/** Buffer sizes, in ascending order. */
+	private final int[] sizeClasses;
+	/** Maximum number of idle buffers kept, per size class. */
+	private final int[] maxIdleBuffers;
+	/** Idle buffers, per size class. */
+	private final Deque<ByteBuffer>[] idleBuffers;
+
+	/**
+	 * Creates pool of buffers.
+	 *
+	 * @param sizeClasses
+	 *            buffer sizes, in ascending order
+	 * @param maxIdleBytes
+	 *            maximum total capacity of idle buffers kept for reuse, per size class,
+	 *            though at least one buffer per size class is always kept
+	 */
+	@SuppressWarnings("unchecked")
+	public ByteBufferPool(int[] sizeClasses, int maxIdleBytes) {
+		for (int i = 1; i < sizeClasses.length; ++i)
+			if (sizeClasses[i] <= sizeClasses[i - 1])
+				throw new IllegalArgumentException("Buffer size classes must be in ascending order");
+
+		this.sizeClasses = Arrays.copyOf(sizeClasses, sizeClasses.length);
+		this.maxIdleBuffers = new int[sizeClasses.length];
+		this.idleBuffers = new Deque[sizeClasses.length];
+
+		for (int i = 0; i < sizeClasses.length; ++i) {
+			this.maxIdleBuffers[i] = Math.max(1, maxIdleBytes / sizeClasses[i]);
+			this.idleBuffers[i] = new ArrayDeque<>();
+		}
+	}
+
+	/** Returns capacity of largest buffers in pool. */
+	public int getMaxBufferSize() {
+		return this.sizeClasses[this.sizeClasses.length - 1];
+	}
+
+	/** Returns number of idle buffers held by pool, across all size classes. */
+	public int getIdleBufferCount() {
+		int count = 0;
+
+		for (Deque<ByteBuffer> buffers : this.idleBuffers)
+			synchronized (buffers) {
+				count += buffers.size();
+			}
+
+		return count;
+	}
+
+	/**
+	 * Returns cleared buffer with capacity of at least <tt>minCapacity</tt>.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <tt>minCapacity</tt> is larger than largest size class
+	 */
+	public ByteBuffer borrow(int minCapacity) {
+		int sizeClassIndex = 0;
+		while (this.sizeClasses[sizeClassIndex] < minCapacity)
+			if (++sizeClassIndex == this.sizeClasses.length)
+				throw new IllegalArgumentException(String.format("No buffers with capacity of %d bytes", minCapacity));
+
+		Deque<ByteBuffer> buffers = this.idleBuffers[sizeClassIndex];
+		synchronized (buffers) {
+			ByteBuffer buffer = buffers.pollFirst();
+			if (buffer != null)
+				return buffer;
+		}
+
+		return ByteBuffer.allocateDirect(this.sizeClasses[sizeClassIndex]);
+	}
+
+	/**
+	 * Returns buffer to pool.
+	 * <p>
+	 * Caller must not use <tt>buffer</tt>, or any buffer derived from it, afterwards.
+	 */
+	public void release(ByteBuffer buffer) {
+		int sizeClassIndex = Arrays.binarySearch(this.sizeClasses, buffer.capacity());
+		if (sizeClassIndex < 0 || !buffer.isDirect())
+			// Not one of ours
+			return;
+
+		buffer.clear();
+
+		Deque<ByteBuffer> buffers = this.idleBuffers[sizeClassIndex];
+		synchronized (buffers) {
+			if (buffers.size() < this.maxIdleBuffers[sizeClassIndex])
+				buffers.addFirst(buffer);
+		}
+	}
+
+	/**
+	 * Returns buffer from next size class up, containing the bytes written to <tt>buffer</tt> so far,
+	 * ready for more bytes to be written, and releases <tt>buffer</tt> back to pool.
+	 * <p>
+	 * <tt>buffer</tt> is expected to be in "write" mode, i.e. its position marks the end of its content.
+	 *
+	 * @return larger buffer, or null if <tt>buffer</tt> is already largest size class
+	 */
+	public ByteBuffer enlarge(ByteBuffer buffer) {
+		if (buffer.capacity() >= this.getMaxBufferSize())
+			return null;
+
+		ByteBuffer largerBuffer = this.borrow(buffer.capacity() + 1);
+
+		buffer.flip();
+		largerBuffer.put(buffer);
+
+		this.release(buffer);
+
+		return largerBuffer;
+	}
+
+}
@@ -1,8 +1,6 @@
 package org.qortal.network;
 
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -10,14 +8,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.qortal.controller.Controller;
 import org.qortal.crypto.Crypto;
-import org.qortal.crypto.MemoryPoW;
 import org.qortal.network.message.ChallengeMessage;
 import org.qortal.network.message.HelloMessage;
 import org.qortal.network.message.Message;
 import org.qortal.network.message.Message.MessageType;
 import org.qortal.settings.Settings;
 import org.qortal.network.message.ResponseMessage;
-import org.qortal.utils.DaemonThreadFactory;
 import org.qortal.utils.NTP;
 
 import com.google.common.primitives.Bytes;
@@ -71,6 +67,7 @@ public enum Handshake {
 
 			peer.setPeersConnectionTimestamp(peersConnectionTimestamp);
 			peer.setPeersVersion(versionString, version);
+			peer.setPeersCapabilities(helloMessage.getCapabilities());
 
 			return CHALLENGE;
 		}
@@ -80,7 +77,11 @@ public enum Handshake {
 			String versionString = Controller.getInstance().getVersionString();
 			long timestamp = NTP.getTime();
 
-			Message helloMessage = new HelloMessage(timestamp, versionString);
+			int capabilities = HelloMessage.CAPABILITY_TRANSACTION_BATCHES;
+			if (Settings.getInstance().isPeerMessageCompressionEnabled())
+				capabilities |= HelloMessage.CAPABILITY_COMPRESSION;
+
+			Message helloMessage = new HelloMessage(timestamp, versionString, capabilities);
 			if (!peer.sendMessage(helloMessage))
 				peer.disconnect("failed to send HELLO");
 		}
@@ -164,56 +165,45 @@ public enum Handshake {
 			int nonce = responseMessage.getNonce();
 			int powBufferSize = peer.getPeersVersion() < PEER_VERSION_131 ? POW_BUFFER_SIZE_PRE_131 : POW_BUFFER_SIZE_POST_131;
 			int powDifficulty = peer.getPeersVersion() < PEER_VERSION_131 ? POW_DIFFICULTY_PRE_131 : POW_DIFFICULTY_POST_131;
-			if (!MemoryPoW.verify2(data, powBufferSize, powDifficulty, nonce)) {
-				LOGGER.debug(() -> String.format("Peer %s sent incorrect RESPONSE nonce", peer));
-				return null;
-			}
-
-			peer.setPeersNodeId(Crypto.toNodeAddress(peersPublicKey));
-
-			// For inbound peers, we need to go into interim holding state while we compute RESPONSE
-			if (!peer.isOutbound())
-				return RESPONDING;
 
-			// Handshake completed!
-			return COMPLETED;
-		}
+			boolean isAccepted = powService.verify(peer, data, powBufferSize, powDifficulty, nonce, verifiedNonce -> {
+				if (verifiedNonce == null) {
+					LOGGER.debug(() -> String.format("Peer %s sent incorrect RESPONSE nonce", peer));
+					peer.disconnect("handshake failure");
+					return;
+				}
 
-		@Override
-		public void action(Peer peer) {
-			// Send response
+				peer.setPeersNodeId(Crypto.toNodeAddress(peersPublicKey));
 
-			byte[] peersPublicKey = peer.getPeersPublicKey();
-			byte[] peersChallenge = peer.getPeersChallenge();
+				// Inbound peers are still waiting for our RESPONSE
+				if (!peer.isOutbound()) {
+					sendResponse(peer);
+					return;
+				}
 
-			byte[] sharedSecret = Network.getInstance().getSharedSecret(peersPublicKey);
-			final byte[] data = Crypto.digest(Bytes.concat(sharedSecret, peersChallenge));
+				// Handshake completed!
+				if (moveToCompleted(peer))
+					Network.getInstance().onHandshakeCompleted(peer);
+			});
 
-			// We do this in a new thread as it can take a while...
-			responseExecutor.execute(() -> {
-				// Are we still connected?
-				if (peer.isStopping())
-					// No point computing for dead peer
-					return;
+			if (!isAccepted)
+				return null;
 
-				int powBufferSize = peer.getPeersVersion() < PEER_VERSION_131 ? POW_BUFFER_SIZE_PRE_131 : POW_BUFFER_SIZE_POST_131;
-				int powDifficulty = peer.getPeersVersion() < PEER_VERSION_131 ? POW_DIFFICULTY_PRE_131 : POW_DIFFICULTY_POST_131;
-				Integer nonce = MemoryPoW.compute2(data, powBufferSize, powDifficulty);
+			// Interim holding state while we verify RESPONSE, and for inbound peers, compute our RESPONSE
+			return RESPONDING;
+		}
 
-				Message responseMessage = new ResponseMessage(nonce, data);
-				if (!peer.sendMessage(responseMessage))
-					peer.disconnect("failed to send RESPONSE");
+		@Override
+		public void action(Peer peer) {
+			// Network calls this for inbound peers once their RESPONSE is received,
+			// but we only respond once their RESPONSE is verified (see above)
+			if (!peer.isOutbound())
+				return;
 
-				// For inbound peers, we should actually be in RESPONDING state.
-				// So we need to do the extra work to move to COMPLETED state.
-				if (!peer.isOutbound()) {
-					peer.setHandshakeStatus(COMPLETED);
-					Network.getInstance().onHandshakeCompleted(peer);
-				}
-			});
+			sendResponse(peer);
 		}
 	},
-	// Interim holding state while we compute RESPONSE to send to inbound peer
+	// Interim holding state while we verify peer's RESPONSE, and for inbound peers, compute our RESPONSE
 	RESPONDING(null) {
 		@Override
 		public Handshake onMessage(Peer peer, Message message) {
@@ -255,7 +245,10 @@ public enum Handshake {
 	private static final int POW_DIFFICULTY_POST_131 = 2; // leading zero bits
 
 
-	private static final ExecutorService responseExecutor = Executors.newFixedThreadPool(Settings.getInstance().getNetworkPoWComputePoolSize(), new DaemonThreadFactory("Network-PoW"));
+	/** Maximum time allowed for our, or peer's, proof-of-work to be computed or verified, in milliseconds. */
+	private static final long POW_TIMEOUT = 30 * 1000L; // ms
+
+	private static final HandshakePoWService powService = new HandshakePoWService(Settings.getInstance().getNetworkPoWComputePoolSize(), POW_TIMEOUT);
 
 	private static final byte[] ZERO_CHALLENGE = new byte[ChallengeMessage.CHALLENGE_LENGTH];
 
@@ -267,6 +260,46 @@ public enum Handshake {
 
 	public abstract Handshake onMessage(Peer peer, Message message);
 
+	private static void sendResponse(Peer peer) {
+		byte[] peersPublicKey = peer.getPeersPublicKey();
+		byte[] peersChallenge = peer.getPeersChallenge();
+
+		byte[] sharedSecret = Network.getInstance().getSharedSecret(peersPublicKey);
+		final byte[] data = Crypto.digest(Bytes.concat(sharedSecret, peersChallenge));
+
+		int powBufferSize = peer.getPeersVersion() < PEER_VERSION_131 ? POW_BUFFER_SIZE_PRE_131 : POW_BUFFER_SIZE_POST_131;
+		int powDifficulty = peer.getPeersVersion() < PEER_VERSION_131 ? POW_DIFFICULTY_PRE_131 : POW_DIFFICULTY_POST_131;
+
+		// We do this in a proof-of-work thread as it can take a while...
+		boolean isAccepted = powService.compute(peer, data, powBufferSize, powDifficulty, nonce -> {
+			// For inbound peers, sending our RESPONSE completes handshake.
+			// Mark as completed first, so any messages that peer sends after receiving RESPONSE aren't treated as handshake failures.
+			boolean isCompleted = !peer.isOutbound() && moveToCompleted(peer);
+
+			Message responseMessage = new ResponseMessage(nonce, data);
+			if (!peer.sendMessage(responseMessage)) {
+				peer.disconnect("failed to send RESPONSE");
+				return;
+			}
+
+			if (isCompleted)
+				Network.getInstance().onHandshakeCompleted(peer);
+		});
+
+		if (!isAccepted)
+			peer.disconnect("too busy to compute RESPONSE");
+	}
+
+	/** Moves peer from RESPONSE, or RESPONDING, to COMPLETED, returning true if this call did so. */
+	private static boolean moveToCompleted(Peer peer) {
+		if (!peer.compareAndSetHandshakeStatus(RESPONDING, COMPLETED) && !peer.compareAndSetHandshakeStatus(RESPONSE, COMPLETED))
+			return false;
+
+		// Peer might have messages that were held back while we were in RESPONDING state
+		Network.getInstance().wakeupMessageDispatch();
+		return true;
+	}
+
 	public abstract void action(Peer peer);
 
 }
@@ -0,0 +1,169 @@
+package org.qortal.network;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.qortal.crypto.MemoryPoW;
+import org.qortal.utils.DaemonThreadFactory;
+
+/**
+ * Runs handshake proof-of-work, both computing our RESPONSE nonces and verifying peers' nonces,
+ * on a fixed number of worker threads.
+ * <p>
+ * Each worker keeps its own work buffers for reuse, so a burst of handshakes doesn't
+ * allocate (and later garbage-collect) several megabytes per handshake.
+ * <p>
+ * Work for outbound peers, which we chose to connect to, is done before work for inbound peers.
+ * Only a limited number of inbound peers' work can be queued; beyond that, work is refused and
+ * the caller is expected to disconnect the peer. Work for peers that have disconnected,
+ * or that has been pending for too long, is abandoned, even part-way through computing a nonce.
+ */
+/* package */ class HandshakePoWService {
+
+	private static final Logger LOGGER = LogManager.getLogger(HandshakePoWService.class);
+
+	/** Maximum number of queued, or running, inbound peers' tasks, per worker thread. */
+	private static final int MAX_INBOUND_TASKS_PER_WORKER = 4;
+
+	/** Result of computing, or verifying, proof-of-work. */
+	public interface Callback {
+		/** Called with computed nonce, or for verification: nonce if valid, or null if not. Not called for abandoned work. */
+		void onResult(Integer nonce);
+	}
+
+	private class Task implements Runnable, Comparable<Task> {
+		private final Peer peer;
+		private final byte[] data;
+		private final int workBufferLength;
+		private final int difficulty;
+		/** Nonce to verify, or null to compute nonce. */
+		private final Integer nonce;
+		private final Callback callback;
+		private final long deadline;
+		private final long sequence = nextSequence.getAndIncrement();
+
+		private Task(Peer peer, byte[] data, int workBufferLength, int difficulty, Integer nonce, Callback callback) {
+			this.peer = peer;
+			this.data = data;
+			this.workBufferLength = workBufferLength;
+			this.difficulty = difficulty;
+			this.nonce = nonce;
+			this.callback = callback;
+			this.deadline = System.currentTimeMillis() + taskTimeout;
+		}
+
+		private boolean isAbandoned() {
+			return this.peer.isStopping() || System.currentTimeMillis() > this.deadline;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (this.isAbandoned()) {
+					this.abandon();
+					return;
+				}
+
+				long[] workBuffer = getWorkBuffer(this.workBufferLength);
+
+				if (this.nonce != null) {
+					boolean isValid = MemoryPoW.verify2(this.data, workBuffer, this.difficulty, this.nonce);
+					this.callback.onResult(isValid ? this.nonce : null);
+					return;
+				}
+
+				Integer computedNonce = MemoryPoW.compute2(this.data, workBuffer, this.difficulty, this::isAbandoned);
+				if (computedNonce == null || computedNonce < 0) {
+					this.abandon();
+					return;
+				}
+
+				this.callback.onResult(computedNonce);
+			} finally {
+				if (!this.peer.isOutbound())
+					queuedInboundTaskCount.decrementAndGet();
+			}
+		}
+
+		private void abandon() {
+			LOGGER.debug(() -> String.format("Abandoned handshake proof-of-work for peer %s", this.peer));
+
+			if (!this.peer.isStopping())
+				this.peer.disconnect("handshake proof-of-work timeout");
+		}
+
+		/** Outbound peers first, then oldest first. */
+		@Override
+		public int compareTo(Task other) {
+			if (this.peer.isOutbound() != other.peer.isOutbound())
+				return this.peer.isOutbound() ? -1 : 1;
+
+			return Long.compare(this.sequence, other.sequence);
+		}
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final int maxInboundTasks;
+	private final long taskTimeout;
+
+	/** Per-worker work buffers, keyed by length in bytes. */
+	private final ThreadLocal<Map<Integer, long[]>> workBuffers = ThreadLocal.withInitial(HashMap::new);
+
+	private final AtomicLong nextSequence = new AtomicLong();
+	private final AtomicInteger queuedInboundTaskCount = new AtomicInteger();
+
+	/**
+	 * @param workerCount
+	 *            number of threads doing proof-of-work
+	 * @param taskTimeout
+	 *            how long, in milliseconds, before queued or running work is abandoned
+	 */
+	public HandshakePoWService(int workerCount, long taskTimeout) {
+		this.executor = new ThreadPoolExecutor(workerCount, workerCount, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<>(), new DaemonThreadFactory("Network-PoW"));
+		this.maxInboundTasks = workerCount * MAX_INBOUND_TASKS_PER_WORKER;
+		this.taskTimeout = taskTimeout;
+	}
+
+	/**
+	 * Queues computing nonce for <tt>data</tt>, on behalf of <tt>peer</tt>.
+	 *
+	 * @return false if work was refused because too many inbound peers' work is already queued
+	 */
+	public boolean compute(Peer peer, byte[] data, int workBufferLength, int difficulty, Callback callback) {
+		return this.submit(new Task(peer, data, workBufferLength, difficulty, null, callback));
+	}
+
+	/**
+	 * Queues verifying <tt>peer</tt>'s nonce for <tt>data</tt>.
+	 *
+	 * @return false if work was refused because too many inbound peers' work is already queued
+	 */
+	public boolean verify(Peer peer, byte[] data, int workBufferLength, int difficulty, int nonce, Callback callback) {
+		return this.submit(new Task(peer, data, workBufferLength, difficulty, nonce, callback));
+	}
+
+	private boolean submit(Task task) {
+		if (!task.peer.isOutbound() && this.queuedInboundTaskCount.incrementAndGet() > this.maxInboundTasks) {
+			this.queuedInboundTaskCount.decrementAndGet();
+
+			LOGGER.debug(() -> String.format("Too much pending handshake proof-of-work to accept more from peer %s", task.peer));
+			return false;
+		}
+
+		this.executor.execute(task);
+		return true;
+	}
+
+	private long[] getWorkBuffer(int workBufferLength) {
+		return this.workBuffers.get().computeIfAbsent(workBufferLength, length -> new long[length / 8]);
+	}
+
+}
@@ -14,8 +14,10 @@ import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -28,6 +30,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -43,6 +46,7 @@ import org.qortal.network.message.GetPeersMessage;
 import org.qortal.network.message.GetUnconfirmedTransactionsMessage;
 import org.qortal.network.message.HeightV2Message;
 import org.qortal.network.message.Message;
+import org.qortal.network.message.Message.MessageException;
 import org.qortal.network.message.PeersV2Message;
 import org.qortal.network.message.PingMessage;
 import org.qortal.network.message.TransactionSignaturesMessage;
@@ -86,6 +90,18 @@ public class Network {
 	};
 
 	private static final long NETWORK_EPC_KEEPALIVE = 10L; // seconds
+	/** Maximum number of threads per reactor. Reactor tasks only read/write sockets, so don't block for long. */
+	private static final int MAX_REACTOR_THREADS = 4;
+
+	/** Sizes of pooled peer read buffers, below maximum message size, in bytes. */
+	private static final int[] READ_BUFFER_SIZES = new int[] { 16 * 1024, 256 * 1024 };
+	/** Maximum idle bytes kept in read buffer pool, per buffer size. */
+	private static final int READ_BUFFER_POOL_IDLE_BYTES = 8 * 1024 * 1024; // bytes
+
+	/** Number of threads sending broadcast messages to peers. */
+	private static final int BROADCAST_THREAD_COUNT = 4;
+	/** Minimum number of peers handled by one broadcast thread, as queuing messages for a peer is cheap. */
+	private static final int MIN_BROADCAST_BATCH_SIZE = 8;
 
 	public static final int MAX_SIGNATURES_PER_REPLY = 500;
 	public static final int MAX_BLOCK_SUMMARIES_PER_REPLY = 500;
@@ -96,6 +112,7 @@ public class Network {
 	private final String ourNodeId = Crypto.toNodeAddress(edPublicKeyParams.getEncoded());
 
 	private final int maxMessageSize;
+	private final ByteBufferPool readBufferPool;
 	private final int minOutboundPeers;
 	private final int maxPeers;
 
@@ -103,15 +120,20 @@ public class Network {
 	private final List<Peer> connectedPeers = new ArrayList<>();
 	private final List<PeerAddress> selfPeers = new ArrayList<>();
 
+	/** Accepts connections and dispatches peers' messages, pings, etc. to worker threads. */
 	private final ExecuteProduceConsume networkEPC;
-	private Selector channelSelector;
+	/** Selector for listen socket only, also woken when there are peer messages to dispatch. */
+	private Selector acceptSelector;
 	private ServerSocketChannel serverChannel;
-	private Iterator<SelectionKey> channelIterator = null;
+
+	/** Reactors doing socket I/O, each for its own share of connected peers. */
+	private final List<ChannelReactor> reactors = new ArrayList<>();
 
 	// volatile because value is updated inside any one of the EPC threads
 	private volatile long nextConnectTaskTimestamp = 0L; // ms - try first connect once NTP syncs
 
-	private ExecutorService broadcastExecutor = Executors.newCachedThreadPool();
+	/** Fixed-size pool, so bursts of broadcasts queue up instead of spawning more threads. */
+	private final ExecutorService broadcastExecutor = Executors.newFixedThreadPool(BROADCAST_THREAD_COUNT, new NamedThreadFactory("Network-Broadcast"));
 	// volatile because value is updated inside any one of the EPC threads
 	private volatile long nextBroadcastTimestamp = 0L; // ms - try first broadcast once NTP syncs
 
@@ -122,6 +144,9 @@ public class Network {
 	private Network() {
 		maxMessageSize = 4 + 1 + 4 + BlockChain.getInstance().getMaxBlockSize();
 
+		int[] readBufferSizes = IntStream.concat(IntStream.of(READ_BUFFER_SIZES).filter(size -> size < maxMessageSize), IntStream.of(maxMessageSize)).toArray();
+		readBufferPool = new ByteBufferPool(readBufferSizes, READ_BUFFER_POOL_IDLE_BYTES);
+
 		minOutboundPeers = Settings.getInstance().getMinOutboundPeers();
 		maxPeers = Settings.getInstance().getMaxPeers();
 
@@ -132,6 +157,16 @@ public class Network {
 				new SynchronousQueue<Runnable>(),
 				new NamedThreadFactory("Network-EPC"));
 		networkEPC = new NetworkProcessor(networkExecutor);
+
+		int reactorCount = Math.max(1, Settings.getInstance().getNetworkReactorCount());
+		for (int i = 0; i < reactorCount; ++i) {
+			ExecutorService reactorExecutor = new ThreadPoolExecutor(1,
+					MAX_REACTOR_THREADS,
+					NETWORK_EPC_KEEPALIVE, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(),
+					new NamedThreadFactory("Network-Reactor-" + i));
+			reactors.add(new ChannelReactor(reactorExecutor));
+		}
 	}
 
 	public void start() throws IOException, DataException {
@@ -143,14 +178,17 @@ public class Network {
 			InetAddress bindAddr = InetAddress.getByName(Settings.getInstance().getBindAddress());
 			InetSocketAddress endpoint = new InetSocketAddress(bindAddr, listenPort);
 
-			channelSelector = Selector.open();
+			acceptSelector = Selector.open();
+
+			for (ChannelReactor reactor : reactors)
+				reactor.open();
 
 			// Set up listen socket
 			serverChannel = ServerSocketChannel.open();
 			serverChannel.configureBlocking(false);
 			serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
 			serverChannel.bind(endpoint, LISTEN_BACKLOG);
-			serverChannel.register(channelSelector, SelectionKey.OP_ACCEPT);
+			serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
 		} catch (UnknownHostException e) {
 			LOGGER.error(String.format("Can't bind listen socket to address %s", Settings.getInstance().getBindAddress()));
 			throw new IOException("Can't bind listen socket to address", e);
@@ -166,7 +204,10 @@ public class Network {
 			}
 		}
 
-		// Start up first networking thread
+		// Start up first networking threads
+		for (ChannelReactor reactor : reactors)
+			reactor.start();
+
 		networkEPC.start();
 	}
 
@@ -196,10 +237,21 @@ public class Network {
 		return this.maxMessageSize;
 	}
 
+	/** Pool of buffers for reading from peers, the largest being maximum message size. */
+	/* package */ ByteBufferPool getReadBufferPool() {
+		return this.readBufferPool;
+	}
+
+	/** Returns stats for threads accepting connections and processing peers' messages. */
 	public StatsSnapshot getStatsSnapshot() {
 		return this.networkEPC.getStatsSnapshot();
 	}
 
+	/** Returns stats for each reactor's socket I/O threads. */
+	public List<StatsSnapshot> getReactorStatsSnapshots() {
+		return this.reactors.stream().map(ChannelReactor::getStatsSnapshot).collect(Collectors.toList());
+	}
+
 	// Peer lists
 
 	public List<PeerData> getAllKnownPeers() {
@@ -316,7 +368,7 @@ public class Network {
 				return task;
 
 			// Only this method can block to reduce CPU spin
-			task = maybeProduceChannelTask(canBlock);
+			task = maybeProduceAcceptTask(canBlock);
 			if (task != null)
 				return task;
 
@@ -383,6 +435,54 @@ public class Network {
 			return () -> Controller.getInstance().doNetworkBroadcast();
 		}
 
+		private Task maybeProduceAcceptTask(boolean canBlock) throws InterruptedException {
+			try {
+				if (canBlock)
+					acceptSelector.select(1000L);
+				else
+					acceptSelector.selectNow();
+			} catch (IOException e) {
+				LOGGER.warn(String.format("Accept selection threw IOException: %s", e.getMessage()));
+				return null;
+			}
+
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedException();
+
+			// Only listen socket is registered, so any selected key means connection(s) to accept
+			if (acceptSelector.selectedKeys().isEmpty())
+				return null;
+
+			acceptSelector.selectedKeys().clear();
+
+			return () -> acceptConnection(serverChannel);
+		}
+	}
+
+	/**
+	 * Reads from, and writes to, sockets of its share of peers, using its own selector and threads.
+	 * <p>
+	 * Messages read from peers are queued by {@link Peer} for {@link NetworkProcessor} to dispatch,
+	 * so reactor threads are never held up by message processing.
+	 */
+	class ChannelReactor extends ExecuteProduceConsume {
+
+		private Selector selector;
+		private Iterator<SelectionKey> channelIterator = null;
+
+		public ChannelReactor(ExecutorService executor) {
+			super(executor);
+		}
+
+		/* package */ void open() throws IOException {
+			this.selector = Selector.open();
+		}
+
+		/** Returns number of peers using this reactor, including recently disconnected peers whose keys are yet to be deselected. */
+		/* package */ int getPeerCount() {
+			return this.selector.keys().size();
+		}
+
 		class ChannelTask implements ExecuteProduceConsume.Task {
 			private final SelectionKey selectionKey;
 
@@ -397,11 +497,11 @@ public class Network {
 							Thread.currentThread().getId(), selectionKey.channel(), selectionKey.readyOps()));
 
 					// process pending channel task
-					if (selectionKey.isReadable()) {
+					if (selectionKey.isWritable())
+						connectionWrite((SocketChannel) selectionKey.channel());
+
+					if (selectionKey.isReadable())
 						connectionRead((SocketChannel) selectionKey.channel());
-					} else if (selectionKey.isAcceptable()) {
-						acceptConnection((ServerSocketChannel) selectionKey.channel());
-					}
 
 					LOGGER.trace(() -> String.format("Thread %d processed channel: %s", Thread.currentThread().getId(), selectionKey.channel()));
 				} catch (CancelledKeyException e) {
@@ -410,7 +510,7 @@ public class Network {
 			}
 
 			private void connectionRead(SocketChannel socketChannel) {
-				Peer peer = getPeerFromChannel(socketChannel);
+				Peer peer = (Peer) selectionKey.attachment();
 				if (peer == null)
 					return;
 
@@ -426,43 +526,63 @@ public class Network {
 					peer.disconnect("I/O error");
 				}
 			}
+
+			private void connectionWrite(SocketChannel socketChannel) {
+				Peer peer = (Peer) selectionKey.attachment();
+				if (peer == null)
+					return;
+
+				try {
+					peer.writeChannel();
+				} catch (IOException e) {
+					LOGGER.trace(() -> String.format("Network thread %s encountered I/O error while writing: %s", Thread.currentThread().getId(), e.getMessage()), e);
+					peer.disconnect("I/O error");
+				}
+			}
 		}
 
-		private Task maybeProduceChannelTask(boolean canBlock) throws InterruptedException {
+		@Override
+		protected Task produceTask(boolean canBlock) throws InterruptedException {
 			final SelectionKey nextSelectionKey;
 
-			// Synchronization here to enforce thread-safety on channelIterator
-			synchronized (channelSelector) {
-				// anything to do?
-				if (channelIterator == null) {
-					try {
-						if (canBlock)
-							channelSelector.select(1000L);
-						else
-							channelSelector.selectNow();
-					} catch (IOException e) {
-						LOGGER.warn(String.format("Channel selection threw IOException: %s", e.getMessage()));
-						return null;
-					}
+			// anything to do?
+			if (this.channelIterator == null) {
+				try {
+					if (canBlock)
+						this.selector.select(1000L);
+					else
+						this.selector.selectNow();
+				} catch (IOException e) {
+					LOGGER.warn(String.format("Channel selection threw IOException: %s", e.getMessage()));
+					return null;
+				}
 
-					if (Thread.currentThread().isInterrupted())
-						throw new InterruptedException();
+				if (Thread.currentThread().isInterrupted())
+					throw new InterruptedException();
 
-					channelIterator = channelSelector.selectedKeys().iterator();
-				}
+				this.channelIterator = this.selector.selectedKeys().iterator();
+			}
 
-				if (channelIterator.hasNext()) {
-					nextSelectionKey = channelIterator.next();
-					channelIterator.remove();
-				} else {
-					nextSelectionKey = null;
-					channelIterator = null; // Nothing to do so reset iterator to cause new select
-				}
+			if (this.channelIterator.hasNext()) {
+				nextSelectionKey = this.channelIterator.next();
+				this.channelIterator.remove();
 
-				LOGGER.trace(() -> String.format("Thread %d, nextSelectionKey %s, channelIterator now %s",
-						Thread.currentThread().getId(), nextSelectionKey, channelIterator));
+				// Stop selecting for writability until this task has written what it can, otherwise we'd spin.
+				// Peer.writeChannel() re-registers interest if there is still more to write.
+				try {
+					if (nextSelectionKey.isValid() && nextSelectionKey.isWritable())
+						nextSelectionKey.interestOps(nextSelectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+				} catch (CancelledKeyException e) {
+					// Channel closed - ChannelTask will deal with this
+				}
+			} else {
+				nextSelectionKey = null;
+				this.channelIterator = null; // Nothing to do so reset iterator to cause new select
 			}
 
+			LOGGER.trace(() -> String.format("Thread %d, nextSelectionKey %s, channelIterator now %s",
+					Thread.currentThread().getId(), nextSelectionKey, this.channelIterator));
+
 			if (nextSelectionKey == null)
 				return null;
 
@@ -470,6 +590,22 @@ public class Network {
 		}
 	}
 
+	/** Returns reactor with fewest peers, for a new peer. */
+	private ChannelReactor getLeastBusyReactor() {
+		ChannelReactor leastBusyReactor = null;
+		int leastPeerCount = Integer.MAX_VALUE;
+
+		for (ChannelReactor reactor : this.reactors) {
+			int peerCount = reactor.getPeerCount();
+			if (peerCount < leastPeerCount) {
+				leastBusyReactor = reactor;
+				leastPeerCount = peerCount;
+			}
+		}
+
+		return leastBusyReactor;
+	}
+
 	private void acceptConnection(ServerSocketChannel serverSocketChannel) throws InterruptedException {
 		SocketChannel socketChannel;
 
@@ -503,7 +639,7 @@ public class Network {
 
 				LOGGER.debug(() -> String.format("Connection accepted from peer %s", PeerAddress.fromSocket(socketChannel.socket())));
 
-				newPeer = new Peer(socketChannel, channelSelector);
+				newPeer = new Peer(socketChannel, getLeastBusyReactor().selector);
 				this.connectedPeers.add(newPeer);
 			}
 		} catch (IOException e) {
@@ -575,7 +711,7 @@ public class Network {
 	}
 
 	private void connectPeer(Peer newPeer) throws InterruptedException {
-		SocketChannel socketChannel = newPeer.connect(this.channelSelector);
+		SocketChannel socketChannel = newPeer.connect(getLeastBusyReactor().selector);
 		if (socketChannel == null)
 			return;
 
@@ -589,20 +725,11 @@ public class Network {
 		this.onPeerReady(newPeer);
 	}
 
-	private Peer getPeerFromChannel(SocketChannel socketChannel) {
-		synchronized (this.connectedPeers) {
-			for (Peer peer : this.connectedPeers)
-				if (peer.getSocketChannel() == socketChannel)
-					return peer;
-		}
-
-		return null;
-	}
-
 	// Peer callbacks
 
-	/*package*/ void wakeupChannelSelector() {
-		this.channelSelector.wakeup();
+	/** Wakes thread waiting to accept connections, so that it can dispatch peers' newly-arrived messages instead. */
+	/*package*/ void wakeupMessageDispatch() {
+		this.acceptSelector.wakeup();
 	}
 
 	/*package*/ boolean verify(byte[] signature, byte[] message) {
@@ -716,7 +843,9 @@ public class Network {
 				// We have inbound connection so we need to respond in kind with what we just received
 				handshakeStatus.action(peer);
 
-			peer.setHandshakeStatus(newHandshakeStatus);
+			// Proof-of-work threads might have already moved status on
+			if (!peer.compareAndSetHandshakeStatus(handshakeStatus, newHandshakeStatus))
+				return;
 
 			if (newHandshakeStatus == Handshake.COMPLETED)
 				this.onHandshakeCompleted(peer);
@@ -862,6 +991,11 @@ public class Network {
 	}
 
 	public Message buildHeightMessage(Peer peer, BlockData blockData) {
+		return this.buildHeightMessage(blockData);
+	}
+
+	/** Returns height message suitable for all peers, so it can be built once per broadcast. */
+	public Message buildHeightMessage(BlockData blockData) {
 		// HEIGHT_V2 contains way more useful info
 		return new HeightV2Message(blockData.getHeight(), blockData.getSignature(), blockData.getTimestamp(), blockData.getMinterPublicKey());
 	}
@@ -1064,47 +1198,71 @@ public class Network {
 		}
 	}
 
+	/**
+	 * Sends message built by <tt>peerMessageBuilder</tt> to each handshaked peer, asynchronously.
+	 * <p>
+	 * Peers are split into batches that are sent to in parallel. Builder can return null to skip a peer.
+	 * <p>
+	 * If builder returns the same message instance for many peers, it is only serialized once
+	 * (or twice, if some peers accept compression) and the bytes are shared by all peers' send queues.
+	 */
 	public void broadcast(Function<Peer, Message> peerMessageBuilder) {
-		class Broadcaster implements Runnable {
-			private final Random random = new Random();
+		List<Peer> targetPeers = this.getHandshakedPeers();
+		if (targetPeers.isEmpty())
+			return;
 
-			private List<Peer> targetPeers;
-			private Function<Peer, Message> peerMessageBuilder;
+		BroadcastBytes broadcastBytes = new BroadcastBytes();
 
-			public Broadcaster(List<Peer> targetPeers, Function<Peer, Message> peerMessageBuilder) {
-				this.targetPeers = targetPeers;
-				this.peerMessageBuilder = peerMessageBuilder;
-			}
+		int batchSize = Math.max(MIN_BROADCAST_BATCH_SIZE, (targetPeers.size() + BROADCAST_THREAD_COUNT - 1) / BROADCAST_THREAD_COUNT);
 
-			@Override
-			public void run() {
-				Thread.currentThread().setName("Network Broadcast");
-
-				for (Peer peer : targetPeers) {
-					// Very short sleep to reduce strain, improve multi-threading and catch interrupts
-					try {
-						Thread.sleep(random.nextInt(20) + 20L);
-					} catch (InterruptedException e) {
-						break;
-					}
+		try {
+			for (int fromIndex = 0; fromIndex < targetPeers.size(); fromIndex += batchSize) {
+				List<Peer> batchPeers = targetPeers.subList(fromIndex, Math.min(fromIndex + batchSize, targetPeers.size()));
 
-					Message message = peerMessageBuilder.apply(peer);
+				this.broadcastExecutor.execute(() -> broadcastToPeers(batchPeers, peerMessageBuilder, broadcastBytes));
+			}
+		} catch (RejectedExecutionException e) {
+			// Can't execute - probably because we're shutting down, so ignore
+		}
+	}
 
-					if (message == null)
-						continue;
+	private static void broadcastToPeers(List<Peer> peers, Function<Peer, Message> peerMessageBuilder, BroadcastBytes broadcastBytes) {
+		for (Peer peer : peers) {
+			if (Thread.currentThread().isInterrupted())
+				return;
 
-					if (!peer.sendMessage(message))
-						peer.disconnect("failed to broadcast message");
-				}
+			Message message = peerMessageBuilder.apply(peer);
+			if (message == null)
+				continue;
 
-				Thread.currentThread().setName("Network Broadcast (dormant)");
+			byte[] messageBytes;
+			try {
+				messageBytes = broadcastBytes.getBytes(message, peer.isCompressionEnabled());
+			} catch (MessageException e) {
+				LOGGER.warn(String.format("Failed to broadcast %s message: %s", message.getType().name(), e.getMessage()));
+				continue;
 			}
+
+			if (!peer.sendMessageBytes(message, messageBytes))
+				peer.disconnect("failed to broadcast message");
 		}
+	}
 
-		try {
-			broadcastExecutor.execute(new Broadcaster(this.getHandshakedPeers(), peerMessageBuilder));
-		} catch (RejectedExecutionException e) {
-			// Can't execute - probably because we're shutting down, so ignore
+	/** Serialized messages for one broadcast, keyed by message instance, so that peers can share bytes. */
+	private static class BroadcastBytes {
+		private final Map<Message, byte[][]> bytesByMessage = Collections.synchronizedMap(new IdentityHashMap<>());
+
+		public byte[] getBytes(Message message, boolean allowCompression) throws MessageException {
+			byte[][] messageBytes = this.bytesByMessage.computeIfAbsent(message, key -> new byte[2][]);
+			int index = allowCompression ? 1 : 0;
+
+			// Other threads wanting same bytes would only have to serialize them too, so they might as well wait
+			synchronized (messageBytes) {
+				if (messageBytes[index] == null)
+					messageBytes[index] = message.toBytes(allowCompression);
+
+				return messageBytes[index];
+			}
 		}
 	}
 
@@ -1123,6 +1281,10 @@ public class Network {
 		try {
 			if (!this.networkEPC.shutdown(5000))
 				LOGGER.warn("Network threads failed to terminate");
+
+			for (ChannelReactor reactor : this.reactors)
+				if (!reactor.shutdown(1000))
+					LOGGER.warn("Network reactor threads failed to terminate");
 		} catch (InterruptedException e) {
 			LOGGER.warn("Interrupted while waiting for networking threads to terminate");
 		}
@@ -7,12 +7,17 @@ import java.net.SocketTimeoutException;
 import java.net.StandardSocketOptions;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -25,6 +30,7 @@ import org.apache.logging.log4j.Logger;
 import org.qortal.data.network.PeerChainTipData;
 import org.qortal.data.network.PeerData;
 import org.qortal.network.message.ChallengeMessage;
+import org.qortal.network.message.HelloMessage;
 import org.qortal.network.message.Message;
 import org.qortal.network.message.PingMessage;
 import org.qortal.network.message.Message.MessageException;
@@ -32,6 +38,7 @@ import org.qortal.network.message.Message.MessageType;
 import org.qortal.settings.Settings;
 import org.qortal.utils.ExecuteProduceConsume;
 import org.qortal.utils.NTP;
+import org.qortal.utils.RollingBloomFilter;
 
 import com.google.common.net.HostAndPort;
 import com.google.common.net.InetAddresses;
@@ -54,9 +61,50 @@ public class Peer {
 	 */
 	private static final int PING_INTERVAL = 20_000; // ms
 
+	/**
+	 * Queued outbound bytes beyond which 'droppable' messages are discarded instead of queued. (bytes)
+	 * <p>
+	 * Droppable messages are notifications that will be superseded or repeated later anyway.
+	 */
+	private static final int DROPPABLE_QUEUE_THRESHOLD = 1024 * 1024; // bytes
+
+	/** Message types that can be discarded, instead of queued, if peer is slow to accept data. */
+	private static final EnumSet<MessageType> DROPPABLE_MESSAGE_TYPES = EnumSet.of(MessageType.HEIGHT_V2,
+			MessageType.PEERS_V2, MessageType.GET_PEERS, MessageType.TRANSACTION_SIGNATURES,
+			MessageType.ONLINE_ACCOUNTS, MessageType.GET_ONLINE_ACCOUNTS);
+
+	/**
+	 * Message types where only the latest queued message matters.
+	 * <p>
+	 * Queuing one of these replaces any earlier, as yet unsent, message of the same type.
+	 */
+	private static final EnumSet<MessageType> SUPERSEDABLE_MESSAGE_TYPES = EnumSet.of(MessageType.HEIGHT_V2);
+
+	/**
+	 * Number of transaction signatures remembered, per generation, as known to peer.
+	 * <p>
+	 * Two generations are kept, so filter covers a few thousand recent transactions
+	 * in under 8KB per peer.
+	 */
+	private static final int KNOWN_TRANSACTION_SIGNATURES_PER_GENERATION = 2048;
+	/** Chance that we wrongly think peer knows a transaction, and so don't announce it to them. */
+	private static final double KNOWN_TRANSACTION_SIGNATURES_FALSE_POSITIVE_RATE = 0.001;
+
+	/** Framed message bytes waiting to be written to peer's socket. */
+	private static class QueuedMessage {
+		private final MessageType type;
+		private final ByteBuffer buffer;
+
+		private QueuedMessage(MessageType type, byte[] bytes) {
+			this.type = type;
+			this.buffer = ByteBuffer.wrap(bytes);
+		}
+	}
+
 	private volatile boolean isStopping = false;
 
 	private SocketChannel socketChannel = null;
+	private SelectionKey selectionKey = null;
 	private InetSocketAddress resolvedAddress = null;
 	/** True if remote address is loopback/link-local/site-local, false otherwise. */
 	private boolean isLocal;
@@ -67,11 +115,23 @@ public class Peer {
 	private Map<Integer, BlockingQueue<Message>> replyQueues;
 	private LinkedBlockingQueue<Message> pendingMessages;
 
+	/** Outbound messages, oldest first, drained by network threads when socket is writable. */
+	private final Deque<QueuedMessage> sendQueue = new ArrayDeque<>();
+	/** Unwritten bytes in <tt>sendQueue</tt>. Guarded by <tt>sendQueue</tt>. */
+	private int sendQueueBytes = 0;
+	/** Number of droppable messages discarded because peer was slow to accept data. Guarded by <tt>sendQueue</tt>. */
+	private long droppedMessageCount = 0;
+	/** Number of queued messages replaced by newer messages of same type. Guarded by <tt>sendQueue</tt>. */
+	private long supersededMessageCount = 0;
+
+	/** Transaction signatures that peer already knows about, because peer sent or announced them, or we announced them to peer. */
+	private final RollingBloomFilter knownTransactionSignatures = new RollingBloomFilter(KNOWN_TRANSACTION_SIGNATURES_PER_GENERATION, KNOWN_TRANSACTION_SIGNATURES_FALSE_POSITIVE_RATE);
+
 	/** True if we created connection to peer, false if we accepted incoming connection from peer. */
 	private final boolean isOutbound;
 
 	private final Object handshakingLock = new Object();
-	private Handshake handshakeStatus = Handshake.STARTED;
+	private volatile Handshake handshakeStatus = Handshake.STARTED;
 	private volatile boolean handshakeMessagePending = false;
 
 	/** Timestamp of when socket was accepted, or connected. */
@@ -101,6 +161,8 @@ public class Peer {
 	private String peersVersionString = null;
 	/** Numeric version of peer. */
 	private Long peersVersion = null;
+	/** Optional capabilities, as reported in peer's HELLO. */
+	private volatile int peersCapabilities = 0;
 
 	/** Latest block info as reported by peer. */
 	private PeerChainTipData peersChainTipData;
@@ -117,13 +179,14 @@ public class Peer {
 	public Peer(SocketChannel socketChannel, Selector channelSelector) throws IOException {
 		this.isOutbound = false;
 		this.socketChannel = socketChannel;
-		sharedSetup(channelSelector);
 
 		this.resolvedAddress = ((InetSocketAddress) socketChannel.socket().getRemoteSocketAddress());
 		this.isLocal = isAddressLocal(this.resolvedAddress.getAddress());
 
 		PeerAddress peerAddress = PeerAddress.fromSocket(socketChannel.socket());
 		this.peerData = new PeerData(peerAddress);
+
+		sharedSetup(channelSelector);
 	}
 
 	// Getters / setters
@@ -160,6 +223,23 @@ public class Peer {
 		}
 	}
 
+	/**
+	 * Sets handshake status, but only if current status is <tt>expectedStatus</tt>.
+	 * <p>
+	 * Used where status can be moved on by both network threads and proof-of-work threads.
+	 *
+	 * @return true if status was set
+	 */
+	/*package*/ boolean compareAndSetHandshakeStatus(Handshake expectedStatus, Handshake handshakeStatus) {
+		synchronized (this.handshakingLock) {
+			if (this.handshakeStatus != expectedStatus)
+				return false;
+
+			this.handshakeStatus = handshakeStatus;
+			return true;
+		}
+	}
+
 	/*package*/ void resetHandshakeMessagePending() {
 		this.handshakeMessagePending = false;
 	}
@@ -195,6 +275,21 @@ public class Peer {
 		}
 	}
 
+	/*package*/ void setPeersCapabilities(int capabilities) {
+		this.peersCapabilities = capabilities;
+	}
+
+	/** Returns whether peer accepts GET_TRANSACTIONS requests. */
+	public boolean isTransactionBatchingSupported() {
+		return (this.peersCapabilities & HelloMessage.CAPABILITY_TRANSACTION_BATCHES) != 0;
+	}
+
+	/** Returns whether we can send messages with compressed data to peer. */
+	public boolean isCompressionEnabled() {
+		return (this.peersCapabilities & HelloMessage.CAPABILITY_COMPRESSION) != 0
+				&& Settings.getInstance().isPeerMessageCompressionEnabled();
+	}
+
 	public Long getPeersConnectionTimestamp() {
 		synchronized (this.peerInfoLock) {
 			return this.peersConnectionTimestamp;
@@ -271,6 +366,44 @@ public class Peer {
 		}
 	}
 
+	/** Returns number of outbound messages waiting to be written to peer. */
+	public int getSendQueueDepth() {
+		synchronized (this.sendQueue) {
+			return this.sendQueue.size();
+		}
+	}
+
+	/** Returns number of outbound bytes waiting to be written to peer. */
+	public int getSendQueueBytes() {
+		synchronized (this.sendQueue) {
+			return this.sendQueueBytes;
+		}
+	}
+
+	/** Returns number of droppable outbound messages discarded because peer was slow to accept data. */
+	public long getDroppedMessageCount() {
+		synchronized (this.sendQueue) {
+			return this.droppedMessageCount;
+		}
+	}
+
+	/** Returns number of queued outbound messages replaced by newer messages of same type, e.g. HEIGHT_V2. */
+	public long getSupersededMessageCount() {
+		synchronized (this.sendQueue) {
+			return this.supersededMessageCount;
+		}
+	}
+
+	/** Records that peer knows about transaction with passed signature, so there's no need to announce it to them. */
+	public void addKnownTransactionSignature(byte[] signature) {
+		this.knownTransactionSignatures.add(signature);
+	}
+
+	/** Returns whether peer (probably) knows about transaction with passed signature. */
+	public boolean isTransactionSignatureKnown(byte[] signature) {
+		return this.knownTransactionSignatures.mightContain(signature);
+	}
+
 	/*package*/ void queueMessage(Message message) {
 		if (!this.pendingMessages.offer(message))
 			LOGGER.info(() -> String.format("No room to queue message from peer %s - discarding", this));
@@ -288,14 +421,18 @@ public class Peer {
 		this.connectionTimestamp = NTP.getTime();
 		this.socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
 		this.socketChannel.configureBlocking(false);
-		this.socketChannel.register(channelSelector, SelectionKey.OP_READ);
-		this.byteBuffer = null; // Defer allocation to when we need it, to save memory. Sorry GC!
+		this.byteBuffer = null; // Borrowed from pool only while needed
 		this.replyQueues = Collections.synchronizedMap(new HashMap<Integer, BlockingQueue<Message>>());
 		this.pendingMessages = new LinkedBlockingQueue<>();
 
 		Random random = new SecureRandom();
 		this.ourChallenge = new byte[ChallengeMessage.CHALLENGE_LENGTH];
 		random.nextBytes(this.ourChallenge);
+
+		// Register last, as a reactor thread can start reading from socket straight away
+		this.selectionKey = this.socketChannel.register(channelSelector, SelectionKey.OP_READ, this);
+		// Selector might be blocked in select() without our new key, so nudge it
+		channelSelector.wakeup();
 	}
 
 	public SocketChannel connect(Selector channelSelector) {
@@ -335,79 +472,113 @@ public class Peer {
 
 	/**
 	 * Attempt to buffer bytes from socketChannel.
+	 * <p>
+	 * Read buffers are borrowed from {@link Network}'s pool, starting with the smallest,
+	 * moving to a larger buffer only if a partially-received message needs it,
+	 * and returned to the pool once all received bytes have been processed.
 	 * 
 	 * @throws IOException
 	 */
 	/* package */ void readChannel() throws IOException {
 		synchronized (this.byteBufferLock) {
-			while(true) {
-				if (!this.socketChannel.isOpen() || this.socketChannel.socket().isClosed())
-					return;
-
-				// Do we need to allocate byteBuffer?
-				if (this.byteBuffer == null)
-					this.byteBuffer = ByteBuffer.allocate(Network.getInstance().getMaxMessageSize());
-
-				final int bytesRead = this.socketChannel.read(this.byteBuffer);
-				if (bytesRead == -1) {
-					this.disconnect("EOF");
-					return;
-				}
+			ByteBufferPool readBufferPool = Network.getInstance().getReadBufferPool();
 
-				LOGGER.trace(() -> String.format("Received %d bytes from peer %s", bytesRead, this));
-				final boolean wasByteBufferFull = !this.byteBuffer.hasRemaining();
+			try {
+				while(true) {
+					if (!this.socketChannel.isOpen() || this.socketChannel.socket().isClosed())
+						return;
 
-				while (true) {
-					final Message message;
+					// Do we need to borrow byteBuffer?
+					if (this.byteBuffer == null)
+						this.byteBuffer = readBufferPool.borrow(0);
 
-					// Can we build a message from buffer now?
-					try {
-						message = Message.fromByteBuffer(this.byteBuffer);
-					} catch (MessageException e) {
-						LOGGER.debug(String.format("%s, from peer %s", e.getMessage(), this));
-						this.disconnect(e.getMessage());
+					// Do we need a larger byteBuffer to hold partially-received message?
+					if (!this.byteBuffer.hasRemaining()) {
+						ByteBuffer largerByteBuffer = readBufferPool.enlarge(this.byteBuffer);
+						if (largerByteBuffer == null) {
+							this.disconnect("message too large");
+							return;
+						}
+
+						this.byteBuffer = largerByteBuffer;
+					}
+
+					final int bytesRead = this.socketChannel.read(this.byteBuffer);
+					if (bytesRead == -1) {
+						this.disconnect("EOF");
 						return;
 					}
 
-					if (message == null && bytesRead == 0 && !wasByteBufferFull) {
-						// No complete message in buffer, no more bytes to read from socket even though there was room to read bytes
+					LOGGER.trace(() -> String.format("Received %d bytes from peer %s", bytesRead, this));
+					final boolean wasByteBufferFull = !this.byteBuffer.hasRemaining();
 
-						/* DISABLED
-						// If byteBuffer is empty then we can deallocate it, to save memory, albeit costing GC
-						if (this.byteBuffer.remaining() == this.byteBuffer.capacity())
-							this.byteBuffer = null;
-						*/
+					// Process as many complete messages as we can, then compact once
+					this.byteBuffer.flip();
+					try {
+						if (!this.processMessages())
+							return;
+					} finally {
+						this.byteBuffer.compact();
+					}
 
+					if (bytesRead == 0 && !wasByteBufferFull)
+						// No complete message in buffer, no more bytes to read from socket even though there was room to read bytes
 						return;
-					}
 
-					if (message == null)
-						// No complete message in buffer, but maybe more bytes to read from socket
-						break;
+					// No complete message in buffer, but maybe more bytes to read from socket
+				}
+			} finally {
+				// If byteBuffer is empty, or we're disconnecting, then we can return it to pool, for use by another peer
+				if (this.byteBuffer != null && (this.byteBuffer.position() == 0 || this.isStopping)) {
+					readBufferPool.release(this.byteBuffer);
+					this.byteBuffer = null;
+				}
+			}
+		}
+	}
 
-					LOGGER.trace(() -> String.format("Received %s message with ID %d from peer %s", message.getType().name(), message.getId(), this));
+	/**
+	 * Passes complete messages in (flipped) byteBuffer to waiting threads, or network layer.
+	 * 
+	 * @return false if no further reading should be done
+	 */
+	private boolean processMessages() {
+		while (true) {
+			final Message message;
 
-					BlockingQueue<Message> queue = this.replyQueues.get(message.getId());
-					if (queue != null) {
-						// Adding message to queue will unblock thread waiting for response
-						this.replyQueues.get(message.getId()).add(message);
-						// Consumed elsewhere
-						continue;
-					}
+			// Can we build a message from buffer now?
+			try {
+				message = Message.fromByteBuffer(this.byteBuffer);
+			} catch (MessageException e) {
+				LOGGER.debug(String.format("%s, from peer %s", e.getMessage(), this));
+				this.disconnect(e.getMessage());
+				return false;
+			}
 
-					// No thread waiting for message so we need to pass it up to network layer
+			if (message == null)
+				// No complete message in buffer
+				return true;
 
-					// Add message to pending queue
-					if (!this.pendingMessages.offer(message)) {
-						LOGGER.info(String.format("No room to queue message from peer %s - discarding", this));
-						return;
-					}
+			LOGGER.trace(() -> String.format("Received %s message with ID %d from peer %s", message.getType().name(), message.getId(), this));
 
-					// Prematurely end any blocking channel select so that new messages can be processed.
-					// This might cause this.socketChannel.read() above to return zero into bytesRead.
-					Network.getInstance().wakeupChannelSelector();
-				}
+			BlockingQueue<Message> queue = this.replyQueues.get(message.getId());
+			if (queue != null) {
+				// Adding message to queue will unblock thread waiting for response
+				this.replyQueues.get(message.getId()).add(message);
+				// Consumed elsewhere
+				continue;
 			}
+
+			// No thread waiting for message so we need to pass it up to network layer
+
+			// Add message to pending queue
+			if (!this.pendingMessages.offer(message)) {
+				LOGGER.info(String.format("No room to queue message from peer %s - discarding", this));
+				return false;
+			}
+
+			// Prematurely end any blocking accept select so that new messages can be processed.
+			Network.getInstance().wakeupMessageDispatch();
 		}
 	}
 
@@ -420,6 +591,14 @@ public class Peer {
 		if (this.handshakeMessagePending)
 			return null;
 
+		/*
+		 * Hold any messages that arrive before Network.onPeerReady() has started handshaking.
+		 * Also, while proof-of-work is verified/computed, hold any messages that peer sends
+		 * after their RESPONSE until handshake completes.
+		 */
+		if (this.handshakeStatus == Handshake.STARTED || this.handshakeStatus == Handshake.RESPONDING)
+			return null;
+
 		final Message nextMessage = this.pendingMessages.poll();
 
 		if (nextMessage == null)
@@ -436,44 +615,140 @@ public class Peer {
 
 	/**
 	 * Attempt to send Message to peer.
+	 * <p>
+	 * Message is written straight to socket if possible, otherwise it is queued and written
+	 * by a network thread when the socket becomes writable, so the caller never blocks on a slow peer.
+	 * <p>
+	 * If too many bytes are already queued, then droppable messages (e.g. height notifications)
+	 * are silently discarded, and other messages fail so that the caller can disconnect the peer.
 	 * 
 	 * @param message
-	 * @return <code>true</code> if message successfully sent; <code>false</code> otherwise
+	 * @return <code>true</code> if message successfully sent or queued; <code>false</code> otherwise
 	 */
 	public boolean sendMessage(Message message) {
 		if (!this.socketChannel.isOpen())
 			return false;
 
+		final byte[] messageBytes;
 		try {
-			// Send message
-			LOGGER.trace(() -> String.format("Sending %s message with ID %d to peer %s", message.getType().name(), message.getId(), this));
+			messageBytes = message.toBytes(this.isCompressionEnabled());
+		} catch (MessageException e) {
+			LOGGER.warn(String.format("Failed to send %s message with ID %d to peer %s: %s", message.getType().name(), message.getId(), this, e.getMessage()));
+			// Not peer's fault
+			return true;
+		}
 
-			ByteBuffer outputBuffer = ByteBuffer.wrap(message.toBytes());
+		return this.sendMessageBytes(message, messageBytes);
+	}
 
-			synchronized (this.socketChannel) {
-				while (outputBuffer.hasRemaining()) {
-					int bytesWritten = this.socketChannel.write(outputBuffer);
+	/**
+	 * Attempt to send already-serialized message to peer, as with {@link #sendMessage(Message)}.
+	 * <p>
+	 * <tt>messageBytes</tt> must have been produced by <tt>message.toBytes(isCompressionEnabled())</tt>,
+	 * and can be shared with other peers as they are never modified.
+	 * 
+	 * @return <code>true</code> if message successfully sent or queued; <code>false</code> otherwise
+	 */
+	/* package */ boolean sendMessageBytes(Message message, byte[] messageBytes) {
+		if (!this.socketChannel.isOpen())
+			return false;
+
+		synchronized (this.sendQueue) {
+			if (!this.sendQueue.isEmpty()) {
+				if (DROPPABLE_MESSAGE_TYPES.contains(message.getType()) && this.sendQueueBytes > DROPPABLE_QUEUE_THRESHOLD) {
+					++this.droppedMessageCount;
+					LOGGER.trace(() -> String.format("Dropped %s message to slow peer %s", message.getType().name(), this));
+					return true;
+				}
 
-					if (bytesWritten == 0)
-						// Underlying socket's internal buffer probably full,
-						// so wait a short while for bytes to actually be transmitted over the wire
-						this.socketChannel.wait(1L);
+				if (this.sendQueueBytes + messageBytes.length > Settings.getInstance().getMaxPeerSendQueueSize()) {
+					LOGGER.debug(() -> String.format("Send queue full (%d bytes) for %s message to peer %s", this.sendQueueBytes, message.getType().name(), this));
+					return false;
 				}
 			}
-		} catch (MessageException e) {
-			LOGGER.warn(String.format("Failed to send %s message with ID %d to peer %s: %s", message.getType().name(), message.getId(), this, e.getMessage()));
-		} catch (IOException e) {
-			// Send failure
-			return false;
-		} catch (InterruptedException e) {
-			// Likely shutdown scenario - so exit
-			return false;
+
+			LOGGER.trace(() -> String.format("Sending %s message with ID %d to peer %s", message.getType().name(), message.getId(), this));
+
+			if (SUPERSEDABLE_MESSAGE_TYPES.contains(message.getType()))
+				this.removeSupersededMessages(message.getType());
+
+			QueuedMessage queuedMessage = new QueuedMessage(message.getType(), messageBytes);
+			this.sendQueue.addLast(queuedMessage);
+			this.sendQueueBytes += messageBytes.length;
+
+			// If nothing was already queued, try writing immediately rather than waiting for selector
+			if (this.sendQueue.size() == 1)
+				try {
+					this.writeQueuedMessages();
+				} catch (IOException e) {
+					// Send failure
+					return false;
+				}
 		}
 
-		// Sent OK
+		// Sent, or queued, OK
 		return true;
 	}
 
+	/**
+	 * Attempt to write queued messages to socketChannel, called when socket is writable.
+	 * 
+	 * @throws IOException
+	 */
+	/* package */ void writeChannel() throws IOException {
+		synchronized (this.sendQueue) {
+			if (!this.socketChannel.isOpen())
+				return;
+
+			this.writeQueuedMessages();
+		}
+	}
+
+	/** Removes queued, but entirely unsent, messages of passed type. Caller must hold lock on <tt>sendQueue</tt>. */
+	private void removeSupersededMessages(MessageType type) {
+		Iterator<QueuedMessage> iterator = this.sendQueue.iterator();
+		while (iterator.hasNext()) {
+			QueuedMessage queuedMessage = iterator.next();
+
+			// Can't remove partially-written message
+			if (queuedMessage.type != type || queuedMessage.buffer.position() > 0)
+				continue;
+
+			iterator.remove();
+			this.sendQueueBytes -= queuedMessage.buffer.remaining();
+			++this.supersededMessageCount;
+		}
+	}
+
+	/** Writes as much of queued messages as socket will accept, then (de)registers interest in socket writability. Must hold <tt>sendQueue</tt> lock. */
+	private void writeQueuedMessages() throws IOException {
+		while (!this.sendQueue.isEmpty()) {
+			ByteBuffer outputBuffer = this.sendQueue.peekFirst().buffer;
+
+			final int bytesWritten = this.socketChannel.write(outputBuffer);
+			this.sendQueueBytes -= bytesWritten;
+
+			if (outputBuffer.hasRemaining())
+				// Underlying socket's internal buffer probably full, so wait for selector to tell us when socket is writable
+				break;
+
+			this.sendQueue.pollFirst();
+		}
+
+		try {
+			if (this.sendQueue.isEmpty()) {
+				this.selectionKey.interestOps(SelectionKey.OP_READ);
+			} else {
+				this.selectionKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				// Our reactor's selector needs to notice our new interest in writability
+				this.selectionKey.selector().wakeup();
+			}
+		} catch (CancelledKeyException e) {
+			// Channel closed
+			throw new IOException("Channel closed during write", e);
+		}
+	}
+
 	/**
 	 * Send message to peer and await response.
 	 * <p>
@@ -560,6 +835,11 @@ public class Peer {
 
 		isStopping = true;
 
+		synchronized (this.sendQueue) {
+			this.sendQueue.clear();
+			this.sendQueueBytes = 0;
+		}
+
 		if (this.socketChannel.isOpen()) {
 			try {
 				this.socketChannel.shutdownOutput();
@@ -0,0 +1,59 @@
+package org.qortal.network.message;
+
+import java.util.Arrays;
+
+import org.qortal.block.Block;
+
+/**
+ * BLOCK message built from already-serialized bytes.
+ * <p>
+ * Bytes are a fully-framed BLOCK message, as produced by {@link #toCacheableBytes(Block)}.
+ * Only the message ID is replaced when sending, so the block doesn't need to be loaded
+ * from the repository or re-serialized for each peer that asks for it.
+ * Peers that accept compressed messages get the cached data compressed and re-framed.
+ */
+public class CachedBlockMessage extends Message {
+
+	/** Placeholder ID used when framing cacheable bytes, so that framed bytes include room for real ID. */
+	private static final int PLACEHOLDER_ID = 1;
+
+	private final byte[] cachedBytes;
+
+	public CachedBlockMessage(byte[] cachedBytes) {
+		super(MessageType.BLOCK);
+
+		this.cachedBytes = cachedBytes;
+	}
+
+	/** Returns fully-framed BLOCK message bytes, suitable for passing to {@link #CachedBlockMessage(byte[])}. */
+	public static byte[] toCacheableBytes(Block block) throws MessageException {
+		Message blockMessage = new BlockMessage(block);
+		blockMessage.setId(PLACEHOLDER_ID);
+
+		return blockMessage.toBytes();
+	}
+
+	@Override
+	public byte[] toBytes(boolean allowCompression) throws MessageException {
+		if (!this.hasId())
+			throw new MessageException("Cached BLOCK message can only be sent as a reply");
+
+		if (allowCompression) {
+			// Re-frame cached data, as compression changes framing
+			byte[] data = Arrays.copyOfRange(this.cachedBytes, DATA_OFFSET_WITH_ID, this.cachedBytes.length);
+			return this.frame(data, true);
+		}
+
+		byte[] bytes = Arrays.copyOf(this.cachedBytes, this.cachedBytes.length);
+		setFramedId(bytes, this.getId());
+
+		return bytes;
+	}
+
+	@Override
+	protected byte[] toData() {
+		// Never called as toBytes(boolean) is overridden
+		return null;
+	}
+
+}
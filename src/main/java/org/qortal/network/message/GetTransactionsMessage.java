@@ -0,0 +1,74 @@
+package org.qortal.network.message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.qortal.transform.Transformer;
+
+import com.google.common.primitives.Ints;
+
+/**
+ * Request for several transactions at once, answered with one TRANSACTION message per known transaction.
+ * <p>
+ * Only sent to peers that advertise {@link HelloMessage#CAPABILITY_TRANSACTION_BATCHES}.
+ */
+public class GetTransactionsMessage extends Message {
+
+	private static final int TRANSACTION_SIGNATURE_LENGTH = Transformer.SIGNATURE_LENGTH;
+
+	/** Maximum number of signatures per request. */
+	public static final int MAX_SIGNATURES = 200;
+
+	private List<byte[]> signatures;
+
+	public GetTransactionsMessage(List<byte[]> signatures) {
+		this(-1, signatures);
+	}
+
+	private GetTransactionsMessage(int id, List<byte[]> signatures) {
+		super(id, MessageType.GET_TRANSACTIONS);
+
+		this.signatures = signatures;
+	}
+
+	public List<byte[]> getSignatures() {
+		return this.signatures;
+	}
+
+	public static Message fromByteBuffer(int id, ByteBuffer bytes) throws UnsupportedEncodingException {
+		int count = bytes.getInt();
+
+		if (count < 0 || count > MAX_SIGNATURES || bytes.remaining() != count * TRANSACTION_SIGNATURE_LENGTH)
+			return null;
+
+		List<byte[]> signatures = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i) {
+			byte[] signature = new byte[TRANSACTION_SIGNATURE_LENGTH];
+			bytes.get(signature);
+			signatures.add(signature);
+		}
+
+		return new GetTransactionsMessage(id, signatures);
+	}
+
+	@Override
+	protected byte[] toData() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+			bytes.write(Ints.toByteArray(this.signatures.size()));
+
+			for (byte[] signature : this.signatures)
+				bytes.write(signature);
+
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+}
@@ -7,22 +7,31 @@ import java.nio.ByteBuffer;
 import org.qortal.transform.TransformationException;
 import org.qortal.utils.Serialization;
 
+import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
 
 public class HelloMessage extends Message {
 
+	/** Capability bit: peer accepts messages with compressed data. */
+	public static final int CAPABILITY_COMPRESSION = 0x01;
+	/** Capability bit: peer accepts GET_TRANSACTIONS requests. */
+	public static final int CAPABILITY_TRANSACTION_BATCHES = 0x02;
+
 	private final long timestamp;
 	private final String versionString;
+	/** Bitmap of optional capabilities. Older peers don't send, or read, capabilities, so treated as none. */
+	private final int capabilities;
 
-	private HelloMessage(int id, long timestamp, String versionString) {
+	private HelloMessage(int id, long timestamp, String versionString, int capabilities) {
 		super(id, MessageType.HELLO);
 
 		this.timestamp = timestamp;
 		this.versionString = versionString;
+		this.capabilities = capabilities;
 	}
 
-	public HelloMessage(long timestamp, String versionString) {
-		this(-1, timestamp, versionString);
+	public HelloMessage(long timestamp, String versionString, int capabilities) {
+		this(-1, timestamp, versionString, capabilities);
 	}
 
 	public long getTimestamp() {
@@ -33,12 +42,21 @@ public class HelloMessage extends Message {
 		return this.versionString;
 	}
 
+	public int getCapabilities() {
+		return this.capabilities;
+	}
+
 	public static Message fromByteBuffer(int id, ByteBuffer byteBuffer) throws TransformationException {
 		long timestamp = byteBuffer.getLong();
 
 		String versionString = Serialization.deserializeSizedString(byteBuffer, 255);
 
-		return new HelloMessage(id, timestamp, versionString);
+		// Optional, trailing capabilities
+		int capabilities = 0;
+		if (byteBuffer.remaining() >= Integer.BYTES)
+			capabilities = byteBuffer.getInt();
+
+		return new HelloMessage(id, timestamp, versionString, capabilities);
 	}
 
 	@Override
@@ -49,6 +67,8 @@ public class HelloMessage extends Message {
 
 		Serialization.serializeSizedString(bytes, this.versionString);
 
+		bytes.write(Ints.toByteArray(this.capabilities));
+
 		return bytes.toByteArray();
 	}
 
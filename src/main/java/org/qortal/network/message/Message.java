@@ -13,17 +13,38 @@ import static java.util.stream.Collectors.toMap;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.UnsupportedEncodingException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 public abstract class Message {
 
-	// MAGIC(4) + TYPE(4) + HAS-ID(1) + ID?(4) + DATA-SIZE(4) + CHECKSUM?(4) + DATA?(*)
+	// MAGIC(4) + TYPE(4) + FLAGS(1) + ID?(4) + DATA-SIZE(4) + CHECKSUM?(4) + DATA?(*)
 	private static final int MAGIC_LENGTH = 4;
 	private static final int CHECKSUM_LENGTH = 4;
+	/** Offset of message ID within framed message bytes, when message has an ID. */
+	private static final int ID_OFFSET = MAGIC_LENGTH + 4 + 1;
+	/** Offset of data within framed message bytes, when message has an ID. */
+	protected static final int DATA_OFFSET_WITH_ID = ID_OFFSET + 4 + 4 + CHECKSUM_LENGTH;
+
+	/** FLAGS bit: message ID follows. Older peers send 1 or 0 here, which is compatible. */
+	private static final int FLAG_HAS_ID = 0x01;
+	/** FLAGS bit: data is compressed. Only sent to peers that advertise {@link HelloMessage#CAPABILITY_COMPRESSION}. */
+	private static final int FLAG_COMPRESSED = 0x02;
+
+	// Compressed data: UNCOMPRESSED-SIZE(4) + DEFLATE-DATA(*)
+	private static final int UNCOMPRESSED_SIZE_LENGTH = 4;
+	/** Data smaller than this isn't worth compressing. (bytes) */
+	private static final int COMPRESSION_THRESHOLD = 1024; // bytes
+	/** Message types whose data is large and repetitive enough to be worth compressing. */
+	private static final Set<MessageType> COMPRESSIBLE_TYPES = EnumSet.of(MessageType.BLOCK, MessageType.BLOCK_SUMMARIES,
+			MessageType.SIGNATURES, MessageType.ONLINE_ACCOUNTS, MessageType.TRANSACTION_SIGNATURES);
 
 	private static final int MAX_DATA_SIZE = 1024 * 1024; // 1MB
 
@@ -47,67 +68,52 @@ public abstract class Message {
 
 	public enum MessageType {
 		// Handshaking
-		HELLO(0),
-		GOODBYE(1),
-		CHALLENGE(2),
-		RESPONSE(3),
+		HELLO(0, HelloMessage::fromByteBuffer),
+		GOODBYE(1, GoodbyeMessage::fromByteBuffer),
+		CHALLENGE(2, ChallengeMessage::fromByteBuffer),
+		RESPONSE(3, ResponseMessage::fromByteBuffer),
 
 		// Status / notifications
-		HEIGHT_V2(10),
-		PING(11),
-		PONG(12),
+		HEIGHT_V2(10, HeightV2Message::fromByteBuffer),
+		PING(11, PingMessage::fromByteBuffer),
+		PONG(12, null),
 
 		// Requesting data
-		PEERS_V2(20),
-		GET_PEERS(21),
+		PEERS_V2(20, PeersV2Message::fromByteBuffer),
+		GET_PEERS(21, GetPeersMessage::fromByteBuffer),
 
-		TRANSACTION(30),
-		GET_TRANSACTION(31),
+		TRANSACTION(30, TransactionMessage::fromByteBuffer),
+		GET_TRANSACTION(31, GetTransactionMessage::fromByteBuffer),
+		GET_TRANSACTIONS(32, GetTransactionsMessage::fromByteBuffer),
 
-		TRANSACTION_SIGNATURES(40),
-		GET_UNCONFIRMED_TRANSACTIONS(41),
+		TRANSACTION_SIGNATURES(40, TransactionSignaturesMessage::fromByteBuffer),
+		GET_UNCONFIRMED_TRANSACTIONS(41, GetUnconfirmedTransactionsMessage::fromByteBuffer),
 
-		BLOCK(50),
-		GET_BLOCK(51),
+		BLOCK(50, BlockMessage::fromByteBuffer),
+		GET_BLOCK(51, GetBlockMessage::fromByteBuffer),
 
-		SIGNATURES(60),
-		GET_SIGNATURES_V2(61),
+		SIGNATURES(60, SignaturesMessage::fromByteBuffer),
+		GET_SIGNATURES_V2(61, GetSignaturesV2Message::fromByteBuffer),
 
-		BLOCK_SUMMARIES(70),
-		GET_BLOCK_SUMMARIES(71),
+		BLOCK_SUMMARIES(70, BlockSummariesMessage::fromByteBuffer),
+		GET_BLOCK_SUMMARIES(71, GetBlockSummariesMessage::fromByteBuffer),
 
-		ONLINE_ACCOUNTS(80),
-		GET_ONLINE_ACCOUNTS(81),
+		ONLINE_ACCOUNTS(80, OnlineAccountsMessage::fromByteBuffer),
+		GET_ONLINE_ACCOUNTS(81, GetOnlineAccountsMessage::fromByteBuffer),
 
-		ARBITRARY_DATA(90),
-		GET_ARBITRARY_DATA(91);
+		ARBITRARY_DATA(90, ArbitraryDataMessage::fromByteBuffer),
+		GET_ARBITRARY_DATA(91, GetArbitraryDataMessage::fromByteBuffer);
 
 		public final int value;
-		public final Method fromByteBufferMethod;
+		/** Message subclass's <tt>fromByteBuffer</tt>, or null if message type can't be received. */
+		private final MessageProducer producer;
 
 		private static final Map<Integer, MessageType> map = stream(MessageType.values())
 				.collect(toMap(messageType -> messageType.value, messageType -> messageType));
 
-		private MessageType(int value) {
+		private MessageType(int value, MessageProducer producer) {
 			this.value = value;
-
-			String[] classNameParts = this.name().toLowerCase().split("_");
-
-			for (int i = 0; i < classNameParts.length; ++i)
-				classNameParts[i] = classNameParts[i].substring(0, 1).toUpperCase().concat(classNameParts[i].substring(1));
-
-			String className = String.join("", classNameParts);
-
-			Method method;
-			try {
-				Class<?> subclass = Class.forName(String.join("", Message.class.getPackage().getName(), ".", className, "Message"));
-
-				method = subclass.getDeclaredMethod("fromByteBuffer", int.class, ByteBuffer.class);
-			} catch (ClassNotFoundException | NoSuchMethodException | SecurityException e) {
-				method = null;
-			}
-
-			this.fromByteBufferMethod = method;
+			this.producer = producer;
 		}
 
 		public static MessageType valueOf(int value) {
@@ -115,20 +121,25 @@ public abstract class Message {
 		}
 
 		public Message fromByteBuffer(int id, ByteBuffer byteBuffer) throws MessageException {
-			if (this.fromByteBufferMethod == null)
+			if (this.producer == null)
 				throw new MessageException("Unsupported message type [" + value + "] during conversion from bytes");
 
 			try {
-				return (Message) this.fromByteBufferMethod.invoke(null, id, byteBuffer);
-			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-				if (e.getCause() instanceof BufferUnderflowException)
-					throw new MessageException("Byte data too short for " + name() + " message");
-
+				return this.producer.fromByteBuffer(id, byteBuffer);
+			} catch (BufferUnderflowException e) {
+				throw new MessageException("Byte data too short for " + name() + " message");
+			} catch (UnsupportedEncodingException | TransformationException | RuntimeException e) {
 				throw new MessageException("Internal error with " + name() + " message during conversion from bytes");
 			}
 		}
 	}
 
+	/** Builds a message of a specific type from received bytes, e.g. <tt>PingMessage::fromByteBuffer</tt>. */
+	@FunctionalInterface
+	private interface MessageProducer {
+		Message fromByteBuffer(int id, ByteBuffer byteBuffer) throws UnsupportedEncodingException, TransformationException;
+	}
+
 	private int id;
 	private MessageType type;
 
@@ -159,6 +170,12 @@ public abstract class Message {
 
 	/**
 	 * Attempt to read a message from byte buffer.
+	 * <p>
+	 * <tt>byteBuffer</tt> is expected to be in "read" mode, i.e. flipped, with position at start of message.
+	 * If a complete message is read, <tt>byteBuffer</tt>'s position is advanced past it,
+	 * otherwise <tt>byteBuffer</tt>'s position is left unchanged.
+	 * <p>
+	 * Message data is checksummed and decoded in place, so <tt>byteBuffer</tt> can be a direct buffer.
 	 * 
 	 * @param byteBuffer
 	 * @return null if no complete message can be read
@@ -166,8 +183,6 @@ public abstract class Message {
 	 */
 	public static Message fromByteBuffer(ByteBuffer byteBuffer) throws MessageException {
 		try {
-			byteBuffer.flip();
-
 			ByteBuffer readBuffer = byteBuffer.asReadOnlyBuffer();
 
 			// Read only enough bytes to cover Message "magic" preamble
@@ -185,10 +200,11 @@ public abstract class Message {
 				// Unrecognised message type
 				throw new MessageException(String.format("Received unknown message type [%d]", typeValue));
 
+			byte flags = readBuffer.get();
+
 			// Optional message ID
-			byte hasId = readBuffer.get();
 			int id = -1;
-			if (hasId != 0) {
+			if ((flags & FLAG_HAS_ID) != 0) {
 				id = readBuffer.getInt();
 
 				if (id <= 0)
@@ -207,20 +223,24 @@ public abstract class Message {
 				byte[] expectedChecksum = new byte[CHECKSUM_LENGTH];
 				readBuffer.get(expectedChecksum);
 
+				if (readBuffer.remaining() < dataSize)
+					// Not all data bytes received yet
+					return null;
+
 				// Remember this position in readBuffer so we can pass to Message subclass
 				dataSlice = readBuffer.slice();
-
-				// Consume data from buffer
-				byte[] data = new byte[dataSize];
-				readBuffer.get(data);
-
-				// We successfully read all the data bytes, so we can set limit on dataSlice
 				dataSlice.limit(dataSize);
 
 				// Test checksum
-				byte[] actualChecksum = generateChecksum(data);
+				byte[] actualChecksum = generateChecksum(dataSlice.duplicate());
 				if (!Arrays.equals(expectedChecksum, actualChecksum))
 					throw new MessageException("Message checksum incorrect");
+
+				// Consume data from buffer
+				readBuffer.position(readBuffer.position() + dataSize);
+
+				if ((flags & FLAG_COMPRESSED) != 0)
+					dataSlice = decompress(dataSlice);
 			}
 
 			Message message = messageType.fromByteBuffer(id, dataSlice);
@@ -232,8 +252,6 @@ public abstract class Message {
 		} catch (BufferUnderflowException e) {
 			// Not enough bytes to fully decode message...
 			return null;
-		} finally {
-			byteBuffer.compact();
 		}
 	}
 
@@ -241,7 +259,48 @@ public abstract class Message {
 		return Arrays.copyOfRange(Crypto.digest(data), 0, CHECKSUM_LENGTH);
 	}
 
+	/** Returns checksum of remaining bytes in <tt>data</tt>, consuming them. */
+	protected static byte[] generateChecksum(ByteBuffer data) {
+		return Arrays.copyOfRange(Crypto.digest(data), 0, CHECKSUM_LENGTH);
+	}
+
 	public byte[] toBytes() throws MessageException {
+		return this.toBytes(false);
+	}
+
+	/**
+	 * Returns framed message bytes, compressing data if allowed, worthwhile and message type is compressible.
+	 * 
+	 * @param allowCompression
+	 *            whether recipient can accept compressed data
+	 */
+	public byte[] toBytes(boolean allowCompression) throws MessageException {
+		byte[] data;
+		try {
+			data = this.toData();
+		} catch (IOException | TransformationException e) {
+			throw new MessageException("Failed to serialize message", e);
+		}
+
+		if (data == null)
+			throw new MessageException("Missing data payload");
+
+		return this.frame(data, allowCompression);
+	}
+
+	/** Returns framed message bytes containing <tt>data</tt>, compressed if allowed, worthwhile and message type is compressible. */
+	protected byte[] frame(byte[] data, boolean allowCompression) throws MessageException {
+		int flags = this.hasId() ? FLAG_HAS_ID : 0;
+
+		if (allowCompression && data.length >= COMPRESSION_THRESHOLD && COMPRESSIBLE_TYPES.contains(this.type)) {
+			byte[] compressedData = compress(data);
+
+			if (compressedData != null) {
+				data = compressedData;
+				flags |= FLAG_COMPRESSED;
+			}
+		}
+
 		try {
 			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
 
@@ -250,17 +309,10 @@ public abstract class Message {
 
 			bytes.write(Ints.toByteArray(this.type.value));
 
-			if (this.hasId()) {
-				bytes.write(1);
+			bytes.write(flags);
 
+			if (this.hasId())
 				bytes.write(Ints.toByteArray(this.id));
-			} else {
-				bytes.write(0);
-			}
-
-			byte[] data = this.toData();
-			if (data == null)
-				throw new MessageException("Missing data payload");
 
 			bytes.write(Ints.toByteArray(data.length));
 
@@ -273,11 +325,74 @@ public abstract class Message {
 				throw new MessageException(String.format("About to send message with length %d larger than allowed %d", bytes.size(), MAX_DATA_SIZE));
 
 			return bytes.toByteArray();
-		} catch (IOException | TransformationException e) {
+		} catch (IOException e) {
 			throw new MessageException("Failed to serialize message", e);
 		}
 	}
 
+	/** Returns compressed form of <tt>data</tt>, or null if compression doesn't reduce size. */
+	private static byte[] compress(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+
+			// Compressed data is only useful if smaller than original
+			byte[] compressedData = new byte[data.length];
+			System.arraycopy(Ints.toByteArray(data.length), 0, compressedData, 0, UNCOMPRESSED_SIZE_LENGTH);
+
+			int compressedLength = UNCOMPRESSED_SIZE_LENGTH;
+			while (!deflater.finished() && compressedLength < compressedData.length)
+				compressedLength += deflater.deflate(compressedData, compressedLength, compressedData.length - compressedLength);
+
+			if (!deflater.finished())
+				return null;
+
+			return Arrays.copyOf(compressedData, compressedLength);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/** Returns buffer containing decompressed form of <tt>compressedData</tt>. */
+	private static ByteBuffer decompress(ByteBuffer compressedData) throws MessageException {
+		if (compressedData.remaining() < UNCOMPRESSED_SIZE_LENGTH)
+			throw new MessageException("Compressed data too short");
+
+		int dataSize = compressedData.getInt();
+		if (dataSize <= 0 || dataSize > MAX_DATA_SIZE)
+			throw new MessageException(String.format("Declared uncompressed data length %d invalid or larger than max allowed %d", dataSize, MAX_DATA_SIZE));
+
+		byte[] data = new byte[dataSize];
+
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressedData);
+
+			int dataLength = 0;
+			while (dataLength < dataSize) {
+				int inflatedLength = inflater.inflate(data, dataLength, dataSize - dataLength);
+				if (inflatedLength == 0 && (inflater.finished() || inflater.needsInput()))
+					break;
+
+				dataLength += inflatedLength;
+			}
+
+			if (dataLength != dataSize || !inflater.finished())
+				throw new MessageException("Compressed data doesn't match declared uncompressed length");
+		} catch (DataFormatException e) {
+			throw new MessageException("Compressed data corrupt");
+		} finally {
+			inflater.end();
+		}
+
+		return ByteBuffer.wrap(data);
+	}
+
+	protected static void setFramedId(byte[] framedBytes, int id) {
+		System.arraycopy(Ints.toByteArray(id), 0, framedBytes, ID_OFFSET, 4);
+	}
+
 	protected abstract byte[] toData() throws IOException, TransformationException;
 
 }
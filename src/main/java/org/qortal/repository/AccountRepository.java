@@ -103,6 +103,29 @@ public interface AccountRepository {
 	/** Generic opportunistic tidy. */
 	public void tidy() throws DataException;
 
+	// Account state caching
+
+	/**
+	 * Starts caching account state for this repository session, e.g. while processing a block's transactions.
+	 * <p>
+	 * While caching, balances, levels, flags and default group IDs are kept in memory and
+	 * written back to repository in batches, transparently to callers.
+	 * <p>
+	 * Fetching an account's last reference returns the value from before caching started,
+	 * and setting last references only records them to be saved when caching stops.
+	 * 
+	 * @throws IllegalStateException if already caching account state
+	 */
+	public void startAccountStateCache() throws DataException;
+
+	/**
+	 * Stops caching account state, writing back any modified balances, levels, flags and default group IDs.
+	 * 
+	 * @param saveLastReferences whether to save last references set while caching
+	 * @throws IllegalStateException if <tt>saveLastReferences</tt> is set but not caching account state
+	 */
+	public void stopAccountStateCache(boolean saveLastReferences) throws DataException;
+
 	// Account balances
 
 	/**
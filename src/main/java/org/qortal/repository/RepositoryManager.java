@@ -8,6 +8,10 @@ public abstract class RepositoryManager {
 		repositoryFactory = newRepositoryFactory;
 	}
 
+	public static RepositoryFactory getRepositoryFactory() {
+		return repositoryFactory;
+	}
+
 	public static Repository getRepository() throws DataException {
 		if (repositoryFactory == null)
 			throw new DataException("No repository available");
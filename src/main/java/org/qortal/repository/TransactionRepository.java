@@ -239,6 +239,35 @@ public interface TransactionRepository {
 		return getUnconfirmedTransactions(null, null, null);
 	}
 
+	/**
+	 * Returns list of unconfirmed transactions created by <tt>creatorPublicKey</tt>, in timestamp-else-signature order.
+	 * 
+	 * @param creatorPublicKey
+	 * @return list of transactions, or empty if none.
+	 * @throws DataException
+	 */
+	public List<TransactionData> getUnconfirmedTransactions(byte[] creatorPublicKey) throws DataException;
+
+	/**
+	 * Returns number of unconfirmed transactions created by <tt>creatorPublicKey</tt>, excluding those of <tt>excludedType</tt>.
+	 * 
+	 * @param creatorPublicKey
+	 * @param excludedType
+	 * @return number of transactions
+	 * @throws DataException
+	 */
+	public int countUnconfirmedTransactions(byte[] creatorPublicKey, TransactionType excludedType) throws DataException;
+
+	/**
+	 * Returns list of unconfirmed transactions with deadline at, or before, <tt>timestamp</tt>,
+	 * in timestamp-else-signature order.
+	 * 
+	 * @param timestamp
+	 * @return list of expired transactions, or empty if none.
+	 * @throws DataException
+	 */
+	public List<TransactionData> getExpiredUnconfirmedTransactions(long timestamp) throws DataException;
+
 	/**
 	 * Remove transaction from unconfirmed transactions pile.
 	 * 
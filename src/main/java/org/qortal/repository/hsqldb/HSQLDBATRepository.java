@@ -490,7 +490,7 @@ public class HSQLDBATRepository implements ATRepository {
 				.bind("fees", atStateData.getFees()).bind("is_initial", atStateData.isInitial());
 
 		try {
-			saveHelper.execute(this.repository);
+			saveHelper.batch(this.repository);
 		} catch (SQLException e) {
 			throw new DataException("Unable to save AT state into repository", e);
 		}
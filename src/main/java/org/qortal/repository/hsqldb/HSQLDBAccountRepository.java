@@ -20,6 +20,41 @@ import org.qortal.repository.DataException;
 
 public class HSQLDBAccountRepository implements AccountRepository {
 
+	private static final String ACCOUNT_DB_COLUMNS = "account, reference, public_key, default_group_id, flags, level, blocks_minted, blocks_minted_adjustment";
+
+	private static final HSQLDBQuery.RowMapper<AccountData> ACCOUNT_ROW_MAPPER = resultSet -> {
+		String address = resultSet.getString(1);
+		byte[] reference = resultSet.getBytes(2);
+		byte[] publicKey = resultSet.getBytes(3);
+		int defaultGroupId = resultSet.getInt(4);
+		int flags = resultSet.getInt(5);
+		int level = resultSet.getInt(6);
+		int blocksMinted = resultSet.getInt(7);
+		int blocksMintedAdjustment = resultSet.getInt(8);
+
+		return new AccountData(address, reference, publicKey, defaultGroupId, flags, level, blocksMinted, blocksMintedAdjustment);
+	};
+
+	private static final HSQLDBQuery.RowMapper<AccountBalanceData> BALANCE_ROW_MAPPER = resultSet -> {
+		String address = resultSet.getString(1);
+		long assetId = resultSet.getLong(2);
+		long balance = resultSet.getLong(3);
+
+		return new AccountBalanceData(address, assetId, balance);
+	};
+
+	private static final HSQLDBQuery ACCOUNT = new HSQLDBQuery("SELECT " + ACCOUNT_DB_COLUMNS + " FROM Accounts WHERE account = ?");
+	private static final HSQLDBQuery FLAGGED_ACCOUNTS = new HSQLDBQuery("SELECT " + ACCOUNT_DB_COLUMNS + " FROM Accounts WHERE BITAND(flags, ?) != 0");
+	private static final HSQLDBQuery LAST_REFERENCE = new HSQLDBQuery("SELECT reference FROM Accounts WHERE account = ?");
+	private static final HSQLDBQuery DEFAULT_GROUP_ID = new HSQLDBQuery("SELECT default_group_id FROM Accounts WHERE account = ?");
+	private static final HSQLDBQuery FLAGS = new HSQLDBQuery("SELECT flags FROM Accounts WHERE account = ?");
+	private static final HSQLDBQuery LEVEL = new HSQLDBQuery("SELECT level FROM Accounts WHERE account = ?");
+	private static final HSQLDBQuery ACCOUNT_EXISTS = new HSQLDBQuery("SELECT TRUE FROM Accounts WHERE account = ? LIMIT 1");
+
+	private static final HSQLDBQuery BALANCE = new HSQLDBQuery("SELECT account, asset_id, balance FROM AccountBalances WHERE account = ? AND asset_id = ? LIMIT 1");
+	private static final HSQLDBQuery ASSET_BALANCES = new HSQLDBQuery("SELECT account, asset_id, balance FROM AccountBalances WHERE asset_id = ?");
+	private static final HSQLDBQuery NONZERO_ASSET_BALANCES = new HSQLDBQuery("SELECT account, asset_id, balance FROM AccountBalances WHERE asset_id = ? AND balance != 0");
+
 	protected HSQLDBRepository repository;
 
 	public HSQLDBAccountRepository(HSQLDBRepository repository) {
@@ -30,21 +65,10 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public AccountData getAccount(String address) throws DataException {
-		String sql = "SELECT reference, public_key, default_group_id, flags, level, blocks_minted, blocks_minted_adjustment FROM Accounts WHERE account = ?";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, address)) {
-			if (resultSet == null)
-				return null;
+		this.repository.onAccountStateSql(false);
 
-			byte[] reference = resultSet.getBytes(1);
-			byte[] publicKey = resultSet.getBytes(2);
-			int defaultGroupId = resultSet.getInt(3);
-			int flags = resultSet.getInt(4);
-			int level = resultSet.getInt(5);
-			int blocksMinted = resultSet.getInt(6);
-			int blocksMintedAdjustment = resultSet.getInt(7);
-
-			return new AccountData(address, reference, publicKey, defaultGroupId, flags, level, blocksMinted, blocksMintedAdjustment);
+		try {
+			return this.repository.fetchOne(ACCOUNT, HSQLDBQuery.bindString(address), ACCOUNT_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Unable to fetch account info from repository", e);
 		}
@@ -52,28 +76,10 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public List<AccountData> getFlaggedAccounts(int mask) throws DataException {
-		String sql = "SELECT reference, public_key, default_group_id, flags, level, blocks_minted, blocks_minted_adjustment, account FROM Accounts WHERE BITAND(flags, ?) != 0";
-
-		List<AccountData> accounts = new ArrayList<>();
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, mask)) {
-			if (resultSet == null)
-				return accounts;
+		this.repository.onAccountStateSql(false);
 
-			do {
-				byte[] reference = resultSet.getBytes(1);
-				byte[] publicKey = resultSet.getBytes(2);
-				int defaultGroupId = resultSet.getInt(3);
-				int flags = resultSet.getInt(4);
-				int level = resultSet.getInt(5);
-				int blocksMinted = resultSet.getInt(6);
-				int blocksMintedAdjustment = resultSet.getInt(7);
-				String address = resultSet.getString(8);
-
-				accounts.add(new AccountData(address, reference, publicKey, defaultGroupId, flags, level, blocksMinted, blocksMintedAdjustment));
-			} while (resultSet.next());
-
-			return accounts;
+		try {
+			return this.repository.fetchAll(FLAGGED_ACCOUNTS, HSQLDBQuery.bindInt(mask), ACCOUNT_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Unable to fetch flagged accounts from repository", e);
 		}
@@ -81,9 +87,15 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public byte[] getLastReference(String address) throws DataException {
-		String sql = "SELECT reference FROM Accounts WHERE account = ?";
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null)
+			try {
+				return accountStateCache.getLastReference(address);
+			} catch (SQLException e) {
+				throw new DataException("Unable to fetch account's last reference from repository", e);
+			}
 
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, address)) {
+		try (ResultSet resultSet = this.repository.checkedExecute(LAST_REFERENCE, HSQLDBQuery.bindString(address))) {
 			if (resultSet == null)
 				return null;
 
@@ -95,9 +107,15 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public Integer getDefaultGroupId(String address) throws DataException {
-		String sql = "SELECT default_group_id FROM Accounts WHERE account = ?";
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null)
+			try {
+				return accountStateCache.getDefaultGroupId(address);
+			} catch (SQLException e) {
+				throw new DataException("Unable to fetch account's default groupID from repository", e);
+			}
 
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, address)) {
+		try (ResultSet resultSet = this.repository.checkedExecute(DEFAULT_GROUP_ID, HSQLDBQuery.bindString(address))) {
 			if (resultSet == null)
 				return null;
 
@@ -110,9 +128,15 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public Integer getFlags(String address) throws DataException {
-		String sql = "SELECT flags FROM Accounts WHERE account = ?";
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null)
+			try {
+				return accountStateCache.getFlags(address);
+			} catch (SQLException e) {
+				throw new DataException("Unable to fetch account's flags from repository", e);
+			}
 
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, address)) {
+		try (ResultSet resultSet = this.repository.checkedExecute(FLAGS, HSQLDBQuery.bindString(address))) {
 			if (resultSet == null)
 				return null;
 
@@ -124,9 +148,15 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public Integer getLevel(String address) throws DataException {
-		String sql = "SELECT level FROM Accounts WHERE account = ?";
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null)
+			try {
+				return accountStateCache.getLevel(address);
+			} catch (SQLException e) {
+				throw new DataException("Unable to fetch account's level from repository", e);
+			}
 
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, address)) {
+		try (ResultSet resultSet = this.repository.checkedExecute(LEVEL, HSQLDBQuery.bindString(address))) {
 			if (resultSet == null)
 				return null;
 
@@ -138,8 +168,10 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public boolean accountExists(String address) throws DataException {
-		try {
-			return this.repository.exists("Accounts", "account = ?", address);
+		this.repository.onAccountStateSql(false);
+
+		try (ResultSet resultSet = this.repository.checkedExecute(ACCOUNT_EXISTS, HSQLDBQuery.bindString(address))) {
+			return resultSet != null;
 		} catch (SQLException e) {
 			throw new DataException("Unable to check for account in repository", e);
 		}
@@ -147,6 +179,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void ensureAccount(AccountData accountData) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		String sql = "INSERT IGNORE INTO Accounts (account, public_key) VALUES (?, ?)"; // MySQL syntax
 		try {
 			this.repository.executeCheckedUpdate(sql, accountData.getAddress(), accountData.getPublicKey());
@@ -157,6 +191,13 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void setLastReference(AccountData accountData) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			// Saved when cache is stopped
+			accountStateCache.setLastReference(accountData);
+			return;
+		}
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("Accounts");
 
 		saveHelper.bind("account", accountData.getAddress()).bind("reference", accountData.getReference());
@@ -166,7 +207,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 			saveHelper.bind("public_key", publicKey);
 
 		try {
-			saveHelper.execute(this.repository);
+			// Typically called for many accounts in a row, e.g. by stopAccountStateCache()
+			saveHelper.batch(this.repository);
 		} catch (SQLException e) {
 			throw new DataException("Unable to save account's last reference into repository", e);
 		}
@@ -174,6 +216,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void setDefaultGroupId(AccountData accountData) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.setDefaultGroupId(accountData);
+			return;
+		}
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("Accounts");
 
 		saveHelper.bind("account", accountData.getAddress()).bind("default_group_id", accountData.getDefaultGroupId());
@@ -191,6 +239,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void setFlags(AccountData accountData) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.setFlags(accountData);
+			return;
+		}
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("Accounts");
 
 		saveHelper.bind("account", accountData.getAddress()).bind("flags", accountData.getFlags());
@@ -208,6 +262,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void setLevel(AccountData accountData) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			accountStateCache.setLevel(accountData);
+			return;
+		}
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("Accounts");
 
 		saveHelper.bind("account", accountData.getAddress()).bind("level", accountData.getLevel());
@@ -225,6 +285,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void setBlocksMintedAdjustment(AccountData accountData) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("Accounts");
 
 		saveHelper.bind("account", accountData.getAddress())
@@ -243,6 +305,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void setMintedBlockCount(AccountData accountData) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("Accounts");
 
 		saveHelper.bind("account", accountData.getAddress()).bind("blocks_minted", accountData.getBlocksMinted());
@@ -260,6 +324,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public int modifyMintedBlockCount(String address, int delta) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		String sql = "INSERT INTO Accounts (account, blocks_minted) VALUES (?, ?) " +
 			"ON DUPLICATE KEY UPDATE blocks_minted = blocks_minted + ?";
 
@@ -272,6 +338,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void modifyMintedBlockCounts(List<String> addresses, int delta) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		String sql = "INSERT INTO Accounts (account, blocks_minted) VALUES (?, ?) " +
 				"ON DUPLICATE KEY UPDATE blocks_minted = blocks_minted + ?";
 
@@ -286,6 +354,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void delete(String address) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		// NOTE: Account balances are deleted automatically by the database thanks to "ON DELETE CASCADE" in AccountBalances' FOREIGN KEY
 		// definition.
 		try {
@@ -297,6 +367,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void tidy() throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		try {
 			this.repository.delete("AccountBalances", "balance = 0");
 		} catch (SQLException e) {
@@ -304,19 +376,51 @@ public class HSQLDBAccountRepository implements AccountRepository {
 		}
 	}
 
+	// Account state caching
+
+	@Override
+	public void startAccountStateCache() throws DataException {
+		this.repository.startAccountStateCache();
+	}
+
+	@Override
+	public void stopAccountStateCache(boolean saveLastReferences) throws DataException {
+		HSQLDBAccountStateCache accountStateCache;
+		try {
+			accountStateCache = this.repository.stopAccountStateCache();
+		} catch (SQLException e) {
+			throw new DataException("Unable to save cached account state into repository", e);
+		}
+
+		if (!saveLastReferences)
+			return;
+
+		if (accountStateCache == null)
+			throw new IllegalStateException("Tried to save last references from non-existent account state cache");
+
+		for (AccountData accountData : accountStateCache.getNewLastReferences())
+			this.setLastReference(accountData);
+	}
+
 	// Account balances
 
 	@Override
 	public AccountBalanceData getBalance(String address, long assetId) throws DataException {
-		String sql = "SELECT balance FROM AccountBalances WHERE account = ? AND asset_id = ? LIMIT 1";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, address, assetId)) {
-			if (resultSet == null)
-				return null;
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null)
+			try {
+				return accountStateCache.getBalance(address, assetId);
+			} catch (SQLException e) {
+				throw new DataException("Unable to fetch account balance from repository", e);
+			}
 
-			long balance = resultSet.getLong(1);
+		HSQLDBQuery.Binder binder = preparedStatement -> {
+			preparedStatement.setString(1, address);
+			preparedStatement.setLong(2, assetId);
+		};
 
-			return new AccountBalanceData(address, assetId, balance);
+		try {
+			return this.repository.fetchOne(BALANCE, binder, BALANCE_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Unable to fetch account balance from repository", e);
 		}
@@ -324,26 +428,12 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public List<AccountBalanceData> getAssetBalances(long assetId, Boolean excludeZero) throws DataException {
-		StringBuilder sql = new StringBuilder(1024);
+		this.repository.onAccountStateSql(false);
 
-		sql.append("SELECT account, balance FROM AccountBalances WHERE asset_id = ?");
+		HSQLDBQuery query = excludeZero != null && excludeZero ? NONZERO_ASSET_BALANCES : ASSET_BALANCES;
 
-		if (excludeZero != null && excludeZero)
-			sql.append(" AND balance != 0");
-
-		List<AccountBalanceData> accountBalances = new ArrayList<>();
-		try (ResultSet resultSet = this.repository.checkedExecute(sql.toString(), assetId)) {
-			if (resultSet == null)
-				return accountBalances;
-
-			do {
-				String address = resultSet.getString(1);
-				long balance = resultSet.getLong(2);
-
-				accountBalances.add(new AccountBalanceData(address, assetId, balance));
-			} while (resultSet.next());
-
-			return accountBalances;
+		try {
+			return this.repository.fetchAll(query, HSQLDBQuery.bindLong(assetId), BALANCE_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Unable to fetch asset balances from repository", e);
 		}
@@ -352,6 +442,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 	@Override
 	public List<AccountBalanceData> getAssetBalances(List<String> addresses, List<Long> assetIds, BalanceOrdering balanceOrdering, Boolean excludeZero,
 			Integer limit, Integer offset, Boolean reverse) throws DataException {
+		this.repository.onAccountStateSql(false);
+
 		StringBuilder sql = new StringBuilder(1024);
 
 		sql.append("SELECT account, asset_id, balance, asset_name FROM ");
@@ -460,6 +552,17 @@ public class HSQLDBAccountRepository implements AccountRepository {
 		if (deltaBalance == 0)
 			return;
 
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			try {
+				accountStateCache.modifyAssetBalance(address, assetId, deltaBalance);
+			} catch (SQLException e) {
+				throw new DataException(deltaBalance < 0 ? "Unable to reduce account balance in repository" : "Unable to increase account balance in repository", e);
+			}
+
+			return;
+		}
+
 		// If deltaBalance is negative then we assume AccountBalances & parent Accounts rows exist
 		if (deltaBalance < 0) {
 			// Perform actual balance change
@@ -490,6 +593,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 	}
 
 	public void modifyAssetBalances(List<AccountBalanceData> accountBalanceDeltas) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		// Nothing to do?
 		if (accountBalanceDeltas == null || accountBalanceDeltas.isEmpty())
 			return;
@@ -521,6 +626,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void setAssetBalances(List<AccountBalanceData> accountBalances) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		// Nothing to do?
 		if (accountBalances == null || accountBalances.isEmpty())
 			return;
@@ -573,6 +680,17 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void save(AccountBalanceData accountBalanceData) throws DataException {
+		HSQLDBAccountStateCache accountStateCache = this.repository.getAccountStateCache();
+		if (accountStateCache != null) {
+			try {
+				accountStateCache.saveBalance(accountBalanceData);
+			} catch (SQLException e) {
+				throw new DataException("Unable to save account balance into repository", e);
+			}
+
+			return;
+		}
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("AccountBalances");
 
 		saveHelper.bind("account", accountBalanceData.getAddress()).bind("asset_id", accountBalanceData.getAssetId())
@@ -587,6 +705,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void delete(String address, long assetId) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		try {
 			this.repository.delete("AccountBalances", "account = ? AND asset_id = ?", address, assetId);
 		} catch (SQLException e) {
@@ -682,6 +802,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 	@Override
 	public List<RewardShareData> findRewardShares(List<String> minters, List<String> recipients, List<String> involvedAddresses,
 			Integer limit, Integer offset, Boolean reverse) throws DataException {
+		this.repository.onAccountStateSql(false);
+
 		StringBuilder sql = new StringBuilder(1024);
 		sql.append("SELECT DISTINCT minter_public_key, minter, recipient, share_percent, reward_share_public_key FROM RewardShares ");
 
@@ -769,83 +891,20 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public Integer getRewardShareIndex(byte[] rewardSharePublicKey) throws DataException {
-		if (!this.rewardShareExists(rewardSharePublicKey))
-			return null;
-
-		String sql = "SELECT COUNT(*) FROM RewardShares WHERE reward_share_public_key < ?";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, rewardSharePublicKey)) {
-			return resultSet.getInt(1);
-		} catch (SQLException e) {
-			throw new DataException("Unable to determine reward-share index in repository", e);
-		}
+		return this.repository.getRewardShareIndex().getIndex(rewardSharePublicKey, this.repository.getRewardShareChanges(), this.repository.getDerivedRewardShareSnapshot());
 	}
 
 	@Override
 	public RewardShareData getRewardShareByIndex(int index) throws DataException {
-		String sql = "SELECT minter_public_key, minter, recipient, share_percent, reward_share_public_key FROM RewardShares "
-				+ "ORDER BY reward_share_public_key ASC "
-				+ "OFFSET ? LIMIT 1";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, index)) {
-			if (resultSet == null)
-				return null;
-
-			byte[] minterPublicKey = resultSet.getBytes(1);
-			String minter = resultSet.getString(2);
-			String recipient = resultSet.getString(3);
-			int sharePercent = resultSet.getInt(4);
-			byte[] rewardSharePublicKey = resultSet.getBytes(5);
-
-			return new RewardShareData(minterPublicKey, minter, recipient, rewardSharePublicKey, sharePercent);
-		} catch (SQLException e) {
-			throw new DataException("Unable to fetch indexed reward-share from repository", e);
-		}
+		return this.repository.getRewardShareIndex().getByIndex(index, this.repository.getRewardShareChanges(), this.repository.getDerivedRewardShareSnapshot());
 	}
 
 	@Override
 	public List<RewardShareData> getRewardSharesByIndexes(int[] indexes) throws DataException {
-		String sql = "SELECT minter_public_key, minter, recipient, share_percent, reward_share_public_key FROM RewardShares "
-				+ "ORDER BY reward_share_public_key ASC";
-
 		if (indexes == null)
 			return null;
 
-		List<RewardShareData> rewardShares = new ArrayList<>();
-		if (indexes.length == 0)
-			return rewardShares;
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql)) {
-			if (resultSet == null)
-				return null;
-
-			int rowNum = 1;
-			for (int i = 0; i < indexes.length; ++i) {
-				final int index = indexes[i];
-
-				while (rowNum < index + 1) { // +1 because in JDBC, first row is row 1
-					if (!resultSet.next())
-						// Index is out of bounds
-						return null;
-
-					++rowNum;
-				}
-
-				byte[] minterPublicKey = resultSet.getBytes(1);
-				String minter = resultSet.getString(2);
-				String recipient = resultSet.getString(3);
-				int sharePercent = resultSet.getInt(4);
-				byte[] rewardSharePublicKey = resultSet.getBytes(5);
-
-				RewardShareData rewardShareData = new RewardShareData(minterPublicKey, minter, recipient, rewardSharePublicKey, sharePercent);
-
-				rewardShares.add(rewardShareData);
-			}
-
-			return rewardShares;
-		} catch (SQLException e) {
-			throw new DataException("Unable to fetch indexed reward-shares from repository", e);
-		}
+		return this.repository.getRewardShareIndex().getByIndexes(indexes, this.repository.getRewardShareChanges(), this.repository.getDerivedRewardShareSnapshot());
 	}
 
 	@Override
@@ -865,20 +924,34 @@ public class HSQLDBAccountRepository implements AccountRepository {
 			.bind("recipient", rewardShareData.getRecipient()).bind("reward_share_public_key", rewardShareData.getRewardSharePublicKey())
 			.bind("share_percent", rewardShareData.getSharePercent());
 
+		// Reward-share public key is derived from minter and recipient, but make sure we don't leave a stale index entry
+		RewardShareData previousRewardShareData = this.getRewardShare(rewardShareData.getMinterPublicKey(), rewardShareData.getRecipient());
+
 		try {
 			saveHelper.execute(this.repository);
 		} catch (SQLException e) {
 			throw new DataException("Unable to save reward-share info into repository", e);
 		}
+
+		if (previousRewardShareData != null)
+			this.repository.addRewardShareChange(HSQLDBRewardShareIndex.Change.remove(previousRewardShareData.getRewardSharePublicKey()));
+
+		this.repository.addRewardShareChange(HSQLDBRewardShareIndex.Change.save(rewardShareData));
 	}
 
 	@Override
 	public void delete(byte[] minterPublickey, String recipient) throws DataException {
+		RewardShareData rewardShareData = this.getRewardShare(minterPublickey, recipient);
+		if (rewardShareData == null)
+			return;
+
 		try {
 			this.repository.delete("RewardShares", "minter_public_key = ? and recipient = ?", minterPublickey, recipient);
 		} catch (SQLException e) {
 			throw new DataException("Unable to delete reward-share info from repository", e);
 		}
+
+		this.repository.addRewardShareChange(HSQLDBRewardShareIndex.Change.remove(rewardShareData.getRewardSharePublicKey()));
 	}
 
 	// Minting accounts used by BlockMinter
@@ -931,6 +1004,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public List<EligibleQoraHolderData> getEligibleLegacyQoraHolders(Integer blockHeight) throws DataException {
+		this.repository.onAccountStateSql(false);
+
 		StringBuilder sql = new StringBuilder(1024);
 		List<Object> bindParams = new ArrayList<>();
 
@@ -999,6 +1074,8 @@ public class HSQLDBAccountRepository implements AccountRepository {
 
 	@Override
 	public void save(QortFromQoraData qortFromQoraData) throws DataException {
+		this.repository.onAccountStateSql(false);
+
 		HSQLDBSaver saveHelper = new HSQLDBSaver("AccountQortFromQoraInfo");
 
 		saveHelper.bind("account", qortFromQoraData.getAddress())
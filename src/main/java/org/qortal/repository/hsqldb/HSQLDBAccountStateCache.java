@@ -0,0 +1,500 @@
+package org.qortal.repository.hsqldb;
+
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.qortal.data.account.AccountBalanceData;
+import org.qortal.data.account.AccountData;
+
+/**
+ * Account state overlay for one repository session, typically covering processing or validating one block's transactions.
+ * <p>
+ * Balances, levels, flags and default group IDs are read through from the repository once, then served,
+ * and modified, in memory. Modified values are written back, in JDBC batches, when the session sets or
+ * releases a savepoint or commits, or just before any SQL that accesses Accounts or AccountBalances
+ * other than via this cache, so the repository is always up to date as far as any query can tell.
+ * <p>
+ * Last references keep the semantics of the old <tt>AccountRefCache</tt>: while caching, fetching an account's
+ * last reference always returns the value from before caching started, and new last references are
+ * only saved to the repository if the cache is stopped with <tt>saveLastReferences</tt> set.
+ * <p>
+ * Changes made since a savepoint are journaled so that they can be undone if the session
+ * rolls back to that savepoint.
+ *
+ * @see HSQLDBRepository#startAccountStateCache()
+ */
+public class HSQLDBAccountStateCache {
+
+	private static final HSQLDBQuery ACCOUNT_COLUMNS = new HSQLDBQuery("SELECT default_group_id, flags, level FROM Accounts WHERE account = ?");
+	private static final HSQLDBQuery BALANCE = new HSQLDBQuery("SELECT balance FROM AccountBalances WHERE account = ? AND asset_id = ? LIMIT 1");
+	private static final HSQLDBQuery LAST_REFERENCE = new HSQLDBQuery("SELECT reference FROM Accounts WHERE account = ?");
+
+	private static final String ENSURE_ACCOUNT_SQL = "INSERT IGNORE INTO Accounts (account) VALUES (?)"; // MySQL syntax
+	private static final String SET_BALANCE_SQL = "INSERT INTO AccountBalances (account, asset_id, balance) VALUES (?, ?, ?) "
+			+ "ON DUPLICATE KEY UPDATE balance = ?";
+
+	/** Cached value, or cached absence of row if <tt>value</tt> is null. Immutable, so previous entries can be journaled. */
+	private static class Entry<V> {
+		private final V value;
+		private final boolean isDirty;
+		/** Public key to save along with value, or null. */
+		private final byte[] publicKey;
+
+		private Entry(V value, boolean isDirty, byte[] publicKey) {
+			this.value = value;
+			this.isDirty = isDirty;
+			this.publicKey = publicKey;
+		}
+	}
+
+	private static class BalanceKey {
+		private final String address;
+		private final long assetId;
+
+		private BalanceKey(String address, long assetId) {
+			this.address = address;
+			this.assetId = assetId;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other)
+				return true;
+
+			if (!(other instanceof BalanceKey))
+				return false;
+
+			BalanceKey otherKey = (BalanceKey) other;
+			return this.assetId == otherKey.assetId && this.address.equals(otherKey.address);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.address, this.assetId);
+		}
+	}
+
+	/** Cached values for one column, keyed by <tt>K</tt>, along with which have been modified since last written back. */
+	private class CachedColumn<K, V> {
+		private final Map<K, Entry<V>> entries = new HashMap<>();
+		private final Set<K> dirtyKeys = new LinkedHashSet<>();
+
+		private Entry<V> get(K key) {
+			return this.entries.get(key);
+		}
+
+		/** Sets entry, journaling previous entry if there are savepoints to roll back to. */
+		private void put(K key, Entry<V> entry) {
+			Entry<V> previous = this.entries.put(key, entry);
+
+			if (!savepointJournalSizes.isEmpty())
+				journal.add(() -> this.restore(key, previous));
+
+			if (entry.isDirty)
+				this.dirtyKeys.add(key);
+			else
+				this.dirtyKeys.remove(key);
+		}
+
+		private void restore(K key, Entry<V> previous) {
+			if (previous == null) {
+				this.entries.remove(key);
+				this.dirtyKeys.remove(key);
+				return;
+			}
+
+			this.entries.put(key, previous);
+
+			if (previous.isDirty)
+				this.dirtyKeys.add(key);
+			else
+				this.dirtyKeys.remove(key);
+		}
+
+		/** Forgets clean entry, e.g. because it might be stale. Not journaled as a cache miss is always safe. */
+		private void forget(K key) {
+			Entry<V> entry = this.entries.get(key);
+			if (entry != null && !entry.isDirty)
+				this.entries.remove(key);
+		}
+
+		private void forgetClean() {
+			this.entries.values().removeIf(entry -> !entry.isDirty);
+		}
+
+		/** Returns dirty entries, in order of modification, marking them as clean. */
+		private List<Map.Entry<K, Entry<V>>> takeDirty() {
+			List<Map.Entry<K, Entry<V>>> dirtyEntries = new ArrayList<>(this.dirtyKeys.size());
+
+			for (K key : this.dirtyKeys) {
+				Entry<V> entry = this.entries.get(key);
+				dirtyEntries.add(new AbstractMap.SimpleImmutableEntry<>(key, entry));
+				this.entries.put(key, new Entry<>(entry.value, false, null));
+			}
+
+			this.dirtyKeys.clear();
+			return dirtyEntries;
+		}
+
+		private boolean isDirty() {
+			return !this.dirtyKeys.isEmpty();
+		}
+
+		private boolean isDirty(K key) {
+			return this.dirtyKeys.contains(key);
+		}
+
+		private void clear() {
+			this.entries.clear();
+			this.dirtyKeys.clear();
+		}
+	}
+
+	private final HSQLDBRepository repository;
+
+	private final CachedColumn<BalanceKey, Long> balances = new CachedColumn<>();
+	private final CachedColumn<String, Integer> levels = new CachedColumn<>();
+	private final CachedColumn<String, Integer> flags = new CachedColumn<>();
+	private final CachedColumn<String, Integer> defaultGroupIds = new CachedColumn<>();
+	/** Columns cached from each account's Accounts row. */
+	private final List<CachedColumn<String, Integer>> accountColumns = Arrays.asList(this.levels, this.flags, this.defaultGroupIds);
+
+	/** Last references from before caching started. Never modified while caching, so not journaled. */
+	private final Map<String, Entry<byte[]>> lastReferences = new HashMap<>();
+	/** Last references to save when cache is stopped, in order of modification. */
+	private final CachedColumn<String, byte[]> newLastReferences = new CachedColumn<>();
+
+	/** Undo actions for changes made since earliest savepoint, oldest first. */
+	private final List<Runnable> journal = new ArrayList<>();
+	/** Journal size at each savepoint set while caching, most recent first. */
+	private final Deque<Integer> savepointJournalSizes = new ArrayDeque<>(3);
+
+	/* package */ HSQLDBAccountStateCache(HSQLDBRepository repository) {
+		this.repository = repository;
+	}
+
+	// Balances
+
+	public AccountBalanceData getBalance(String address, long assetId) throws SQLException {
+		Long balance = this.loadBalance(new BalanceKey(address, assetId)).value;
+
+		return balance != null ? new AccountBalanceData(address, assetId, balance) : null;
+	}
+
+	/** Modifies balance as {@link HSQLDBAccountRepository#modifyAssetBalance(String, long, long)} would. */
+	public void modifyAssetBalance(String address, long assetId, long deltaBalance) throws SQLException {
+		if (deltaBalance == 0)
+			return;
+
+		BalanceKey key = new BalanceKey(address, assetId);
+		Long balance = this.loadBalance(key).value;
+
+		if (balance == null) {
+			// Repository wouldn't create balance row for a negative delta
+			if (deltaBalance < 0)
+				return;
+
+			balance = 0L;
+		}
+
+		// As repository's CheckBalanceNotNegative constraint would
+		if (balance + deltaBalance < 0)
+			throw new SQLException(String.format("Balance of asset %d for %s would become negative", assetId, address));
+
+		this.balances.put(key, new Entry<>(balance + deltaBalance, true, null));
+		this.onAccountRowModified(address);
+	}
+
+	public void saveBalance(AccountBalanceData accountBalanceData) throws SQLException {
+		String address = accountBalanceData.getAddress();
+
+		if (accountBalanceData.getBalance() < 0)
+			throw new SQLException(String.format("Balance of asset %d for %s can't be negative", accountBalanceData.getAssetId(), address));
+
+		this.balances.put(new BalanceKey(address, accountBalanceData.getAssetId()), new Entry<>(accountBalanceData.getBalance(), true, null));
+		this.onAccountRowModified(address);
+	}
+
+	private Entry<Long> loadBalance(BalanceKey key) throws SQLException {
+		Entry<Long> entry = this.balances.get(key);
+		if (entry != null)
+			return entry;
+
+		HSQLDBQuery.Binder binder = preparedStatement -> {
+			preparedStatement.setString(1, key.address);
+			preparedStatement.setLong(2, key.assetId);
+		};
+
+		// Other modified values can't affect this balance row, so there's no need to write them back first
+		Long balance = this.repository.fetchOne(BALANCE, binder, resultSet -> resultSet.getLong(1));
+
+		entry = new Entry<>(balance, false, null);
+		this.balances.put(key, entry);
+		return entry;
+	}
+
+	// Accounts columns
+
+	public Integer getLevel(String address) throws SQLException {
+		return this.loadAccountColumn(this.levels, address).value;
+	}
+
+	public void setLevel(AccountData accountData) {
+		this.setAccountColumn(this.levels, accountData.getAddress(), accountData.getLevel(), accountData.getPublicKey());
+	}
+
+	public Integer getFlags(String address) throws SQLException {
+		return this.loadAccountColumn(this.flags, address).value;
+	}
+
+	public void setFlags(AccountData accountData) {
+		this.setAccountColumn(this.flags, accountData.getAddress(), accountData.getFlags(), accountData.getPublicKey());
+	}
+
+	public Integer getDefaultGroupId(String address) throws SQLException {
+		return this.loadAccountColumn(this.defaultGroupIds, address).value;
+	}
+
+	public void setDefaultGroupId(AccountData accountData) {
+		this.setAccountColumn(this.defaultGroupIds, accountData.getAddress(), accountData.getDefaultGroupId(), accountData.getPublicKey());
+	}
+
+	private void setAccountColumn(CachedColumn<String, Integer> column, String address, int value, byte[] publicKey) {
+		Entry<Integer> previous = column.get(address);
+
+		// Keep any public key from earlier, not yet written back, modification
+		if (publicKey == null && previous != null && previous.isDirty)
+			publicKey = previous.publicKey;
+
+		column.put(address, new Entry<>(value, true, publicKey));
+		this.onAccountRowModified(address);
+	}
+
+	private Entry<Integer> loadAccountColumn(CachedColumn<String, Integer> column, String address) throws SQLException {
+		Entry<Integer> entry = column.get(address);
+		if (entry != null)
+			return entry;
+
+		// If we've modified anything that might create this account's row, write that back first
+		if (this.hasDirtyAccountRow(address))
+			this.flush();
+
+		Integer[] values = this.repository.fetchOne(ACCOUNT_COLUMNS, HSQLDBQuery.bindString(address),
+				resultSet -> new Integer[] { resultSet.getInt(1), resultSet.getInt(2), resultSet.getInt(3) });
+
+		// Cache all columns, as they were fetched anyway, but don't overwrite any we already have
+		if (this.defaultGroupIds.get(address) == null)
+			this.defaultGroupIds.put(address, new Entry<>(values != null ? values[0] : null, false, null));
+
+		if (this.flags.get(address) == null)
+			this.flags.put(address, new Entry<>(values != null ? values[1] : null, false, null));
+
+		if (this.levels.get(address) == null)
+			this.levels.put(address, new Entry<>(values != null ? values[2] : null, false, null));
+
+		return column.get(address);
+	}
+
+	private boolean hasDirtyAccountRow(String address) {
+		if (this.levels.isDirty(address) || this.flags.isDirty(address) || this.defaultGroupIds.isDirty(address))
+			return true;
+
+		for (BalanceKey key : this.balances.dirtyKeys)
+			if (key.address.equals(address))
+				return true;
+
+		return false;
+	}
+
+	/** Called when writing back a modification might create account's row, making any cached absence of that row stale. */
+	private void onAccountRowModified(String address) {
+		for (CachedColumn<String, Integer> column : this.accountColumns) {
+			Entry<Integer> entry = column.get(address);
+
+			if (entry != null && entry.value == null)
+				column.forget(address);
+		}
+	}
+
+	// Last references
+
+	/** Returns account's last reference from before caching started. */
+	public byte[] getLastReference(String address) throws SQLException {
+		Entry<byte[]> entry = this.lastReferences.get(address);
+		if (entry != null)
+			return entry.value;
+
+		// Modified values don't include last references, nor can they create a row with a last reference
+		byte[] lastReference = this.repository.fetchOne(LAST_REFERENCE, HSQLDBQuery.bindString(address), resultSet -> resultSet.getBytes(1));
+
+		this.lastReferences.put(address, new Entry<>(lastReference, false, null));
+		return lastReference;
+	}
+
+	/** Records account's new last reference, and public key if not null, to be saved when cache is stopped. */
+	public void setLastReference(AccountData accountData) {
+		String address = accountData.getAddress();
+		byte[] publicKey = accountData.getPublicKey();
+
+		// Inherit public key from earlier new last reference if we don't have one
+		Entry<byte[]> previous = this.newLastReferences.get(address);
+		if (publicKey == null && previous != null)
+			publicKey = previous.publicKey;
+
+		this.newLastReferences.put(address, new Entry<>(accountData.getReference(), true, publicKey));
+	}
+
+	// Write-back
+
+	/* package */ boolean isFlushNeeded() {
+		return this.balances.isDirty() || this.levels.isDirty() || this.flags.isDirty() || this.defaultGroupIds.isDirty();
+	}
+
+	/** Returns whether SQL is one of our own loading queries, which don't need modified values written back first. */
+	/* package */ static boolean isCacheSql(String sql) {
+		return sql.equals(ACCOUNT_COLUMNS.getSql()) || sql.equals(BALANCE.getSql()) || sql.equals(LAST_REFERENCE.getSql());
+	}
+
+	/** Writes back modified balances, levels, flags and default group IDs, in JDBC batches. Last references aren't written. */
+	/* package */ void flush() throws SQLException {
+		// Taken, and so marked clean, before executing anything
+		List<Map.Entry<BalanceKey, Entry<Long>>> dirtyBalances = this.balances.takeDirty();
+		List<Map.Entry<String, Entry<Integer>>> dirtyLevels = this.levels.takeDirty();
+		List<Map.Entry<String, Entry<Integer>>> dirtyFlags = this.flags.takeDirty();
+		List<Map.Entry<String, Entry<Integer>>> dirtyDefaultGroupIds = this.defaultGroupIds.takeDirty();
+
+		this.writeBalances(dirtyBalances);
+
+		this.queueAccountColumnSaves("level", dirtyLevels);
+		this.queueAccountColumnSaves("flags", dirtyFlags);
+		this.queueAccountColumnSaves("default_group_id", dirtyDefaultGroupIds);
+
+		this.repository.flushPendingSaves();
+	}
+
+	private void writeBalances(List<Map.Entry<BalanceKey, Entry<Long>>> dirtyBalances) throws SQLException {
+		if (!dirtyBalances.isEmpty()) {
+			// Ensure parent accounts exist to satisfy foreign key constraint
+			Map<String, Object[]> ensureAccountParams = new LinkedHashMap<>();
+			List<Object[]> balanceParams = new ArrayList<>(dirtyBalances.size());
+
+			for (Map.Entry<BalanceKey, Entry<Long>> dirtyBalance : dirtyBalances) {
+				BalanceKey key = dirtyBalance.getKey();
+				long balance = dirtyBalance.getValue().value;
+
+				ensureAccountParams.putIfAbsent(key.address, new Object[] { key.address });
+				balanceParams.add(new Object[] { key.address, key.assetId, balance, balance });
+			}
+
+			this.repository.executeCheckedBatchUpdate(ENSURE_ACCOUNT_SQL, new ArrayList<>(ensureAccountParams.values()));
+			this.repository.executeCheckedBatchUpdate(SET_BALANCE_SQL, balanceParams);
+		}
+	}
+
+	private void queueAccountColumnSaves(String columnName, List<Map.Entry<String, Entry<Integer>>> dirtyEntries) throws SQLException {
+		for (Map.Entry<String, Entry<Integer>> dirtyEntry : dirtyEntries) {
+			HSQLDBSaver saveHelper = new HSQLDBSaver("Accounts");
+
+			saveHelper.bind("account", dirtyEntry.getKey()).bind(columnName, dirtyEntry.getValue().value);
+
+			byte[] publicKey = dirtyEntry.getValue().publicKey;
+			if (publicKey != null)
+				saveHelper.bind("public_key", publicKey);
+
+			saveHelper.batch(this.repository);
+		}
+	}
+
+	/** Returns new last references, in order of modification, for saving. */
+	/* package */ List<AccountData> getNewLastReferences() {
+		List<AccountData> accounts = new ArrayList<>();
+
+		for (Map.Entry<String, Entry<byte[]>> newLastReference : this.newLastReferences.takeDirty()) {
+			AccountData accountData = new AccountData(newLastReference.getKey());
+			accountData.setReference(newLastReference.getValue().value);
+
+			if (newLastReference.getValue().publicKey != null)
+				accountData.setPublicKey(newLastReference.getValue().publicKey);
+
+			accounts.add(accountData);
+		}
+
+		return accounts;
+	}
+
+	/**
+	 * Forgets all cached balances, levels, flags and default group IDs, as rows might have been modified or deleted outside of cache.
+	 * <p>
+	 * Modified values must have been written back first.
+	 */
+	/* package */ void invalidate() {
+		this.balances.forgetClean();
+
+		for (CachedColumn<String, Integer> column : this.accountColumns)
+			column.forgetClean();
+	}
+
+	// Repository transaction/savepoint tracking
+
+	/** Called after modified values have been written back, and savepoint set. */
+	/* package */ void onSavepoint() {
+		this.savepointJournalSizes.push(this.journal.size());
+	}
+
+	/** Called after repository rolled back to most recent savepoint. */
+	/* package */ void onRollbackToSavepoint() {
+		if (this.savepointJournalSizes.isEmpty()) {
+			// Savepoint predates caching, so everything we know might have been rolled back
+			this.balances.clear();
+			this.levels.clear();
+			this.flags.clear();
+			this.defaultGroupIds.clear();
+			this.newLastReferences.clear();
+			return;
+		}
+
+		int journalSize = this.savepointJournalSizes.pop();
+
+		// Undo changes since savepoint, most recent first
+		for (int i = this.journal.size() - 1; i >= journalSize; --i)
+			this.journal.get(i).run();
+
+		this.journal.subList(journalSize, this.journal.size()).clear();
+	}
+
+	/** Called after repository released most recent savepoint. */
+	/* package */ void onReleaseSavepoint() {
+		// Changes since released savepoint now belong to enclosing savepoint, if any
+		if (!this.savepointJournalSizes.isEmpty())
+			this.savepointJournalSizes.pop();
+
+		if (this.savepointJournalSizes.isEmpty())
+			this.journal.clear();
+	}
+
+	/** Called after repository committed, or rolled back, all changes. */
+	/* package */ void onTransactionEnd(boolean isCommitted) {
+		this.journal.clear();
+		this.savepointJournalSizes.clear();
+
+		if (!isCommitted) {
+			this.balances.clear();
+			this.levels.clear();
+			this.flags.clear();
+			this.defaultGroupIds.clear();
+			this.newLastReferences.clear();
+		}
+	}
+
+}
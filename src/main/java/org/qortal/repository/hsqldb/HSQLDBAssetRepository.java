@@ -200,6 +200,8 @@ public class HSQLDBAssetRepository implements AssetRepository {
 
 	@Override
 	public void delete(long assetId) throws DataException {
+		this.repository.onAccountStateSql(true);
+
 		try {
 			this.repository.delete("Assets", "asset_id = ?", assetId);
 
@@ -22,62 +22,82 @@ public class HSQLDBBlockRepository implements BlockRepository {
 			+ "transactions_signature, height, minted_when, minter, minter_signature, "
 			+ "AT_count, AT_fees, online_accounts, online_accounts_count, online_accounts_timestamp, online_accounts_signatures";
 
+	private static final HSQLDBQuery.RowMapper<BlockData> BLOCK_ROW_MAPPER = HSQLDBBlockRepository::getBlockFromResultSet;
+
+	private static final HSQLDBQuery BLOCK_FROM_SIGNATURE = new HSQLDBQuery("SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE signature = ? LIMIT 1");
+	private static final HSQLDBQuery BLOCK_FROM_REFERENCE = new HSQLDBQuery("SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE reference = ? LIMIT 1");
+	private static final HSQLDBQuery BLOCK_FROM_HEIGHT = new HSQLDBQuery("SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE height = ? LIMIT 1");
+	private static final HSQLDBQuery LAST_BLOCK = new HSQLDBQuery("SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks ORDER BY height DESC LIMIT 1");
+	private static final HSQLDBQuery BLOCKS_FROM_HEIGHT_RANGE = new HSQLDBQuery("SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE height BETWEEN ? AND ?");
+
+	private static final HSQLDBQuery DETACHED_BLOCK = new HSQLDBQuery("SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks "
+			+ "LEFT OUTER JOIN Blocks AS ParentBlocks "
+			+ "ON ParentBlocks.signature = Blocks.reference "
+			+ "WHERE ParentBlocks.signature IS NULL AND Blocks.height > ? "
+			+ "ORDER BY Blocks.height ASC LIMIT 1");
+
+	private static final HSQLDBQuery HEIGHT_FROM_SIGNATURE = new HSQLDBQuery("SELECT height FROM Blocks WHERE signature = ? LIMIT 1");
+	// Uses (minted_when, height) index
+	private static final HSQLDBQuery HEIGHT_FROM_TIMESTAMP = new HSQLDBQuery("SELECT height FROM Blocks WHERE minted_when <= ? ORDER BY minted_when DESC, height DESC LIMIT 1");
+	private static final HSQLDBQuery TIMESTAMP_FROM_HEIGHT = new HSQLDBQuery("SELECT minted_when FROM Blocks WHERE height = ?");
+	private static final HSQLDBQuery BLOCKCHAIN_HEIGHT = new HSQLDBQuery("SELECT height FROM Blocks ORDER BY height DESC LIMIT 1");
+
 	protected HSQLDBRepository repository;
 
 	public HSQLDBBlockRepository(HSQLDBRepository repository) {
 		this.repository = repository;
 	}
 
-	private BlockData getBlockFromResultSet(ResultSet resultSet) throws DataException {
-		if (resultSet == null)
-			return null;
-
-		try {
-			int version = resultSet.getInt(1);
-			byte[] reference = resultSet.getBytes(2);
-			int transactionCount = resultSet.getInt(3);
-			long totalFees = resultSet.getLong(4);
-			byte[] transactionsSignature = resultSet.getBytes(5);
-			int height = resultSet.getInt(6);
-			long timestamp = resultSet.getLong(7);
-			byte[] minterPublicKey = resultSet.getBytes(8);
-			byte[] minterSignature = resultSet.getBytes(9);
-			int atCount = resultSet.getInt(10);
-			long atFees = resultSet.getLong(11);
-			byte[] encodedOnlineAccounts = resultSet.getBytes(12);
-			int onlineAccountsCount = resultSet.getInt(13);
-
-			Long onlineAccountsTimestamp = resultSet.getLong(14);
-			if (onlineAccountsTimestamp == 0 && resultSet.wasNull())
-				onlineAccountsTimestamp = null;
-
-			byte[] onlineAccountsSignatures = resultSet.getBytes(15);
-
-			return new BlockData(version, reference, transactionCount, totalFees, transactionsSignature, height, timestamp,
-					minterPublicKey, minterSignature, atCount, atFees,
-					encodedOnlineAccounts, onlineAccountsCount, onlineAccountsTimestamp, onlineAccountsSignatures);
-		} catch (SQLException e) {
-			throw new DataException("Error extracting data from result set", e);
-		}
+	private static BlockData getBlockFromResultSet(ResultSet resultSet) throws SQLException {
+		int version = resultSet.getInt(1);
+		byte[] reference = resultSet.getBytes(2);
+		int transactionCount = resultSet.getInt(3);
+		long totalFees = resultSet.getLong(4);
+		byte[] transactionsSignature = resultSet.getBytes(5);
+		int height = resultSet.getInt(6);
+		long timestamp = resultSet.getLong(7);
+		byte[] minterPublicKey = resultSet.getBytes(8);
+		byte[] minterSignature = resultSet.getBytes(9);
+		int atCount = resultSet.getInt(10);
+		long atFees = resultSet.getLong(11);
+		byte[] encodedOnlineAccounts = resultSet.getBytes(12);
+		int onlineAccountsCount = resultSet.getInt(13);
+
+		Long onlineAccountsTimestamp = resultSet.getLong(14);
+		if (onlineAccountsTimestamp == 0 && resultSet.wasNull())
+			onlineAccountsTimestamp = null;
+
+		byte[] onlineAccountsSignatures = resultSet.getBytes(15);
+
+		return new BlockData(version, reference, transactionCount, totalFees, transactionsSignature, height, timestamp,
+				minterPublicKey, minterSignature, atCount, atFees,
+				encodedOnlineAccounts, onlineAccountsCount, onlineAccountsTimestamp, onlineAccountsSignatures);
 	}
 
 	@Override
 	public BlockData fromSignature(byte[] signature) throws DataException {
-		String sql = "SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE signature = ? LIMIT 1";
+		HSQLDBChainDataCache.Session chainDataCache = this.repository.getChainDataCache();
 
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, signature)) {
-			return getBlockFromResultSet(resultSet);
+		BlockData blockData = chainDataCache.getBlock(signature);
+		if (blockData != null)
+			return blockData;
+
+		try {
+			blockData = this.repository.fetchOne(BLOCK_FROM_SIGNATURE, HSQLDBQuery.bindBytes(signature), BLOCK_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Error fetching block by signature from repository", e);
 		}
+
+		if (blockData != null)
+			chainDataCache.putBlock(blockData);
+
+		return blockData;
 	}
 
 	@Override
 	public BlockData fromReference(byte[] reference) throws DataException {
-		String sql = "SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE reference = ? LIMIT 1";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, reference)) {
-			return getBlockFromResultSet(resultSet);
+		try {
+			return this.repository.fetchOne(BLOCK_FROM_REFERENCE, HSQLDBQuery.bindBytes(reference), BLOCK_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Error fetching block by reference from repository", e);
 		}
@@ -85,13 +105,22 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public BlockData fromHeight(int height) throws DataException {
-		String sql = "SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE height = ? LIMIT 1";
+		HSQLDBChainDataCache.Session chainDataCache = this.repository.getChainDataCache();
 
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, height)) {
-			return getBlockFromResultSet(resultSet);
+		BlockData blockData = chainDataCache.getBlockAtHeight(height);
+		if (blockData != null)
+			return blockData;
+
+		try {
+			blockData = this.repository.fetchOne(BLOCK_FROM_HEIGHT, HSQLDBQuery.bindInt(height), BLOCK_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Error fetching block by height from repository", e);
 		}
+
+		if (blockData != null)
+			chainDataCache.putBlock(blockData);
+
+		return blockData;
 	}
 
 	@Override
@@ -105,9 +134,7 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public int getHeightFromSignature(byte[] signature) throws DataException {
-		String sql = "SELECT height FROM Blocks WHERE signature = ? LIMIT 1";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, signature)) {
+		try (ResultSet resultSet = this.repository.checkedExecute(HEIGHT_FROM_SIGNATURE, HSQLDBQuery.bindBytes(signature))) {
 			if (resultSet == null)
 				return 0;
 
@@ -119,10 +146,7 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public int getHeightFromTimestamp(long timestamp) throws DataException {
-		// Uses (minted_when, height) index
-		String sql = "SELECT height FROM Blocks WHERE minted_when <= ? ORDER BY minted_when DESC, height DESC LIMIT 1";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, timestamp)) {
+		try (ResultSet resultSet = this.repository.checkedExecute(HEIGHT_FROM_TIMESTAMP, HSQLDBQuery.bindLong(timestamp))) {
 			if (resultSet == null)
 				return 0;
 
@@ -134,9 +158,7 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public long getTimestampFromHeight(int height) throws DataException {
-		String sql = "SELECT minted_when FROM Blocks WHERE height = ?";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, height)) {
+		try (ResultSet resultSet = this.repository.checkedExecute(TIMESTAMP_FROM_HEIGHT, HSQLDBQuery.bindInt(height))) {
 			if (resultSet == null)
 				return 0;
 
@@ -148,9 +170,7 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public int getBlockchainHeight() throws DataException {
-		String sql = "SELECT height FROM Blocks ORDER BY height DESC LIMIT 1";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql)) {
+		try (ResultSet resultSet = this.repository.checkedExecute(BLOCKCHAIN_HEIGHT, HSQLDBQuery.NO_PARAMS)) {
 			if (resultSet == null)
 				return 0;
 
@@ -162,10 +182,8 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public BlockData getLastBlock() throws DataException {
-		String sql = "SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks ORDER BY height DESC LIMIT 1";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql)) {
-			return getBlockFromResultSet(resultSet);
+		try {
+			return this.repository.fetchOne(LAST_BLOCK, HSQLDBQuery.NO_PARAMS, BLOCK_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Error fetching last block from repository", e);
 		}
@@ -232,6 +250,8 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public List<BlockSignerSummary> getBlockSigners(List<String> addresses, Integer limit, Integer offset, Boolean reverse) throws DataException {
+		this.repository.onAccountStateSql(false);
+
 		String subquerySql = "SELECT minter, COUNT(signature) FROM Blocks GROUP BY minter";
 
 		StringBuilder sql = new StringBuilder(1024);
@@ -335,19 +355,13 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public List<BlockData> getBlocks(int firstBlockHeight, int lastBlockHeight) throws DataException {
-		String sql = "SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks WHERE height BETWEEN ? AND ?";
-
-		List<BlockData> blockData = new ArrayList<>();
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, firstBlockHeight, lastBlockHeight)) {
-			if (resultSet == null)
-				return blockData;
+		HSQLDBQuery.Binder binder = preparedStatement -> {
+			preparedStatement.setInt(1, firstBlockHeight);
+			preparedStatement.setInt(2, lastBlockHeight);
+		};
 
-			do {
-				blockData.add(getBlockFromResultSet(resultSet));
-			} while (resultSet.next());
-
-			return blockData;
+		try {
+			return this.repository.fetchAll(BLOCKS_FROM_HEIGHT_RANGE, binder, BLOCK_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Unable to fetch height-ranged blocks from repository", e);
 		}
@@ -495,6 +509,9 @@ public class HSQLDBBlockRepository implements BlockRepository {
 				+ "WHERE online_accounts_signatures IS NOT NULL "
 				+ "AND height BETWEEN ? AND ?";
 
+		// Cached blocks might have signatures that are about to be trimmed
+		this.repository.getChainDataCache().invalidateAllBlocks();
+
 		try {
 			return this.repository.executeCheckedUpdate(sql, minHeight, maxHeight);
 		} catch (SQLException e) {
@@ -505,14 +522,8 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public BlockData getDetachedBlockSignature(int startHeight) throws DataException {
-		String sql = "SELECT " + BLOCK_DB_COLUMNS + " FROM Blocks "
-				+ "LEFT OUTER JOIN Blocks AS ParentBlocks "
-				+ "ON ParentBlocks.signature = Blocks.reference "
-				+ "WHERE ParentBlocks.signature IS NULL AND Blocks.height > ? "
-				+ "ORDER BY Blocks.height ASC LIMIT 1";
-
-		try (ResultSet resultSet = this.repository.checkedExecute(sql, startHeight)) {
-			return getBlockFromResultSet(resultSet);
+		try {
+			return this.repository.fetchOne(DETACHED_BLOCK, HSQLDBQuery.bindInt(startHeight), BLOCK_ROW_MAPPER);
 		} catch (SQLException e) {
 			throw new DataException("Error fetching block by signature from repository", e);
 		}
@@ -532,6 +543,9 @@ public class HSQLDBBlockRepository implements BlockRepository {
 				.bind("online_accounts_timestamp", blockData.getOnlineAccountsTimestamp())
 				.bind("online_accounts_signatures", blockData.getOnlineAccountsSignatures());
 
+		// Blocks are only saved when new, so there's no existing block that others might have read
+		this.repository.getChainDataCache().invalidateBlock(blockData, false);
+
 		try {
 			saveHelper.execute(this.repository);
 		} catch (SQLException e) {
@@ -541,6 +555,8 @@ public class HSQLDBBlockRepository implements BlockRepository {
 
 	@Override
 	public void delete(BlockData blockData) throws DataException {
+		this.repository.getChainDataCache().invalidateBlock(blockData, true);
+
 		try {
 			this.repository.delete("Blocks", "signature = ?", blockData.getSignature());
 		} catch (SQLException e) {
@@ -556,7 +572,7 @@ public class HSQLDBBlockRepository implements BlockRepository {
 				.bind("transaction_signature", blockTransactionData.getTransactionSignature());
 
 		try {
-			saveHelper.execute(this.repository);
+			saveHelper.batch(this.repository);
 		} catch (SQLException e) {
 			throw new DataException("Unable to save BlockTransaction into repository", e);
 		}
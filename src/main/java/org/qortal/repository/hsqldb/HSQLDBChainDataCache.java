@@ -0,0 +1,428 @@
+package org.qortal.repository.hsqldb;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.qortal.data.block.BlockData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.repository.DataException;
+import org.qortal.transaction.Transaction.ApprovalStatus;
+import org.qortal.transaction.Transaction.TransactionType;
+import org.qortal.transform.TransformationException;
+import org.qortal.transform.transaction.TransactionTransformer;
+import org.qortal.utils.Base58;
+import org.qortal.utils.ByteArray;
+
+/**
+ * Size-bounded, least-recently-used cache of confirmed blocks and transactions, shared by all repository sessions.
+ * <p>
+ * Blocks and confirmed transactions don't change once saved, until they are orphaned, so explorers, wallets and peers
+ * repeatedly asking for the same blocks or transactions can be served without any SQL queries.
+ * Unconfirmed transactions are never cached.
+ * <p>
+ * Callers always get their own copy of cached data, which they are free to modify.
+ * As with {@link BlockData#BlockData(BlockData)}, copies of blocks share byte arrays with the cached data.
+ * Transactions are cached in serialized form, like unconfirmed transactions in {@link HSQLDBMempool},
+ * so each copy is deserialized afresh, and shares nothing with the cache.
+ * <p>
+ * Repository sessions record which blocks and transactions they have saved, modified or deleted in their {@link Session}.
+ * These are only removed from the shared cache when the session commits, but the session itself
+ * doesn't use the shared cache for them in the meantime.
+ * <p>
+ * As sessions read from a snapshot taken when their transaction started, the cache tracks an epoch,
+ * advanced by every commit that saves, modifies or deletes blocks or transactions. Each entry is stamped
+ * with the epoch when it was cached, and a session is only served entries cached no later than the epoch
+ * when its own transaction started, so it never sees blocks, or confirmations, newer than its snapshot.
+ * <p>
+ * If any session has since committed changes to blocks or confirmed transactions that were already visible
+ * to other sessions, e.g. by orphaning, data read by a session isn't cached, as it might be stale.
+ * Adding new blocks, confirming transactions, or importing unconfirmed transactions, can't make
+ * cached data stale, so doesn't stop other sessions caching what they read.
+ */
+public class HSQLDBChainDataCache {
+
+	/** Rough size of a cached object without any arrays, etc. (bytes) */
+	private static final int OBJECT_WEIGHT = 256;
+
+	/**
+	 * Transaction types whose data is entirely serialized by {@link TransactionTransformer}, apart from the
+	 * fields in {@link CachedTransaction}. Other types have repository-only fields, e.g. references used
+	 * when orphaning, or can't be serialized, so aren't cached.
+	 */
+	private static final Set<TransactionType> CACHEABLE_TRANSACTION_TYPES = EnumSet.of(TransactionType.PAYMENT, TransactionType.MULTI_PAYMENT,
+			TransactionType.CHAT, TransactionType.ARBITRARY);
+
+	/** Serialized confirmed transaction, along with repository-only fields. */
+	private static class CachedTransaction {
+		private final byte[] transactionBytes;
+		private final ApprovalStatus approvalStatus;
+		private final Integer approvalHeight;
+		private final Integer blockHeight;
+
+		private CachedTransaction(TransactionData transactionData) throws TransformationException {
+			this.transactionBytes = TransactionTransformer.toBytes(transactionData);
+			this.approvalStatus = transactionData.getApprovalStatus();
+			this.approvalHeight = transactionData.getApprovalHeight();
+			this.blockHeight = transactionData.getBlockHeight();
+		}
+
+		/** Returns new copy of transaction data. */
+		private TransactionData toTransactionData() throws TransformationException {
+			TransactionData transactionData = TransactionTransformer.fromBytes(this.transactionBytes);
+			transactionData.setApprovalStatus(this.approvalStatus);
+			transactionData.setApprovalHeight(this.approvalHeight);
+			transactionData.setBlockHeight(this.blockHeight);
+			return transactionData;
+		}
+	}
+
+	private static class Entry {
+		private final BlockData blockData;
+		private final CachedTransaction cachedTransaction;
+		private final long weight;
+		/** Cache's epoch when entry was cached, which is no earlier than snapshot entry was read from. */
+		private final long epoch;
+
+		private Entry(BlockData blockData, CachedTransaction cachedTransaction, long weight, long epoch) {
+			this.blockData = blockData;
+			this.cachedTransaction = cachedTransaction;
+			this.weight = weight;
+			this.epoch = epoch;
+		}
+	}
+
+	/**
+	 * Blocks and transactions saved, modified or deleted by a repository session, but not yet committed.
+	 * <p>
+	 * Also the session's view of the shared cache, which ignores those blocks and transactions.
+	 */
+	public static class Session {
+		private final HSQLDBChainDataCache cache;
+
+		private final Set<ByteArray> blockSignatures = new HashSet<>();
+		private final Set<Integer> blockHeights = new HashSet<>();
+		private final Set<ByteArray> transactionSignatures = new HashSet<>();
+		/** Whether session has modified blocks without knowing exactly which, e.g. when trimming. */
+		private boolean allBlocks = false;
+		/** Whether session has modified, or deleted, blocks or confirmed transactions that other sessions might have already read. */
+		private boolean hasStaleData = false;
+		/** Cache's epoch when session's current repository transaction started, which is no later than session's snapshot. */
+		private long transactionEpoch;
+
+		private Session(HSQLDBChainDataCache cache) {
+			this.cache = cache;
+			this.transactionEpoch = cache.getEpoch();
+		}
+
+		/** Returns copy of cached block with passed signature, or null if not cached. */
+		public BlockData getBlock(byte[] signature) {
+			ByteArray key = new ByteArray(signature);
+			if (this.allBlocks || this.blockSignatures.contains(key))
+				return null;
+
+			return this.cache.getBlock(key, this.transactionEpoch);
+		}
+
+		/** Returns copy of cached block at passed height, or null if not cached. */
+		public BlockData getBlockAtHeight(int height) {
+			if (this.allBlocks || this.blockHeights.contains(height))
+				return null;
+
+			BlockData blockData = this.cache.getBlockAtHeight(height, this.transactionEpoch);
+
+			// Block might have been cached at this height before this session replaced it
+			if (blockData != null && this.blockSignatures.contains(new ByteArray(blockData.getSignature())))
+				return null;
+
+			return blockData;
+		}
+
+		/** Returns copy of cached, confirmed transaction with passed signature, or null if not cached. */
+		public TransactionData getTransaction(byte[] signature) throws DataException {
+			ByteArray key = new ByteArray(signature);
+			if (this.transactionSignatures.contains(key))
+				return null;
+
+			return this.cache.getTransaction(key, this.transactionEpoch);
+		}
+
+		/** Caches copy of block read from repository, unless this session has modified it, or it might be stale. */
+		public void putBlock(BlockData blockData) {
+			if (this.allBlocks || this.blockSignatures.contains(new ByteArray(blockData.getSignature())) || this.blockHeights.contains(blockData.getHeight()))
+				return;
+
+			this.cache.putBlock(blockData, this.transactionEpoch);
+		}
+
+		/** Caches copy of confirmed transaction read from repository, unless this session has modified it, or it might be stale. */
+		public void putTransaction(TransactionData transactionData) {
+			if (transactionData.getBlockHeight() == null || this.transactionSignatures.contains(new ByteArray(transactionData.getSignature())))
+				return;
+
+			this.cache.putTransaction(transactionData, this.transactionEpoch);
+		}
+
+		/**
+		 * Records that block has been saved or deleted.
+		 * 
+		 * @param blockData
+		 * @param isExisting whether block was already in repository, so other sessions might have read it, e.g. when deleting
+		 */
+		public void invalidateBlock(BlockData blockData, boolean isExisting) {
+			this.blockSignatures.add(new ByteArray(blockData.getSignature()));
+
+			if (blockData.getHeight() != null)
+				this.blockHeights.add(blockData.getHeight());
+
+			this.hasStaleData |= isExisting;
+		}
+
+		/** Records that any, or all, existing blocks might have been modified. */
+		public void invalidateAllBlocks() {
+			this.allBlocks = true;
+			this.hasStaleData = true;
+		}
+
+		/**
+		 * Records that transaction has been saved, modified or deleted.
+		 * 
+		 * @param signature
+		 * @param wasConfirmed whether transaction was confirmed before modification, so other sessions might have cached it, e.g. when orphaning
+		 */
+		public void invalidateTransaction(byte[] signature, boolean wasConfirmed) {
+			this.transactionSignatures.add(new ByteArray(signature));
+
+			this.hasStaleData |= wasConfirmed;
+		}
+
+		/* package */ boolean hasInvalidations() {
+			return this.allBlocks || !this.blockSignatures.isEmpty() || !this.blockHeights.isEmpty() || !this.transactionSignatures.isEmpty();
+		}
+
+		/** Removes blocks and transactions modified by session from shared cache. Called once session's changes are committed. */
+		/* package */ void apply() {
+			if (this.hasInvalidations())
+				this.cache.invalidate(this);
+
+			this.clear();
+		}
+
+		/** Forgets blocks and transactions modified by session, e.g. because session rolled back its changes, ready for next transaction. */
+		/* package */ void clear() {
+			this.blockSignatures.clear();
+			this.blockHeights.clear();
+			this.transactionSignatures.clear();
+			this.allBlocks = false;
+			this.hasStaleData = false;
+
+			this.transactionEpoch = this.cache.getEpoch();
+		}
+
+		/* package */ HSQLDBChainDataCache getCache() {
+			return this.cache;
+		}
+	}
+
+	private final long maxWeight;
+	private long currentWeight = 0;
+	/** Incremented by every commit that saves, modifies or deletes blocks or transactions. */
+	private long epoch = 0;
+	/** Most recent epoch in which cached, or cacheable, data became stale, so that data read beforehand isn't cached. */
+	private long staleEpoch = 0;
+
+	/** Access-ordered, so first entry is least recently used. Keyed by block or transaction signature. */
+	private final Map<ByteArray, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<Integer, ByteArray> blockSignaturesByHeight = new HashMap<>();
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+
+	public HSQLDBChainDataCache(long maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+
+	/** Returns new session view of this cache, for use by one repository session. */
+	public Session newSession() {
+		return new Session(this);
+	}
+
+	/** Returns number of times a block or transaction was found in cache. */
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	/** Returns number of times a block or transaction wasn't found in cache. */
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	private synchronized long getEpoch() {
+		return this.epoch;
+	}
+
+	private synchronized BlockData getBlock(ByteArray signature, long sessionEpoch) {
+		Entry entry = this.entries.get(signature);
+
+		// Block might be newer than session's snapshot
+		if (entry == null || entry.blockData == null || entry.epoch > sessionEpoch) {
+			this.misses.increment();
+			return null;
+		}
+
+		this.hits.increment();
+		return new BlockData(entry.blockData);
+	}
+
+	private synchronized BlockData getBlockAtHeight(int height, long sessionEpoch) {
+		ByteArray signature = this.blockSignaturesByHeight.get(height);
+
+		if (signature == null) {
+			this.misses.increment();
+			return null;
+		}
+
+		return this.getBlock(signature, sessionEpoch);
+	}
+
+	private TransactionData getTransaction(ByteArray signature, long sessionEpoch) throws DataException {
+		CachedTransaction cachedTransaction;
+
+		synchronized (this) {
+			Entry entry = this.entries.get(signature);
+
+			// Transaction might be unconfirmed in session's snapshot
+			if (entry == null || entry.cachedTransaction == null || entry.epoch > sessionEpoch) {
+				this.misses.increment();
+				return null;
+			}
+
+			this.hits.increment();
+			cachedTransaction = entry.cachedTransaction;
+		}
+
+		// Cached data is never modified, so it's safe to deserialize outside of lock
+		try {
+			return cachedTransaction.toTransactionData();
+		} catch (TransformationException e) {
+			throw new DataException(String.format("Unable to deserialize cached transaction %s", Base58.encode(signature.value)), e);
+		}
+	}
+
+	private void putBlock(BlockData blockData, long sessionEpoch) {
+		if (this.maxWeight <= 0 || blockData.getSignature() == null || blockData.getHeight() == null)
+			return;
+
+		BlockData cachedBlockData = new BlockData(blockData);
+
+		long weight = OBJECT_WEIGHT + weigh(blockData.getEncodedOnlineAccounts()) + weigh(blockData.getOnlineAccountsSignatures());
+
+		this.put(new ByteArray(blockData.getSignature()), cachedBlockData, null, weight, sessionEpoch);
+	}
+
+	private void putTransaction(TransactionData transactionData, long sessionEpoch) {
+		if (this.maxWeight <= 0 || transactionData.getSignature() == null || !CACHEABLE_TRANSACTION_TYPES.contains(transactionData.getType()))
+			return;
+
+		CachedTransaction cachedTransaction;
+		try {
+			cachedTransaction = new CachedTransaction(transactionData);
+		} catch (TransformationException e) {
+			// Not cacheable
+			return;
+		}
+
+		long weight = OBJECT_WEIGHT + cachedTransaction.transactionBytes.length;
+
+		this.put(new ByteArray(transactionData.getSignature()), null, cachedTransaction, weight, sessionEpoch);
+	}
+
+	private synchronized void put(ByteArray signature, BlockData blockData, CachedTransaction cachedTransaction, long weight, long sessionEpoch) {
+		// Data might have been read from a snapshot older than an invalidation
+		if (sessionEpoch < this.staleEpoch)
+			return;
+
+		// Don't bother caching something that would evict everything else
+		if (weight > this.maxWeight / 2)
+			return;
+
+		// Existing entry is still valid, and might be usable by older sessions than a new entry
+		if (this.entries.containsKey(signature))
+			return;
+
+		// Session's snapshot can't be newer than current epoch, as commits advance epoch while holding our lock
+		Entry entry = new Entry(blockData, cachedTransaction, weight, this.epoch);
+
+		this.entries.put(signature, entry);
+		this.currentWeight += entry.weight;
+
+		if (entry.blockData != null)
+			this.blockSignaturesByHeight.put(entry.blockData.getHeight(), signature);
+
+		Iterator<Map.Entry<ByteArray, Entry>> iterator = this.entries.entrySet().iterator();
+		while (this.currentWeight > this.maxWeight && iterator.hasNext()) {
+			Map.Entry<ByteArray, Entry> eldest = iterator.next();
+			iterator.remove();
+
+			this.onRemoved(eldest.getKey(), eldest.getValue());
+		}
+	}
+
+	private synchronized void invalidate(Session session) {
+		boolean isRemoved = false;
+
+		if (session.allBlocks) {
+			isRemoved = this.entries.values().removeIf(entry -> entry.blockData != null && this.onRemoved(null, entry));
+		} else {
+			for (ByteArray signature : session.blockSignatures)
+				isRemoved |= this.remove(signature);
+
+			for (Integer height : session.blockHeights) {
+				ByteArray signature = this.blockSignaturesByHeight.get(height);
+				if (signature != null)
+					isRemoved |= this.remove(signature);
+			}
+		}
+
+		for (ByteArray signature : session.transactionSignatures)
+			isRemoved |= this.remove(signature);
+
+		++this.epoch;
+
+		// Only data read before a change to existing blocks or confirmed transactions might be stale,
+		// not, say, data read before an unconfirmed transaction was imported
+		if (isRemoved || session.hasStaleData)
+			this.staleEpoch = this.epoch;
+	}
+
+	/** Removes entry, if present, returning whether it was. */
+	private boolean remove(ByteArray signature) {
+		Entry entry = this.entries.remove(signature);
+		if (entry == null)
+			return false;
+
+		this.onRemoved(signature, entry);
+		return true;
+	}
+
+	/** Updates weight and height index after removal of entry. Always returns true, for use in predicates. */
+	private boolean onRemoved(ByteArray signature, Entry entry) {
+		this.currentWeight -= entry.weight;
+
+		if (entry.blockData != null)
+			this.blockSignaturesByHeight.remove(entry.blockData.getHeight(), signature != null ? signature : new ByteArray(entry.blockData.getSignature()));
+
+		return true;
+	}
+
+	private static long weigh(byte[] bytes) {
+		return bytes != null ? bytes.length : 0;
+	}
+
+}
@@ -0,0 +1,283 @@
+package org.qortal.repository.hsqldb;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.repository.DataException;
+import org.qortal.transaction.Transaction;
+import org.qortal.transaction.Transaction.ApprovalStatus;
+import org.qortal.transaction.Transaction.TransactionType;
+import org.qortal.transform.TransformationException;
+import org.qortal.transform.transaction.TransactionTransformer;
+import org.qortal.utils.Base58;
+import org.qortal.utils.ByteArray;
+
+/**
+ * In-memory copy of the UnconfirmedTransactions table, shared by all repository sessions.
+ * <p>
+ * Unconfirmed transactions are indexed by signature, by creator and in timestamp-else-signature order,
+ * which is the order used by {@link org.qortal.repository.TransactionRepository#getUnconfirmedTransactions()}.
+ * Per-creator, per-type counts are also maintained, so limits like {@code maxUnconfirmedPerAccount}
+ * can be checked without building any transactions.
+ * As a transaction's deadline is its timestamp plus a fixed expiry period, timestamp order is also deadline order.
+ * <p>
+ * Each entry holds a serialized copy of its transaction, so callers always get their own,
+ * freshly-built {@link TransactionData} that they are free to modify.
+ * <p>
+ * Repository sessions collect their changes as a list of {@link Change}s, which are only
+ * applied to the mempool when the session commits. Queries made by a session
+ * take that session's uncommitted changes into account.
+ */
+public class HSQLDBMempool {
+
+	public static class Entry {
+		private final ByteArray signature;
+		private final ByteArray creatorPublicKey;
+		private final TransactionType type;
+		private final long timestamp;
+		private final long deadline;
+		private final ApprovalStatus approvalStatus;
+		private final Integer approvalHeight;
+		private final byte[] transactionBytes;
+
+		public Entry(TransactionData transactionData) throws DataException {
+			this.signature = new ByteArray(transactionData.getSignature());
+			this.creatorPublicKey = new ByteArray(transactionData.getCreatorPublicKey());
+			this.type = transactionData.getType();
+			this.timestamp = transactionData.getTimestamp();
+			this.deadline = Transaction.getDeadline(transactionData);
+			this.approvalStatus = transactionData.getApprovalStatus();
+			this.approvalHeight = transactionData.getApprovalHeight();
+
+			try {
+				this.transactionBytes = TransactionTransformer.toBytes(transactionData);
+			} catch (TransformationException e) {
+				throw new DataException(String.format("Unable to serialize unconfirmed transaction %s", Base58.encode(transactionData.getSignature())), e);
+			}
+		}
+
+		public byte[] getSignature() {
+			return this.signature.value;
+		}
+
+		public byte[] getCreatorPublicKey() {
+			return this.creatorPublicKey.value;
+		}
+
+		public TransactionType getType() {
+			return this.type;
+		}
+
+		public long getTimestamp() {
+			return this.timestamp;
+		}
+
+		public long getDeadline() {
+			return this.deadline;
+		}
+
+		/** Returns new copy of transaction data. */
+		public TransactionData toTransactionData() throws DataException {
+			try {
+				TransactionData transactionData = TransactionTransformer.fromBytes(this.transactionBytes);
+				transactionData.setApprovalStatus(this.approvalStatus);
+				transactionData.setApprovalHeight(this.approvalHeight);
+				return transactionData;
+			} catch (TransformationException e) {
+				throw new DataException(String.format("Unable to deserialize unconfirmed transaction %s", Base58.encode(this.signature.value)), e);
+			}
+		}
+	}
+
+	/** Addition, or removal if <tt>entry</tt> is null, of unconfirmed transaction. */
+	public static class Change {
+		private final ByteArray signature;
+		private final Entry entry;
+
+		private Change(ByteArray signature, Entry entry) {
+			this.signature = signature;
+			this.entry = entry;
+		}
+
+		public static Change add(Entry entry) {
+			return new Change(entry.signature, entry);
+		}
+
+		public static Change remove(byte[] signature) {
+			return new Change(new ByteArray(signature), null);
+		}
+	}
+
+	/** Timestamp-else-signature order, matching UnconfirmedTransactions table's index. */
+	private static final Comparator<Entry> TIMESTAMP_ORDER = Comparator.comparingLong((Entry entry) -> entry.timestamp)
+			.thenComparing(entry -> entry.signature);
+
+	private final Map<ByteArray, Entry> entriesBySignature = new HashMap<>();
+	private final Map<ByteArray, Set<Entry>> entriesByCreator = new HashMap<>();
+	private final NavigableSet<Entry> entriesByTimestamp = new TreeSet<>(TIMESTAMP_ORDER);
+	/** Number of entries by creator, indexed by transaction type's ordinal. */
+	private final Map<ByteArray, int[]> typeCountsByCreator = new HashMap<>();
+
+	/** Populates empty mempool from UnconfirmedTransactions table. */
+	/* package */ void load(HSQLDBRepository repository) throws DataException {
+		String sql = "SELECT signature FROM UnconfirmedTransactions";
+
+		List<Change> changes = new ArrayList<>();
+
+		try (ResultSet resultSet = repository.checkedExecute(sql)) {
+			if (resultSet != null)
+				do {
+					byte[] signature = resultSet.getBytes(1);
+
+					TransactionData transactionData = repository.getTransactionRepository().fromSignature(signature);
+					if (transactionData == null)
+						// Something inconsistent with the repository
+						throw new DataException(String.format("Unable to fetch unconfirmed transaction %s from repository?", Base58.encode(signature)));
+
+					changes.add(Change.add(new Entry(transactionData)));
+				} while (resultSet.next());
+		} catch (SQLException e) {
+			throw new DataException("Unable to load unconfirmed transactions from repository", e);
+		}
+
+		this.apply(changes);
+	}
+
+	/** Applies committed changes. */
+	/* package */ synchronized void apply(List<Change> changes) {
+		for (Change change : changes) {
+			Entry previousEntry = this.entriesBySignature.remove(change.signature);
+			if (previousEntry != null) {
+				this.entriesByTimestamp.remove(previousEntry);
+
+				Set<Entry> creatorEntries = this.entriesByCreator.get(previousEntry.creatorPublicKey);
+				creatorEntries.remove(previousEntry);
+				if (creatorEntries.isEmpty()) {
+					this.entriesByCreator.remove(previousEntry.creatorPublicKey);
+					this.typeCountsByCreator.remove(previousEntry.creatorPublicKey);
+				} else {
+					--this.typeCountsByCreator.get(previousEntry.creatorPublicKey)[previousEntry.type.ordinal()];
+				}
+			}
+
+			if (change.entry == null)
+				continue;
+
+			this.entriesBySignature.put(change.signature, change.entry);
+			this.entriesByTimestamp.add(change.entry);
+			this.entriesByCreator.computeIfAbsent(change.entry.creatorPublicKey, key -> new TreeSet<>(TIMESTAMP_ORDER)).add(change.entry);
+			++this.typeCountsByCreator.computeIfAbsent(change.entry.creatorPublicKey, key -> new int[TransactionType.values().length])[change.entry.type.ordinal()];
+		}
+	}
+
+	/** Returns whether there is an entry with passed signature, including session's uncommitted changes. */
+	public synchronized boolean contains(byte[] signature, List<Change> uncommittedChanges) {
+		ByteArray key = new ByteArray(signature);
+
+		// Latest uncommitted change, if any, takes precedence
+		for (int i = uncommittedChanges.size() - 1; i >= 0; --i) {
+			Change change = uncommittedChanges.get(i);
+			if (change.signature.equals(key))
+				return change.entry != null;
+		}
+
+		return this.entriesBySignature.containsKey(key);
+	}
+
+	/** Returns all entries in timestamp-else-signature order, including session's uncommitted changes. */
+	public synchronized List<Entry> getEntries(List<Change> uncommittedChanges) {
+		if (uncommittedChanges.isEmpty())
+			return new ArrayList<>(this.entriesByTimestamp);
+
+		return withChanges(this.entriesByTimestamp, uncommittedChanges, null);
+	}
+
+	/** Returns entries created by <tt>creatorPublicKey</tt> in timestamp-else-signature order, including session's uncommitted changes. */
+	public synchronized List<Entry> getEntriesByCreator(byte[] creatorPublicKey, List<Change> uncommittedChanges) {
+		ByteArray creator = new ByteArray(creatorPublicKey);
+		Set<Entry> creatorEntries = this.entriesByCreator.getOrDefault(creator, new TreeSet<>(TIMESTAMP_ORDER));
+
+		if (uncommittedChanges.isEmpty())
+			return new ArrayList<>(creatorEntries);
+
+		return withChanges(creatorEntries, uncommittedChanges, creator);
+	}
+
+	/** Returns number of entries created by <tt>creatorPublicKey</tt>, excluding <tt>excludedType</tt>, including session's uncommitted changes. */
+	public synchronized int countEntriesByCreator(byte[] creatorPublicKey, TransactionType excludedType, List<Change> uncommittedChanges) {
+		ByteArray creator = new ByteArray(creatorPublicKey);
+
+		int count = 0;
+		int[] typeCounts = this.typeCountsByCreator.get(creator);
+		if (typeCounts != null)
+			for (TransactionType type : TransactionType.values())
+				if (type != excludedType)
+					count += typeCounts[type.ordinal()];
+
+		if (uncommittedChanges.isEmpty())
+			return count;
+
+		// Adjust count using session's changes, tracking the latest state of each changed transaction
+		Map<ByteArray, Entry> changedEntries = new HashMap<>();
+		for (Change change : uncommittedChanges) {
+			Entry previousEntry = changedEntries.containsKey(change.signature) ? changedEntries.get(change.signature) : this.entriesBySignature.get(change.signature);
+
+			if (isCounted(previousEntry, creator, excludedType))
+				--count;
+
+			if (isCounted(change.entry, creator, excludedType))
+				++count;
+
+			changedEntries.put(change.signature, change.entry);
+		}
+
+		return count;
+	}
+
+	/** Returns entries with deadline at or before <tt>timestamp</tt>, including session's uncommitted changes. */
+	public synchronized List<Entry> getExpiredEntries(long timestamp, List<Change> uncommittedChanges) {
+		List<Entry> expiredEntries = new ArrayList<>();
+
+		// Deadline order matches timestamp order, so we can stop at first unexpired entry
+		Iterable<Entry> entries = uncommittedChanges.isEmpty() ? this.entriesByTimestamp : withChanges(this.entriesByTimestamp, uncommittedChanges, null);
+		for (Entry entry : entries) {
+			if (entry.deadline > timestamp)
+				break;
+
+			expiredEntries.add(entry);
+		}
+
+		return expiredEntries;
+	}
+
+	private static boolean isCounted(Entry entry, ByteArray creator, TransactionType excludedType) {
+		return entry != null && entry.type != excludedType && creator.equals(entry.creatorPublicKey);
+	}
+
+	/** Returns sorted copy of <tt>entries</tt> with <tt>changes</tt> applied, optionally only including changes for <tt>creator</tt>. */
+	private static List<Entry> withChanges(Set<Entry> entries, List<Change> changes, ByteArray creator) {
+		Map<ByteArray, Entry> entriesBySignature = new HashMap<>();
+		for (Entry entry : entries)
+			entriesBySignature.put(entry.signature, entry);
+
+		for (Change change : changes)
+			if (change.entry == null)
+				entriesBySignature.remove(change.signature);
+			else if (creator == null || creator.equals(change.entry.creatorPublicKey))
+				entriesBySignature.put(change.signature, change.entry);
+
+		List<Entry> sortedEntries = new ArrayList<>(entriesBySignature.values());
+		sortedEntries.sort(TIMESTAMP_ORDER);
+		return sortedEntries;
+	}
+
+}
@@ -0,0 +1,71 @@
+package org.qortal.repository.hsqldb;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Query descriptor, built once and held in a static field, for use with
+ * {@link HSQLDBRepository#checkedExecute(HSQLDBQuery, Binder)} and friends.
+ * <p>
+ * Unlike {@link HSQLDBRepository#checkedExecute(String, Object...)}, parameters are bound by a {@link Binder}
+ * using {@link PreparedStatement}'s typed setters, e.g. <tt>setLong()</tt>, so no varargs array is allocated,
+ * primitives aren't boxed, and HSQLDB doesn't need to work out each parameter's type.
+ * Rows are mapped into data objects by reusable {@link RowMapper}s.
+ * <p>
+ * Example:
+ * <p>
+ * {@code private static final HSQLDBQuery GET_LEVEL = new HSQLDBQuery("SELECT level FROM Accounts WHERE account = ?");}<br>
+ * {@code Integer level = repository.fetchOne(GET_LEVEL, bindString(address), resultSet -> resultSet.getInt(1));}
+ */
+public final class HSQLDBQuery {
+
+	/** Binds query's parameters to prepared statement. */
+	@FunctionalInterface
+	public interface Binder {
+		void bind(PreparedStatement preparedStatement) throws SQLException;
+	}
+
+	/** Maps result set's current row into an object. Must not advance result set. */
+	@FunctionalInterface
+	public interface RowMapper<T> {
+		T map(ResultSet resultSet) throws SQLException;
+	}
+
+	/** Binder for queries without parameters. */
+	public static final Binder NO_PARAMS = preparedStatement -> { };
+
+	private final String sql;
+
+	public HSQLDBQuery(String sql) {
+		this.sql = sql;
+	}
+
+	public String getSql() {
+		return this.sql;
+	}
+
+	@Override
+	public String toString() {
+		return this.sql;
+	}
+
+	// Binders for common single-parameter queries
+
+	public static Binder bindInt(int value) {
+		return preparedStatement -> preparedStatement.setInt(1, value);
+	}
+
+	public static Binder bindLong(long value) {
+		return preparedStatement -> preparedStatement.setLong(1, value);
+	}
+
+	public static Binder bindBytes(byte[] value) {
+		return preparedStatement -> preparedStatement.setBytes(1, value);
+	}
+
+	public static Binder bindString(String value) {
+		return preparedStatement -> preparedStatement.setString(1, value);
+	}
+
+}
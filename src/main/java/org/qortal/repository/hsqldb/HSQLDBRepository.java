@@ -7,6 +7,7 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -19,15 +20,14 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.hsqldb.jdbc.HSQLDBPooledConnection;
 import org.qortal.account.PrivateKeyAccount;
 import org.qortal.crypto.Crypto;
 import org.qortal.repository.ATRepository;
@@ -53,13 +53,40 @@ public class HSQLDBRepository implements Repository {
 
 	private static final Logger LOGGER = LogManager.getLogger(HSQLDBRepository.class);
 
+	/** Maximum number of queued saves before they are executed anyway. */
+	private static final int MAX_PENDING_SAVES = 1000;
+
+	/** Matches SQL naming Accounts or AccountBalances tables, but not e.g. MintingAccounts. */
+	private static final Pattern ACCOUNT_STATE_TABLES_PATTERN = Pattern.compile("\\b(Accounts|AccountBalances)\\b");
+
 	protected Connection connection;
 	protected final Deque<Savepoint> savepoints = new ArrayDeque<>(3);
 	protected boolean debugState = false;
 	protected Long slowQueryThreshold = null;
 	protected List<String> sqlStatements;
 	protected long sessionId;
-	protected final Map<String, PreparedStatement> preparedStatementCache = new HashMap<>();
+	/** Pooled connection that <tt>connection</tt> came from, which caches prepared statements between sessions. */
+	protected final HSQLDBPooledConnection pooledConnection;
+	protected final HSQLDBMempool mempool;
+	/** Changes to mempool made by this session, applied to mempool when committed. */
+	protected final List<HSQLDBMempool.Change> mempoolChanges = new ArrayList<>();
+	/** Number of mempool changes at time of each savepoint, in same order as <tt>savepoints</tt>. */
+	protected final Deque<Integer> savepointMempoolChangeCounts = new ArrayDeque<>(3);
+	protected final HSQLDBRewardShareIndex rewardShareIndex;
+	/** Changes to reward-share index made by this session, applied to index when committed. */
+	protected final List<HSQLDBRewardShareIndex.Change> rewardShareChanges = new ArrayList<>();
+	/** Number of reward-share changes at time of each savepoint, in same order as <tt>savepoints</tt>. */
+	protected final Deque<Integer> savepointRewardShareChangeCounts = new ArrayDeque<>(3);
+	/** Reward-share index snapshot including this session's changes, reused until they change. */
+	protected final HSQLDBRewardShareIndex.DerivedSnapshot derivedRewardShareSnapshot = new HSQLDBRewardShareIndex.DerivedSnapshot();
+	/** SQL of saves queued by {@link HSQLDBSaver#batch(HSQLDBRepository)}, or null if none are queued. */
+	private String pendingSaveSql = null;
+	/** Queued saves, all using <tt>pendingSaveSql</tt>, to be executed as one JDBC batch. */
+	private final List<HSQLDBSaver> pendingSaves = new ArrayList<>();
+	/** This session's view of cache of confirmed blocks and transactions shared by all sessions. */
+	protected final HSQLDBChainDataCache.Session chainDataCache;
+	/** Account state overlay, or null if not caching account state. */
+	private HSQLDBAccountStateCache accountStateCache = null;
 
 	private final ATRepository atRepository = new HSQLDBATRepository(this);
 	private final AccountRepository accountRepository = new HSQLDBAccountRepository(this);
@@ -78,8 +105,13 @@ public class HSQLDBRepository implements Repository {
 	// Constructors
 
 	// NB: no visibility modifier so only callable from within same package
-	/* package */ HSQLDBRepository(Connection connection) throws DataException {
+	/* package */ HSQLDBRepository(Connection connection, HSQLDBPooledConnection pooledConnection, HSQLDBMempool mempool, HSQLDBRewardShareIndex rewardShareIndex,
+			HSQLDBChainDataCache chainDataCache) throws DataException {
 		this.connection = connection;
+		this.pooledConnection = pooledConnection;
+		this.mempool = mempool;
+		this.rewardShareIndex = rewardShareIndex;
+		this.chainDataCache = chainDataCache.newSession();
 
 		this.slowQueryThreshold = Settings.getInstance().getSlowQueryThreshold();
 		if (this.slowQueryThreshold != null)
@@ -170,6 +202,45 @@ public class HSQLDBRepository implements Repository {
 		return this.votingRepository;
 	}
 
+	public HSQLDBMempool getMempool() {
+		return this.mempool;
+	}
+
+	/** Returns this session's uncommitted mempool changes. */
+	public List<HSQLDBMempool.Change> getMempoolChanges() {
+		return Collections.unmodifiableList(this.mempoolChanges);
+	}
+
+	/** Records change to mempool, to be applied if this session's changes are committed. */
+	public void addMempoolChange(HSQLDBMempool.Change change) {
+		this.mempoolChanges.add(change);
+	}
+
+	public HSQLDBRewardShareIndex getRewardShareIndex() {
+		return this.rewardShareIndex;
+	}
+
+	/** Returns this session's uncommitted reward-share index changes. */
+	public List<HSQLDBRewardShareIndex.Change> getRewardShareChanges() {
+		return Collections.unmodifiableList(this.rewardShareChanges);
+	}
+
+	/** Records change to reward-share index, to be applied if this session's changes are committed. */
+	public void addRewardShareChange(HSQLDBRewardShareIndex.Change change) {
+		this.rewardShareChanges.add(change);
+		this.derivedRewardShareSnapshot.invalidate();
+	}
+
+	/** Returns this session's reward-share index snapshot, derived from its uncommitted changes. */
+	public HSQLDBRewardShareIndex.DerivedSnapshot getDerivedRewardShareSnapshot() {
+		return this.derivedRewardShareSnapshot;
+	}
+
+	/** Returns this session's view of cache of confirmed blocks and transactions. */
+	public HSQLDBChainDataCache.Session getChainDataCache() {
+		return this.chainDataCache;
+	}
+
 	@Override
 	public boolean getDebug() {
 		return this.debugState;
@@ -184,12 +255,51 @@ public class HSQLDBRepository implements Repository {
 
 	@Override
 	public void saveChanges() throws DataException {
+		boolean isCommitted = false;
+
 		try {
-			this.connection.commit();
+			if (this.accountStateCache != null)
+				this.accountStateCache.flush();
+
+			this.flushPendingSaves();
+
+			if (this.mempoolChanges.isEmpty() && this.rewardShareChanges.isEmpty() && !this.chainDataCache.hasInvalidations()) {
+				this.connection.commit();
+			} else {
+				// Hold locks so other sessions don't see mempool/reward-share index/chain data cache lagging behind committed state
+				synchronized (this.mempool) {
+					synchronized (this.rewardShareIndex) {
+						synchronized (this.chainDataCache.getCache()) {
+							this.connection.commit();
+
+							if (!this.mempoolChanges.isEmpty())
+								this.mempool.apply(this.mempoolChanges);
+
+							if (!this.rewardShareChanges.isEmpty())
+								this.rewardShareIndex.apply(this.rewardShareChanges);
+
+							this.chainDataCache.apply();
+						}
+					}
+				}
+			}
+
+			isCommitted = true;
 		} catch (SQLException e) {
 			throw new DataException("commit error", e);
 		} finally {
+			if (this.accountStateCache != null)
+				this.accountStateCache.onTransactionEnd(isCommitted);
+
+			// If commit failed, we can't be sure which changes were committed, so invalidate anyway (no-op if already applied)
+			this.chainDataCache.apply();
+
 			this.savepoints.clear();
+			this.mempoolChanges.clear();
+			this.savepointMempoolChangeCounts.clear();
+			this.rewardShareChanges.clear();
+			this.derivedRewardShareSnapshot.invalidate();
+			this.savepointRewardShareChangeCounts.clear();
 
 			// Before clearing statements so we can log what led to assertion error
 			assertEmptyTransaction("transaction commit");
@@ -201,12 +311,24 @@ public class HSQLDBRepository implements Repository {
 
 	@Override
 	public void discardChanges() throws DataException {
+		// Queued saves were never executed, so there is nothing to roll back for them
+		this.discardPendingSaves();
+
 		try {
 			this.connection.rollback();
 		} catch (SQLException e) {
 			throw new DataException("rollback error", e);
 		} finally {
+			if (this.accountStateCache != null)
+				this.accountStateCache.onTransactionEnd(false);
+
+			this.chainDataCache.clear();
 			this.savepoints.clear();
+			this.mempoolChanges.clear();
+			this.savepointMempoolChangeCounts.clear();
+			this.rewardShareChanges.clear();
+			this.derivedRewardShareSnapshot.invalidate();
+			this.savepointRewardShareChangeCounts.clear();
 
 			// Before clearing statements so we can log what led to assertion error
 			assertEmptyTransaction("transaction rollback");
@@ -219,12 +341,23 @@ public class HSQLDBRepository implements Repository {
 	@Override
 	public void setSavepoint() throws DataException {
 		try {
+			// Saves queued, and account state modified, before savepoint must survive a rollback to it
+			if (this.accountStateCache != null)
+				this.accountStateCache.flush();
+
+			this.flushPendingSaves();
+
 			if (this.sqlStatements != null)
 				// We don't know savepoint's ID yet
 				this.sqlStatements.add("SAVEPOINT [?]");
 
 			Savepoint savepoint = this.connection.setSavepoint();
 			this.savepoints.push(savepoint);
+			this.savepointMempoolChangeCounts.push(this.mempoolChanges.size());
+			this.savepointRewardShareChangeCounts.push(this.rewardShareChanges.size());
+
+			if (this.accountStateCache != null)
+				this.accountStateCache.onSavepoint();
 
 			// Update query log with savepoint ID
 			if (this.sqlStatements != null)
@@ -241,6 +374,24 @@ public class HSQLDBRepository implements Repository {
 
 		Savepoint savepoint = this.savepoints.pop();
 
+		// Saves were flushed when savepoint was set, so any still queued were made since savepoint
+		this.discardPendingSaves();
+
+		// Discard mempool changes made since savepoint
+		int mempoolChangeCount = this.savepointMempoolChangeCounts.pop();
+		this.mempoolChanges.subList(mempoolChangeCount, this.mempoolChanges.size()).clear();
+
+		// Discard reward-share changes made since savepoint
+		int rewardShareChangeCount = this.savepointRewardShareChangeCounts.pop();
+		if (rewardShareChangeCount < this.rewardShareChanges.size()) {
+			this.rewardShareChanges.subList(rewardShareChangeCount, this.rewardShareChanges.size()).clear();
+			this.derivedRewardShareSnapshot.invalidate();
+		}
+
+		// Undo account state changes made since savepoint
+		if (this.accountStateCache != null)
+			this.accountStateCache.onRollbackToSavepoint();
+
 		try {
 			if (this.sqlStatements != null)
 				this.sqlStatements.add("ROLLBACK TO SAVEPOINT [" + savepoint.getSavepointId() + "]");
@@ -251,6 +402,35 @@ public class HSQLDBRepository implements Repository {
 		}
 	}
 
+	@Override
+	public void releaseSavepoint() throws DataException {
+		if (this.savepoints.isEmpty())
+			throw new DataException("no savepoint to release");
+
+		Savepoint savepoint = this.savepoints.pop();
+
+		// Mempool/reward-share changes made since savepoint now belong to enclosing savepoint, if any
+		this.savepointMempoolChangeCounts.pop();
+		this.savepointRewardShareChangeCounts.pop();
+
+		try {
+			// Execute saves queued, and write back account state modified, since savepoint while caller can still roll back to an enclosing savepoint
+			if (this.accountStateCache != null) {
+				this.accountStateCache.flush();
+				this.accountStateCache.onReleaseSavepoint();
+			}
+
+			this.flushPendingSaves();
+
+			if (this.sqlStatements != null)
+				this.sqlStatements.add("RELEASE SAVEPOINT [" + savepoint.getSavepointId() + "]");
+
+			this.connection.releaseSavepoint(savepoint);
+		} catch (SQLException e) {
+			throw new DataException("savepoint release error", e);
+		}
+	}
+
 	// Close / backup / rebuild / restore
 
 	@Override
@@ -265,11 +445,18 @@ public class HSQLDBRepository implements Repository {
 			assertEmptyTransaction("connection close");
 
 			// Assume we are not going to be GC'd for a while
-			this.preparedStatementCache.clear();
+			this.discardPendingSaves();
+			this.accountStateCache = null;
+			this.chainDataCache.clear();
 			this.sqlStatements = null;
 			this.savepoints.clear();
+			this.mempoolChanges.clear();
+			this.savepointMempoolChangeCounts.clear();
+			this.rewardShareChanges.clear();
+			this.derivedRewardShareSnapshot.invalidate();
+			this.savepointRewardShareChangeCounts.clear();
 
-			// Give connection back to the pool
+			// Give connection back to the pool, which also cleans up cached statements ready for next session
 			this.connection.close();
 			this.connection = null;
 		} catch (SQLException e) {
@@ -451,8 +638,19 @@ public class HSQLDBRepository implements Repository {
 
 	/**
 	 * Returns prepared statement using passed SQL, logging query if necessary.
+	 * <p>
+	 * Any queued saves are written first, so that statements see them.
+	 * <p>
+	 * With assertions enabled, also checks that SQL naming Accounts or AccountBalances
+	 * isn't executed while cached account state has modifications not yet written back,
+	 * i.e. that callers invoked {@link #onAccountStateSql(boolean)} first.
 	 */
 	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		if (this.pendingSaveSql != null)
+			this.flushPendingSaves();
+
+		assert !this.isUnwrittenAccountStateSql(sql) : "Account state SQL executed without writing back cached account state: " + sql;
+
 		if (this.debugState)
 			LOGGER.debug(() -> String.format("[%d] %s", this.sessionId, sql));
 
@@ -464,28 +662,18 @@ public class HSQLDBRepository implements Repository {
 
 	private PreparedStatement cachePreparedStatement(String sql) throws SQLException {
 		/*
-		 * We cache a duplicate PreparedStatement for this SQL string,
-		 * which we never close, which means HSQLDB also caches a parsed,
-		 * prepared statement that can be reused for subsequent
-		 * calls to HSQLDB.prepareStatement(sql).
+		 * Our pooled connection caches a duplicate PreparedStatement for this SQL string,
+		 * which is never closed, and survives between repository sessions,
+		 * which means HSQLDB also caches a parsed, prepared statement that can be reused
+		 * for subsequent calls to HSQLDB.prepareStatement(sql).
 		 * 
 		 * See org.hsqldb.StatementManager for more details.
 		 */
-		PreparedStatement preparedStatement = this.preparedStatementCache.get(sql);
-		if (preparedStatement == null || preparedStatement.isClosed()) {
-			if (preparedStatement != null)
-				// This shouldn't occur, so log, but recompile
-				LOGGER.debug(() -> String.format("Recompiling closed PreparedStatement: %s", sql));
+		if (this.pooledConnection == null)
+			// Not from our pool, so no cache
+			return this.connection.prepareStatement(sql);
 
-			preparedStatement =  this.connection.prepareStatement(sql);
-			this.preparedStatementCache.put(sql, preparedStatement);
-		} else {
-			// Clean up ready for reuse
-			preparedStatement.clearBatch();
-			preparedStatement.clearParameters();
-		}
-
-		return preparedStatement;
+		return this.pooledConnection.prepareStatement(sql);
 	}
 
 	/**
@@ -504,9 +692,77 @@ public class HSQLDBRepository implements Repository {
 		// We don't close the PreparedStatement when the ResultSet is closed because we cached PreparedStatements now.
 		// They are cleaned up when connection/session is closed.
 
+		this.bindStatementParams(preparedStatement, objects);
+
+		return this.timedExecuteResultSet(sql, preparedStatement);
+	}
+
+	/**
+	 * Execute query, with parameters bound by <tt>binder</tt>, and return ResultSet with but added checking.
+	 * <p>
+	 * <b>Note: calls ResultSet.next()</b> therefore returned ResultSet is already pointing to first row.
+	 * 
+	 * @param query
+	 * @param binder
+	 * @return ResultSet, or null if there are no found rows
+	 * @throws SQLException
+	 */
+	public ResultSet checkedExecute(HSQLDBQuery query, HSQLDBQuery.Binder binder) throws SQLException {
+		String sql = query.getSql();
+		PreparedStatement preparedStatement = this.prepareStatement(sql);
+
+		binder.bind(preparedStatement);
+
+		return this.timedExecuteResultSet(sql, preparedStatement);
+	}
+
+	/**
+	 * Execute query, with parameters bound by <tt>binder</tt>, and return first row mapped by <tt>rowMapper</tt>.
+	 * 
+	 * @param query
+	 * @param binder
+	 * @param rowMapper
+	 * @return mapped first row, or null if there are no found rows
+	 * @throws SQLException
+	 */
+	public <T> T fetchOne(HSQLDBQuery query, HSQLDBQuery.Binder binder, HSQLDBQuery.RowMapper<T> rowMapper) throws SQLException {
+		try (ResultSet resultSet = this.checkedExecute(query, binder)) {
+			if (resultSet == null)
+				return null;
+
+			return rowMapper.map(resultSet);
+		}
+	}
+
+	/**
+	 * Execute query, with parameters bound by <tt>binder</tt>, and return all rows mapped by <tt>rowMapper</tt>.
+	 * 
+	 * @param query
+	 * @param binder
+	 * @param rowMapper
+	 * @return mapped rows, possibly empty
+	 * @throws SQLException
+	 */
+	public <T> List<T> fetchAll(HSQLDBQuery query, HSQLDBQuery.Binder binder, HSQLDBQuery.RowMapper<T> rowMapper) throws SQLException {
+		List<T> results = new ArrayList<>();
+
+		try (ResultSet resultSet = this.checkedExecute(query, binder)) {
+			if (resultSet == null)
+				return results;
+
+			do {
+				results.add(rowMapper.map(resultSet));
+			} while (resultSet.next());
+		}
+
+		return results;
+	}
+
+	/** Execute bound PreparedStatement, as checkedExecuteResultSet, logging query if it was slow. */
+	private ResultSet timedExecuteResultSet(String sql, PreparedStatement preparedStatement) throws SQLException {
 		long beforeQuery = this.slowQueryThreshold == null ? 0 : System.currentTimeMillis();
 
-		ResultSet resultSet = this.checkedExecuteResultSet(preparedStatement, objects);
+		ResultSet resultSet = this.checkedExecuteResultSet(preparedStatement);
 
 		if (this.slowQueryThreshold != null) {
 			long queryTime = System.currentTimeMillis() - beforeQuery;
@@ -545,14 +801,11 @@ public class HSQLDBRepository implements Repository {
 	 * <p>
 	 * <b>Note: calls ResultSet.next()</b> therefore returned ResultSet is already pointing to first row.
 	 * 
-	 * @param preparedStatement
-	 * @param objects
+	 * @param preparedStatement with parameters already bound
 	 * @return ResultSet, or null if there are no found rows
 	 * @throws SQLException
 	 */
-	private ResultSet checkedExecuteResultSet(PreparedStatement preparedStatement, Object... objects) throws SQLException {
-		bindStatementParams(preparedStatement, objects);
-
+	private ResultSet checkedExecuteResultSet(PreparedStatement preparedStatement) throws SQLException {
 		if (!preparedStatement.execute())
 			throw new SQLException("Fetching from database produced no results");
 
@@ -622,6 +875,167 @@ public class HSQLDBRepository implements Repository {
 		return totalCount;
 	}
 
+	/**
+	 * Queues save, for executing later in a JDBC batch with other saves using the same SQL.
+	 * <p>
+	 * Queued saves are executed, in order, before any other statement is prepared,
+	 * before savepoints are set or released, or when changes are committed.
+	 * Queueing a save that uses different SQL executes those already queued.
+	 * 
+	 * @param sql INSERT INTO ... ON DUPLICATE KEY UPDATE ... statement for <tt>saver</tt>
+	 * @param saver
+	 * @throws SQLException
+	 */
+	/* package */ void queueSave(String sql, HSQLDBSaver saver) throws SQLException {
+		if (this.pendingSaveSql != null && !this.pendingSaveSql.equals(sql))
+			this.flushPendingSaves();
+
+		this.pendingSaveSql = sql;
+		this.pendingSaves.add(saver);
+
+		if (this.pendingSaves.size() >= MAX_PENDING_SAVES)
+			this.flushPendingSaves();
+	}
+
+	/**
+	 * Executes queued saves as one JDBC batch.
+	 * <p>
+	 * As the caller that queued a failing save has probably already returned, thrown exceptions
+	 * identify the failing save's table and position in the batch.
+	 * 
+	 * @throws SQLException
+	 */
+	public void flushPendingSaves() throws SQLException {
+		if (this.pendingSaveSql == null)
+			return;
+
+		final String sql = this.pendingSaveSql;
+		final int saveCount = this.pendingSaves.size();
+
+		// Cleared first so that prepareStatement() doesn't try to flush again
+		this.pendingSaveSql = null;
+
+		try {
+			PreparedStatement preparedStatement = this.prepareStatement(sql);
+
+			for (HSQLDBSaver saver : this.pendingSaves) {
+				saver.bindValues(preparedStatement);
+				preparedStatement.addBatch();
+			}
+
+			long beforeQuery = this.slowQueryThreshold == null ? 0 : System.currentTimeMillis();
+
+			preparedStatement.executeBatch();
+
+			if (this.slowQueryThreshold != null) {
+				long queryTime = System.currentTimeMillis() - beforeQuery;
+
+				if (queryTime > this.slowQueryThreshold) {
+					LOGGER.info(() -> String.format("HSQLDB batch of %d took %d ms: %s", saveCount, queryTime, sql), new SQLException("slow query"));
+
+					logStatements();
+				}
+			}
+		} catch (BatchUpdateException e) {
+			// Saves before the failing one have update counts, unless driver carried on after failure
+			int[] updateCounts = e.getUpdateCounts();
+			int failedIndex = updateCounts != null ? updateCounts.length : 0;
+			for (int i = 0; updateCounts != null && i < updateCounts.length; ++i)
+				if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+					failedIndex = i;
+					break;
+				}
+
+			String table = failedIndex < saveCount ? this.pendingSaves.get(failedIndex).getTable() : "?";
+
+			throw this.examineException(new SQLException(String.format("Queued save %d of %d into %s failed: %s",
+					failedIndex + 1, saveCount, table, e.getMessage()), e.getSQLState(), e.getErrorCode(), e));
+		} catch (SQLException e) {
+			throw this.examineException(e);
+		} finally {
+			this.pendingSaves.clear();
+		}
+	}
+
+	private void discardPendingSaves() {
+		this.pendingSaveSql = null;
+		this.pendingSaves.clear();
+	}
+
+	// Account state caching
+
+	/**
+	 * Starts caching account state, e.g. balances, levels, last references, for this session.
+	 * 
+	 * @throws IllegalStateException if already caching account state
+	 * @see HSQLDBAccountStateCache
+	 */
+	/* package */ void startAccountStateCache() {
+		if (this.accountStateCache != null)
+			throw new IllegalStateException("Account state cache already exists");
+
+		this.accountStateCache = new HSQLDBAccountStateCache(this);
+	}
+
+	/** Returns account state cache, or null if not caching account state. */
+	/* package */ HSQLDBAccountStateCache getAccountStateCache() {
+		return this.accountStateCache;
+	}
+
+	/**
+	 * Stops caching account state, writing back any modified balances, levels, flags and default group IDs.
+	 * 
+	 * @return stopped cache, for saving last references, or null if not caching account state
+	 * @throws SQLException
+	 */
+	/* package */ HSQLDBAccountStateCache stopAccountStateCache() throws SQLException {
+		HSQLDBAccountStateCache cache = this.accountStateCache;
+		if (cache == null)
+			return null;
+
+		try {
+			cache.flush();
+		} finally {
+			this.accountStateCache = null;
+		}
+
+		return cache;
+	}
+
+	/**
+	 * Called before executing SQL that reads, or modifies, Accounts or AccountBalances other than via account state cache.
+	 * <p>
+	 * Writes back any modified account state, so that SQL sees it. If SQL modifies account state,
+	 * unmodified cached account state is also forgotten, as it might become stale.
+	 * <p>
+	 * Otherwise, modified account state is only written back when setting or releasing a savepoint,
+	 * or saving changes.
+	 * 
+	 * @param isModifying whether SQL might insert, update or delete Accounts or AccountBalances rows
+	 * @throws DataException
+	 */
+	public void onAccountStateSql(boolean isModifying) throws DataException {
+		if (this.accountStateCache == null)
+			return;
+
+		try {
+			if (this.accountStateCache.isFlushNeeded())
+				this.accountStateCache.flush();
+		} catch (SQLException e) {
+			throw new DataException("Unable to save cached account state into repository", e);
+		}
+
+		if (isModifying)
+			this.accountStateCache.invalidate();
+	}
+
+	/** Returns whether SQL names Accounts or AccountBalances while cached account state has modifications not yet written back. */
+	private boolean isUnwrittenAccountStateSql(String sql) {
+		return this.accountStateCache != null && this.accountStateCache.isFlushNeeded()
+				&& !HSQLDBAccountStateCache.isCacheSql(sql)
+				&& ACCOUNT_STATE_TABLES_PATTERN.matcher(sql).find();
+	}
+
 	/**
 	 * Fetch last value of IDENTITY column after an INSERT statement.
 	 * <p>
@@ -633,6 +1047,8 @@ public class HSQLDBRepository implements Repository {
 	 * @throws SQLException
 	 */
 	public Long callIdentity() throws SQLException {
+		this.flushPendingSaves();
+
 		// We don't need to use HSQLDBRepository.prepareStatement for this as it's so trivial
 		try (PreparedStatement preparedStatement = this.connection.prepareStatement("CALL IDENTITY()");
 				ResultSet resultSet = this.checkedExecuteResultSet(preparedStatement)) {
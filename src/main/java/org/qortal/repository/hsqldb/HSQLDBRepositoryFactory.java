@@ -11,20 +11,27 @@ import org.apache.logging.log4j.Logger;
 import org.hsqldb.HsqlException;
 import org.hsqldb.error.ErrorCode;
 import org.hsqldb.jdbc.HSQLDBPool;
+import org.hsqldb.jdbc.HSQLDBPooledConnection;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryFactory;
+import org.qortal.settings.Settings;
 
 public class HSQLDBRepositoryFactory implements RepositoryFactory {
 
 	private static final Logger LOGGER = LogManager.getLogger(HSQLDBRepositoryFactory.class);
 	private static final int POOL_SIZE = 100;
+	/** Number of prepared statements cached by each pooled connection, for reuse by later repository sessions. */
+	private static final int STATEMENT_CACHE_SIZE = 256;
 
 	/** Log getConnection() calls that take longer than this. (ms) */
 	private static final long SLOW_CONNECTION_THRESHOLD = 1000L;
 
 	private String connectionUrl;
 	private HSQLDBPool connectionPool;
+	private final HSQLDBMempool mempool = new HSQLDBMempool();
+	private final HSQLDBRewardShareIndex rewardShareIndex = new HSQLDBRewardShareIndex();
+	private final HSQLDBChainDataCache chainDataCache = new HSQLDBChainDataCache(Settings.getInstance().getChainDataCacheSize());
 
 	/**
 	 * Constructs new RepositoryFactory using passed <tt>connectionUrl</tt>.
@@ -56,7 +63,7 @@ public class HSQLDBRepositoryFactory implements RepositoryFactory {
 			HSQLDBRepository.attemptRecovery(connectionUrl);
 		}
 
-		this.connectionPool = new HSQLDBPool(POOL_SIZE);
+		this.connectionPool = new HSQLDBPool(POOL_SIZE, STATEMENT_CACHE_SIZE);
 		this.connectionPool.setUrl(this.connectionUrl);
 
 		Properties properties = new Properties();
@@ -69,6 +76,12 @@ public class HSQLDBRepositoryFactory implements RepositoryFactory {
 		} catch (SQLException e) {
 			throw new DataException("Repository initialization error", e);
 		}
+
+		// Load unconfirmed transactions into mempool, and reward-shares into index
+		try (final HSQLDBRepository repository = (HSQLDBRepository) this.getRepository()) {
+			this.mempool.load(repository);
+			this.rewardShareIndex.load(repository);
+		}
 	}
 
 	@Override
@@ -79,7 +92,7 @@ public class HSQLDBRepositoryFactory implements RepositoryFactory {
 	@Override
 	public Repository getRepository() throws DataException {
 		try {
-			return new HSQLDBRepository(this.getConnection());
+			return this.newRepository(this.getConnection());
 		} catch (SQLException e) {
 			throw new DataException("Repository instantiation error", e);
 		}
@@ -88,12 +101,37 @@ public class HSQLDBRepositoryFactory implements RepositoryFactory {
 	@Override
 	public Repository tryRepository() throws DataException {
 		try {
-			return new HSQLDBRepository(this.tryConnection());
+			Connection connection = this.tryConnection();
+			if (connection == null)
+				return null;
+
+			return this.newRepository(connection);
 		} catch (SQLException e) {
 			throw new DataException("Repository instantiation error", e);
 		}
 	}
 
+	private Repository newRepository(Connection connection) throws DataException {
+		HSQLDBPooledConnection pooledConnection = this.connectionPool.getPooledConnection(connection);
+
+		return new HSQLDBRepository(connection, pooledConnection, this.mempool, this.rewardShareIndex, this.chainDataCache);
+	}
+
+	/** Returns number of times a repository session reused a prepared statement cached by an earlier session. */
+	public long getStatementCacheHits() {
+		return this.connectionPool.getStatementCacheHits();
+	}
+
+	/** Returns number of times a repository session had to prepare a statement. */
+	public long getStatementCacheMisses() {
+		return this.connectionPool.getStatementCacheMisses();
+	}
+
+	/** Returns shared cache of confirmed blocks and transactions. */
+	public HSQLDBChainDataCache getChainDataCache() {
+		return this.chainDataCache;
+	}
+
 	private Connection getConnection() throws SQLException {
 		final long before = System.currentTimeMillis();
 		Connection connection = this.connectionPool.getConnection();
@@ -0,0 +1,158 @@
+package org.qortal.repository.hsqldb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.qortal.data.account.RewardShareData;
+import org.qortal.repository.DataException;
+import org.qortal.utils.ByteArray;
+
+/**
+ * In-memory copy of the RewardShares table, in reward-share public key order, shared by all repository sessions.
+ * <p>
+ * Online accounts are encoded in blocks as indexes into the list of reward-shares sorted by reward-share public key.
+ * Decoding these indexes, or encoding a reward-share public key, happens for every block validated or minted,
+ * so this index answers index-to-reward-share lookups from a sorted array, and key-to-index lookups from a hash map.
+ * <p>
+ * Reward-shares are only modified by processing/orphaning REWARD_SHARE transactions, which is rare compared
+ * to lookups, so each committed modification builds a new, immutable, snapshot.
+ * <p>
+ * Repository sessions collect their changes as a list of {@link Change}s, which are only
+ * applied to the index when the session commits. Lookups made by a session
+ * take that session's uncommitted changes into account, using a snapshot derived
+ * for that session, which is reused until its changes, or the committed snapshot, change.
+ */
+public class HSQLDBRewardShareIndex {
+
+	/** Addition/replacement, or removal if <tt>rewardShareData</tt> is null, of reward-share. */
+	public static class Change {
+		private final ByteArray rewardSharePublicKey;
+		private final RewardShareData rewardShareData;
+
+		private Change(ByteArray rewardSharePublicKey, RewardShareData rewardShareData) {
+			this.rewardSharePublicKey = rewardSharePublicKey;
+			this.rewardShareData = rewardShareData;
+		}
+
+		public static Change save(RewardShareData rewardShareData) {
+			return new Change(new ByteArray(rewardShareData.getRewardSharePublicKey()), rewardShareData);
+		}
+
+		public static Change remove(byte[] rewardSharePublicKey) {
+			return new Change(new ByteArray(rewardSharePublicKey), null);
+		}
+	}
+
+	private static class Snapshot {
+		/** Reward-shares, sorted by reward-share public key. */
+		private final RewardShareData[] rewardShares;
+		private final Map<ByteArray, Integer> indexesByPublicKey;
+
+		private Snapshot(Map<ByteArray, RewardShareData> sortedRewardShares) {
+			this.rewardShares = sortedRewardShares.values().toArray(new RewardShareData[0]);
+			this.indexesByPublicKey = new HashMap<>(this.rewardShares.length * 2);
+
+			int index = 0;
+			for (ByteArray rewardSharePublicKey : sortedRewardShares.keySet())
+				this.indexesByPublicKey.put(rewardSharePublicKey, index++);
+		}
+
+		/** Returns new snapshot with <tt>changes</tt> applied. */
+		private Snapshot withChanges(List<Change> changes) {
+			// ByteArray's unsigned, byte-wise ordering matches HSQLDB's ordering of VARBINARY public keys
+			TreeMap<ByteArray, RewardShareData> sortedRewardShares = new TreeMap<>();
+			for (RewardShareData rewardShareData : this.rewardShares)
+				sortedRewardShares.put(new ByteArray(rewardShareData.getRewardSharePublicKey()), rewardShareData);
+
+			for (Change change : changes)
+				if (change.rewardShareData == null)
+					sortedRewardShares.remove(change.rewardSharePublicKey);
+				else
+					sortedRewardShares.put(change.rewardSharePublicKey, change.rewardShareData);
+
+			return new Snapshot(sortedRewardShares);
+		}
+	}
+
+	/** Session's snapshot, derived from committed snapshot and session's uncommitted changes. */
+	public static class DerivedSnapshot {
+		/** Committed snapshot that <tt>snapshot</tt> was derived from, or null if not derived. */
+		private Snapshot committedSnapshot = null;
+		private Snapshot snapshot = null;
+
+		/** Forgets derived snapshot, e.g. because session's uncommitted changes were added to or truncated. */
+		public void invalidate() {
+			this.committedSnapshot = null;
+			this.snapshot = null;
+		}
+	}
+
+	private Snapshot snapshot = new Snapshot(new TreeMap<>());
+
+	/** Populates empty index from RewardShares table. */
+	/* package */ void load(HSQLDBRepository repository) throws DataException {
+		List<Change> changes = new ArrayList<>();
+
+		for (RewardShareData rewardShareData : repository.getAccountRepository().getRewardShares())
+			changes.add(Change.save(rewardShareData));
+
+		this.apply(changes);
+	}
+
+	/** Applies committed changes. */
+	/* package */ synchronized void apply(List<Change> changes) {
+		this.snapshot = this.snapshot.withChanges(changes);
+	}
+
+	/** Returns reward-share index of <tt>rewardSharePublicKey</tt>, or null if not found, including session's uncommitted changes. */
+	public Integer getIndex(byte[] rewardSharePublicKey, List<Change> uncommittedChanges, DerivedSnapshot derivedSnapshot) {
+		return this.getSnapshot(uncommittedChanges, derivedSnapshot).indexesByPublicKey.get(new ByteArray(rewardSharePublicKey));
+	}
+
+	/** Returns reward-share at <tt>index</tt>, or null if index is out of bounds, including session's uncommitted changes. */
+	public RewardShareData getByIndex(int index, List<Change> uncommittedChanges, DerivedSnapshot derivedSnapshot) {
+		RewardShareData[] rewardShares = this.getSnapshot(uncommittedChanges, derivedSnapshot).rewardShares;
+
+		if (index < 0 || index >= rewardShares.length)
+			return null;
+
+		return rewardShares[index];
+	}
+
+	/** Returns reward-shares at <tt>indexes</tt>, or null if any index is out of bounds, including session's uncommitted changes. */
+	public List<RewardShareData> getByIndexes(int[] indexes, List<Change> uncommittedChanges, DerivedSnapshot derivedSnapshot) {
+		RewardShareData[] rewardShares = this.getSnapshot(uncommittedChanges, derivedSnapshot).rewardShares;
+
+		List<RewardShareData> indexedRewardShares = new ArrayList<>(indexes.length);
+		for (int index : indexes) {
+			if (index < 0 || index >= rewardShares.length)
+				return null;
+
+			indexedRewardShares.add(rewardShares[index]);
+		}
+
+		return indexedRewardShares;
+	}
+
+	private Snapshot getSnapshot(List<Change> uncommittedChanges, DerivedSnapshot derivedSnapshot) {
+		Snapshot committedSnapshot;
+		synchronized (this) {
+			committedSnapshot = this.snapshot;
+		}
+
+		if (uncommittedChanges.isEmpty())
+			return committedSnapshot;
+
+		// Rebuild only if session's changes were invalidated, or another session has committed since
+		if (derivedSnapshot.snapshot == null || derivedSnapshot.committedSnapshot != committedSnapshot) {
+			derivedSnapshot.snapshot = committedSnapshot.withChanges(uncommittedChanges);
+			derivedSnapshot.committedSnapshot = committedSnapshot;
+		}
+
+		return derivedSnapshot.snapshot;
+	}
+
+}
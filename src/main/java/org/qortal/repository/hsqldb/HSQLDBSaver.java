@@ -17,6 +17,9 @@ import java.util.TimeZone;
  * {@code SaveHelper helper = new SaveHelper("TableName"); }<br>
  * {@code helper.bind("column_name", someColumnValue).bind("column2", columnValue2); }<br>
  * {@code helper.execute(repository); }<br>
+ * <p>
+ * Alternatively, {@code helper.batch(repository); } queues the save, so that consecutive saves
+ * using the same table and columns are executed together as one JDBC batch.
  *
  */
 public class HSQLDBSaver {
@@ -50,6 +53,10 @@ public class HSQLDBSaver {
 		return this;
 	}
 
+	/* package */ String getTable() {
+		return this.table;
+	}
+
 	/**
 	 * Build PreparedStatement using bound column-value pairs then execute it.
 	 * 
@@ -71,6 +78,24 @@ public class HSQLDBSaver {
 		}
 	}
 
+	/**
+	 * Queue save, using bound column-value pairs, to be executed later in a JDBC batch.
+	 * <p>
+	 * Consecutive queued saves to the same table, with the same columns, are executed together
+	 * when the repository next prepares a different statement, sets or releases a savepoint,
+	 * or commits. Any SQL errors are therefore thrown by whichever of those happens next,
+	 * identifying the table and position in the batch of the failing save.
+	 * Callers that need to handle their own errors, e.g. when importing a transaction, should use {@link #execute(HSQLDBRepository)} instead.
+	 * <p>
+	 * Columns and values must not be changed after calling.
+	 * 
+	 * @param repository
+	 * @throws SQLException
+	 */
+	public void batch(HSQLDBRepository repository) throws SQLException {
+		repository.queueSave(this.formatInsertWithPlaceholders(), this);
+	}
+
 	/**
 	 * Format table and column names into an INSERT INTO ... SQL statement.
 	 * <p>
@@ -131,7 +156,7 @@ public class HSQLDBSaver {
 	 * @param preparedStatement
 	 * @throws SQLException
 	 */
-	private void bindValues(PreparedStatement preparedStatement) throws SQLException {
+	/* package */ void bindValues(PreparedStatement preparedStatement) throws SQLException {
 		for (int i = 0; i < this.objects.size(); ++i) {
 			Object object = this.objects.get(i);
 
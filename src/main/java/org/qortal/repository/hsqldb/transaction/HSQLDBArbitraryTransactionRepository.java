@@ -66,7 +66,7 @@ public class HSQLDBArbitraryTransactionRepository extends HSQLDBTransactionRepos
 	}
 
 	@Override
-	public void delete(TransactionData transactionData) throws DataException {
+	void deleteTypeSpecificData(TransactionData transactionData) throws DataException {
 		ArbitraryTransactionData arbitraryTransactionData = (ArbitraryTransactionData) transactionData;
 
 		// Potentially delete raw data stored locally too
@@ -2,15 +2,14 @@ package org.qortal.repository.hsqldb.transaction;
 
 import static org.qortal.transaction.Transaction.TransactionType.*;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -23,6 +22,8 @@ import org.qortal.data.transaction.TransactionData;
 import org.qortal.data.transaction.TransferAssetTransactionData;
 import org.qortal.repository.DataException;
 import org.qortal.repository.TransactionRepository;
+import org.qortal.repository.hsqldb.HSQLDBChainDataCache;
+import org.qortal.repository.hsqldb.HSQLDBMempool;
 import org.qortal.repository.hsqldb.HSQLDBRepository;
 import org.qortal.repository.hsqldb.HSQLDBSaver;
 import org.qortal.transaction.Transaction.ApprovalStatus;
@@ -33,61 +34,51 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 	private static final Logger LOGGER = LogManager.getLogger(HSQLDBTransactionRepository.class);
 
-	public static class RepositorySubclassInfo {
-		public Class<?> clazz;
-		public Constructor<?> constructor;
-		public Method fromBaseMethod;
-		public Method saveMethod;
-		public Method deleteMethod;
-	}
-
-	private static final RepositorySubclassInfo[] subclassInfos;
+	/** Subclass constructors, indexed by transaction type's value. Null for unsupported transaction types. */
+	private static final Function<HSQLDBRepository, HSQLDBTransactionRepository>[] subclassConstructors;
 	static {
-		subclassInfos = new RepositorySubclassInfo[TransactionType.values().length + 1];
-
-		for (TransactionType txType : TransactionType.values()) {
-			RepositorySubclassInfo subclassInfo = new RepositorySubclassInfo();
-
-			try {
-				subclassInfo.clazz = Class.forName(
-						String.join("", HSQLDBTransactionRepository.class.getPackage().getName(), ".", "HSQLDB", txType.className, "TransactionRepository"));
-			} catch (ClassNotFoundException e) {
-				LOGGER.trace(String.format("HSQLDBTransactionRepository subclass not found for transaction type \"%s\"", txType.name()));
-				continue;
-			}
-
-			try {
-				subclassInfo.constructor = subclassInfo.clazz.getConstructor(HSQLDBRepository.class);
-			} catch (NoSuchMethodException | IllegalArgumentException e) {
-				LOGGER.debug(String.format("HSQLDBTransactionRepository subclass constructor not found for transaction type \"%s\"", txType.name()));
-				continue;
-			}
-
-			try {
-				subclassInfo.fromBaseMethod = subclassInfo.clazz.getDeclaredMethod("fromBase", BaseTransactionData.class);
-			} catch (IllegalArgumentException | SecurityException | NoSuchMethodException e) {
-				LOGGER.debug(String.format("HSQLDBTransactionRepository subclass's \"fromBase\" method not found for transaction type \"%s\"", txType.name()));
-			}
-
-			try {
-				subclassInfo.saveMethod = subclassInfo.clazz.getDeclaredMethod("save", TransactionData.class);
-			} catch (IllegalArgumentException | SecurityException | NoSuchMethodException e) {
-				LOGGER.debug(String.format("HSQLDBTransactionRepository subclass's \"save\" method not found for transaction type \"%s\"", txType.name()));
-			}
-
-			try {
-				subclassInfo.deleteMethod = subclassInfo.clazz.getDeclaredMethod("delete", TransactionData.class);
-			} catch (NoSuchMethodException e) {
-				// Subclass has no "delete" method - this is OK
-				subclassInfo.deleteMethod = null;
-			} catch (IllegalArgumentException | SecurityException e) {
-				LOGGER.debug(String.format("HSQLDBTransactionRepository subclass's \"save\" method not found for transaction type \"%s\"", txType.name()));
-			}
-
-			subclassInfos[txType.value] = subclassInfo;
-		}
-
-		LOGGER.trace("Static init reflection completed");
+		@SuppressWarnings("unchecked")
+		Function<HSQLDBRepository, HSQLDBTransactionRepository>[] constructors = new Function[TransactionType.values().length + 1];
+		subclassConstructors = constructors;
+
+		subclassConstructors[GENESIS.value] = HSQLDBGenesisTransactionRepository::new;
+		subclassConstructors[PAYMENT.value] = HSQLDBPaymentTransactionRepository::new;
+		subclassConstructors[REGISTER_NAME.value] = HSQLDBRegisterNameTransactionRepository::new;
+		subclassConstructors[UPDATE_NAME.value] = HSQLDBUpdateNameTransactionRepository::new;
+		subclassConstructors[SELL_NAME.value] = HSQLDBSellNameTransactionRepository::new;
+		subclassConstructors[CANCEL_SELL_NAME.value] = HSQLDBCancelSellNameTransactionRepository::new;
+		subclassConstructors[BUY_NAME.value] = HSQLDBBuyNameTransactionRepository::new;
+		subclassConstructors[CREATE_POLL.value] = HSQLDBCreatePollTransactionRepository::new;
+		subclassConstructors[VOTE_ON_POLL.value] = HSQLDBVoteOnPollTransactionRepository::new;
+		subclassConstructors[ARBITRARY.value] = HSQLDBArbitraryTransactionRepository::new;
+		subclassConstructors[ISSUE_ASSET.value] = HSQLDBIssueAssetTransactionRepository::new;
+		subclassConstructors[TRANSFER_ASSET.value] = HSQLDBTransferAssetTransactionRepository::new;
+		subclassConstructors[CREATE_ASSET_ORDER.value] = HSQLDBCreateAssetOrderTransactionRepository::new;
+		subclassConstructors[CANCEL_ASSET_ORDER.value] = HSQLDBCancelAssetOrderTransactionRepository::new;
+		subclassConstructors[MULTI_PAYMENT.value] = HSQLDBMultiPaymentTransactionRepository::new;
+		subclassConstructors[DEPLOY_AT.value] = HSQLDBDeployAtTransactionRepository::new;
+		subclassConstructors[MESSAGE.value] = HSQLDBMessageTransactionRepository::new;
+		subclassConstructors[CHAT.value] = HSQLDBChatTransactionRepository::new;
+		subclassConstructors[PUBLICIZE.value] = HSQLDBPublicizeTransactionRepository::new;
+		subclassConstructors[AT.value] = HSQLDBAtTransactionRepository::new;
+		subclassConstructors[CREATE_GROUP.value] = HSQLDBCreateGroupTransactionRepository::new;
+		subclassConstructors[UPDATE_GROUP.value] = HSQLDBUpdateGroupTransactionRepository::new;
+		subclassConstructors[ADD_GROUP_ADMIN.value] = HSQLDBAddGroupAdminTransactionRepository::new;
+		subclassConstructors[REMOVE_GROUP_ADMIN.value] = HSQLDBRemoveGroupAdminTransactionRepository::new;
+		subclassConstructors[GROUP_BAN.value] = HSQLDBGroupBanTransactionRepository::new;
+		subclassConstructors[CANCEL_GROUP_BAN.value] = HSQLDBCancelGroupBanTransactionRepository::new;
+		subclassConstructors[GROUP_KICK.value] = HSQLDBGroupKickTransactionRepository::new;
+		subclassConstructors[GROUP_INVITE.value] = HSQLDBGroupInviteTransactionRepository::new;
+		subclassConstructors[CANCEL_GROUP_INVITE.value] = HSQLDBCancelGroupInviteTransactionRepository::new;
+		subclassConstructors[JOIN_GROUP.value] = HSQLDBJoinGroupTransactionRepository::new;
+		subclassConstructors[LEAVE_GROUP.value] = HSQLDBLeaveGroupTransactionRepository::new;
+		subclassConstructors[GROUP_APPROVAL.value] = HSQLDBGroupApprovalTransactionRepository::new;
+		subclassConstructors[SET_GROUP.value] = HSQLDBSetGroupTransactionRepository::new;
+		subclassConstructors[UPDATE_ASSET.value] = HSQLDBUpdateAssetTransactionRepository::new;
+		subclassConstructors[ACCOUNT_FLAGS.value] = HSQLDBAccountFlagsTransactionRepository::new;
+		subclassConstructors[REWARD_SHARE.value] = HSQLDBRewardShareTransactionRepository::new;
+		subclassConstructors[ACCOUNT_LEVEL.value] = HSQLDBAccountLevelTransactionRepository::new;
+		subclassConstructors[TRANSFER_PRIVS.value] = HSQLDBTransferPrivsTransactionRepository::new;
 	}
 
 	private HSQLDBTransactionRepository[] repositoryByTxType;
@@ -100,16 +91,10 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 		this.repositoryByTxType = new HSQLDBTransactionRepository[TransactionType.values().length + 1];
 
 		for (TransactionType txType : TransactionType.values()) {
-			RepositorySubclassInfo subclassInfo = subclassInfos[txType.value];
+			Function<HSQLDBRepository, HSQLDBTransactionRepository> constructor = subclassConstructors[txType.value];
 
-			if (subclassInfo == null || subclassInfo.constructor == null)
-				continue;
-
-			try {
-				this.repositoryByTxType[txType.value] = (HSQLDBTransactionRepository) subclassInfo.constructor.newInstance(repository);
-			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | InstantiationException e) {
-				LOGGER.debug(String.format("HSQLDBTransactionRepository subclass constructor failed for transaction type \"%s\"", txType.name()));
-			}
+			if (constructor != null)
+				this.repositoryByTxType[txType.value] = constructor.apply(repository);
 		}
 	}
 
@@ -117,10 +102,28 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 	protected HSQLDBTransactionRepository() {
 	}
 
+	// Transaction-type-specific methods, implemented by subclasses
+
+	/** Returns transaction-type-specific transaction data, built using common transaction data. */
+	TransactionData fromBase(BaseTransactionData baseTransactionData) throws DataException {
+		throw new DataException("Unsupported transaction type [" + baseTransactionData.getType().name() + "] during fetch from HSQLDB repository");
+	}
+
+	/** Deletes any transaction-type-specific data that isn't removed by cascading delete of transaction's row. */
+	void deleteTypeSpecificData(TransactionData transactionData) throws DataException {
+		// Nothing to do by default
+	}
+
 	// Fetching transactions / transaction height
 
 	@Override
 	public TransactionData fromSignature(byte[] signature) throws DataException {
+		HSQLDBChainDataCache.Session chainDataCache = this.repository.getChainDataCache();
+
+		TransactionData transactionData = chainDataCache.getTransaction(signature);
+		if (transactionData != null)
+			return transactionData;
+
 		String sql = "SELECT type, reference, creator, created_when, fee, tx_group_id, block_height, approval_status, approval_height "
 				+ "FROM Transactions WHERE signature = ?";
 
@@ -150,10 +153,15 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 				approvalHeight = null;
 
 			BaseTransactionData baseTransactionData = new BaseTransactionData(timestamp, txGroupId, reference, creatorPublicKey, fee, approvalStatus, blockHeight, approvalHeight, signature);
-			return this.fromBase(type, baseTransactionData);
+			transactionData = this.fromBase(type, baseTransactionData);
 		} catch (SQLException e) {
 			throw new DataException("Unable to fetch transaction from repository", e);
 		}
+
+		if (transactionData != null)
+			chainDataCache.putTransaction(transactionData);
+
+		return transactionData;
 	}
 
 	@Override
@@ -216,16 +224,7 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 		if (txRepository == null)
 			throw new DataException("Unsupported transaction type [" + type.name() + "] during fetch from HSQLDB repository");
 
-		try {
-			return (TransactionData) subclassInfos[type.value].fromBaseMethod.invoke(txRepository, baseTransactionData);
-		} catch (InvocationTargetException e) {
-			if (e.getCause() instanceof DataException)
-				throw (DataException) e.getCause();
-
-			throw new DataException("Unsupported transaction type [" + type.name() + "] during fetch from HSQLDB repository");
-		} catch (IllegalArgumentException | IllegalAccessException e) {
-			throw new DataException("Unsupported transaction type [" + type.name() + "] during fetch from HSQLDB repository");
-		}
+		return txRepository.fromBase(baseTransactionData);
 	}
 
 	/**
@@ -269,7 +268,7 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 				.bind("amount", paymentData.getAmount()).bind("asset_id", paymentData.getAssetId());
 
 			try {
-				saver.execute(this.repository);
+				saver.batch(this.repository);
 			} catch (SQLException e) {
 				throw new DataException("Unable to save payment into repository", e);
 			}
@@ -299,6 +298,10 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 	@Override
 	public boolean exists(byte[] signature) throws DataException {
+		// Unconfirmed transactions are all in mempool, so only confirmed transactions need a query
+		if (this.repository.getMempool().contains(signature, this.repository.getMempoolChanges()))
+			return true;
+
 		try {
 			return this.repository.exists("Transactions", "signature = ?", signature);
 		} catch (SQLException e) {
@@ -340,7 +343,7 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 				saver.bind("signature", signature).bind("participant", participant);
 
-				saver.execute(this.repository);
+				saver.batch(this.repository);
 			}
 		} catch (SQLException e) {
 			throw new DataException("Unable to save transaction participant into repository", e);
@@ -780,6 +783,8 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 	@Override
 	public List<TransferAssetTransactionData> getAssetTransfers(long assetId, String address, Integer limit, Integer offset, Boolean reverse)
 			throws DataException {
+		this.repository.onAccountStateSql(false);
+
 		List<Object> bindParams = new ArrayList<>(3);
 
 		StringBuilder sql = new StringBuilder(1024);
@@ -1011,6 +1016,8 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 	@Override
 	public GroupApprovalData getApprovalData(byte[] pendingSignature) throws DataException {
+		this.repository.onAccountStateSql(false);
+
 		// Fetch latest approval data for pending transaction's signature
 		// NOT simply number of GROUP_APPROVAL transactions as some may be rejecting transaction, or changed opinions
 		// Also make sure that GROUP_APPROVAL transaction's admin is still an admin of group
@@ -1063,65 +1070,52 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 
 	@Override
 	public List<byte[]> getUnconfirmedTransactionSignatures() throws DataException {
-		String sql = "SELECT signature FROM UnconfirmedTransactions ORDER by created_when DESC, signature DESC";
-
-		List<byte[]> signatures = new ArrayList<>();
-
-		// Find transactions with no corresponding row in BlockTransactions
-		try (ResultSet resultSet = this.repository.checkedExecute(sql)) {
-			if (resultSet == null)
-				return signatures;
+		List<HSQLDBMempool.Entry> entries = this.repository.getMempool().getEntries(this.repository.getMempoolChanges());
 
-			do {
-				byte[] signature = resultSet.getBytes(1);
+		List<byte[]> signatures = new ArrayList<>(entries.size());
 
-				signatures.add(signature);
-			} while (resultSet.next());
+		// Newest first
+		for (int i = entries.size() - 1; i >= 0; --i)
+			signatures.add(entries.get(i).getSignature());
 
-			return signatures;
-		} catch (SQLException e) {
-			throw new DataException("Unable to fetch unconfirmed transaction signatures from repository", e);
-		}
+		return signatures;
 	}
 
 	@Override
 	public List<TransactionData> getUnconfirmedTransactions(Integer limit, Integer offset, Boolean reverse) throws DataException {
-		StringBuilder sql = new StringBuilder(256);
-		sql.append("SELECT signature FROM UnconfirmedTransactions ");
+		List<HSQLDBMempool.Entry> entries = this.repository.getMempool().getEntries(this.repository.getMempoolChanges());
 
-		sql.append("ORDER BY created_when");
 		if (reverse != null && reverse)
-			sql.append(" DESC");
+			Collections.reverse(entries);
 
-		sql.append(", signature");
-		if (reverse != null && reverse)
-			sql.append(" DESC");
+		int fromIndex = Math.min(entries.size(), offset != null ? Math.max(0, offset) : 0);
+		int toIndex = limit != null && limit > 0 ? Math.min(entries.size(), fromIndex + limit) : entries.size();
 
-		HSQLDBRepository.limitOffsetSql(sql, limit, offset);
-
-		List<TransactionData> transactions = new ArrayList<>();
+		return toTransactions(entries.subList(fromIndex, toIndex));
+	}
 
-		// Find transactions with no corresponding row in BlockTransactions
-		try (ResultSet resultSet = this.repository.checkedExecute(sql.toString())) {
-			if (resultSet == null)
-				return transactions;
+	@Override
+	public List<TransactionData> getUnconfirmedTransactions(byte[] creatorPublicKey) throws DataException {
+		return toTransactions(this.repository.getMempool().getEntriesByCreator(creatorPublicKey, this.repository.getMempoolChanges()));
+	}
 
-			do {
-				byte[] signature = resultSet.getBytes(1);
+	@Override
+	public int countUnconfirmedTransactions(byte[] creatorPublicKey, TransactionType excludedType) throws DataException {
+		return this.repository.getMempool().countEntriesByCreator(creatorPublicKey, excludedType, this.repository.getMempoolChanges());
+	}
 
-				TransactionData transactionData = this.fromSignature(signature);
+	@Override
+	public List<TransactionData> getExpiredUnconfirmedTransactions(long timestamp) throws DataException {
+		return toTransactions(this.repository.getMempool().getExpiredEntries(timestamp, this.repository.getMempoolChanges()));
+	}
 
-				if (transactionData == null)
-					// Something inconsistent with the repository
-					throw new DataException(String.format("Unable to fetch unconfirmed transaction %s from repository?", Base58.encode(signature)));
+	private static List<TransactionData> toTransactions(List<HSQLDBMempool.Entry> entries) throws DataException {
+		List<TransactionData> transactions = new ArrayList<>(entries.size());
 
-				transactions.add(transactionData);
-			} while (resultSet.next());
+		for (HSQLDBMempool.Entry entry : entries)
+			transactions.add(entry.toTransactionData());
 
-			return transactions;
-		} catch (SQLException | DataException e) {
-			throw new DataException("Unable to fetch unconfirmed transactions from repository", e);
-		}
+		return transactions;
 	}
 
 	@Override
@@ -1131,6 +1125,8 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 		} catch (SQLException e) {
 			throw new DataException("Unable to remove transaction from unconfirmed transactions repository", e);
 		}
+
+		this.repository.addMempoolChange(HSQLDBMempool.Change.remove(signature));
 	}
 
 	@Override
@@ -1140,10 +1136,13 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 		saver.bind("signature", signature).bind("block_height", blockHeight);
 
 		try {
-			saver.execute(repository);
+			saver.batch(repository);
 		} catch (SQLException e) {
 			throw new DataException("Unable to update transaction's block height in repository", e);
 		}
+
+		// Only orphaning changes a transaction that might already be cached
+		this.repository.getChainDataCache().invalidateTransaction(signature, blockHeight == null);
 	}
 
 	@Override
@@ -1157,6 +1156,9 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 		} catch (SQLException e) {
 			throw new DataException("Unable to update transaction's approval height in repository", e);
 		}
+
+		// Only confirmed transactions are approved
+		this.repository.getChainDataCache().invalidateTransaction(signature, true);
 	}
 
 	@Override
@@ -1170,6 +1172,8 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 		} catch (SQLException e) {
 			throw new DataException("Unable to add transaction to unconfirmed transactions repository", e);
 		}
+
+		this.repository.addMempoolChange(HSQLDBMempool.Change.add(new HSQLDBMempool.Entry(transactionData)));
 	}
 
 	@Override
@@ -1190,22 +1194,15 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 			throw new DataException("Unable to save transaction into repository", e);
 		}
 
+		this.repository.getChainDataCache().invalidateTransaction(transactionData.getSignature(), transactionData.getBlockHeight() != null);
+
 		// Now call transaction-type-specific save() method
 		TransactionType type = transactionData.getType();
 		HSQLDBTransactionRepository txRepository = repositoryByTxType[type.value];
 		if (txRepository == null)
 			throw new DataException("Unsupported transaction type [" + type.name() + "] during save into HSQLDB repository");
 
-		try {
-			subclassInfos[type.value].saveMethod.invoke(txRepository, transactionData);
-		} catch (InvocationTargetException e) {
-			if (e.getCause() instanceof DataException)
-				throw (DataException) e.getCause();
-
-			throw new DataException("Exception during save of transaction type [" + type.name() + "] into HSQLDB repository");
-		} catch (IllegalAccessException | IllegalArgumentException e) {
-			throw new DataException("Unsupported transaction type [" + type.name() + "] during save into HSQLDB repository");
-		}
+		txRepository.save(transactionData);
 	}
 
 	@Override
@@ -1223,22 +1220,14 @@ public class HSQLDBTransactionRepository implements TransactionRepository {
 			throw new DataException("Unable to remove transaction from unconfirmed transactions repository", e);
 		}
 
-		// If transaction subclass has a "delete" method - call that now
-		TransactionType type = transactionData.getType();
-		if (subclassInfos[type.value].deleteMethod != null) {
-			HSQLDBTransactionRepository txRepository = repositoryByTxType[type.value];
+		this.repository.addMempoolChange(HSQLDBMempool.Change.remove(transactionData.getSignature()));
+		this.repository.getChainDataCache().invalidateTransaction(transactionData.getSignature(), transactionData.getBlockHeight() != null);
 
-			try {
-				subclassInfos[type.value].deleteMethod.invoke(txRepository, transactionData);
-			} catch (InvocationTargetException e) {
-				if (e.getCause() instanceof DataException)
-					throw (DataException) e.getCause();
-
-				throw new DataException("Exception during delete of transaction type [" + type.name() + "] from HSQLDB repository");
-			} catch (IllegalAccessException | IllegalArgumentException e) {
-				throw new DataException("Unsupported transaction type [" + type.name() + "] during delete from HSQLDB repository");
-			}
-		}
+		// Delete any transaction-type-specific data too
+		TransactionType type = transactionData.getType();
+		HSQLDBTransactionRepository txRepository = repositoryByTxType[type.value];
+		if (txRepository != null)
+			txRepository.deleteTypeSpecificData(transactionData);
 	}
 
 }
@@ -77,6 +77,8 @@ public class Settings {
 	private int maxUnconfirmedPerAccount = 25;
 	/** Max milliseconds into future for accepting new, unconfirmed transactions */
 	private int maxTransactionTimestampFuture = 24 * 60 * 60 * 1000; // milliseconds
+	/** Number of parallel searches for proof-of-work nonces when we create CHAT/MESSAGE/PUBLICIZE transactions. Searches share at most one thread per processor. */
+	private int transactionPoWComputeThreadCount = Runtime.getRuntime().availableProcessors();
 	/** Whether we check, fetch and install auto-updates */
 	private boolean autoUpdateEnabled = true;
 	/** How long between repository backups (ms), or 0 if disabled. */
@@ -112,8 +114,20 @@ public class Settings {
 	private int maxPeers = 32;
 	/** Maximum number of threads for network engine. */
 	private int maxNetworkThreadPoolSize = 20;
+	/** Number of network reactors, each with its own selector, that peer connections are spread across for socket I/O. */
+	private int networkReactorCount = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 	/** Maximum number of threads for network proof-of-work compute, used during handshaking. */
 	private int networkPoWComputePoolSize = 2;
+	/** Maximum number of GET_BLOCK requests in flight during synchronization. */
+	private int syncFetchWindow = 16;
+	/** Maximum number of peers, sharing sync peer's chain tip, to fetch blocks from during synchronization. */
+	private int maxSyncFetchPeers = 4;
+	/** Maximum total size of serialized BLOCK messages cached for serving to peers. (bytes) */
+	private long blockMessageCacheSize = 16 * 1024 * 1024L; // bytes
+	/** Maximum number of bytes queued for sending to a peer before further sends fail and peer is disconnected. (bytes) */
+	private int maxPeerSendQueueSize = 32 * 1024 * 1024; // bytes
+	/** Whether to exchange compressed BLOCK, SIGNATURES, etc. messages with peers that support it */
+	private boolean peerMessageCompressionEnabled = true;
 
 	// Which blockchains this node is running
 	private String blockchainConfig = null; // use default from resources
@@ -127,6 +141,8 @@ public class Settings {
 	private Long slowQueryThreshold = null;
 	/** Repository storage path. */
 	private String repositoryPath = "db";
+	/** Maximum estimated total size of confirmed blocks and transactions cached for all repository sessions, or 0 to disable. (bytes) */
+	private long chainDataCacheSize = 32 * 1024 * 1024L; // bytes
 
 	// Auto-update sources
 	private String[] autoUpdateRepos = new String[] {
@@ -347,6 +363,10 @@ public class Settings {
 		return this.maxTransactionTimestampFuture;
 	}
 
+	public int getTransactionPoWComputeThreadCount() {
+		return this.transactionPoWComputeThreadCount;
+	}
+
 	public boolean isTestNet() {
 		return this.isTestNet;
 	}
@@ -382,10 +402,34 @@ public class Settings {
 		return this.maxNetworkThreadPoolSize;
 	}
 
+	public int getNetworkReactorCount() {
+		return this.networkReactorCount;
+	}
+
 	public int getNetworkPoWComputePoolSize() {
 		return this.networkPoWComputePoolSize;
 	}
 
+	public int getSyncFetchWindow() {
+		return this.syncFetchWindow;
+	}
+
+	public int getMaxSyncFetchPeers() {
+		return this.maxSyncFetchPeers;
+	}
+
+	public long getBlockMessageCacheSize() {
+		return this.blockMessageCacheSize;
+	}
+
+	public int getMaxPeerSendQueueSize() {
+		return this.maxPeerSendQueueSize;
+	}
+
+	public boolean isPeerMessageCompressionEnabled() {
+		return this.peerMessageCompressionEnabled;
+	}
+
 	public String getBlockchainConfig() {
 		return this.blockchainConfig;
 	}
@@ -406,6 +450,10 @@ public class Settings {
 		return this.repositoryPath;
 	}
 
+	public long getChainDataCacheSize() {
+		return this.chainDataCacheSize;
+	}
+
 	public boolean isAutoUpdateEnabled() {
 		return this.autoUpdateEnabled;
 	}
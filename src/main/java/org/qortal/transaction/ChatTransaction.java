@@ -14,6 +14,7 @@ import org.qortal.group.Group;
 import org.qortal.repository.DataException;
 import org.qortal.repository.GroupRepository;
 import org.qortal.repository.Repository;
+import org.qortal.settings.Settings;
 import org.qortal.transform.TransformationException;
 import org.qortal.transform.transaction.ChatTransactionTransformer;
 import org.qortal.transform.transaction.TransactionTransformer;
@@ -79,7 +80,7 @@ public class ChatTransaction extends Transaction {
 		int difficulty = this.getSender().getConfirmedBalance(Asset.QORT) > 0 ? POW_DIFFICULTY_WITH_QORT : POW_DIFFICULTY_NO_QORT;
 
 		// Calculate nonce
-		this.chatTransactionData.setNonce(MemoryPoW.compute2(transactionBytes, POW_BUFFER_SIZE, difficulty));
+		this.chatTransactionData.setNonce(MemoryPoW.compute2(transactionBytes, POW_BUFFER_SIZE, difficulty, Settings.getInstance().getTransactionPoWComputeThreadCount()));
 	}
 
 	/**
@@ -157,10 +158,11 @@ public class ChatTransaction extends Transaction {
 
 	@Override
 	public boolean isSignatureValid() {
-		byte[] signature = this.transactionData.getSignature();
-		if (signature == null)
-			return false;
+		return super.isSignatureValid() && this.isProofOfWorkValid();
+	}
 
+	@Override
+	public boolean isProofOfWorkValid() {
 		byte[] transactionBytes;
 
 		try {
@@ -169,9 +171,6 @@ public class ChatTransaction extends Transaction {
 			throw new RuntimeException("Unable to transform transaction to byte array for verification", e);
 		}
 
-		if (!Crypto.verify(this.transactionData.getCreatorPublicKey(), signature, transactionBytes))
-			return false;
-
 		int nonce = this.chatTransactionData.getNonce();
 
 		// Clear nonce from transactionBytes
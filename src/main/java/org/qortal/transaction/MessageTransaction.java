@@ -8,7 +8,6 @@ import org.qortal.account.Account;
 import org.qortal.account.PrivateKeyAccount;
 import org.qortal.account.PublicKeyAccount;
 import org.qortal.asset.Asset;
-import org.qortal.crypto.Crypto;
 import org.qortal.crypto.MemoryPoW;
 import org.qortal.data.PaymentData;
 import org.qortal.data.transaction.BaseTransactionData;
@@ -19,8 +18,8 @@ import org.qortal.payment.Payment;
 import org.qortal.repository.DataException;
 import org.qortal.repository.GroupRepository;
 import org.qortal.repository.Repository;
+import org.qortal.settings.Settings;
 import org.qortal.transform.TransformationException;
-import org.qortal.transform.transaction.ChatTransactionTransformer;
 import org.qortal.transform.transaction.MessageTransactionTransformer;
 import org.qortal.transform.transaction.TransactionTransformer;
 import org.qortal.utils.NTP;
@@ -107,7 +106,7 @@ public class MessageTransaction extends Transaction {
 		MessageTransactionTransformer.clearNonce(transactionBytes);
 
 		// Calculate nonce
-		this.messageTransactionData.setNonce(MemoryPoW.compute2(transactionBytes, POW_BUFFER_SIZE, POW_DIFFICULTY));
+		this.messageTransactionData.setNonce(MemoryPoW.compute2(transactionBytes, POW_BUFFER_SIZE, POW_DIFFICULTY, Settings.getInstance().getTransactionPoWComputeThreadCount()));
 	}
 
 	/**
@@ -200,25 +199,23 @@ public class MessageTransaction extends Transaction {
 
 	@Override
 	public boolean isSignatureValid() {
-		byte[] signature = this.transactionData.getSignature();
-		if (signature == null)
-			return false;
+		return super.isSignatureValid() && this.isProofOfWorkValid();
+	}
+
+	@Override
+	public boolean isProofOfWorkValid() {
+		// If feee is non-zero then we don't check nonce
+		if (this.messageTransactionData.getFee() > 0)
+			return true;
 
 		byte[] transactionBytes;
 
 		try {
-			transactionBytes = ChatTransactionTransformer.toBytesForSigning(this.transactionData);
+			transactionBytes = MessageTransactionTransformer.toBytesForSigning(this.transactionData);
 		} catch (TransformationException e) {
 			throw new RuntimeException("Unable to transform transaction to byte array for verification", e);
 		}
 
-		if (!Crypto.verify(this.transactionData.getCreatorPublicKey(), signature, transactionBytes))
-			return false;
-
-		// If feee is non-zero then we don't check nonce
-		if (this.messageTransactionData.getFee() > 0)
-			return true;
-
 		int nonce = this.messageTransactionData.getNonce();
 
 		// Clear nonce from transactionBytes
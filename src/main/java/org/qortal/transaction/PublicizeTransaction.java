@@ -10,6 +10,7 @@ import org.qortal.data.transaction.PublicizeTransactionData;
 import org.qortal.data.transaction.TransactionData;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
+import org.qortal.settings.Settings;
 import org.qortal.transform.TransformationException;
 import org.qortal.transform.transaction.ChatTransactionTransformer;
 import org.qortal.transform.transaction.PublicizeTransactionTransformer;
@@ -64,7 +65,7 @@ public class PublicizeTransaction extends Transaction {
 		PublicizeTransactionTransformer.clearNonce(transactionBytes);
 
 		// Calculate nonce
-		this.publicizeTransactionData.setNonce(MemoryPoW.compute2(transactionBytes, POW_BUFFER_SIZE, POW_DIFFICULTY));
+		this.publicizeTransactionData.setNonce(MemoryPoW.compute2(transactionBytes, POW_BUFFER_SIZE, POW_DIFFICULTY, Settings.getInstance().getTransactionPoWComputeThreadCount()));
 	}
 
 	@Override
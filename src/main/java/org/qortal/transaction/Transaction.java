@@ -8,7 +8,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.locks.ReentrantLock;
-import java.util.function.Predicate;
+import java.util.function.BiFunction;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -36,14 +36,11 @@ import org.qortal.utils.NTP;
 import static java.util.Arrays.stream;
 import static java.util.stream.Collectors.toMap;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-
 public abstract class Transaction {
 
 	// Transaction types
 	public enum TransactionType {
-		// NOTE: must be contiguous or reflection fails
+		// NOTE: must be contiguous as values are used as array indexes
 		GENESIS(1, false),
 		PAYMENT(2, false),
 		REGISTER_NAME(3, true),
@@ -89,8 +86,6 @@ public abstract class Transaction {
 		public final boolean needsApproval;
 		public final String valueString;
 		public final String className;
-		public final Class<?> clazz;
-		public final Constructor<?> constructor;
 
 		private static final Map<Integer, TransactionType> map = stream(TransactionType.values()).collect(toMap(type -> type.value, type -> type));
 
@@ -105,24 +100,6 @@ public abstract class Transaction {
 				classNameParts[i] = classNameParts[i].substring(0, 1).toUpperCase().concat(classNameParts[i].substring(1));
 
 			this.className = String.join("", classNameParts);
-
-			Class<?> subClazz = null;
-			Constructor<?> subConstructor = null;
-
-			try {
-				subClazz = Class.forName(String.join("", Transaction.class.getPackage().getName(), ".", this.className, "Transaction"));
-
-				try {
-					subConstructor = subClazz.getConstructor(Repository.class, TransactionData.class);
-				} catch (NoSuchMethodException | SecurityException e) {
-					LOGGER.debug(String.format("Transaction subclass constructor not found for transaction type \"%s\"", this.name()));
-				}
-			} catch (ClassNotFoundException e) {
-				LOGGER.debug(String.format("Transaction subclass not found for transaction type \"%s\"", this.name()));
-			}
-
-			this.clazz = subClazz;
-			this.constructor = subConstructor;
 		}
 
 		public static TransactionType valueOf(int value) {
@@ -262,6 +239,53 @@ public abstract class Transaction {
 
 	private static final Logger LOGGER = LogManager.getLogger(Transaction.class);
 
+	/** Subclass constructors, indexed by transaction type's value. Null for unsupported transaction types. */
+	private static final BiFunction<Repository, TransactionData, Transaction>[] subclassConstructors;
+	static {
+		@SuppressWarnings("unchecked")
+		BiFunction<Repository, TransactionData, Transaction>[] constructors = new BiFunction[TransactionType.values().length + 1];
+		subclassConstructors = constructors;
+
+		subclassConstructors[TransactionType.GENESIS.value] = GenesisTransaction::new;
+		subclassConstructors[TransactionType.PAYMENT.value] = PaymentTransaction::new;
+		subclassConstructors[TransactionType.REGISTER_NAME.value] = RegisterNameTransaction::new;
+		subclassConstructors[TransactionType.UPDATE_NAME.value] = UpdateNameTransaction::new;
+		subclassConstructors[TransactionType.SELL_NAME.value] = SellNameTransaction::new;
+		subclassConstructors[TransactionType.CANCEL_SELL_NAME.value] = CancelSellNameTransaction::new;
+		subclassConstructors[TransactionType.BUY_NAME.value] = BuyNameTransaction::new;
+		subclassConstructors[TransactionType.CREATE_POLL.value] = CreatePollTransaction::new;
+		subclassConstructors[TransactionType.VOTE_ON_POLL.value] = VoteOnPollTransaction::new;
+		subclassConstructors[TransactionType.ARBITRARY.value] = ArbitraryTransaction::new;
+		subclassConstructors[TransactionType.ISSUE_ASSET.value] = IssueAssetTransaction::new;
+		subclassConstructors[TransactionType.TRANSFER_ASSET.value] = TransferAssetTransaction::new;
+		subclassConstructors[TransactionType.CREATE_ASSET_ORDER.value] = CreateAssetOrderTransaction::new;
+		subclassConstructors[TransactionType.CANCEL_ASSET_ORDER.value] = CancelAssetOrderTransaction::new;
+		subclassConstructors[TransactionType.MULTI_PAYMENT.value] = MultiPaymentTransaction::new;
+		subclassConstructors[TransactionType.DEPLOY_AT.value] = DeployAtTransaction::new;
+		subclassConstructors[TransactionType.MESSAGE.value] = MessageTransaction::new;
+		subclassConstructors[TransactionType.CHAT.value] = ChatTransaction::new;
+		subclassConstructors[TransactionType.PUBLICIZE.value] = PublicizeTransaction::new;
+		subclassConstructors[TransactionType.AT.value] = AtTransaction::new;
+		subclassConstructors[TransactionType.CREATE_GROUP.value] = CreateGroupTransaction::new;
+		subclassConstructors[TransactionType.UPDATE_GROUP.value] = UpdateGroupTransaction::new;
+		subclassConstructors[TransactionType.ADD_GROUP_ADMIN.value] = AddGroupAdminTransaction::new;
+		subclassConstructors[TransactionType.REMOVE_GROUP_ADMIN.value] = RemoveGroupAdminTransaction::new;
+		subclassConstructors[TransactionType.GROUP_BAN.value] = GroupBanTransaction::new;
+		subclassConstructors[TransactionType.CANCEL_GROUP_BAN.value] = CancelGroupBanTransaction::new;
+		subclassConstructors[TransactionType.GROUP_KICK.value] = GroupKickTransaction::new;
+		subclassConstructors[TransactionType.GROUP_INVITE.value] = GroupInviteTransaction::new;
+		subclassConstructors[TransactionType.CANCEL_GROUP_INVITE.value] = CancelGroupInviteTransaction::new;
+		subclassConstructors[TransactionType.JOIN_GROUP.value] = JoinGroupTransaction::new;
+		subclassConstructors[TransactionType.LEAVE_GROUP.value] = LeaveGroupTransaction::new;
+		subclassConstructors[TransactionType.GROUP_APPROVAL.value] = GroupApprovalTransaction::new;
+		subclassConstructors[TransactionType.SET_GROUP.value] = SetGroupTransaction::new;
+		subclassConstructors[TransactionType.UPDATE_ASSET.value] = UpdateAssetTransaction::new;
+		subclassConstructors[TransactionType.ACCOUNT_FLAGS.value] = AccountFlagsTransaction::new;
+		subclassConstructors[TransactionType.REWARD_SHARE.value] = RewardShareTransaction::new;
+		subclassConstructors[TransactionType.ACCOUNT_LEVEL.value] = AccountLevelTransaction::new;
+		subclassConstructors[TransactionType.TRANSFER_PRIVS.value] = TransferPrivsTransaction::new;
+	}
+
 	// Properties
 
 	protected Repository repository;
@@ -294,16 +318,12 @@ public abstract class Transaction {
 	public static Transaction fromData(Repository repository, TransactionData transactionData) {
 		TransactionType type = transactionData.getType();
 
-		try {
-			Constructor<?> constructor = type.constructor;
+		BiFunction<Repository, TransactionData, Transaction> constructor = subclassConstructors[type.value];
 
-			if (constructor == null)
-				throw new IllegalStateException("Unsupported transaction type [" + type.value + "] during fetch from repository");
+		if (constructor == null)
+			throw new IllegalStateException("Unsupported transaction type [" + type.value + "] during fetch from repository");
 
-			return (Transaction) constructor.newInstance(repository, transactionData);
-		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException | InstantiationException e) {
-			throw new IllegalStateException("Internal error with transaction type [" + type.value + "] during fetch from repository");
-		}
+		return constructor.apply(repository, transactionData);
 	}
 
 	// Getters / Setters
@@ -477,17 +497,36 @@ public abstract class Transaction {
 	}
 
 	public boolean isSignatureValid() {
-		byte[] signature = this.transactionData.getSignature();
+		return isSignatureValid(this.transactionData);
+	}
+
+	/**
+	 * Returns whether transaction's Ed25519 signature is valid.
+	 * <p>
+	 * Needs no repository access, so is safe to call from any thread.
+	 */
+	public static boolean isSignatureValid(TransactionData transactionData) {
+		byte[] signature = transactionData.getSignature();
 		if (signature == null)
 			return false;
 
 		try {
-			return Crypto.verify(this.transactionData.getCreatorPublicKey(), signature, TransactionTransformer.toBytesForSigning(transactionData));
+			return Crypto.verify(transactionData.getCreatorPublicKey(), signature, TransactionTransformer.toBytesForSigning(transactionData));
 		} catch (TransformationException e) {
 			throw new RuntimeException("Unable to transform transaction to byte array for verification", e);
 		}
 	}
 
+	/**
+	 * Returns whether transaction's proof-of-work nonce is valid.
+	 * <p>
+	 * Only relevant to transaction types that carry a nonce, so defaults to <tt>true</tt>.
+	 * Unlike the Ed25519 check in {@link #isSignatureValid()}, this might need repository access.
+	 */
+	public boolean isProofOfWorkValid() {
+		return true;
+	}
+
 	/**
 	 * Returns whether transaction can be added to unconfirmed transactions.
 	 * 
@@ -580,18 +619,9 @@ public abstract class Transaction {
 	}
 
 	private int countUnconfirmedByCreator(PublicKeyAccount creator) throws DataException {
-		List<TransactionData> unconfirmedTransactions = repository.getTransactionRepository().getUnconfirmedTransactions();
-
 		// We exclude CHAT transactions as they never get included into blocks and
 		// have spam/DoS prevention by requiring proof of work
-		Predicate<TransactionData> hasSameCreatorButNotChat = transactionData -> {
-			if (transactionData.getType() == TransactionType.CHAT)
-				return false;
-
-			return Arrays.equals(creator.getPublicKey(), transactionData.getCreatorPublicKey());
-		};
-
-		return (int) unconfirmedTransactions.stream().filter(hasSameCreatorButNotChat).count();
+		return repository.getTransactionRepository().countUnconfirmedTransactions(creator.getPublicKey(), TransactionType.CHAT);
 	}
 
 	/**
@@ -382,6 +382,31 @@ public class BlockTransformer extends Transformer {
 		}
 	}
 
+	/**
+	 * Returns bytes for block's transactions signature, without checking each transaction's signature.
+	 * <p>
+	 * Callers are expected to check transactions' signatures separately.
+	 */
+	public static byte[] getBytesForTransactionsSignature(byte[] minterSignature, List<Transaction> transactions) throws TransformationException {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(MINTER_SIGNATURE_LENGTH + transactions.size() * TransactionTransformer.SIGNATURE_LENGTH);
+
+			bytes.write(minterSignature);
+
+			for (Transaction transaction : transactions) {
+				// We don't include AT-Transactions as AT-state/output is dealt with elsewhere in the block code
+				if (transaction.getTransactionData().getType() == TransactionType.AT)
+					continue;
+
+				bytes.write(transaction.getTransactionData().getSignature());
+			}
+
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new TransformationException(e);
+		}
+	}
+
 	public static byte[] encodeOnlineAccounts(ConciseSet onlineAccounts) {
 		return onlineAccounts.toByteBuffer().array();
 	}
@@ -2,9 +2,6 @@ package org.qortal.transform.transaction;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -103,74 +100,101 @@ public abstract class TransactionTransformer extends Transformer {
 		}
 	}
 
-	/** Container for cache of transformer subclass reflection info */
-	public static class TransformerSubclassInfo {
-		public Class<?> clazz;
-		public TransactionLayout transactionLayout;
-		public Method fromByteBufferMethod;
-		public Method getDataLengthMethod;
-		public Method toBytesMethod;
-		public Method toBytesForSigningImplMethod;
+	/** Transaction-type-specific deserialization, e.g. <tt>PaymentTransactionTransformer::fromByteBuffer</tt>. */
+	@FunctionalInterface
+	private interface Deserializer {
+		TransactionData fromByteBuffer(ByteBuffer byteBuffer) throws TransformationException;
 	}
 
-	/** Cache of transformer subclass info, keyed by transaction type */
-	private static final TransformerSubclassInfo[] subclassInfos;
-	static {
-		subclassInfos = new TransformerSubclassInfo[TransactionType.values().length + 1];
-
-		for (TransactionType txType : TransactionType.values()) {
-			TransformerSubclassInfo subclassInfo = new TransformerSubclassInfo();
-
-			try {
-				subclassInfo.clazz = Class
-						.forName(String.join("", TransactionTransformer.class.getPackage().getName(), ".", txType.className, "TransactionTransformer"));
-			} catch (ClassNotFoundException e) {
-				LOGGER.debug(String.format("TransactionTransformer subclass not found for transaction type \"%s\"", txType.name()));
-				continue;
-			}
-
-			try {
-				Field layoutField = subclassInfo.clazz.getDeclaredField("layout");
-				subclassInfo.transactionLayout = ((TransactionLayout) layoutField.get(null));
-			} catch (IllegalAccessException | IllegalArgumentException | NoSuchFieldException | SecurityException e) {
-				LOGGER.debug(String.format("TransactionTransformer subclass's \"layout\" field not found for transaction type \"%s\"", txType.name()));
-			}
-
-			try {
-				subclassInfo.fromByteBufferMethod = subclassInfo.clazz.getDeclaredMethod("fromByteBuffer", ByteBuffer.class);
-			} catch (IllegalArgumentException | SecurityException | NoSuchMethodException e) {
-				LOGGER.debug(String.format("TransactionTransformer subclass's \"fromByteBuffer\" method not found for transaction type \"%s\"", txType.name()));
-			}
-
-			try {
-				subclassInfo.getDataLengthMethod = subclassInfo.clazz.getDeclaredMethod("getDataLength", TransactionData.class);
-			} catch (IllegalArgumentException | SecurityException | NoSuchMethodException e) {
-				LOGGER.debug(String.format("TransactionTransformer subclass's \"getDataLength\" method not found for transaction type \"%s\"", txType.name()));
-			}
-
-			try {
-				subclassInfo.toBytesMethod = subclassInfo.clazz.getDeclaredMethod("toBytes", TransactionData.class);
-			} catch (IllegalArgumentException | SecurityException | NoSuchMethodException e) {
-				LOGGER.debug(String.format("TransactionTransformer subclass's \"toBytes\" method not found for transaction type \"%s\"", txType.name()));
-			}
-
-			try {
-				Class<?> transformerClass = subclassInfo.clazz;
-
-				// Check method is actually declared in transformer, otherwise we have to call superclass version
-				if (Arrays.asList(transformerClass.getDeclaredMethods()).stream().noneMatch(method -> method.getName().equals("toBytesForSigningImpl")))
-					transformerClass = transformerClass.getSuperclass();
-
-				subclassInfo.toBytesForSigningImplMethod = transformerClass.getDeclaredMethod("toBytesForSigningImpl", TransactionData.class);
-			} catch (IllegalArgumentException | SecurityException | NoSuchMethodException e) {
-				LOGGER.debug(String.format("TransactionTransformer subclass's \"toBytesFromSigningImp\" method not found for transaction type \"%s\"",
-						txType.name()));
-			}
-
-			subclassInfos[txType.value] = subclassInfo;
+	/** Transaction-type-specific serialized length, e.g. <tt>PaymentTransactionTransformer::getDataLength</tt>. */
+	@FunctionalInterface
+	private interface DataLengthCalculator {
+		int getDataLength(TransactionData transactionData) throws TransformationException;
+	}
+
+	/** Transaction-type-specific serialization, e.g. <tt>PaymentTransactionTransformer::toBytes</tt>. */
+	@FunctionalInterface
+	private interface Serializer {
+		byte[] toBytes(TransactionData transactionData) throws TransformationException;
+	}
+
+	/** Transformer subclass info */
+	private static class TransformerSubclassInfo {
+		private final TransactionLayout transactionLayout;
+		private final Deserializer deserializer;
+		private final DataLengthCalculator dataLengthCalculator;
+		private final Serializer serializer;
+		private final Serializer signingSerializer;
+
+		private TransformerSubclassInfo(TransactionLayout transactionLayout, Deserializer deserializer, DataLengthCalculator dataLengthCalculator,
+				Serializer serializer, Serializer signingSerializer) {
+			this.transactionLayout = transactionLayout;
+			this.deserializer = deserializer;
+			this.dataLengthCalculator = dataLengthCalculator;
+			this.serializer = serializer;
+			this.signingSerializer = signingSerializer;
 		}
+	}
+
+	/** Transformer subclass info, indexed by transaction type's value. Null for unsupported transaction types. */
+	private static final TransformerSubclassInfo[] subclassInfos = new TransformerSubclassInfo[TransactionType.values().length + 1];
+	static {
+		register(TransactionType.GENESIS, GenesisTransactionTransformer.layout, GenesisTransactionTransformer::fromByteBuffer, GenesisTransactionTransformer::getDataLength, GenesisTransactionTransformer::toBytes);
+		register(TransactionType.PAYMENT, PaymentTransactionTransformer.layout, PaymentTransactionTransformer::fromByteBuffer, PaymentTransactionTransformer::getDataLength, PaymentTransactionTransformer::toBytes);
+		register(TransactionType.REGISTER_NAME, RegisterNameTransactionTransformer.layout, RegisterNameTransactionTransformer::fromByteBuffer, RegisterNameTransactionTransformer::getDataLength, RegisterNameTransactionTransformer::toBytes);
+		register(TransactionType.UPDATE_NAME, UpdateNameTransactionTransformer.layout, UpdateNameTransactionTransformer::fromByteBuffer, UpdateNameTransactionTransformer::getDataLength, UpdateNameTransactionTransformer::toBytes);
+		register(TransactionType.SELL_NAME, SellNameTransactionTransformer.layout, SellNameTransactionTransformer::fromByteBuffer, SellNameTransactionTransformer::getDataLength, SellNameTransactionTransformer::toBytes);
+		register(TransactionType.CANCEL_SELL_NAME, CancelSellNameTransactionTransformer.layout, CancelSellNameTransactionTransformer::fromByteBuffer, CancelSellNameTransactionTransformer::getDataLength, CancelSellNameTransactionTransformer::toBytes);
+		register(TransactionType.BUY_NAME, BuyNameTransactionTransformer.layout, BuyNameTransactionTransformer::fromByteBuffer, BuyNameTransactionTransformer::getDataLength, BuyNameTransactionTransformer::toBytes);
+		register(TransactionType.CREATE_POLL, CreatePollTransactionTransformer.layout, CreatePollTransactionTransformer::fromByteBuffer, CreatePollTransactionTransformer::getDataLength, CreatePollTransactionTransformer::toBytes);
+		register(TransactionType.VOTE_ON_POLL, VoteOnPollTransactionTransformer.layout, VoteOnPollTransactionTransformer::fromByteBuffer, VoteOnPollTransactionTransformer::getDataLength, VoteOnPollTransactionTransformer::toBytes);
+		register(TransactionType.ARBITRARY, ArbitraryTransactionTransformer.layout, ArbitraryTransactionTransformer::fromByteBuffer, ArbitraryTransactionTransformer::getDataLength, ArbitraryTransactionTransformer::toBytes, ArbitraryTransactionTransformer::toBytesForSigningImpl);
+		register(TransactionType.ISSUE_ASSET, IssueAssetTransactionTransformer.layout, IssueAssetTransactionTransformer::fromByteBuffer, IssueAssetTransactionTransformer::getDataLength, IssueAssetTransactionTransformer::toBytes);
+		register(TransactionType.TRANSFER_ASSET, TransferAssetTransactionTransformer.layout, TransferAssetTransactionTransformer::fromByteBuffer, TransferAssetTransactionTransformer::getDataLength, TransferAssetTransactionTransformer::toBytes);
+		register(TransactionType.CREATE_ASSET_ORDER, CreateAssetOrderTransactionTransformer.layout, CreateAssetOrderTransactionTransformer::fromByteBuffer, CreateAssetOrderTransactionTransformer::getDataLength, CreateAssetOrderTransactionTransformer::toBytes);
+		register(TransactionType.CANCEL_ASSET_ORDER, CancelAssetOrderTransactionTransformer.layout, CancelAssetOrderTransactionTransformer::fromByteBuffer, CancelAssetOrderTransactionTransformer::getDataLength, CancelAssetOrderTransactionTransformer::toBytes);
+		register(TransactionType.MULTI_PAYMENT, MultiPaymentTransactionTransformer.layout, MultiPaymentTransactionTransformer::fromByteBuffer, MultiPaymentTransactionTransformer::getDataLength, MultiPaymentTransactionTransformer::toBytes);
+		register(TransactionType.DEPLOY_AT, DeployAtTransactionTransformer.layout, DeployAtTransactionTransformer::fromByteBuffer, DeployAtTransactionTransformer::getDataLength, DeployAtTransactionTransformer::toBytes);
+		register(TransactionType.MESSAGE, MessageTransactionTransformer.layout, MessageTransactionTransformer::fromByteBuffer, MessageTransactionTransformer::getDataLength, MessageTransactionTransformer::toBytes);
+		register(TransactionType.CHAT, ChatTransactionTransformer.layout, ChatTransactionTransformer::fromByteBuffer, ChatTransactionTransformer::getDataLength, ChatTransactionTransformer::toBytes);
+		register(TransactionType.PUBLICIZE, PublicizeTransactionTransformer.layout, PublicizeTransactionTransformer::fromByteBuffer, PublicizeTransactionTransformer::getDataLength, PublicizeTransactionTransformer::toBytes);
+		register(TransactionType.AT, AtTransactionTransformer.layout, AtTransactionTransformer::fromByteBuffer, AtTransactionTransformer::getDataLength, AtTransactionTransformer::toBytes);
+		register(TransactionType.CREATE_GROUP, CreateGroupTransactionTransformer.layout, CreateGroupTransactionTransformer::fromByteBuffer, CreateGroupTransactionTransformer::getDataLength, CreateGroupTransactionTransformer::toBytes);
+		register(TransactionType.UPDATE_GROUP, UpdateGroupTransactionTransformer.layout, UpdateGroupTransactionTransformer::fromByteBuffer, UpdateGroupTransactionTransformer::getDataLength, UpdateGroupTransactionTransformer::toBytes);
+		register(TransactionType.ADD_GROUP_ADMIN, AddGroupAdminTransactionTransformer.layout, AddGroupAdminTransactionTransformer::fromByteBuffer, AddGroupAdminTransactionTransformer::getDataLength, AddGroupAdminTransactionTransformer::toBytes);
+		register(TransactionType.REMOVE_GROUP_ADMIN, RemoveGroupAdminTransactionTransformer.layout, RemoveGroupAdminTransactionTransformer::fromByteBuffer, RemoveGroupAdminTransactionTransformer::getDataLength, RemoveGroupAdminTransactionTransformer::toBytes);
+		register(TransactionType.GROUP_BAN, GroupBanTransactionTransformer.layout, GroupBanTransactionTransformer::fromByteBuffer, GroupBanTransactionTransformer::getDataLength, GroupBanTransactionTransformer::toBytes);
+		register(TransactionType.CANCEL_GROUP_BAN, CancelGroupBanTransactionTransformer.layout, CancelGroupBanTransactionTransformer::fromByteBuffer, CancelGroupBanTransactionTransformer::getDataLength, CancelGroupBanTransactionTransformer::toBytes);
+		register(TransactionType.GROUP_KICK, GroupKickTransactionTransformer.layout, GroupKickTransactionTransformer::fromByteBuffer, GroupKickTransactionTransformer::getDataLength, GroupKickTransactionTransformer::toBytes);
+		register(TransactionType.GROUP_INVITE, GroupInviteTransactionTransformer.layout, GroupInviteTransactionTransformer::fromByteBuffer, GroupInviteTransactionTransformer::getDataLength, GroupInviteTransactionTransformer::toBytes);
+		register(TransactionType.CANCEL_GROUP_INVITE, CancelGroupInviteTransactionTransformer.layout, CancelGroupInviteTransactionTransformer::fromByteBuffer, CancelGroupInviteTransactionTransformer::getDataLength, CancelGroupInviteTransactionTransformer::toBytes);
+		register(TransactionType.JOIN_GROUP, JoinGroupTransactionTransformer.layout, JoinGroupTransactionTransformer::fromByteBuffer, JoinGroupTransactionTransformer::getDataLength, JoinGroupTransactionTransformer::toBytes);
+		register(TransactionType.LEAVE_GROUP, LeaveGroupTransactionTransformer.layout, LeaveGroupTransactionTransformer::fromByteBuffer, LeaveGroupTransactionTransformer::getDataLength, LeaveGroupTransactionTransformer::toBytes);
+		register(TransactionType.GROUP_APPROVAL, GroupApprovalTransactionTransformer.layout, GroupApprovalTransactionTransformer::fromByteBuffer, GroupApprovalTransactionTransformer::getDataLength, GroupApprovalTransactionTransformer::toBytes);
+		register(TransactionType.SET_GROUP, SetGroupTransactionTransformer.layout, SetGroupTransactionTransformer::fromByteBuffer, SetGroupTransactionTransformer::getDataLength, SetGroupTransactionTransformer::toBytes);
+		register(TransactionType.UPDATE_ASSET, UpdateAssetTransactionTransformer.layout, UpdateAssetTransactionTransformer::fromByteBuffer, UpdateAssetTransactionTransformer::getDataLength, UpdateAssetTransactionTransformer::toBytes);
+		register(TransactionType.ACCOUNT_FLAGS, AccountFlagsTransactionTransformer.layout, AccountFlagsTransactionTransformer::fromByteBuffer, AccountFlagsTransactionTransformer::getDataLength, AccountFlagsTransactionTransformer::toBytes);
+		register(TransactionType.REWARD_SHARE, RewardShareTransactionTransformer.layout, RewardShareTransactionTransformer::fromByteBuffer, RewardShareTransactionTransformer::getDataLength, RewardShareTransactionTransformer::toBytes);
+		register(TransactionType.ACCOUNT_LEVEL, AccountLevelTransactionTransformer.layout, AccountLevelTransactionTransformer::fromByteBuffer, AccountLevelTransactionTransformer::getDataLength, AccountLevelTransactionTransformer::toBytes);
+		register(TransactionType.TRANSFER_PRIVS, TransferPrivsTransactionTransformer.layout, TransferPrivsTransactionTransformer::fromByteBuffer, TransferPrivsTransactionTransformer::getDataLength, TransferPrivsTransactionTransformer::toBytes);
+	}
+
+	private static void register(TransactionType txType, TransactionLayout transactionLayout, Deserializer deserializer,
+			DataLengthCalculator dataLengthCalculator, Serializer serializer) {
+		register(txType, transactionLayout, deserializer, dataLengthCalculator, serializer, TransactionTransformer::toBytesForSigningImpl);
+	}
+
+	private static void register(TransactionType txType, TransactionLayout transactionLayout, Deserializer deserializer,
+			DataLengthCalculator dataLengthCalculator, Serializer serializer, Serializer signingSerializer) {
+		subclassInfos[txType.value] = new TransformerSubclassInfo(transactionLayout, deserializer, dataLengthCalculator, serializer, signingSerializer);
+	}
 
-		LOGGER.trace("Static init reflection completed");
+	private static TransformerSubclassInfo getSubclassInfo(TransactionType type, String action) throws TransformationException {
+		TransformerSubclassInfo subclassInfo = subclassInfos[type.value];
+		if (subclassInfo == null)
+			throw new TransformationException("Unsupported transaction type [" + type.value + "] " + action);
+
+		return subclassInfo;
 	}
 
 	public static List<Transformation> getLayoutByTxType(TransactionType txType) {
@@ -200,21 +224,13 @@ public abstract class TransactionTransformer extends Transformer {
 		if (type == null)
 			return null;
 
-		Method method = subclassInfos[type.value].fromByteBufferMethod;
-		if (method == null)
-			throw new TransformationException("Unsupported transaction type [" + type.value + "] during conversion from bytes");
+		Deserializer deserializer = getSubclassInfo(type, "during conversion from bytes").deserializer;
 
 		try {
-			return (TransactionData) method.invoke(null, byteBuffer);
-		} catch (InvocationTargetException e) {
-			if (e.getCause() instanceof BufferUnderflowException)
-				throw new TransformationException("Byte data too short for " + type.name() + " transaction (type [" + type.value + "])");
-
-			if (e.getCause() instanceof TransformationException)
-				throw (TransformationException) e.getCause();
-
-			throw new TransformationException("Internal error with transaction type [" + type.value + "] during conversion from bytes");
-		} catch (IllegalAccessException | IllegalArgumentException e) {
+			return deserializer.fromByteBuffer(byteBuffer);
+		} catch (BufferUnderflowException e) {
+			throw new TransformationException("Byte data too short for " + type.name() + " transaction (type [" + type.value + "])");
+		} catch (RuntimeException e) {
 			throw new TransformationException("Internal error with transaction type [" + type.value + "] during conversion from bytes");
 		}
 	}
@@ -227,15 +243,11 @@ public abstract class TransactionTransformer extends Transformer {
 	public static int getDataLength(TransactionData transactionData) throws TransformationException {
 		TransactionType type = transactionData.getType();
 
-		try {
-			Method method = subclassInfos[type.value].getDataLengthMethod;
-			return (int) method.invoke(null, transactionData);
-		} catch (InvocationTargetException e) {
-			if (e.getCause() instanceof TransformationException)
-				throw (TransformationException) e.getCause();
+		DataLengthCalculator dataLengthCalculator = getSubclassInfo(type, "when requesting byte length").dataLengthCalculator;
 
-			throw new TransformationException("Internal error with transaction type [" + type.value + "] when requesting byte length");
-		} catch (IllegalAccessException | IllegalArgumentException e) {
+		try {
+			return dataLengthCalculator.getDataLength(transactionData);
+		} catch (RuntimeException e) {
 			throw new TransformationException("Internal error with transaction type [" + type.value + "] when requesting byte length");
 		}
 	}
@@ -243,15 +255,11 @@ public abstract class TransactionTransformer extends Transformer {
 	public static byte[] toBytes(TransactionData transactionData) throws TransformationException {
 		TransactionType type = transactionData.getType();
 
-		try {
-			Method method = subclassInfos[type.value].toBytesMethod;
-			return (byte[]) method.invoke(null, transactionData);
-		} catch (InvocationTargetException e) {
-			if (e.getCause() instanceof TransformationException)
-				throw (TransformationException) e.getCause();
+		Serializer serializer = getSubclassInfo(type, "during conversion to bytes").serializer;
 
-			throw new TransformationException("Internal error with transaction type [" + type.value + "] during conversion to bytes");
-		} catch (IllegalAccessException | IllegalArgumentException  e) {
+		try {
+			return serializer.toBytes(transactionData);
+		} catch (RuntimeException e) {
 			throw new TransformationException("Internal error with transaction type [" + type.value + "] during conversion to bytes");
 		}
 	}
@@ -268,15 +276,11 @@ public abstract class TransactionTransformer extends Transformer {
 	public static byte[] toBytesForSigning(TransactionData transactionData) throws TransformationException {
 		TransactionType type = transactionData.getType();
 
-		try {
-			Method method = subclassInfos[type.value].toBytesForSigningImplMethod;
-			return (byte[]) method.invoke(null, transactionData);
-		} catch (InvocationTargetException e) {
-			if (e.getCause() instanceof TransformationException)
-				throw (TransformationException) e.getCause();
+		Serializer signingSerializer = getSubclassInfo(type, "during conversion to bytes for signing").signingSerializer;
 
-			throw new TransformationException("Internal error with transaction type [" + type.value + "] during conversion to bytes for signing");
-		} catch (IllegalAccessException | IllegalArgumentException e) {
+		try {
+			return signingSerializer.toBytes(transactionData);
+		} catch (RuntimeException e) {
 			throw new TransformationException("Internal error with transaction type [" + type.value + "] during conversion to bytes for signing");
 		}
 	}
@@ -0,0 +1,116 @@
+package org.qortal.utils;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import com.google.common.primitives.Longs;
+
+/**
+ * Thread-safe, fixed-size, probabilistic set of recently-added byte arrays, e.g. transaction signatures.
+ * <p>
+ * Entries are added to the current generation of a Bloom filter. Once the current generation holds
+ * <tt>entriesPerGeneration</tt> entries, it becomes the previous generation (discarding the old previous generation)
+ * and a new, empty, current generation is started. So at least the most recent <tt>entriesPerGeneration</tt> entries,
+ * and at most twice that, are remembered.
+ * <p>
+ * {@link #mightContain(byte[])} never returns false for a remembered entry, but can return true
+ * for entries never added, with a probability of roughly <tt>falsePositiveRate</tt> per generation.
+ * <p>
+ * Hashes are derived directly from the entry's bytes, so entries are expected to be uniformly distributed
+ * (like signatures or digests) and at least 16 bytes long. A per-filter random seed means that
+ * different filters give false positives for different entries.
+ */
+public class RollingBloomFilter {
+
+	private final int entriesPerGeneration;
+	private final int bitCount;
+	private final int hashCount;
+	private final long seed;
+
+	private long[] currentBits;
+	private long[] previousBits;
+	private int currentEntryCount = 0;
+
+	public RollingBloomFilter(int entriesPerGeneration, double falsePositiveRate) {
+		if (entriesPerGeneration <= 0 || falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0)
+			throw new IllegalArgumentException("Invalid Bloom filter parameters");
+
+		// Standard Bloom filter sizing: m = -n.ln(p) / ln(2)^2, k = m/n . ln(2)
+		double ln2 = Math.log(2);
+		long optimalBitCount = (long) Math.ceil(-entriesPerGeneration * Math.log(falsePositiveRate) / (ln2 * ln2));
+
+		this.entriesPerGeneration = entriesPerGeneration;
+		this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, optimalBitCount));
+		this.hashCount = Math.max(1, (int) Math.round((double) this.bitCount / entriesPerGeneration * ln2));
+		this.seed = new SecureRandom().nextLong();
+
+		this.currentBits = new long[(this.bitCount + 63) / 64];
+		this.previousBits = new long[this.currentBits.length];
+	}
+
+	/** Adds entry, possibly forgetting the oldest entries. */
+	public synchronized void add(byte[] entry) {
+		if (this.currentEntryCount >= this.entriesPerGeneration) {
+			long[] recycledBits = this.previousBits;
+			Arrays.fill(recycledBits, 0L);
+
+			this.previousBits = this.currentBits;
+			this.currentBits = recycledBits;
+			this.currentEntryCount = 0;
+		}
+
+		long hash1 = hash1(entry);
+		long hash2 = hash2(entry);
+
+		for (int i = 0; i < this.hashCount; ++i) {
+			int bitIndex = this.bitIndex(hash1, hash2, i);
+			this.currentBits[bitIndex >>> 6] |= 1L << bitIndex;
+		}
+
+		++this.currentEntryCount;
+	}
+
+	/** Returns false if entry is definitely not one of the remembered entries, true if it probably is. */
+	public synchronized boolean mightContain(byte[] entry) {
+		long hash1 = hash1(entry);
+		long hash2 = hash2(entry);
+
+		return containsHashes(this.currentBits, hash1, hash2) || containsHashes(this.previousBits, hash1, hash2);
+	}
+
+	private boolean containsHashes(long[] bits, long hash1, long hash2) {
+		for (int i = 0; i < this.hashCount; ++i) {
+			int bitIndex = this.bitIndex(hash1, hash2, i);
+			if ((bits[bitIndex >>> 6] & (1L << bitIndex)) == 0)
+				return false;
+		}
+
+		return true;
+	}
+
+	/** Returns i-th bit index using double hashing, i.e. h1 + i.h2 */
+	private int bitIndex(long hash1, long hash2, int i) {
+		return (int) Long.remainderUnsigned(hash1 + i * hash2, this.bitCount);
+	}
+
+	private long hash1(byte[] entry) {
+		return mix(Longs.fromBytes(entry[0], entry[1], entry[2], entry[3], entry[4], entry[5], entry[6], entry[7]) ^ this.seed);
+	}
+
+	private long hash2(byte[] entry) {
+		int offset = entry.length - 8;
+		return mix(Longs.fromBytes(entry[offset], entry[offset + 1], entry[offset + 2], entry[offset + 3],
+				entry[offset + 4], entry[offset + 5], entry[offset + 6], entry[offset + 7]) + this.seed);
+	}
+
+	/** MurmurHash3's 64-bit finalizer. */
+	private static long mix(long value) {
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		value *= 0xc4ceb93fe34e53f5L;
+		value ^= value >>> 33;
+		return value;
+	}
+
+}
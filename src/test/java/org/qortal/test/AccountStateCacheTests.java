@@ -2,26 +2,30 @@ package org.qortal.test;
 
 import static org.junit.Assert.*;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.qortal.account.Account;
-import org.qortal.account.AccountRefCache;
+import org.qortal.account.AccountStateCache;
 import org.qortal.account.PublicKeyAccount;
+import org.qortal.asset.Asset;
 import org.qortal.data.transaction.PaymentTransactionData;
 import org.qortal.data.transaction.TransactionData;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryManager;
+import org.qortal.repository.hsqldb.HSQLDBRepository;
 import org.qortal.test.common.BlockUtils;
 import org.qortal.test.common.Common;
 import org.qortal.test.common.TestAccount;
 import org.qortal.test.common.TransactionUtils;
 import org.qortal.test.common.transaction.TestTransaction;
 
-public class AccountRefCacheTests extends Common {
+public class AccountStateCacheTests extends Common {
 
 	private static final Random RANDOM = new Random();
 
@@ -91,7 +95,7 @@ public class AccountRefCacheTests extends Common {
 			byte[] lastRef1 = account.getLastReference();
 
 			// begin caching
-			try (final AccountRefCache accountRefCache = new AccountRefCache(repository)) {
+			try (final AccountStateCache accountStateCache = new AccountStateCache(repository)) {
 				// fetch 2nd ref
 				byte[] lastRef2 = account.getLastReference();
 
@@ -130,7 +134,7 @@ public class AccountRefCacheTests extends Common {
 
 			// begin caching
 			byte[] committedRef;
-			try (final AccountRefCache accountRefCache = new AccountRefCache(repository)) {
+			try (final AccountStateCache accountStateCache = new AccountStateCache(repository)) {
 				// fetch 2nd ref
 				byte[] lastRef2 = account.getLastReference();
 
@@ -150,7 +154,7 @@ public class AccountRefCacheTests extends Common {
 				assertTrue("getLastReference() should return pre-cache value", Arrays.equals(lastRef1, lastRef4));
 
 				// Commit cache
-				accountRefCache.commit();
+				accountStateCache.commit();
 			}
 
 			// fetch 5th ref
@@ -172,7 +176,7 @@ public class AccountRefCacheTests extends Common {
 			assertNull("new account's initial lastReference should be null", lastRef1);
 
 			// begin caching
-			try (final AccountRefCache accountRefCache = new AccountRefCache(repository)) {
+			try (final AccountStateCache accountStateCache = new AccountStateCache(repository)) {
 				// fetch 2nd ref
 				byte[] lastRef2 = account.getLastReference();
 
@@ -212,7 +216,7 @@ public class AccountRefCacheTests extends Common {
 
 			// begin caching
 			byte[] committedRef;
-			try (final AccountRefCache accountRefCache = new AccountRefCache(repository)) {
+			try (final AccountStateCache accountStateCache = new AccountStateCache(repository)) {
 				// fetch 2nd ref
 				byte[] lastRef2 = account.getLastReference();
 
@@ -232,7 +236,7 @@ public class AccountRefCacheTests extends Common {
 				assertTrue("getLastReference() should return pre-cache value", Arrays.equals(lastRef1, lastRef4));
 
 				// Commit cache
-				accountRefCache.commit();
+				accountStateCache.commit();
 			}
 
 			// fetch 5th ref
@@ -287,6 +291,133 @@ public class AccountRefCacheTests extends Common {
 		}
 	}
 
+	// Test only one cache per repository session
+	@Test(expected = IllegalStateException.class)
+	public void testDuplicateCache() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository();
+				final AccountStateCache accountStateCache = new AccountStateCache(repository);
+				final AccountStateCache duplicateAccountStateCache = new AccountStateCache(repository)) {
+			fail("Shouldn't be able to create second cache for same repository session");
+		}
+	}
+
+	// Test cached balances and levels are visible to cache and to repository queries
+	@Test
+	public void testWithCacheBalanceAndLevel() throws DataException {
+		final long amount = 123_45670000L;
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			TestAccount alice = Common.getTestAccount(repository, "alice");
+			Account newbie = createRandomAccount(repository);
+
+			long aliceInitialBalance = alice.getConfirmedBalance(Asset.QORT);
+			assertNull("new account's initial level should be null", newbie.getLevel());
+
+			try (final AccountStateCache accountStateCache = new AccountStateCache(repository)) {
+				alice.modifyAssetBalance(Asset.QORT, -amount);
+				newbie.modifyAssetBalance(Asset.QORT, amount);
+
+				assertEquals(aliceInitialBalance - amount, alice.getConfirmedBalance(Asset.QORT));
+				assertEquals(amount, newbie.getConfirmedBalance(Asset.QORT));
+
+				// New account's row is created by balance change
+				assertEquals(0, (int) newbie.getLevel());
+
+				newbie.setLevel(3);
+				assertEquals(3, (int) newbie.getLevel());
+
+				// Repository queries see modified values
+				assertEquals(3, repository.getAccountRepository().getAccount(newbie.getAddress()).getLevel());
+
+				// Can't overspend
+				try {
+					newbie.modifyAssetBalance(Asset.QORT, -amount - 1);
+					fail("Balance shouldn't be able to become negative");
+				} catch (DataException e) {
+					// Expected
+				}
+			}
+
+			assertEquals(aliceInitialBalance - amount, alice.getConfirmedBalance(Asset.QORT));
+			assertEquals(amount, newbie.getConfirmedBalance(Asset.QORT));
+			assertEquals(3, (int) newbie.getLevel());
+		}
+	}
+
+	// Test cached changes are undone when rolling back to savepoint
+	@Test
+	public void testWithCacheSavepointRollback() throws DataException {
+		final long amount = 123_45670000L;
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			TestAccount alice = Common.getTestAccount(repository, "alice");
+			Account newbie = createRandomAccount(repository);
+
+			long aliceInitialBalance = alice.getConfirmedBalance(Asset.QORT);
+			int aliceInitialLevel = alice.getLevel();
+
+			try (final AccountStateCache accountStateCache = new AccountStateCache(repository)) {
+				repository.setSavepoint();
+
+				alice.modifyAssetBalance(Asset.QORT, -amount);
+				newbie.modifyAssetBalance(Asset.QORT, amount);
+
+				repository.setSavepoint();
+
+				alice.setLevel(aliceInitialLevel + 1);
+				alice.modifyAssetBalance(Asset.QORT, -amount);
+
+				// Rollback to inner savepoint
+				repository.rollbackToSavepoint();
+
+				assertEquals(aliceInitialLevel, (int) alice.getLevel());
+				assertEquals(aliceInitialBalance - amount, alice.getConfirmedBalance(Asset.QORT));
+				assertEquals(amount, newbie.getConfirmedBalance(Asset.QORT));
+
+				// Rollback to outer savepoint
+				repository.rollbackToSavepoint();
+
+				assertEquals(aliceInitialBalance, alice.getConfirmedBalance(Asset.QORT));
+				assertEquals(0L, newbie.getConfirmedBalance(Asset.QORT));
+				assertNull("new account's level should have reverted back to null", newbie.getLevel());
+			}
+
+			assertEquals(aliceInitialBalance, alice.getConfirmedBalance(Asset.QORT));
+			assertEquals(aliceInitialLevel, (int) alice.getLevel());
+			assertEquals(0L, newbie.getConfirmedBalance(Asset.QORT));
+		}
+	}
+
+	// Test account state SQL that doesn't write back cached account state first is caught, when assertions are enabled
+	@Test
+	public void testWithCacheUnwrittenAccountStateSql() throws DataException, SQLException {
+		final long amount = 123_45670000L;
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			TestAccount alice = Common.getTestAccount(repository, "alice");
+			HSQLDBRepository hsqldbRepository = (HSQLDBRepository) repository;
+
+			try (final AccountStateCache accountStateCache = new AccountStateCache(repository)) {
+				alice.modifyAssetBalance(Asset.QORT, -amount);
+
+				boolean wasCaught = false;
+				try (ResultSet resultSet = hsqldbRepository.checkedExecute("SELECT balance FROM AccountBalances WHERE account = ?", alice.getAddress())) {
+					// Shouldn't get here
+				} catch (AssertionError e) {
+					wasCaught = true;
+				}
+				assertTrue("Account state SQL shouldn't run while cached balance isn't written back", wasCaught);
+
+				// Once written back, SQL is fine
+				hsqldbRepository.onAccountStateSql(false);
+
+				try (ResultSet resultSet = hsqldbRepository.checkedExecute("SELECT balance FROM AccountBalances WHERE account = ? AND asset_id = ?", alice.getAddress(), Asset.QORT)) {
+					assertEquals(alice.getConfirmedBalance(Asset.QORT), resultSet.getLong(1));
+				}
+			}
+		}
+	}
+
 	private static Account createRandomAccount(Repository repository) {
 		byte[] randomPublicKey = new byte[32];
 		RANDOM.nextBytes(randomPublicKey);
@@ -1,21 +1,30 @@
 package org.qortal.test;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.qortal.account.PrivateKeyAccount;
+import org.qortal.asset.Asset;
 import org.qortal.block.Block;
 import org.qortal.block.GenesisBlock;
+import org.qortal.controller.BlockMessageCache;
 import org.qortal.data.at.ATStateData;
 import org.qortal.data.block.BlockData;
+import org.qortal.data.transaction.PaymentTransactionData;
 import org.qortal.data.transaction.TransactionData;
+import org.qortal.network.message.BlockMessage;
+import org.qortal.network.message.CachedBlockMessage;
+import org.qortal.network.message.Message;
+import org.qortal.network.message.Message.MessageException;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryManager;
 import org.qortal.test.common.BlockUtils;
 import org.qortal.test.common.Common;
 import org.qortal.test.common.TransactionUtils;
+import org.qortal.test.common.transaction.TestTransaction;
 import org.qortal.transaction.Transaction;
 import org.qortal.transaction.Transaction.TransactionType;
 import org.qortal.transform.TransformationException;
@@ -133,6 +142,95 @@ public class BlockTests extends Common {
 		}
 	}
 
+	@Test
+	public void testCachedBlockMessage() throws DataException, MessageException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			BlockUtils.mintBlock(repository);
+
+			BlockData blockData = repository.getBlockRepository().getLastBlock();
+			Block block = new Block(repository, blockData);
+
+			byte[] cachedBytes = CachedBlockMessage.toCacheableBytes(block);
+
+			// Cached bytes should be reusable for replies with different IDs
+			for (int id : new int[] { 1, 12345, Integer.MAX_VALUE }) {
+				Message blockMessage = new BlockMessage(block);
+				blockMessage.setId(id);
+
+				Message cachedBlockMessage = new CachedBlockMessage(cachedBytes);
+				cachedBlockMessage.setId(id);
+
+				assertArrayEquals(blockMessage.toBytes(), cachedBlockMessage.toBytes());
+			}
+
+			// Cached block messages are only ever replies
+			try {
+				new CachedBlockMessage(cachedBytes).toBytes();
+				fail("Cached block message without ID should not serialize");
+			} catch (MessageException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testBlockMessageCacheInvalidation() {
+		BlockMessageCache blockMessageCache = new BlockMessageCache(1024 * 1024);
+		byte[] signature = new byte[] { 1, 2, 3 };
+		byte[] cachedBytes = new byte[] { 4, 5, 6 };
+
+		long generation = blockMessageCache.getGeneration();
+		blockMessageCache.put(signature, cachedBytes, generation);
+		assertArrayEquals(cachedBytes, blockMessageCache.get(signature));
+
+		// Request for block started before block was orphaned...
+		generation = blockMessageCache.getGeneration();
+
+		blockMessageCache.invalidate(signature);
+		assertNull(blockMessageCache.get(signature));
+
+		// ...so shouldn't be able to cache block it read from older snapshot
+		blockMessageCache.put(signature, cachedBytes, generation);
+		assertNull(blockMessageCache.get(signature));
+
+		// Later requests can cache block again, e.g. if it has been re-synced
+		blockMessageCache.put(signature, cachedBytes, blockMessageCache.getGeneration());
+		assertArrayEquals(cachedBytes, blockMessageCache.get(signature));
+	}
+
+	@Test
+	public void testMintingSkipsConflictingTransaction() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			PrivateKeyAccount bob = Common.getTestAccount(repository, "bob");
+
+			// Two payments that are valid individually, but not together
+			long amount = alice.getConfirmedBalance(Asset.QORT) * 6 / 10;
+
+			List<TransactionData> paymentsData = new ArrayList<>();
+			for (int i = 0; i < 2; ++i) {
+				TransactionData paymentData = new PaymentTransactionData(TestTransaction.generateBase(alice), bob.getAddress(), amount);
+				TransactionUtils.signAndImportValid(repository, paymentData, alice);
+				paymentsData.add(paymentData);
+			}
+
+			BlockUtils.mintBlock(repository);
+
+			// Only one payment should have been included in block
+			BlockData blockData = repository.getBlockRepository().getLastBlock();
+			assertEquals(1, blockData.getTransactionCount());
+			assertEquals(1, repository.getTransactionRepository().getUnconfirmedTransactions().size());
+
+			// Remaining payment should become valid once first payment is orphaned
+			BlockUtils.orphanLastBlock(repository);
+			BlockUtils.mintBlock(repository);
+			assertEquals(1, repository.getBlockRepository().getLastBlock().getTransactionCount());
+
+			BlockUtils.orphanLastBlock(repository);
+			TransactionUtils.deleteUnconfirmedTransactions(repository);
+		}
+	}
+
 	@Test
 	public void testCommonBlockSearch() {
 		// Given a list of block summaries, trim all trailing summaries after common block
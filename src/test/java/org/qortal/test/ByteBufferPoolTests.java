@@ -0,0 +1,156 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.network.ByteBufferPool;
+import org.qortal.network.message.HeightV2Message;
+import org.qortal.network.message.Message;
+import org.qortal.network.message.Message.MessageException;
+import org.qortal.network.message.PingMessage;
+import org.qortal.repository.DataException;
+import org.qortal.test.common.Common;
+import org.qortal.transform.block.BlockTransformer;
+
+public class ByteBufferPoolTests extends Common {
+
+	private static final Random RANDOM = new Random();
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@Test
+	public void testBorrowAndRelease() {
+		ByteBufferPool pool = new ByteBufferPool(new int[] { 1024, 8192 }, 4096);
+
+		ByteBuffer smallBuffer = pool.borrow(0);
+		assertTrue(smallBuffer.isDirect());
+		assertEquals(1024, smallBuffer.capacity());
+
+		assertEquals(8192, pool.borrow(1025).capacity());
+
+		try {
+			pool.borrow(8193);
+			fail("Shouldn't be able to borrow buffer larger than largest size class");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		// Released buffer should be reused, and cleared
+		smallBuffer.put(new byte[100]);
+		pool.release(smallBuffer);
+		assertEquals(1, pool.getIdleBufferCount());
+
+		ByteBuffer reusedBuffer = pool.borrow(0);
+		assertSame(smallBuffer, reusedBuffer);
+		assertEquals(0, reusedBuffer.position());
+		assertEquals(reusedBuffer.capacity(), reusedBuffer.limit());
+
+		// Idle buffers are limited to 4096 bytes per size class, or at least 1 buffer
+		for (int i = 0; i < 6; ++i)
+			pool.release(ByteBuffer.allocateDirect(1024));
+		for (int i = 0; i < 2; ++i)
+			pool.release(ByteBuffer.allocateDirect(8192));
+		assertEquals(4 + 1, pool.getIdleBufferCount());
+
+		// Buffers not from pool are ignored
+		pool.release(ByteBuffer.allocate(1024));
+		pool.release(ByteBuffer.allocateDirect(2048));
+		assertEquals(4 + 1, pool.getIdleBufferCount());
+	}
+
+	@Test
+	public void testEnlarge() {
+		ByteBufferPool pool = new ByteBufferPool(new int[] { 16, 64 }, 1024);
+
+		byte[] content = randomBytes(16);
+		ByteBuffer smallBuffer = pool.borrow(0);
+		smallBuffer.put(content);
+
+		ByteBuffer largeBuffer = pool.enlarge(smallBuffer);
+		assertEquals(64, largeBuffer.capacity());
+		assertEquals(content.length, largeBuffer.position());
+
+		byte[] enlargedContent = new byte[content.length];
+		largeBuffer.flip();
+		largeBuffer.get(enlargedContent);
+		assertArrayEquals(content, enlargedContent);
+
+		// Smaller buffer was returned to pool
+		assertEquals(1, pool.getIdleBufferCount());
+
+		// Can't enlarge largest size class
+		assertNull(pool.enlarge(largeBuffer));
+	}
+
+	@Test
+	public void testMessagesFromDirectBuffer() throws MessageException {
+		Message pingMessage = new PingMessage();
+		pingMessage.setId(1234);
+		byte[] pingBytes = pingMessage.toBytes();
+
+		byte[] signature = randomBytes(BlockTransformer.BLOCK_SIGNATURE_LENGTH);
+		byte[] minterPublicKey = randomBytes(32);
+		byte[] heightBytes = new HeightV2Message(100, signature, System.currentTimeMillis(), minterPublicKey).toBytes();
+
+		ByteBuffer byteBuffer = ByteBuffer.allocateDirect(pingBytes.length + heightBytes.length);
+
+		// Complete PING plus partial HEIGHT_V2
+		byteBuffer.put(pingBytes);
+		byteBuffer.put(heightBytes, 0, heightBytes.length - 1);
+		byteBuffer.flip();
+
+		Message message = Message.fromByteBuffer(byteBuffer);
+		assertTrue(message instanceof PingMessage);
+		assertEquals(1234, message.getId());
+		assertEquals(pingBytes.length, byteBuffer.position());
+
+		// Incomplete message leaves buffer position unchanged
+		assertNull(Message.fromByteBuffer(byteBuffer));
+		assertEquals(pingBytes.length, byteBuffer.position());
+
+		// Remainder of HEIGHT_V2
+		byteBuffer.compact();
+		byteBuffer.put(heightBytes, heightBytes.length - 1, 1);
+		byteBuffer.flip();
+
+		message = Message.fromByteBuffer(byteBuffer);
+		assertTrue(message instanceof HeightV2Message);
+		assertEquals(100, ((HeightV2Message) message).getHeight());
+		assertArrayEquals(signature, ((HeightV2Message) message).getSignature());
+		assertArrayEquals(minterPublicKey, ((HeightV2Message) message).getMinterPublicKey());
+		assertFalse(byteBuffer.hasRemaining());
+	}
+
+	@Test
+	public void testBadChecksum() throws MessageException {
+		byte[] heightBytes = new HeightV2Message(100, randomBytes(BlockTransformer.BLOCK_SIGNATURE_LENGTH), System.currentTimeMillis(), randomBytes(32)).toBytes();
+
+		// Corrupt last data byte
+		heightBytes[heightBytes.length - 1] ^= 0x01;
+
+		ByteBuffer byteBuffer = ByteBuffer.allocateDirect(heightBytes.length);
+		byteBuffer.put(heightBytes);
+		byteBuffer.flip();
+
+		try {
+			Message.fromByteBuffer(byteBuffer);
+			fail("Corrupted message should fail checksum");
+		} catch (MessageException e) {
+			// expected
+		}
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		RANDOM.nextBytes(bytes);
+		return bytes;
+	}
+
+}
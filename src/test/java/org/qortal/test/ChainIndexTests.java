@@ -0,0 +1,131 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.controller.ChainIndex;
+import org.qortal.data.block.BlockData;
+import org.qortal.data.block.BlockSummaryData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.test.common.BlockUtils;
+import org.qortal.test.common.Common;
+import org.qortal.utils.Base58;
+
+public class ChainIndexTests extends Common {
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		Common.orphanCheck();
+	}
+
+	@Test
+	public void testSync() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			for (int i = 0; i < 10; ++i)
+				BlockUtils.mintBlock(repository);
+
+			ChainIndex chainIndex = new ChainIndex();
+			assertNull(chainIndex.getSignaturesAfter(new byte[0], 10));
+
+			chainIndex.sync(repository);
+			assertIndexMatchesRepository(repository, chainIndex);
+		}
+	}
+
+	@Test
+	public void testNewAndOrphanedBlocks() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			ChainIndex chainIndex = new ChainIndex();
+			chainIndex.sync(repository);
+
+			for (int i = 0; i < 10; ++i) {
+				BlockUtils.mintBlock(repository);
+				chainIndex.onNewBlock(repository.getBlockRepository().getLastBlock());
+				assertIndexMatchesRepository(repository, chainIndex);
+			}
+
+			for (int i = 0; i < 5; ++i) {
+				BlockUtils.orphanLastBlock(repository);
+				chainIndex.onNewBlock(repository.getBlockRepository().getLastBlock());
+				assertIndexMatchesRepository(repository, chainIndex);
+			}
+
+			// Replace orphaned blocks with different ones
+			for (int i = 0; i < 5; ++i) {
+				BlockUtils.mintBlock(repository);
+				chainIndex.onNewBlock(repository.getBlockRepository().getLastBlock());
+				assertIndexMatchesRepository(repository, chainIndex);
+			}
+		}
+	}
+
+	@Test
+	public void testOutOfStep() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			ChainIndex chainIndex = new ChainIndex();
+			chainIndex.sync(repository);
+
+			// Orphan and re-mint several blocks without telling index, so index needs to resync
+			for (int i = 0; i < 5; ++i)
+				BlockUtils.mintBlock(repository);
+			chainIndex.onNewBlock(repository.getBlockRepository().getLastBlock());
+
+			BlockUtils.orphanBlocks(repository, 3);
+			for (int i = 0; i < 4; ++i)
+				BlockUtils.mintBlock(repository);
+
+			chainIndex.onNewBlock(repository.getBlockRepository().getLastBlock());
+			assertIndexMatchesRepository(repository, chainIndex);
+		}
+	}
+
+	private static void assertIndexMatchesRepository(Repository repository, ChainIndex chainIndex) throws DataException {
+		int height = repository.getBlockRepository().getBlockchainHeight();
+		assertEquals(height, chainIndex.getHeight());
+
+		BlockData genesisBlockData = repository.getBlockRepository().fromHeight(1);
+		assertArrayEquals(genesisBlockData.getReference(), chainIndex.getReference(1));
+
+		// Walk chain like peers do, starting from genesis block's reference
+		List<BlockSummaryData> blockSummaries = chainIndex.getBlockSummariesAfter(genesisBlockData.getReference(), height + 10);
+		List<byte[]> signatures = chainIndex.getSignaturesAfter(genesisBlockData.getReference(), height + 10);
+		assertEquals(height, blockSummaries.size());
+		assertEquals(height, signatures.size());
+
+		for (int i = 0; i < height; ++i) {
+			BlockData blockData = repository.getBlockRepository().fromHeight(i + 1);
+			BlockSummaryData blockSummary = blockSummaries.get(i);
+
+			assertEquals(i + 1, blockSummary.getHeight());
+			assertEquals(Base58.encode(blockData.getSignature()), Base58.encode(blockSummary.getSignature()));
+			assertEquals(Base58.encode(blockData.getSignature()), Base58.encode(signatures.get(i)));
+			assertArrayEquals(blockData.getMinterPublicKey(), blockSummary.getMinterPublicKey());
+			assertEquals(blockData.getOnlineAccountsCount(), blockSummary.getOnlineAccountsCount());
+			assertArrayEquals(blockData.getReference(), chainIndex.getReference(i + 1));
+
+			// Lookup from each block should return following blocks
+			List<byte[]> followingSignatures = chainIndex.getSignaturesAfter(blockData.getSignature(), 2);
+			assertEquals(Math.min(2, height - (i + 1)), followingSignatures.size());
+			if (!followingSignatures.isEmpty())
+				assertArrayEquals(repository.getBlockRepository().fromHeight(i + 2).getSignature(), followingSignatures.get(0));
+		}
+
+		// Unknown parent
+		byte[] unknownSignature = genesisBlockData.getSignature().clone();
+		unknownSignature[unknownSignature.length - 1] ^= 0x01;
+		assertEquals(new ArrayList<>(), chainIndex.getSignaturesAfter(unknownSignature, 10));
+	}
+
+}
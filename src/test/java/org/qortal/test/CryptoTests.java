@@ -10,6 +10,10 @@ import org.qortal.test.common.Common;
 import static org.junit.Assert.*;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
 
 import org.bitcoinj.core.Base58;
 import org.bouncycastle.crypto.agreement.X25519Agreement;
@@ -64,6 +68,57 @@ public class CryptoTests extends Common {
 		assertTrue(account.verify(signature, message));
 	}
 
+	@Test
+	public void testVerifyBatch() {
+		SecureRandom random = new SecureRandom();
+
+		final int batchSize = 100;
+		List<byte[]> publicKeys = new ArrayList<>();
+		List<byte[]> signatures = new ArrayList<>();
+		List<byte[]> messages = new ArrayList<>();
+
+		for (int i = 0; i < batchSize; ++i) {
+			byte[] privateKey = new byte[32];
+			random.nextBytes(privateKey);
+			PrivateKeyAccount account = new PrivateKeyAccount(null, privateKey);
+
+			byte[] message = new byte[64];
+			random.nextBytes(message);
+
+			publicKeys.add(account.getPublicKey());
+			signatures.add(account.sign(message));
+			messages.add(message);
+		}
+
+		assertTrue(Crypto.verifyBatch(publicKeys, signatures, messages).isEmpty());
+
+		// Small batch, verified serially
+		assertTrue(Crypto.verifyBatch(publicKeys.subList(0, 3), signatures.subList(0, 3), messages.subList(0, 3)).isEmpty());
+
+		// Corrupt a few signatures - all bad indexes should be reported in one pass
+		signatures.get(70)[0] ^= 0x01;
+		signatures.get(42)[10] ^= 0x01;
+		signatures.get(1)[20] ^= 0x01;
+
+		BitSet expectedInvalidIndexes = new BitSet();
+		expectedInvalidIndexes.set(1);
+		expectedInvalidIndexes.set(42);
+		expectedInvalidIndexes.set(70);
+		assertEquals(expectedInvalidIndexes, Crypto.verifyBatch(publicKeys, signatures, messages));
+
+		expectedInvalidIndexes = new BitSet();
+		expectedInvalidIndexes.set(70 - 43);
+		assertEquals(expectedInvalidIndexes, Crypto.verifyBatch(publicKeys.subList(43, batchSize), signatures.subList(43, batchSize), messages.subList(43, batchSize)));
+
+		// Small batch, verified serially
+		expectedInvalidIndexes = new BitSet();
+		expectedInvalidIndexes.set(1);
+		assertEquals(expectedInvalidIndexes, Crypto.verifyBatch(publicKeys.subList(0, 3), signatures.subList(0, 3), messages.subList(0, 3)));
+
+		// Empty batch is trivially valid
+		assertTrue(Crypto.verifyBatch(Collections.emptyList(), Collections.emptyList(), Collections.emptyList()).isEmpty());
+	}
+
 	@Test
 	public void testMassEd25519ToX25519() {
 		// Lots of random tests just in case of leading sign bit issues
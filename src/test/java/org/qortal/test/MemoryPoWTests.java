@@ -5,7 +5,14 @@ import org.qortal.crypto.MemoryPoW;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MemoryPoWTests {
 
@@ -109,4 +116,88 @@ public class MemoryPoWTests {
 		assertTrue(MemoryPoW.verify2(data, workBufferLength, difficulty, expectedNonce));
 	}
 
+	@Test
+	public void testReusedWorkBuffer() {
+		byte[] data = new byte[] { (byte) 0xaa, (byte) 0xbb, (byte) 0xcc };
+		long[] workBuffer = new long[workBufferLength / 8];
+
+		int difficulty = 8;
+		int expectedNonce = 326;
+		assertEquals(expectedNonce, (int) MemoryPoW.compute2(data, workBuffer, difficulty, () -> false));
+
+		// Buffer is dirty from previous use
+		assertTrue(MemoryPoW.verify2(data, workBuffer, difficulty, expectedNonce));
+		assertFalse(MemoryPoW.verify2(data, workBuffer, difficulty, expectedNonce - 1));
+	}
+
+	@Test
+	public void testAbandonedCompute() {
+		byte[] data = new byte[] { (byte) 0xaa, (byte) 0xbb, (byte) 0xcc };
+		long[] workBuffer = new long[workBufferLength / 8];
+
+		// Impossibly high difficulty, but give up after a few nonces
+		AtomicInteger checkCount = new AtomicInteger();
+		int nonce = MemoryPoW.compute2(data, workBuffer, 64, () -> checkCount.incrementAndGet() > 3);
+
+		assertEquals(-1, nonce);
+		assertEquals(4, checkCount.get());
+	}
+
+	@Test
+	public void testKnownParallelCompute() {
+		byte[] data = new byte[] { (byte) 0xaa, (byte) 0xbb, (byte) 0xcc };
+
+		// Parallel search should find same, lowest, nonce as sequential search, whatever the thread count
+		assertEquals(326, (int) MemoryPoW.compute2(data, workBufferLength, 8, 3));
+		assertEquals(11032, (int) MemoryPoW.compute2(data, workBufferLength, 14, 4));
+	}
+
+	@Test
+	public void testParallelComputeMatchesSequential() {
+		Random random = new Random();
+		byte[] data = new byte[256];
+		final int difficulty = 8;
+
+		for (int i = 0; i < 5; ++i) {
+			random.nextBytes(data);
+
+			int expectedNonce = MemoryPoW.compute2(data, workBufferLength, difficulty);
+			int nonce = MemoryPoW.compute2(data, workBufferLength, difficulty, 2 + i);
+
+			assertEquals(expectedNonce, nonce);
+			assertTrue(MemoryPoW.verify2(data, workBufferLength, difficulty, nonce));
+		}
+	}
+
+	@Test
+	public void testConcurrentParallelComputes() throws InterruptedException, ExecutionException {
+		final int computeCount = 4;
+		final int difficulty = 8;
+		final int threadCount = Runtime.getRuntime().availableProcessors() * 4;
+
+		Random random = new Random();
+		List<byte[]> dataList = new ArrayList<>();
+		for (int i = 0; i < computeCount; ++i) {
+			byte[] data = new byte[256];
+			random.nextBytes(data);
+			dataList.add(data);
+		}
+
+		ExecutorService callers = Executors.newFixedThreadPool(computeCount);
+		try {
+			List<Future<Integer>> nonces = new ArrayList<>();
+			for (byte[] data : dataList)
+				nonces.add(callers.submit(() -> MemoryPoW.compute2(data, workBufferLength, difficulty, threadCount)));
+
+			for (int i = 0; i < computeCount; ++i)
+				assertEquals(MemoryPoW.compute2(dataList.get(i), workBufferLength, difficulty), nonces.get(i).get());
+		} finally {
+			callers.shutdownNow();
+		}
+
+		// Concurrent computations, each asking for more threads than processors, shouldn't create more than one compute thread per processor
+		long computeThreadCount = Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().startsWith("MemoryPoW-")).count();
+		assertTrue(computeThreadCount <= Runtime.getRuntime().availableProcessors());
+	}
+
 }
@@ -0,0 +1,145 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.account.PrivateKeyAccount;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.test.common.BlockUtils;
+import org.qortal.test.common.Common;
+import org.qortal.test.common.TransactionUtils;
+import org.qortal.transaction.Transaction;
+import org.qortal.transaction.Transaction.TransactionType;
+import org.qortal.transform.TransformationException;
+import org.qortal.transform.transaction.TransactionTransformer;
+import org.qortal.utils.Base58;
+
+public class MempoolTests extends Common {
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@After
+	public void afterTest() throws DataException {
+		Common.orphanCheck();
+	}
+
+	@Test
+	public void testMempoolMatchesRepository() throws DataException, TransformationException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			PrivateKeyAccount bob = Common.getTestAccount(repository, "bob");
+
+			List<TransactionData> importedTransactions = new ArrayList<>();
+			importedTransactions.add(importPayment(repository, alice));
+			importedTransactions.add(importPayment(repository, bob));
+			importedTransactions.add(importPayment(repository, alice));
+
+			List<TransactionData> unconfirmedTransactions = repository.getTransactionRepository().getUnconfirmedTransactions();
+			assertEquals(importedTransactions.size(), unconfirmedTransactions.size());
+
+			// Mempool copies should match repository's copies, and be in timestamp order
+			for (int i = 0; i < unconfirmedTransactions.size(); ++i) {
+				TransactionData unconfirmedTransactionData = unconfirmedTransactions.get(i);
+				TransactionData repositoryTransactionData = repository.getTransactionRepository().fromSignature(unconfirmedTransactionData.getSignature());
+
+				assertEquals(Base58.encode(TransactionTransformer.toBytes(repositoryTransactionData)), Base58.encode(TransactionTransformer.toBytes(unconfirmedTransactionData)));
+				assertEquals(repositoryTransactionData.getApprovalStatus(), unconfirmedTransactionData.getApprovalStatus());
+
+				if (i > 0)
+					assertTrue(unconfirmedTransactions.get(i - 1).getTimestamp() <= unconfirmedTransactionData.getTimestamp());
+			}
+
+			// Newest first
+			List<byte[]> signatures = repository.getTransactionRepository().getUnconfirmedTransactionSignatures();
+			assertArrayEquals(unconfirmedTransactions.get(unconfirmedTransactions.size() - 1).getSignature(), signatures.get(0));
+
+			// Limit, offset, reverse
+			List<TransactionData> reversedTransactions = repository.getTransactionRepository().getUnconfirmedTransactions(1, 1, true);
+			assertEquals(1, reversedTransactions.size());
+			assertArrayEquals(unconfirmedTransactions.get(1).getSignature(), reversedTransactions.get(0).getSignature());
+
+			// By creator
+			assertEquals(2, repository.getTransactionRepository().getUnconfirmedTransactions(alice.getPublicKey()).size());
+			assertEquals(1, repository.getTransactionRepository().getUnconfirmedTransactions(bob.getPublicKey()).size());
+
+			// Counts by creator
+			assertEquals(2, repository.getTransactionRepository().countUnconfirmedTransactions(alice.getPublicKey(), TransactionType.CHAT));
+			assertEquals(0, repository.getTransactionRepository().countUnconfirmedTransactions(alice.getPublicKey(), TransactionType.PAYMENT));
+
+			// Expiry
+			long lastDeadline = Transaction.getDeadline(unconfirmedTransactions.get(unconfirmedTransactions.size() - 1));
+			assertTrue(repository.getTransactionRepository().getExpiredUnconfirmedTransactions(lastDeadline - 1).size() < unconfirmedTransactions.size());
+			assertEquals(unconfirmedTransactions.size(), repository.getTransactionRepository().getExpiredUnconfirmedTransactions(lastDeadline).size());
+
+			// Minting confirms all transactions
+			BlockUtils.mintBlock(repository);
+			assertTrue(repository.getTransactionRepository().getUnconfirmedTransactions().isEmpty());
+
+			// Orphaning returns them to mempool
+			BlockUtils.orphanLastBlock(repository);
+			assertEquals(importedTransactions.size(), repository.getTransactionRepository().getUnconfirmedTransactions().size());
+			assertEquals(2, repository.getTransactionRepository().countUnconfirmedTransactions(alice.getPublicKey(), TransactionType.CHAT));
+
+			TransactionUtils.deleteUnconfirmedTransactions(repository);
+			assertTrue(repository.getTransactionRepository().getUnconfirmedTransactions().isEmpty());
+		}
+	}
+
+	@Test
+	public void testUncommittedChanges() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository();
+				final Repository otherRepository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			TransactionData transactionData = importPayment(repository, alice);
+			byte[] signature = transactionData.getSignature();
+			assertTrue(repository.getTransactionRepository().exists(signature));
+
+			// Uncommitted deletion is only visible to deleting session
+			repository.getTransactionRepository().delete(transactionData);
+			assertTrue(repository.getTransactionRepository().getUnconfirmedTransactions().isEmpty());
+			assertFalse(repository.getTransactionRepository().exists(signature));
+			assertEquals(1, otherRepository.getTransactionRepository().getUnconfirmedTransactions().size());
+			assertTrue(otherRepository.getTransactionRepository().exists(signature));
+
+			// Rolled back changes are discarded
+			repository.discardChanges();
+			assertEquals(1, repository.getTransactionRepository().getUnconfirmedTransactions().size());
+
+			// Changes rolled back to savepoint are discarded
+			repository.setSavepoint();
+			repository.getTransactionRepository().delete(transactionData);
+			assertTrue(repository.getTransactionRepository().getUnconfirmedTransactions(alice.getPublicKey()).isEmpty());
+			assertEquals(0, repository.getTransactionRepository().countUnconfirmedTransactions(alice.getPublicKey(), TransactionType.CHAT));
+			assertEquals(1, otherRepository.getTransactionRepository().countUnconfirmedTransactions(alice.getPublicKey(), TransactionType.CHAT));
+			repository.rollbackToSavepoint();
+			assertEquals(1, repository.getTransactionRepository().getUnconfirmedTransactions(alice.getPublicKey()).size());
+			assertEquals(1, repository.getTransactionRepository().countUnconfirmedTransactions(alice.getPublicKey(), TransactionType.CHAT));
+
+			// Committed changes are visible to all sessions
+			repository.getTransactionRepository().delete(transactionData);
+			repository.saveChanges();
+			otherRepository.discardChanges();
+			assertTrue(otherRepository.getTransactionRepository().getUnconfirmedTransactions().isEmpty());
+			assertFalse(otherRepository.getTransactionRepository().exists(signature));
+			assertEquals(0, otherRepository.getTransactionRepository().countUnconfirmedTransactions(alice.getPublicKey(), TransactionType.CHAT));
+		}
+	}
+
+	private static TransactionData importPayment(Repository repository, PrivateKeyAccount sender) throws DataException {
+		TransactionData transactionData = TransactionUtils.randomTransaction(repository, sender, TransactionType.PAYMENT, true);
+		TransactionUtils.signAndImportValid(repository, transactionData, sender);
+		return transactionData;
+	}
+
+}
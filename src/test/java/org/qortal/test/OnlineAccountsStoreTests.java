@@ -0,0 +1,89 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.qortal.controller.Controller;
+import org.qortal.controller.OnlineAccountsStore;
+import org.qortal.data.network.OnlineAccountData;
+
+public class OnlineAccountsStoreTests {
+
+	private static final Random RANDOM = new Random();
+
+	@Test
+	public void testLatestEntryPerPublicKey() {
+		OnlineAccountsStore store = new OnlineAccountsStore();
+
+		final long timestamp = Controller.toOnlineAccountTimestamp(System.currentTimeMillis());
+		byte[] publicKey = randomBytes(32);
+
+		OnlineAccountData olderAccountData = new OnlineAccountData(timestamp - Controller.ONLINE_TIMESTAMP_MODULUS, randomBytes(64), publicKey);
+		OnlineAccountData newerAccountData = new OnlineAccountData(timestamp, randomBytes(64), publicKey);
+
+		assertTrue(store.addIfNewer(olderAccountData));
+		assertTrue(store.contains(olderAccountData));
+
+		assertTrue(store.addIfNewer(newerAccountData));
+		assertFalse(store.contains(olderAccountData));
+		assertTrue(store.contains(newerAccountData));
+
+		// Older, or same, timestamp shouldn't replace entry
+		assertFalse(store.addIfNewer(olderAccountData));
+		assertFalse(store.addIfNewer(new OnlineAccountData(timestamp, randomBytes(64), publicKey)));
+		assertTrue(store.contains(newerAccountData));
+		assertEquals(1, store.size());
+
+		// Same timestamp & public key, but different signature
+		assertFalse(store.contains(new OnlineAccountData(timestamp, randomBytes(64), publicKey)));
+	}
+
+	@Test
+	public void testSnapshotsAndExpiry() {
+		OnlineAccountsStore store = new OnlineAccountsStore();
+
+		final long timestamp = Controller.toOnlineAccountTimestamp(System.currentTimeMillis());
+
+		OnlineAccountData[] onlineAccounts = new OnlineAccountData[6];
+		for (int i = 0; i < onlineAccounts.length; ++i) {
+			// Two accounts per online timestamp, oldest first
+			long accountTimestamp = timestamp - (2 - i / 2) * Controller.ONLINE_TIMESTAMP_MODULUS;
+			onlineAccounts[i] = new OnlineAccountData(accountTimestamp, randomBytes(64), randomBytes(32));
+			store.addIfNewer(onlineAccounts[i]);
+		}
+
+		assertEquals(onlineAccounts.length, store.getAll().size());
+		assertEquals(2, store.getByTimestamp(timestamp).size());
+
+		// Exclude one account, plus one with right public key but wrong timestamp
+		List<OnlineAccountData> excludeAccounts = Arrays.asList(onlineAccounts[0],
+				new OnlineAccountData(timestamp, onlineAccounts[1].getSignature(), onlineAccounts[1].getPublicKey()));
+		List<OnlineAccountData> remainingAccounts = store.getAllExcept(excludeAccounts);
+		assertEquals(onlineAccounts.length - 1, remainingAccounts.size());
+		assertFalse(remainingAccounts.contains(onlineAccounts[0]));
+
+		// Expire oldest two accounts
+		List<OnlineAccountData> expiredAccounts = store.removeExpired(timestamp - Controller.ONLINE_TIMESTAMP_MODULUS);
+		assertEquals(2, expiredAccounts.size());
+		assertEquals(onlineAccounts.length - 2, store.getAll().size());
+		assertFalse(store.contains(onlineAccounts[0]));
+		assertFalse(store.contains(onlineAccounts[1]));
+		assertTrue(store.contains(onlineAccounts[2]));
+
+		// Cutoff mid-bucket
+		expiredAccounts = store.removeExpired(timestamp + 1);
+		assertEquals(4, expiredAccounts.size());
+		assertTrue(store.getAll().isEmpty());
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		RANDOM.nextBytes(bytes);
+		return bytes;
+	}
+
+}
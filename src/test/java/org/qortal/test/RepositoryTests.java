@@ -3,18 +3,30 @@ package org.qortal.test;
 import org.junit.Before;
 import org.junit.Test;
 import org.qortal.account.Account;
+import org.qortal.account.PrivateKeyAccount;
 import org.qortal.asset.Asset;
 import org.qortal.crosschain.BTCACCT;
 import org.qortal.crypto.Crypto;
+import org.qortal.data.block.BlockData;
+import org.qortal.data.network.PeerData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.network.PeerAddress;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryManager;
+import org.qortal.repository.hsqldb.HSQLDBChainDataCache;
+import org.qortal.repository.hsqldb.HSQLDBQuery;
 import org.qortal.repository.hsqldb.HSQLDBRepository;
+import org.qortal.repository.hsqldb.HSQLDBRepositoryFactory;
+import org.qortal.repository.hsqldb.HSQLDBSaver;
 import org.qortal.test.common.BlockUtils;
 import org.qortal.test.common.Common;
+import org.qortal.test.common.TransactionUtils;
+import org.qortal.transaction.Transaction.TransactionType;
 
 import static org.junit.Assert.*;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -309,6 +321,268 @@ public class RepositoryTests extends Common {
 		}
 	}
 
+	/** Test prepared statements are reused by later sessions, and that sessions' uncommitted changes don't leak into later sessions */
+	@Test
+	public void testStatementCacheAcrossSessions() throws DataException, SQLException {
+		// Dedicated repository, so we know the same pooled connection is reused
+		HSQLDBRepositoryFactory repositoryFactory = new HSQLDBRepositoryFactory("jdbc:hsqldb:mem:statementCacheTest");
+
+		try {
+			final String sql = "SELECT COUNT(*) FROM Peers";
+			final PeerData peerData = new PeerData(PeerAddress.fromString("127.0.0.1:12392"));
+
+			try (final HSQLDBRepository hsqldb = (HSQLDBRepository) repositoryFactory.getRepository()) {
+				// ResultSet deliberately left open, as is typical
+				ResultSet resultSet = hsqldb.checkedExecute(sql);
+				assertEquals(0, resultSet.getInt(1));
+
+				// Uncommitted, so should be discarded when session is released
+				hsqldb.getNetworkRepository().save(peerData);
+
+				LOGGER.warn("Expect \"uncommitted changes\" complaint below");
+			}
+
+			final long missesBefore = repositoryFactory.getStatementCacheMisses();
+			final long hitsBefore = repositoryFactory.getStatementCacheHits();
+
+			try (final HSQLDBRepository hsqldb = (HSQLDBRepository) repositoryFactory.getRepository()) {
+				ResultSet resultSet = hsqldb.checkedExecute(sql);
+				assertEquals("Uncommitted change from earlier session still present", 0, resultSet.getInt(1));
+
+				hsqldb.getNetworkRepository().save(peerData);
+				hsqldb.saveChanges();
+			}
+
+			assertEquals("Statements should have been reused", missesBefore, repositoryFactory.getStatementCacheMisses());
+			assertTrue(repositoryFactory.getStatementCacheHits() > hitsBefore);
+
+			try (final Repository repository = repositoryFactory.getRepository()) {
+				assertEquals(1, repository.getNetworkRepository().getAllPeers().size());
+			}
+		} finally {
+			repositoryFactory.close();
+		}
+	}
+
+	@Test
+	public void testTypedQueries() throws DataException, SQLException {
+		final HSQLDBQuery insertQuery = new HSQLDBQuery("INSERT INTO typedtest (id, amount, data) VALUES (?, ?, ?)");
+		final HSQLDBQuery selectQuery = new HSQLDBQuery("SELECT id, amount, data FROM typedtest WHERE id >= ? ORDER BY id");
+		final HSQLDBQuery.RowMapper<Object[]> rowMapper = resultSet -> new Object[] { resultSet.getInt(1), resultSet.getLong(2), resultSet.getBytes(3) };
+
+		try (final HSQLDBRepository hsqldb = (HSQLDBRepository) RepositoryManager.getRepository()) {
+			hsqldb.prepareStatement("DROP TABLE IF EXISTS typedtest").execute();
+			hsqldb.prepareStatement("CREATE TABLE typedtest (id INT NOT NULL, amount BIGINT NOT NULL, data VARBINARY(8), PRIMARY KEY(id))").execute();
+
+			for (int i = 1; i <= 3; ++i) {
+				final int id = i;
+
+				// checkedExecute() only returns ResultSets, so bind and execute INSERT directly
+				PreparedStatement preparedStatement = hsqldb.prepareStatement(insertQuery.getSql());
+				preparedStatement.setInt(1, id);
+				preparedStatement.setLong(2, id * 10_000_000_000L);
+				preparedStatement.setBytes(3, new byte[] { (byte) id });
+				preparedStatement.execute();
+			}
+
+			Object[] row = hsqldb.fetchOne(selectQuery, HSQLDBQuery.bindInt(2), rowMapper);
+			assertNotNull(row);
+			assertEquals(2, row[0]);
+			assertEquals(20_000_000_000L, row[1]);
+			assertArrayEquals(new byte[] { 2 }, (byte[]) row[2]);
+
+			List<Object[]> rows = hsqldb.fetchAll(selectQuery, HSQLDBQuery.bindInt(2), rowMapper);
+			assertEquals(2, rows.size());
+			assertEquals(3, rows.get(1)[0]);
+
+			assertNull(hsqldb.fetchOne(selectQuery, HSQLDBQuery.bindInt(4), rowMapper));
+			assertTrue(hsqldb.fetchAll(selectQuery, HSQLDBQuery.bindInt(4), rowMapper).isEmpty());
+		}
+	}
+
+	@Test
+	public void testBatchedSaves() throws DataException, SQLException {
+		try (final HSQLDBRepository hsqldb = (HSQLDBRepository) RepositoryManager.getRepository()) {
+			hsqldb.prepareStatement("DROP TABLE IF EXISTS batchtest").execute();
+			hsqldb.prepareStatement("CREATE TABLE batchtest (id INT NOT NULL, counter INT NOT NULL, PRIMARY KEY(id))").execute();
+			hsqldb.saveChanges();
+
+			for (int i = 1; i <= 10; ++i)
+				new HSQLDBSaver("batchtest").bind("id", i).bind("counter", i).batch(hsqldb);
+
+			// Later save to same row, in same batch, should win
+			new HSQLDBSaver("batchtest").bind("id", 1).bind("counter", 100).batch(hsqldb);
+
+			// Queued saves should be visible to queries
+			ResultSet resultSet = hsqldb.checkedExecute("SELECT COUNT(*), SUM(counter) FROM batchtest");
+			assertEquals(10, resultSet.getInt(1));
+			assertEquals(100 + 54, resultSet.getInt(2));
+
+			hsqldb.setSavepoint();
+
+			new HSQLDBSaver("batchtest").bind("id", 11).bind("counter", 11).batch(hsqldb);
+
+			// Save queued since savepoint should be discarded, never having been executed
+			hsqldb.rollbackToSavepoint();
+
+			hsqldb.saveChanges();
+
+			resultSet = hsqldb.checkedExecute("SELECT COUNT(*) FROM batchtest");
+			assertEquals(10, resultSet.getInt(1));
+
+			// Saves queued just before commit should be executed
+			new HSQLDBSaver("batchtest").bind("id", 12).bind("counter", 12).batch(hsqldb);
+			hsqldb.saveChanges();
+		}
+
+		try (final HSQLDBRepository hsqldb = (HSQLDBRepository) RepositoryManager.getRepository()) {
+			assertTrue(hsqldb.exists("batchtest", "id = ?", 12));
+		}
+	}
+
+	/** Test errors from queued saves identify failing save, as they're thrown by whichever statement happens next */
+	@Test
+	public void testBatchedSaveError() throws DataException, SQLException {
+		try (final HSQLDBRepository hsqldb = (HSQLDBRepository) RepositoryManager.getRepository()) {
+			hsqldb.prepareStatement("DROP TABLE IF EXISTS batcherrortest").execute();
+			hsqldb.prepareStatement("CREATE TABLE batcherrortest (id INT NOT NULL, name VARCHAR(4) NOT NULL, PRIMARY KEY(id))").execute();
+			hsqldb.saveChanges();
+
+			new HSQLDBSaver("batcherrortest").bind("id", 1).bind("name", "ok").batch(hsqldb);
+			new HSQLDBSaver("batcherrortest").bind("id", 2).bind("name", "ok").batch(hsqldb);
+			new HSQLDBSaver("batcherrortest").bind("id", 3).bind("name", "too long").batch(hsqldb);
+			new HSQLDBSaver("batcherrortest").bind("id", 4).bind("name", "ok").batch(hsqldb);
+
+			try {
+				hsqldb.checkedExecute("SELECT COUNT(*) FROM batcherrortest");
+				fail("Queued save should have failed");
+			} catch (SQLException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("Queued save 3 of 4 into batcherrortest"));
+			}
+
+			hsqldb.discardChanges();
+		}
+	}
+
+	/** Test confirmed blocks and transactions are served from shared cache, and orphaned blocks are removed from it */
+	@Test
+	public void testChainDataCache() throws DataException {
+		HSQLDBChainDataCache chainDataCache = ((HSQLDBRepositoryFactory) RepositoryManager.getRepositoryFactory()).getChainDataCache();
+
+		byte[] transactionSignature = mintPayment();
+
+		byte[] blockSignature;
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			BlockData blockData = repository.getBlockRepository().fromHeight(2);
+			assertNotNull(blockData);
+			blockSignature = blockData.getSignature();
+
+			// Modifying returned copies shouldn't affect cached block or transaction
+			blockData.setTransactionCount(9999);
+
+			TransactionData transactionData = repository.getTransactionRepository().fromSignature(transactionSignature);
+			assertNotNull(transactionData);
+			transactionData.setBlockHeight(9999);
+		}
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			long hits = chainDataCache.getHits();
+
+			BlockData blockData = repository.getBlockRepository().fromSignature(blockSignature);
+			assertNotNull(blockData);
+			assertFalse(blockData.getTransactionCount() == 9999);
+
+			assertNotNull(repository.getBlockRepository().fromHeight(2));
+
+			TransactionData transactionData = repository.getTransactionRepository().fromSignature(transactionSignature);
+			assertNotNull(transactionData);
+			assertEquals(Integer.valueOf(2), transactionData.getBlockHeight());
+
+			assertEquals(hits + 3, chainDataCache.getHits());
+
+			BlockUtils.orphanLastBlock(repository);
+		}
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			assertNull(repository.getBlockRepository().fromSignature(blockSignature));
+			assertNull(repository.getBlockRepository().fromHeight(2));
+
+			// Orphaned transaction should be unconfirmed, not served from cache as confirmed
+			TransactionData transactionData = repository.getTransactionRepository().fromSignature(transactionSignature);
+			assertNotNull(transactionData);
+			assertNull(transactionData.getBlockHeight());
+		}
+	}
+
+	/** Test importing unconfirmed transactions doesn't stop other sessions using shared cache */
+	@Test
+	public void testChainDataCacheImport() throws DataException {
+		HSQLDBChainDataCache chainDataCache = ((HSQLDBRepositoryFactory) RepositoryManager.getRepositoryFactory()).getChainDataCache();
+
+		byte[] transactionSignature = mintPayment();
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			// Populate cache, if not already
+			assertNotNull(repository.getTransactionRepository().fromSignature(transactionSignature));
+
+			try (final Repository otherRepository = RepositoryManager.getRepository()) {
+				PrivateKeyAccount bob = Common.getTestAccount(otherRepository, "bob");
+				TransactionData transactionData = TransactionUtils.randomTransaction(otherRepository, bob, TransactionType.PAYMENT, true);
+				TransactionUtils.signAndImportValid(otherRepository, transactionData, bob);
+			}
+
+			long hits = chainDataCache.getHits();
+			assertNotNull(repository.getTransactionRepository().fromSignature(transactionSignature));
+			assertEquals(hits + 1, chainDataCache.getHits());
+		}
+	}
+
+	/** Test session isn't served cached blocks or confirmations newer than its snapshot */
+	@Test
+	public void testChainDataCacheSnapshot() throws DataException {
+		byte[] transactionSignature;
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			TransactionData transactionData = TransactionUtils.randomTransaction(repository, alice, TransactionType.PAYMENT, true);
+			TransactionUtils.signAndImportValid(repository, transactionData, alice);
+
+			transactionSignature = transactionData.getSignature();
+		}
+
+		try (final Repository olderRepository = RepositoryManager.getRepository()) {
+			// Start older session's snapshot
+			final int height = olderRepository.getBlockRepository().getBlockchainHeight();
+			assertNull(olderRepository.getTransactionRepository().fromSignature(transactionSignature).getBlockHeight());
+
+			// Confirm transaction in new block
+			try (final Repository repository = RepositoryManager.getRepository()) {
+				BlockUtils.mintBlock(repository);
+			}
+
+			// Newer session caches new block and confirmed transaction
+			try (final Repository repository = RepositoryManager.getRepository()) {
+				assertNotNull(repository.getBlockRepository().fromHeight(height + 1));
+				assertEquals(Integer.valueOf(height + 1), repository.getTransactionRepository().fromSignature(transactionSignature).getBlockHeight());
+			}
+
+			// Older session still shouldn't see new block, or confirmation
+			assertEquals(height, olderRepository.getBlockRepository().getBlockchainHeight());
+			assertNull(olderRepository.getBlockRepository().fromHeight(height + 1));
+			assertNull(olderRepository.getTransactionRepository().fromSignature(transactionSignature).getBlockHeight());
+		}
+	}
+
+	/** Mints block containing payment, returning payment's signature. */
+	private static byte[] mintPayment() throws DataException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+			TransactionData transactionData = TransactionUtils.randomTransaction(repository, alice, TransactionType.PAYMENT, true);
+			TransactionUtils.signAndMint(repository, transactionData, alice);
+
+			return transactionData.getSignature();
+		}
+	}
+
 	public static void hsqldbSleep(int millis) throws SQLException {
 		System.out.println(String.format("HSQLDB sleep() thread ID: %s", Thread.currentThread().getId()));
 
@@ -0,0 +1,88 @@
+package org.qortal.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.qortal.utils.RollingBloomFilter;
+
+public class RollingBloomFilterTests {
+
+	private static final Random RANDOM = new Random();
+
+	@Test
+	public void testNoFalseNegatives() {
+		final int entriesPerGeneration = 1000;
+		RollingBloomFilter filter = new RollingBloomFilter(entriesPerGeneration, 0.001);
+
+		List<byte[]> entries = new ArrayList<>();
+		for (int i = 0; i < entriesPerGeneration; ++i) {
+			byte[] entry = randomBytes(64);
+			filter.add(entry);
+			entries.add(entry);
+		}
+
+		for (byte[] entry : entries)
+			assertTrue(filter.mightContain(entry));
+
+		// Starting next generation shouldn't forget previous generation
+		filter.add(randomBytes(64));
+
+		for (byte[] entry : entries)
+			assertTrue(filter.mightContain(entry));
+	}
+
+	@Test
+	public void testFalsePositiveRate() {
+		final int entriesPerGeneration = 1000;
+		RollingBloomFilter filter = new RollingBloomFilter(entriesPerGeneration, 0.01);
+
+		// Fill both generations
+		for (int i = 0; i < entriesPerGeneration * 2; ++i)
+			filter.add(randomBytes(64));
+
+		int falsePositiveCount = 0;
+		final int trials = 10_000;
+		for (int i = 0; i < trials; ++i)
+			if (filter.mightContain(randomBytes(64)))
+				++falsePositiveCount;
+
+		// Two full generations give up to roughly twice the per-generation rate, so allow generous margin
+		assertTrue(String.format("Too many false positives: %d", falsePositiveCount), falsePositiveCount < trials * 0.05);
+	}
+
+	@Test
+	public void testOldestGenerationForgotten() {
+		final int entriesPerGeneration = 100;
+		RollingBloomFilter filter = new RollingBloomFilter(entriesPerGeneration, 0.001);
+
+		List<byte[]> oldEntries = new ArrayList<>();
+		for (int i = 0; i < entriesPerGeneration; ++i) {
+			byte[] entry = randomBytes(64);
+			filter.add(entry);
+			oldEntries.add(entry);
+		}
+
+		// Two more generations push out the first
+		for (int i = 0; i < entriesPerGeneration * 2; ++i)
+			filter.add(randomBytes(64));
+
+		int rememberedCount = 0;
+		for (byte[] entry : oldEntries)
+			if (filter.mightContain(entry))
+				++rememberedCount;
+
+		// Only false positives should remain
+		assertTrue(String.format("Too many old entries remembered: %d", rememberedCount), rememberedCount < 10);
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		RANDOM.nextBytes(bytes);
+		return bytes;
+	}
+
+}
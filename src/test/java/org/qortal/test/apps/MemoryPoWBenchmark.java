@@ -0,0 +1,113 @@
+package org.qortal.test.apps;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.qortal.crypto.MemoryPoW;
+import org.qortal.transaction.ChatTransaction;
+import org.qortal.transaction.MessageTransaction;
+
+/**
+ * Benchmarks MemoryPoW compute and verify at production buffer sizes and difficulties.
+ * <p>
+ * Each case is run for some warm-up iterations, so the JIT has compiled the hot loops, before being timed.
+ * Garbage collections during timed iterations are reported too, as work buffers should be reused, not reallocated.
+ */
+public class MemoryPoWBenchmark {
+
+	private static final int HANDSHAKE_BUFFER_SIZE = 2 * 1024 * 1024; // bytes
+	private static final int HANDSHAKE_DIFFICULTY = 2; // leading zero bits
+
+	private static final int WARMUP_ITERATIONS = 5;
+
+	private interface Operation {
+		void run(byte[] data);
+	}
+
+	private static final Random RANDOM = new Random();
+
+	public static void main(String[] args) {
+		if (args.length > 1) {
+			System.err.println("usage: MemoryPoWBenchmark [<iterations>]");
+			System.exit(2);
+		}
+
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+		benchmark("handshake compute", iterations,
+				data -> MemoryPoW.compute2(data, HANDSHAKE_BUFFER_SIZE, HANDSHAKE_DIFFICULTY));
+
+		benchmarkVerify("handshake verify", iterations, HANDSHAKE_BUFFER_SIZE, HANDSHAKE_DIFFICULTY);
+
+		benchmark("chat compute (with QORT)", iterations,
+				data -> MemoryPoW.compute2(data, ChatTransaction.POW_BUFFER_SIZE, ChatTransaction.POW_DIFFICULTY_WITH_QORT));
+
+		benchmarkVerify("chat verify (with QORT)", iterations, ChatTransaction.POW_BUFFER_SIZE, ChatTransaction.POW_DIFFICULTY_WITH_QORT);
+
+		// Computing at higher difficulty takes tens of seconds per nonce, so only verify is benchmarked
+		benchmarkVerify("chat verify (no QORT)", iterations, ChatTransaction.POW_BUFFER_SIZE, ChatTransaction.POW_DIFFICULTY_NO_QORT);
+
+		benchmarkVerify("message verify", iterations, MessageTransaction.POW_BUFFER_SIZE, MessageTransaction.POW_DIFFICULTY);
+	}
+
+	/**
+	 * Benchmarks verifying nonces.
+	 * <p>
+	 * Verification costs the same whether or not nonce is valid, so rather than spend minutes computing
+	 * valid nonces at higher difficulties, random nonces of the typical magnitude for the difficulty are used.
+	 */
+	private static void benchmarkVerify(String name, int iterations, int workBufferLength, int difficulty) {
+		benchmark(name, iterations, data -> MemoryPoW.verify2(data, workBufferLength, difficulty, RANDOM.nextInt(2 << difficulty)));
+	}
+
+	private static void benchmark(String name, int iterations, Operation operation) {
+		for (int i = 0; i < WARMUP_ITERATIONS; ++i)
+			operation.run(randomData());
+
+		long gcCountBefore = getGcCount();
+
+		long[] times = new long[iterations];
+		for (int i = 0; i < iterations; ++i) {
+			byte[] data = randomData();
+
+			long startTime = System.nanoTime();
+			operation.run(data);
+			times[i] = System.nanoTime() - startTime;
+		}
+
+		long gcCount = getGcCount() - gcCountBefore;
+
+		double sum = 0;
+		double sumOfSquares = 0;
+		long maxTime = 0;
+		for (long time : times) {
+			double timeMs = time / 1_000_000.0;
+			sum += timeMs;
+			sumOfSquares += timeMs * timeMs;
+			maxTime = Math.max(maxTime, time);
+		}
+
+		double mean = sum / iterations;
+		double stddev = iterations > 1 ? Math.sqrt((sumOfSquares - iterations * mean * mean) / (iterations - 1)) : 0.0;
+
+		System.out.println(String.format("%s: %d iterations, mean: %.2f ms, stddev: %.2f ms, max: %.2f ms, GCs: %d",
+				name, iterations, mean, stddev, maxTime / 1_000_000.0, gcCount));
+	}
+
+	private static byte[] randomData() {
+		byte[] data = new byte[256];
+		RANDOM.nextBytes(data);
+		return data;
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+
+		for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gcBean.getCollectionCount());
+
+		return count;
+	}
+
+}
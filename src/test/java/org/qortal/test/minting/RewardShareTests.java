@@ -2,6 +2,11 @@ package org.qortal.test.minting;
 
 import static org.junit.Assert.*;
 
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -11,6 +16,7 @@ import org.qortal.data.transaction.TransactionData;
 import org.qortal.repository.DataException;
 import org.qortal.repository.Repository;
 import org.qortal.repository.RepositoryManager;
+import org.qortal.repository.hsqldb.HSQLDBRepository;
 import org.qortal.test.common.AccountUtils;
 import org.qortal.test.common.BlockUtils;
 import org.qortal.test.common.Common;
@@ -111,6 +117,77 @@ public class RewardShareTests extends Common {
 		}
 	}
 
+	@Test
+	public void testRewardShareIndex() throws DataException, SQLException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			assertRewardShareIndexMatchesTable(repository);
+
+			AccountUtils.rewardShare(repository, "alice", "bob", 12_80);
+			AccountUtils.rewardShare(repository, "alice", "chloe", 5_00);
+			AccountUtils.rewardShare(repository, "alice", "dilbert", 50_00);
+			assertRewardShareIndexMatchesTable(repository);
+
+			// Uncommitted changes, including those rolled back to savepoint
+			PrivateKeyAccount aliceAccount = Common.getTestAccount(repository, "alice");
+			PrivateKeyAccount chloeAccount = Common.getTestAccount(repository, "chloe");
+			PrivateKeyAccount dilbertAccount = Common.getTestAccount(repository, "dilbert");
+			repository.setSavepoint();
+			repository.getAccountRepository().delete(aliceAccount.getPublicKey(), chloeAccount.getAddress());
+			assertRewardShareIndexMatchesTable(repository);
+			repository.getAccountRepository().delete(aliceAccount.getPublicKey(), dilbertAccount.getAddress());
+			assertRewardShareIndexMatchesTable(repository);
+			repository.rollbackToSavepoint();
+			assertRewardShareIndexMatchesTable(repository);
+
+			// Cancel reward-share
+			AccountUtils.rewardShare(repository, "alice", "chloe", CANCEL_SHARE_PERCENT);
+			assertRewardShareIndexMatchesTable(repository);
+
+			// Orphaning restores index
+			for (int i = 0; i < 4; ++i) {
+				BlockUtils.orphanLastBlock(repository);
+				assertRewardShareIndexMatchesTable(repository);
+			}
+
+			// Index shared with other sessions
+			try (final Repository otherRepository = RepositoryManager.getRepository()) {
+				assertRewardShareIndexMatchesTable(otherRepository);
+			}
+		}
+	}
+
+	private static void assertRewardShareIndexMatchesTable(Repository repository) throws DataException, SQLException {
+		String sql = "SELECT reward_share_public_key, share_percent FROM RewardShares ORDER BY reward_share_public_key";
+
+		List<byte[]> rewardSharePublicKeys = new ArrayList<>();
+		List<Integer> sharePercents = new ArrayList<>();
+		try (ResultSet resultSet = ((HSQLDBRepository) repository).checkedExecute(sql)) {
+			if (resultSet != null)
+				do {
+					rewardSharePublicKeys.add(resultSet.getBytes(1));
+					sharePercents.add(resultSet.getInt(2));
+				} while (resultSet.next());
+		}
+
+		int[] indexes = new int[rewardSharePublicKeys.size()];
+		for (int i = 0; i < indexes.length; ++i) {
+			indexes[i] = i;
+
+			assertEquals(Integer.valueOf(i), repository.getAccountRepository().getRewardShareIndex(rewardSharePublicKeys.get(i)));
+
+			RewardShareData rewardShareData = repository.getAccountRepository().getRewardShareByIndex(i);
+			assertEquals(Base58.encode(rewardSharePublicKeys.get(i)), Base58.encode(rewardShareData.getRewardSharePublicKey()));
+			assertEquals(sharePercents.get(i).intValue(), rewardShareData.getSharePercent());
+		}
+
+		List<RewardShareData> indexedRewardShares = repository.getAccountRepository().getRewardSharesByIndexes(indexes);
+		assertEquals(indexes.length, indexedRewardShares.size());
+
+		// Out of bounds
+		assertNull(repository.getAccountRepository().getRewardShareByIndex(indexes.length));
+		assertNull(repository.getAccountRepository().getRewardSharesByIndexes(new int[] { 0, indexes.length }));
+	}
+
 	@Test
 	public void testNegativeInitialShareInvalid() throws DataException {
 		try (final Repository repository = RepositoryManager.getRepository()) {
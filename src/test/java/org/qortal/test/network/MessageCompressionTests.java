@@ -0,0 +1,209 @@
+package org.qortal.test.network;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.account.PrivateKeyAccount;
+import org.qortal.block.Block;
+import org.qortal.controller.Controller;
+import org.qortal.crypto.Crypto;
+import org.qortal.data.block.BlockData;
+import org.qortal.data.network.PeerData;
+import org.qortal.data.transaction.TransactionData;
+import org.qortal.network.Handshake;
+import org.qortal.network.Peer;
+import org.qortal.network.PeerAddress;
+import org.qortal.network.message.BlockMessage;
+import org.qortal.network.message.CachedBlockMessage;
+import org.qortal.network.message.HelloMessage;
+import org.qortal.network.message.Message;
+import org.qortal.network.message.Message.MessageException;
+import org.qortal.repository.DataException;
+import org.qortal.repository.Repository;
+import org.qortal.repository.RepositoryManager;
+import org.qortal.test.common.BlockUtils;
+import org.qortal.test.common.Common;
+import org.qortal.test.common.TransactionUtils;
+import org.qortal.transaction.Transaction.TransactionType;
+import org.qortal.transform.TransformationException;
+import org.qortal.utils.NTP;
+import org.qortal.utils.Serialization;
+
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+public class MessageCompressionTests extends Common {
+
+	// MAGIC(4) + TYPE(4) + FLAGS(1) + ID(4) + DATA-SIZE(4) + CHECKSUM(4) + DATA(*)
+	private static final int FLAGS_OFFSET = 4 + 4;
+	private static final int CHECKSUM_OFFSET = FLAGS_OFFSET + 1 + 4 + 4;
+	private static final int DATA_OFFSET = CHECKSUM_OFFSET + 4;
+	private static final int FLAG_COMPRESSED = 0x02;
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@Test
+	public void testCompressedBlockMessage() throws DataException, MessageException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			Block block = mintCompressibleBlock(repository);
+			BlockData blockData = block.getBlockData();
+
+			Message blockMessage = new BlockMessage(block);
+			blockMessage.setId(1234);
+
+			byte[] uncompressedBytes = blockMessage.toBytes(false);
+			byte[] compressedBytes = blockMessage.toBytes(true);
+			assertTrue(compressedBytes.length < uncompressedBytes.length);
+			assertFalse(isCompressed(uncompressedBytes));
+			assertTrue(isCompressed(compressedBytes));
+
+			// Cached block messages should compress the same way
+			Message cachedBlockMessage = new CachedBlockMessage(CachedBlockMessage.toCacheableBytes(block));
+			cachedBlockMessage.setId(1234);
+			assertArrayEquals(compressedBytes, cachedBlockMessage.toBytes(true));
+
+			// Compressed message should decode to same block
+			BlockMessage decodedMessage = (BlockMessage) Message.fromByteBuffer(ByteBuffer.wrap(compressedBytes));
+			assertEquals(1234, decodedMessage.getId());
+			assertArrayEquals(blockData.getSignature(), decodedMessage.getBlockData().getSignature());
+			assertEquals(blockData.getTransactionCount(), decodedMessage.getTransactions().size());
+
+			// Corrupted compressed data should be rejected, not decoded as garbage
+			compressedBytes[compressedBytes.length - 1] ^= 0x01;
+			assertNotDecodable("Corrupted compressed message should not decode", compressedBytes);
+		}
+	}
+
+	@Test
+	public void testInflatedLengthGuard() throws DataException, MessageException {
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			Block block = mintCompressibleBlock(repository);
+
+			Message blockMessage = new BlockMessage(block);
+			blockMessage.setId(1234);
+
+			byte[] compressedBytes = blockMessage.toBytes(true);
+			assertTrue(isCompressed(compressedBytes));
+
+			int uncompressedLength = Ints.fromByteArray(Arrays.copyOfRange(compressedBytes, DATA_OFFSET, DATA_OFFSET + 4));
+
+			// Declared uncompressed length larger than max message size should be rejected before inflating
+			assertNotDecodable("Oversized declared length should be rejected", withUncompressedLength(compressedBytes, 1024 * 1024 + 1));
+			assertNotDecodable("Negative declared length should be rejected", withUncompressedLength(compressedBytes, -1));
+
+			// Inflated data must match declared length exactly
+			assertNotDecodable("Short declared length should be rejected", withUncompressedLength(compressedBytes, uncompressedLength - 1));
+			assertNotDecodable("Long declared length should be rejected", withUncompressedLength(compressedBytes, uncompressedLength + 1));
+
+			// Sanity check that re-checksummed, but otherwise unmodified, message still decodes
+			assertNotNull(Message.fromByteBuffer(ByteBuffer.wrap(withUncompressedLength(compressedBytes, uncompressedLength))));
+		}
+	}
+
+	@Test
+	public void testHelloCapabilities() throws MessageException, TransformationException, IOException {
+		final long timestamp = NTP.getTime();
+		final String versionString = Controller.VERSION_PREFIX + "1.2.3";
+
+		HelloMessage helloMessage = new HelloMessage(timestamp, versionString, HelloMessage.CAPABILITY_COMPRESSION);
+		HelloMessage decodedMessage = (HelloMessage) Message.fromByteBuffer(ByteBuffer.wrap(helloMessage.toBytes()));
+		assertEquals(HelloMessage.CAPABILITY_COMPRESSION, decodedMessage.getCapabilities());
+		assertEquals(versionString, decodedMessage.getVersionString());
+
+		// Older peers' HELLO has no trailing capabilities
+		ByteArrayOutputStream oldHelloData = new ByteArrayOutputStream();
+		oldHelloData.write(Longs.toByteArray(timestamp));
+		Serialization.serializeSizedString(oldHelloData, versionString);
+
+		decodedMessage = (HelloMessage) HelloMessage.fromByteBuffer(-1, ByteBuffer.wrap(oldHelloData.toByteArray()));
+		assertEquals(timestamp, decodedMessage.getTimestamp());
+		assertEquals(versionString, decodedMessage.getVersionString());
+		assertEquals(0, decodedMessage.getCapabilities());
+	}
+
+	@Test
+	public void testCompressionNegotiation() throws DataException, MessageException {
+		final long timestamp = NTP.getTime();
+		final String versionString = Controller.VERSION_PREFIX + "1.2.3";
+
+		try (final Repository repository = RepositoryManager.getRepository()) {
+			Block block = mintCompressibleBlock(repository);
+
+			Message blockMessage = new BlockMessage(block);
+			blockMessage.setId(1234);
+
+			// Peer without compression capability, e.g. older peer
+			Peer oldPeer = newPeer();
+			assertEquals(Handshake.CHALLENGE, Handshake.HELLO.onMessage(oldPeer, new HelloMessage(timestamp, versionString, 0)));
+			assertFalse(oldPeer.isCompressionEnabled());
+			assertFalse(isCompressed(blockMessage.toBytes(oldPeer.isCompressionEnabled())));
+
+			// Peer with only other capabilities
+			Peer otherPeer = newPeer();
+			assertEquals(Handshake.CHALLENGE, Handshake.HELLO.onMessage(otherPeer, new HelloMessage(timestamp, versionString, HelloMessage.CAPABILITY_TRANSACTION_BATCHES)));
+			assertFalse(otherPeer.isCompressionEnabled());
+			assertFalse(isCompressed(blockMessage.toBytes(otherPeer.isCompressionEnabled())));
+
+			// Peer with compression capability
+			Peer newPeer = newPeer();
+			assertEquals(Handshake.CHALLENGE, Handshake.HELLO.onMessage(newPeer, new HelloMessage(timestamp, versionString, HelloMessage.CAPABILITY_COMPRESSION)));
+			assertTrue(newPeer.isCompressionEnabled());
+			assertTrue(isCompressed(blockMessage.toBytes(newPeer.isCompressionEnabled())));
+		}
+	}
+
+	private static Block mintCompressibleBlock(Repository repository) throws DataException {
+		PrivateKeyAccount alice = Common.getTestAccount(repository, "alice");
+
+		// Enough transactions to make block worth compressing
+		for (int i = 0; i < 20; ++i) {
+			TransactionData transactionData = TransactionUtils.randomTransaction(repository, alice, TransactionType.PAYMENT, true);
+			TransactionUtils.signAndImportValid(repository, transactionData, alice);
+		}
+
+		BlockUtils.mintBlock(repository);
+
+		BlockData blockData = repository.getBlockRepository().getLastBlock();
+		assertEquals(20, blockData.getTransactionCount());
+
+		return new Block(repository, blockData);
+	}
+
+	private static Peer newPeer() {
+		return new Peer(new PeerData(PeerAddress.fromString("127.0.0.1:12392")));
+	}
+
+	private static boolean isCompressed(byte[] messageBytes) {
+		return (messageBytes[FLAGS_OFFSET] & FLAG_COMPRESSED) != 0;
+	}
+
+	/** Returns copy of compressed message bytes with different declared uncompressed length, and correct checksum. */
+	private static byte[] withUncompressedLength(byte[] compressedBytes, int uncompressedLength) {
+		byte[] messageBytes = Arrays.copyOf(compressedBytes, compressedBytes.length);
+		System.arraycopy(Ints.toByteArray(uncompressedLength), 0, messageBytes, DATA_OFFSET, 4);
+
+		byte[] checksum = Arrays.copyOf(Crypto.digest(Arrays.copyOfRange(messageBytes, DATA_OFFSET, messageBytes.length)), 4);
+		System.arraycopy(checksum, 0, messageBytes, CHECKSUM_OFFSET, 4);
+
+		return messageBytes;
+	}
+
+	private static void assertNotDecodable(String failMessage, byte[] messageBytes) {
+		try {
+			Message.fromByteBuffer(ByteBuffer.wrap(messageBytes));
+			fail(failMessage);
+		} catch (MessageException e) {
+			// expected
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+package org.qortal.test.network;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.qortal.controller.Controller;
+import org.qortal.controller.TransactionRelay;
+import org.qortal.data.network.PeerData;
+import org.qortal.network.Handshake;
+import org.qortal.network.Peer;
+import org.qortal.network.PeerAddress;
+import org.qortal.network.message.GetTransactionMessage;
+import org.qortal.network.message.GetTransactionsMessage;
+import org.qortal.network.message.HelloMessage;
+import org.qortal.network.message.Message;
+import org.qortal.network.message.Message.MessageException;
+import org.qortal.network.message.Message.MessageType;
+import org.qortal.network.message.TransactionSignaturesMessage;
+import org.qortal.repository.DataException;
+import org.qortal.test.common.Common;
+import org.qortal.transform.Transformer;
+import org.qortal.utils.NTP;
+
+public class TransactionRelayTests extends Common {
+
+	/** Peer that records messages sent to it, instead of using network. */
+	private static class TestPeer extends Peer {
+		private final List<Message> sentMessages = new ArrayList<>();
+
+		private TestPeer(int capabilities) {
+			super(new PeerData(PeerAddress.fromString("127.0.0.1:12392")));
+
+			Handshake.HELLO.onMessage(this, new HelloMessage(NTP.getTime(), Controller.VERSION_PREFIX + "1.2.3", capabilities));
+		}
+
+		@Override
+		public synchronized boolean sendMessage(Message message) {
+			this.sentMessages.add(message);
+			return true;
+		}
+
+		private synchronized List<Message> takeSentMessages() {
+			List<Message> messages = new ArrayList<>(this.sentMessages);
+			this.sentMessages.clear();
+			return messages;
+		}
+	}
+
+	private final Random random = new Random();
+
+	@Before
+	public void beforeTest() throws DataException {
+		Common.useDefaultSettings();
+	}
+
+	@Test
+	public void testFlushPerPeer() {
+		List<Function<Peer, Message>> broadcasts = new ArrayList<>();
+		TransactionRelay transactionRelay = new TransactionRelay(broadcasts::add);
+
+		// Nothing to announce
+		transactionRelay.flush();
+		assertTrue(broadcasts.isEmpty());
+
+		TestPeer sourcePeer = new TestPeer(0);
+		TestPeer knowingPeer = new TestPeer(0);
+		TestPeer otherPeer1 = new TestPeer(0);
+		TestPeer otherPeer2 = new TestPeer(0);
+
+		byte[] signature1 = randomSignature();
+		byte[] signature2 = randomSignature();
+		byte[] signature3 = randomSignature();
+
+		transactionRelay.announce(signature1, sourcePeer);
+		transactionRelay.announce(signature2, sourcePeer);
+		transactionRelay.announce(signature3, null);
+
+		knowingPeer.addKnownTransactionSignature(signature1);
+
+		transactionRelay.flush();
+		assertEquals(1, broadcasts.size());
+		Function<Peer, Message> peerMessageBuilder = broadcasts.get(0);
+
+		// Source peer shouldn't be told about transactions it sent us
+		assertSignatures(Arrays.asList(signature3), peerMessageBuilder.apply(sourcePeer));
+
+		// Peer shouldn't be told about transactions it already knows
+		assertSignatures(Arrays.asList(signature2, signature3), peerMessageBuilder.apply(knowingPeer));
+
+		// Other peers need everything, so should share the same message
+		Message otherMessage1 = peerMessageBuilder.apply(otherPeer1);
+		assertSignatures(Arrays.asList(signature1, signature2, signature3), otherMessage1);
+		assertSame(otherMessage1, peerMessageBuilder.apply(otherPeer2));
+
+		// Peers now know about all announced transactions, so there's nothing more to send them
+		for (Peer peer : Arrays.asList(sourcePeer, knowingPeer, otherPeer1, otherPeer2))
+			assertNull(peerMessageBuilder.apply(peer));
+
+		// Announcements are only flushed once
+		transactionRelay.flush();
+		assertEquals(1, broadcasts.size());
+	}
+
+	@Test
+	public void testRequestDeduplication() {
+		TransactionRelay transactionRelay = new TransactionRelay(peerMessageBuilder -> fail("No announcements expected"));
+
+		TestPeer batchingPeer = new TestPeer(HelloMessage.CAPABILITY_TRANSACTION_BATCHES);
+		TestPeer legacyPeer = new TestPeer(0);
+
+		byte[] signature1 = randomSignature();
+		byte[] signature2 = randomSignature();
+		byte[] signature3 = randomSignature();
+
+		// Batching peer should be asked for both transactions in one request
+		transactionRelay.onTransactionSignatures(batchingPeer, Arrays.asList(signature1, signature2));
+		List<Message> sentMessages = batchingPeer.takeSentMessages();
+		assertEquals(1, sentMessages.size());
+		assertEquals(MessageType.GET_TRANSACTIONS, sentMessages.get(0).getType());
+		assertSignaturesEqual(Arrays.asList(signature1, signature2), ((GetTransactionsMessage) sentMessages.get(0)).getSignatures());
+
+		// Within request timeout, other peers should only be asked for transactions not already requested
+		transactionRelay.onTransactionSignatures(legacyPeer, Arrays.asList(signature1, signature2, signature3));
+		sentMessages = legacyPeer.takeSentMessages();
+		assertEquals(1, sentMessages.size());
+		assertEquals(MessageType.GET_TRANSACTION, sentMessages.get(0).getType());
+		assertArrayEquals(signature3, ((GetTransactionMessage) sentMessages.get(0)).getSignature());
+
+		// Same peer re-announcing shouldn't trigger another request either
+		transactionRelay.onTransactionSignatures(batchingPeer, Arrays.asList(signature1, signature2, signature3));
+		assertTrue(batchingPeer.takeSentMessages().isEmpty());
+
+		// Once a requested transaction arrives, without being imported, it can be requested again
+		transactionRelay.onTransactionReceived(batchingPeer, signature1);
+		transactionRelay.onTransactionSignatures(legacyPeer, Arrays.asList(signature1, signature2));
+		sentMessages = legacyPeer.takeSentMessages();
+		assertEquals(1, sentMessages.size());
+		assertArrayEquals(signature1, ((GetTransactionMessage) sentMessages.get(0)).getSignature());
+	}
+
+	@Test
+	public void testRequestBatching() {
+		TransactionRelay transactionRelay = new TransactionRelay(peerMessageBuilder -> fail("No announcements expected"));
+
+		TestPeer batchingPeer = new TestPeer(HelloMessage.CAPABILITY_TRANSACTION_BATCHES);
+
+		final int signatureCount = GetTransactionsMessage.MAX_SIGNATURES + 50;
+		List<byte[]> signatures = new ArrayList<>();
+		for (int i = 0; i < signatureCount; ++i)
+			signatures.add(randomSignature());
+
+		transactionRelay.onTransactionSignatures(batchingPeer, signatures);
+
+		List<Message> sentMessages = batchingPeer.takeSentMessages();
+		assertEquals(2, sentMessages.size());
+		assertEquals(GetTransactionsMessage.MAX_SIGNATURES, ((GetTransactionsMessage) sentMessages.get(0)).getSignatures().size());
+		assertEquals(50, ((GetTransactionsMessage) sentMessages.get(1)).getSignatures().size());
+	}
+
+	@Test
+	public void testPendingRequestsLimit() {
+		TransactionRelay transactionRelay = new TransactionRelay(peerMessageBuilder -> fail("No announcements expected"));
+
+		TestPeer batchingPeer = new TestPeer(HelloMessage.CAPABILITY_TRANSACTION_BATCHES);
+		TestPeer legacyPeer = new TestPeer(0);
+
+		// Fill pending requests with requests that haven't timed out
+		List<byte[]> signatures = new ArrayList<>();
+		for (int i = 0; i < TransactionRelay.MAX_PENDING_REQUESTS; ++i)
+			signatures.add(randomSignature());
+
+		transactionRelay.onTransactionSignatures(batchingPeer, signatures);
+		batchingPeer.takeSentMessages();
+
+		// One more request should cause oldest request to be forgotten
+		byte[] newestSignature = randomSignature();
+		transactionRelay.onTransactionSignatures(batchingPeer, Arrays.asList(newestSignature));
+		batchingPeer.takeSentMessages();
+
+		// So only oldest transaction can be requested from another peer
+		transactionRelay.onTransactionSignatures(legacyPeer, Arrays.asList(signatures.get(0), signatures.get(1), newestSignature));
+		List<Message> sentMessages = legacyPeer.takeSentMessages();
+		assertEquals(1, sentMessages.size());
+		assertArrayEquals(signatures.get(0), ((GetTransactionMessage) sentMessages.get(0)).getSignature());
+	}
+
+	@Test
+	public void testGetTransactionsMessage() throws MessageException {
+		List<byte[]> signatures = new ArrayList<>();
+		for (int i = 0; i < GetTransactionsMessage.MAX_SIGNATURES; ++i)
+			signatures.add(randomSignature());
+
+		Message message = new GetTransactionsMessage(signatures);
+		message.setId(1234);
+
+		GetTransactionsMessage decodedMessage = (GetTransactionsMessage) Message.fromByteBuffer(ByteBuffer.wrap(message.toBytes()));
+		assertEquals(1234, decodedMessage.getId());
+		assertSignaturesEqual(signatures, decodedMessage.getSignatures());
+
+		// Requests for too many transactions should be rejected
+		signatures.add(randomSignature());
+		message = new GetTransactionsMessage(signatures);
+		message.setId(1234);
+
+		assertNull(Message.fromByteBuffer(ByteBuffer.wrap(message.toBytes())));
+	}
+
+	private byte[] randomSignature() {
+		byte[] signature = new byte[Transformer.SIGNATURE_LENGTH];
+		this.random.nextBytes(signature);
+		return signature;
+	}
+
+	private static void assertSignatures(List<byte[]> expectedSignatures, Message message) {
+		assertNotNull(message);
+		assertEquals(MessageType.TRANSACTION_SIGNATURES, message.getType());
+		assertSignaturesEqual(expectedSignatures, ((TransactionSignaturesMessage) message).getSignatures());
+	}
+
+	private static void assertSignaturesEqual(List<byte[]> expectedSignatures, List<byte[]> actualSignatures) {
+		assertEquals(toStrings(expectedSignatures), toStrings(actualSignatures));
+	}
+
+	private static List<String> toStrings(List<byte[]> signatures) {
+		return signatures.stream().map(Arrays::toString).collect(Collectors.toList());
+	}
+
+}